@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.crypto;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * <p>Random number generator benchmark. Several threads share one random
+ * number generator and each request an AES IV's worth of random bytes, as
+ * {@link SymmetricCryptoContext#encrypt(byte[])} does for every message.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class RandomSourceBenchmark {
+    /** AES IV size in bytes. */
+    private static final int IV_SIZE = 16;
+
+    /** Random number generator: SecureRandom or RandomSource. */
+    @Param({"SecureRandom", "RandomSource"})
+    public String generator;
+
+    /** Shared random number generator. */
+    private Random random;
+
+    @Setup
+    public void setup() {
+        random = ("RandomSource".equals(generator)) ? new RandomSource() : new SecureRandom();
+    }
+
+    /**
+     * @return a new IV.
+     */
+    @Benchmark
+    public byte[] iv() {
+        final byte[] iv = new byte[IV_SIZE];
+        random.nextBytes(iv);
+        return iv;
+    }
+}
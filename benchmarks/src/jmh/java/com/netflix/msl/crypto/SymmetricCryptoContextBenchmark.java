@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.crypto;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * <p>Symmetric crypto context benchmarks.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SymmetricCryptoContextBenchmark {
+    /** Wrapped key data size in bytes. */
+    private static final int KEY_SIZE = 16;
+
+    /** Plaintext size in bytes. */
+    @Param({"32", "1024", "16384"})
+    public int dataSize;
+
+    /** Symmetric crypto context. */
+    private ICryptoContext cryptoContext;
+    /** Plaintext. */
+    private byte[] plaintext;
+    /** Ciphertext of the plaintext. */
+    private byte[] ciphertext;
+    /** Signature of the plaintext. */
+    private byte[] signature;
+    /** Key data. */
+    private byte[] keydata;
+    /** Wrapped key data. */
+    private byte[] wrapped;
+
+    @Setup
+    public void setup() throws MslEncodingException, MslCryptoException {
+        final MockMslContext ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        final Random random = new Random();
+        final byte[] encryptionBytes = new byte[16];
+        final byte[] hmacBytes = new byte[32];
+        final byte[] wrappingBytes = new byte[16];
+        random.nextBytes(encryptionBytes);
+        random.nextBytes(hmacBytes);
+        random.nextBytes(wrappingBytes);
+        final SecretKey encryptionKey = new SecretKeySpec(encryptionBytes, JcaAlgorithm.AES);
+        final SecretKey hmacKey = new SecretKeySpec(hmacBytes, JcaAlgorithm.HMAC_SHA256);
+        final SecretKey wrappingKey = new SecretKeySpec(wrappingBytes, JcaAlgorithm.AESKW);
+        cryptoContext = new SymmetricCryptoContext(ctx, "benchmark", encryptionKey, hmacKey, wrappingKey);
+
+        plaintext = new byte[dataSize];
+        random.nextBytes(plaintext);
+        ciphertext = cryptoContext.encrypt(plaintext);
+        signature = cryptoContext.sign(plaintext);
+        keydata = new byte[KEY_SIZE];
+        random.nextBytes(keydata);
+        wrapped = cryptoContext.wrap(keydata);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws MslCryptoException {
+        return cryptoContext.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws MslCryptoException {
+        return cryptoContext.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public byte[] sign() throws MslCryptoException {
+        return cryptoContext.sign(plaintext);
+    }
+
+    @Benchmark
+    public boolean verify() throws MslCryptoException {
+        return cryptoContext.verify(plaintext, signature);
+    }
+
+    @Benchmark
+    public byte[] wrap() throws MslCryptoException {
+        return cryptoContext.wrap(keydata);
+    }
+
+    @Benchmark
+    public byte[] unwrap() throws MslCryptoException {
+        return cryptoContext.unwrap(wrapped);
+    }
+}
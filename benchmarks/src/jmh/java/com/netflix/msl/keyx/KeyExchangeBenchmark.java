@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.keyx;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.interfaces.DHPrivateKey;
+import javax.crypto.interfaces.DHPublicKey;
+import javax.crypto.spec.DHParameterSpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.entityauth.EntityAuthenticationData;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.keyx.KeyExchangeFactory.KeyExchangeData;
+import com.netflix.msl.keyx.SymmetricWrappedExchange.KeyId;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.util.AuthenticationUtils;
+import com.netflix.msl.util.MockAuthenticationUtils;
+import com.netflix.msl.util.MockMslContext;
+import com.netflix.msl.util.MslTestUtils;
+
+/**
+ * <p>Key exchange response generation benchmarks. Responses are generated
+ * for both the initial entity authentication case and the master token
+ * renewal case.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyExchangeBenchmark {
+    /** RSA key pair ID. */
+    private static final String RSA_KEYPAIR_ID = "rsaKeypairId";
+
+    /** Key exchange scheme name. */
+    @Param({"ASYMMETRIC_WRAPPED", "SYMMETRIC_WRAPPED", "DIFFIE_HELLMAN", "JWE_LADDER", "JWK_LADDER"})
+    public String scheme;
+
+    /** MSL context. */
+    private MockMslContext ctx;
+    /** Key exchange factory. */
+    private KeyExchangeFactory factory;
+    /** Key request data. */
+    private KeyRequestData request;
+    /** Entity authentication data. */
+    private EntityAuthenticationData entityAuthData;
+    /** Master token. */
+    private MasterToken masterToken;
+
+    @Setup
+    public void setup() throws MslException, GeneralSecurityException {
+        Security.addProvider(new BouncyCastleProvider());
+
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        final AuthenticationUtils authutils = new MockAuthenticationUtils();
+        ctx.addKeyExchangeFactory(new JsonWebEncryptionLadderExchange(new MockCryptoContextRepository(), authutils));
+        ctx.addKeyExchangeFactory(new JsonWebKeyLadderExchange(new MockCryptoContextRepository(), authutils));
+        entityAuthData = ctx.getEntityAuthenticationData(null);
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+
+        final KeyExchangeScheme keyxScheme = KeyExchangeScheme.getScheme(scheme);
+        factory = ctx.getKeyExchangeFactory(keyxScheme);
+        if (KeyExchangeScheme.ASYMMETRIC_WRAPPED.equals(keyxScheme)) {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            final KeyPair keyPair = generator.generateKeyPair();
+            request = new AsymmetricWrappedExchange.RequestData(RSA_KEYPAIR_ID, AsymmetricWrappedExchange.RequestData.Mechanism.RSA, keyPair.getPublic(), keyPair.getPrivate());
+        } else if (KeyExchangeScheme.SYMMETRIC_WRAPPED.equals(keyxScheme)) {
+            request = new SymmetricWrappedExchange.RequestData(KeyId.PSK);
+        } else if (KeyExchangeScheme.DIFFIE_HELLMAN.equals(keyxScheme)) {
+            final DiffieHellmanParameters params = MockDiffieHellmanParameters.getDefaultParameters();
+            final DHParameterSpec paramSpec = params.getParameterSpec(MockDiffieHellmanParameters.DEFAULT_ID);
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("DH");
+            generator.initialize(paramSpec);
+            final KeyPair keyPair = generator.generateKeyPair();
+            final BigInteger publicKey = ((DHPublicKey)keyPair.getPublic()).getY();
+            request = new DiffieHellmanExchange.RequestData(MockDiffieHellmanParameters.DEFAULT_ID, publicKey, (DHPrivateKey)keyPair.getPrivate());
+        } else if (KeyExchangeScheme.JWE_LADDER.equals(keyxScheme)) {
+            request = new JsonWebEncryptionLadderExchange.RequestData(JsonWebEncryptionLadderExchange.Mechanism.PSK, null);
+        } else if (KeyExchangeScheme.JWK_LADDER.equals(keyxScheme)) {
+            request = new JsonWebKeyLadderExchange.RequestData(JsonWebKeyLadderExchange.Mechanism.PSK, null);
+        } else {
+            throw new IllegalArgumentException("Unsupported key exchange scheme " + scheme + ".");
+        }
+    }
+
+    /**
+     * Generate key response data for an entity authenticated request.
+     *
+     * @return the key exchange data.
+     * @throws MslException if there is an error generating the response.
+     */
+    @Benchmark
+    public KeyExchangeData generateInitialResponse() throws MslException {
+        return factory.generateResponse(ctx, request, entityAuthData);
+    }
+
+    /**
+     * Generate key response data for a master token authenticated request.
+     *
+     * @return the key exchange data.
+     * @throws MslException if there is an error generating the response.
+     */
+    @Benchmark
+    public KeyExchangeData generateRenewalResponse() throws MslException {
+        return factory.generateResponse(ctx, request, masterToken);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * <p>Error response benchmarks under an error storm. Several threads build
+ * and encode the same error response concurrently, either for a replayed
+ * request (the same request message ID each time) or for distinct requests
+ * (a new request message ID each time). Each is measured building a new
+ * error header directly and through an {@link ErrorResponseCache}.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class ErrorResponseBenchmark {
+    /** Recipient. */
+    private static final String RECIPIENT = "recipient";
+    /** Replayed request message ID. */
+    private static final Long REQUEST_MESSAGE_ID = Long.valueOf(42);
+    /** Error. */
+    private static final MslError ERROR = MslError.MESSAGE_REPLAYED;
+
+    /**
+     * Error message registry returning the same user message for every
+     * error.
+     */
+    private static class StaticMessageRegistry implements ErrorMessageRegistry {
+        @Override
+        public String getUserMessage(final MslError err, final List<String> languages) {
+            return "Please try again later.";
+        }
+
+        @Override
+        public String getUserMessage(final Throwable err, final List<String> languages) {
+            return null;
+        }
+    }
+
+    /** Entity authentication scheme name. */
+    @Param({"PSK", "RSA"})
+    public String scheme;
+
+    /** MSL context. */
+    private MockMslContext ctx;
+    /** Error message registry. */
+    private ErrorMessageRegistry registry;
+    /** Error response cache. */
+    private ErrorResponseCache cache;
+    /** Distinct request message IDs. */
+    private final AtomicLong messageIds = new AtomicLong();
+
+    @Setup
+    public void setup() throws MslException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.getScheme(scheme), false);
+        registry = new StaticMessageRegistry();
+        cache = new ErrorResponseCache();
+    }
+
+    /**
+     * Build and encode a new error response to a replayed request.
+     *
+     * @return the encoded error header.
+     * @throws MslException if there is an error building the error header.
+     */
+    @Benchmark
+    public String replayedBuilt() throws MslException {
+        final String userMessage = registry.getUserMessage(ERROR, null);
+        return MessageBuilder.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, ERROR, userMessage).toJSONString();
+    }
+
+    /**
+     * Return and encode a cached error response to a replayed request.
+     *
+     * @return the encoded error header.
+     * @throws MslException if there is an error building the error header.
+     */
+    @Benchmark
+    public String replayedCached() throws MslException {
+        final String userMessage = registry.getUserMessage(ERROR, null);
+        return cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, ERROR, userMessage).toJSONString();
+    }
+
+    /**
+     * Build and encode a new error response to a distinct request.
+     *
+     * @return the encoded error header.
+     * @throws MslException if there is an error building the error header.
+     */
+    @Benchmark
+    public String distinctBuilt() throws MslException {
+        final String userMessage = registry.getUserMessage(ERROR, null);
+        return MessageBuilder.createErrorResponse(ctx, RECIPIENT, messageIds.incrementAndGet(), ERROR, userMessage).toJSONString();
+    }
+
+    /**
+     * Build and encode an error response to a distinct request through the
+     * error response cache, which cannot reuse the error header.
+     *
+     * @return the encoded error header.
+     * @throws MslException if there is an error building the error header.
+     */
+    @Benchmark
+    public String distinctCached() throws MslException {
+        final String userMessage = registry.getUserMessage(ERROR, null);
+        return cache.createErrorResponse(ctx, RECIPIENT, messageIds.incrementAndGet(), ERROR, userMessage).toJSONString();
+    }
+}
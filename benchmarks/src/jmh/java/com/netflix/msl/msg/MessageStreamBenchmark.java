@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.keyx.KeyRequestData;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.util.MockMslContext;
+import com.netflix.msl.util.MslTestUtils;
+
+/**
+ * <p>Message output stream and message input stream benchmarks. A single
+ * encrypted and integrity protected application payload of the configured
+ * size is written to or read from memory.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageStreamBenchmark {
+    /** No key request data. */
+    private static final Set<KeyRequestData> KEY_REQUEST_DATA = Collections.emptySet();
+    /** No service token crypto contexts. */
+    private static final Map<String,ICryptoContext> CRYPTO_CONTEXTS = Collections.emptyMap();
+
+    /** Application payload size in bytes. */
+    @Param({"0", "1024", "16384", "262144"})
+    public int payloadSize;
+
+    /** MSL context. */
+    private MockMslContext ctx;
+    /** Message header. */
+    private MessageHeader header;
+    /** Payload crypto context. */
+    private ICryptoContext cryptoContext;
+    /** Application data. */
+    private byte[] data;
+    /** Encoded MSL message. */
+    private byte[] message;
+    /** Application data read buffer. */
+    private byte[] buffer;
+
+    @Setup
+    public void setup() throws MslException, IOException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        final MasterToken masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        final MessageBuilder builder = MessageBuilder.createRequest(ctx, masterToken, null, null);
+        header = builder.getHeader();
+        cryptoContext = header.getCryptoContext();
+
+        data = new byte[payloadSize];
+        new Random().nextBytes(data);
+        message = write();
+        buffer = new byte[Math.max(payloadSize, 1)];
+    }
+
+    /**
+     * Encode a message containing the application data.
+     *
+     * @return the encoded message.
+     * @throws IOException if there is an error writing the message.
+     */
+    @Benchmark
+    public byte[] write() throws IOException {
+        final ByteArrayOutputStream destination = new ByteArrayOutputStream(payloadSize + 4096);
+        final MessageOutputStream mos = new MessageOutputStream(ctx, destination, MslConstants.DEFAULT_CHARSET, header, cryptoContext);
+        mos.write(data);
+        mos.close();
+        return destination.toByteArray();
+    }
+
+    /**
+     * Parse a message and read all of its application data.
+     *
+     * @return the number of application data bytes read.
+     * @throws MslException if there is an error parsing the message header.
+     * @throws IOException if there is an error reading the message.
+     */
+    @Benchmark
+    public int read() throws MslException, IOException {
+        return read(message);
+    }
+
+    /**
+     * Encode a message and then parse it and read all of its application
+     * data.
+     *
+     * @return the number of application data bytes read.
+     * @throws MslException if there is an error parsing the message header.
+     * @throws IOException if there is an error writing or reading the
+     *         message.
+     */
+    @Benchmark
+    public int roundTrip() throws MslException, IOException {
+        return read(write());
+    }
+
+    /**
+     * Parse the provided message and read all of its application data.
+     *
+     * @param encoded encoded message.
+     * @return the number of application data bytes read.
+     * @throws MslException if there is an error parsing the message header.
+     * @throws IOException if there is an error reading the message.
+     */
+    private int read(final byte[] encoded) throws MslException, IOException {
+        final ByteArrayInputStream source = new ByteArrayInputStream(encoded);
+        final MessageInputStream mis = new MessageInputStream(ctx, source, MslConstants.DEFAULT_CHARSET, KEY_REQUEST_DATA, CRYPTO_CONTEXTS);
+        int total = 0;
+        try {
+            do {
+                final int read = mis.read(buffer);
+                if (read == -1) break;
+                total += read;
+            } while (true);
+        } finally {
+            mis.close();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.load.LoadClient;
+import com.netflix.msl.load.LoadServer;
+import com.netflix.msl.load.PipedUrl;
+
+/**
+ * <p>Trusted network {@link MslControl} request/respond benchmark over in-
+ * memory pipes. Each benchmark invocation opens a new piped connection to a
+ * local server which receives the request, reads its application data, and
+ * responds with application data of the same size.</p>
+ *
+ * <p>The first request performs key exchange during setup so the measured
+ * exchanges use the established master token.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MslControlBenchmark {
+    /** Master token renewal offset in milliseconds. */
+    private static final long RENEWAL_OFFSET = 60000;
+
+    /** Application data size in bytes. */
+    @Param({"32", "1024", "16384"})
+    public int payloadSize;
+
+    /** Server connection executor. */
+    private ExecutorService serverExecutor;
+    /** Server. */
+    private LoadServer server;
+    /** Client. */
+    private LoadClient client;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, MslException, IOException, InterruptedException, ExecutionException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = new LoadServer(payloadSize, true, true, RENEWAL_OFFSET);
+        client = new LoadClient(new PipedUrl(server, serverExecutor), payloadSize, true, true, null);
+
+        // Establish the master token.
+        request();
+    }
+
+    @TearDown
+    public void teardown() {
+        client.shutdown();
+        server.shutdown();
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Send a request and read the response application data.
+     *
+     * @return the number of response application data bytes read.
+     * @throws InterruptedException if interrupted.
+     * @throws ExecutionException if the request fails.
+     * @throws IOException if there is an error reading the response.
+     */
+    @Benchmark
+    public int request() throws InterruptedException, ExecutionException, IOException {
+        return client.request();
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.tokens;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.msl.MslConstants.CompressionAlgorithm;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.JcaAlgorithm;
+import com.netflix.msl.crypto.SymmetricCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.util.MockMslContext;
+import com.netflix.msl.util.MslTestUtils;
+
+/**
+ * <p>Master token, user ID token, and service token parse and encode
+ * benchmarks. Parsing includes signature verification and decryption of the
+ * token data.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenBenchmark {
+    /** Service token name. */
+    private static final String SERVICE_TOKEN_NAME = "benchmark";
+    /** Service token data size in bytes. */
+    private static final int SERVICE_TOKEN_DATA_SIZE = 256;
+
+    /** MSL context. */
+    private MockMslContext ctx;
+    /** Service token crypto context. */
+    private ICryptoContext serviceTokenCryptoContext;
+
+    /** Master token. */
+    private MasterToken masterToken;
+    /** User ID token. */
+    private UserIdToken userIdToken;
+    /** Service token. */
+    private ServiceToken serviceToken;
+
+    /** Master token JSON. */
+    private String masterTokenJson;
+    /** User ID token JSON. */
+    private String userIdTokenJson;
+    /** Service token JSON. */
+    private String serviceTokenJson;
+
+    @Setup
+    public void setup() throws MslException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        final Random random = new Random();
+        final byte[] encryptionBytes = new byte[16];
+        final byte[] hmacBytes = new byte[32];
+        random.nextBytes(encryptionBytes);
+        random.nextBytes(hmacBytes);
+        final SecretKey encryptionKey = new SecretKeySpec(encryptionBytes, JcaAlgorithm.AES);
+        final SecretKey hmacKey = new SecretKeySpec(hmacBytes, JcaAlgorithm.HMAC_SHA256);
+        serviceTokenCryptoContext = new SymmetricCryptoContext(ctx, SERVICE_TOKEN_NAME, encryptionKey, hmacKey, null);
+
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        userIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 1, new MockMslUser(1));
+        final byte[] data = new byte[SERVICE_TOKEN_DATA_SIZE];
+        random.nextBytes(data);
+        serviceToken = new ServiceToken(ctx, SERVICE_TOKEN_NAME, data, masterToken, userIdToken, true, CompressionAlgorithm.GZIP, serviceTokenCryptoContext);
+
+        masterTokenJson = masterToken.toJSONString();
+        userIdTokenJson = userIdToken.toJSONString();
+        serviceTokenJson = serviceToken.toJSONString();
+    }
+
+    @Benchmark
+    public String encodeMasterToken() {
+        return masterToken.toJSONString();
+    }
+
+    @Benchmark
+    public MasterToken parseMasterToken() throws MslException {
+        return new MasterToken(ctx, new JSONObject(masterTokenJson));
+    }
+
+    @Benchmark
+    public String encodeUserIdToken() {
+        return userIdToken.toJSONString();
+    }
+
+    @Benchmark
+    public UserIdToken parseUserIdToken() throws MslException {
+        return new UserIdToken(ctx, new JSONObject(userIdTokenJson), masterToken);
+    }
+
+    @Benchmark
+    public String encodeServiceToken() {
+        return serviceToken.toJSONString();
+    }
+
+    @Benchmark
+    public ServiceToken parseServiceToken() throws MslException {
+        return new ServiceToken(ctx, new JSONObject(serviceTokenJson), masterToken, userIdToken, serviceTokenCryptoContext);
+    }
+}
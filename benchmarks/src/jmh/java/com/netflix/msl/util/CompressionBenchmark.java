@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslConstants.CompressionAlgorithm;
+import com.netflix.msl.MslException;
+
+/**
+ * <p>{@link MslUtils#compress(CompressionAlgorithm, byte[])} and
+ * {@link MslUtils#uncompress(CompressionAlgorithm, byte[])} benchmarks. The
+ * input is compressible text built from a small vocabulary.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+    /** Text vocabulary. */
+    private static final String[] WORDS = {
+        "message", "security", "layer", "master", "token", "user", "service",
+        "entity", "authentication", "key", "exchange", "payload", "chunk",
+        "{", "}", "\"", ":", ",", "0", "1", "true", "false",
+    };
+
+    /** Compression algorithm. */
+    @Param({"GZIP", "LZW"})
+    public CompressionAlgorithm algo;
+    /** Uncompressed data size in bytes. */
+    @Param({"1024", "16384", "262144"})
+    public int dataSize;
+
+    /** Uncompressed data. */
+    private byte[] data;
+    /** Compressed data. */
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws MslException {
+        final Random random = new Random(dataSize);
+        final StringBuilder sb = new StringBuilder(dataSize + 32);
+        while (sb.length() < dataSize)
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        sb.setLength(dataSize);
+        data = sb.toString().getBytes(MslConstants.DEFAULT_CHARSET);
+        compressed = MslUtils.compress(algo, data);
+    }
+
+    @Benchmark
+    public byte[] compress() throws MslException {
+        return MslUtils.compress(algo, data);
+    }
+
+    @Benchmark
+    public byte[] uncompress() throws MslException {
+        return MslUtils.uncompress(algo, compressed);
+    }
+}
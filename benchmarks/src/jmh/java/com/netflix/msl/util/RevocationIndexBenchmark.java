@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * <p>{@link RevocationIndex} query benchmarks. The index is populated with
+ * revoked entity identities and master token serial numbers, and queried for
+ * both revoked and non-revoked values.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RevocationIndexBenchmark {
+    /** Number of revoked values of each type. */
+    @Param({"1000", "1000000"})
+    public int revoked;
+
+    /** Revocation index. */
+    private RevocationIndex index;
+    /** Query counter. */
+    private long counter = 0;
+
+    @Setup
+    public void setup() {
+        index = new RevocationIndex();
+        for (int i = 0; i < revoked; ++i) {
+            index.revokeEntity("revoked" + i);
+            index.revokeMasterToken(i);
+        }
+    }
+
+    @Benchmark
+    public boolean entityNotRevoked() {
+        return index.isEntityRevoked("entity");
+    }
+
+    @Benchmark
+    public boolean entityRevoked() {
+        return index.isEntityRevoked("revoked0");
+    }
+
+    @Benchmark
+    public boolean masterTokenNotRevoked() {
+        return index.isMasterTokenRevoked(revoked + (counter++ & 0xffff));
+    }
+
+    @Benchmark
+    public boolean masterTokenRevoked() {
+        return index.isMasterTokenRevoked(counter++ % revoked);
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.JcaAlgorithm;
+import com.netflix.msl.crypto.SymmetricCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.io.Url;
+import com.netflix.msl.keyx.BoundedWrapCryptoContextRepository;
+import com.netflix.msl.keyx.JsonWebEncryptionLadderExchange;
+import com.netflix.msl.keyx.JsonWebKeyLadderExchange;
+import com.netflix.msl.keyx.KeyExchangeScheme;
+import com.netflix.msl.msg.MessageContext;
+import com.netflix.msl.msg.MslControl;
+import com.netflix.msl.msg.MslControl.MslChannel;
+import com.netflix.msl.util.MockAuthenticationUtils;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * <p>A trusted network MSL client that sends a fixed block of application
+ * data and reads the response application data.</p>
+ *
+ * <p>All requests issued by a client share its MSL context and therefore
+ * its master token, which is the expected configuration for a single
+ * device or service instance.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class LoadClient {
+    /** Renewal lock acquisition timeout in milliseconds. */
+    private static final int TIMEOUT = 30000;
+
+    /**
+     * Create a new load client.
+     *
+     * @param url server URL.
+     * @param requestSize request application data size in bytes.
+     * @param encrypted true if requests must be encrypted.
+     * @param integrityProtected true if requests must be integrity
+     *        protected.
+     * @param scheme key exchange scheme. May be {@code null} to use the
+     *        default key request data.
+     * @throws GeneralSecurityException if there is an error creating the
+     *         message context.
+     * @throws MslException if there is an error creating the MSL context or
+     *         message context.
+     */
+    public LoadClient(final Url url, final int requestSize, final boolean encrypted, final boolean integrityProtected, final KeyExchangeScheme scheme) throws GeneralSecurityException, MslException {
+        // The client must not be able to decrypt the server's master tokens.
+        final MockMslContext ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        final Random random = new Random();
+        final byte[] mslEncryptionKey = new byte[16];
+        final byte[] mslHmacKey = new byte[32];
+        random.nextBytes(mslEncryptionKey);
+        random.nextBytes(mslHmacKey);
+        final SecretKey encryptionKey = new SecretKeySpec(mslEncryptionKey, JcaAlgorithm.AES);
+        final SecretKey hmacKey = new SecretKeySpec(mslHmacKey, JcaAlgorithm.HMAC_SHA256);
+        ctx.setMslCryptoContext(new SymmetricCryptoContext(ctx, "ClientMslKeys", encryptionKey, hmacKey, null));
+        final MockAuthenticationUtils authutils = new MockAuthenticationUtils();
+        ctx.addKeyExchangeFactory(new JsonWebEncryptionLadderExchange(new BoundedWrapCryptoContextRepository(ctx), authutils));
+        ctx.addKeyExchangeFactory(new JsonWebKeyLadderExchange(new BoundedWrapCryptoContextRepository(ctx), authutils));
+        this.ctx = ctx;
+        this.ctrl = new MslControl(0);
+        this.url = url;
+
+        final byte[] requestData = new byte[requestSize];
+        random.nextBytes(requestData);
+        this.msgCtx = new LoadMessageContext(ctx, requestData, encrypted, integrityProtected, scheme);
+    }
+
+    /**
+     * Send a request and read the response application data. The request is
+     * executed on the calling thread.
+     *
+     * @return the number of response application data bytes read.
+     * @throws InterruptedException if interrupted.
+     * @throws ExecutionException if the request fails.
+     * @throws IOException if the request was cancelled, an error response
+     *         was received, or there is an error reading the response.
+     */
+    public int request() throws InterruptedException, ExecutionException, IOException {
+        final MslChannel channel = ctrl.request(ctx, msgCtx, url, TIMEOUT).get();
+        if (channel == null)
+            throw new IOException("Request was cancelled.");
+        if (channel.input.getErrorHeader() != null) {
+            final String errorCode = channel.input.getErrorHeader().getErrorCode().toString();
+            channel.input.close();
+            throw new IOException("Received error response " + errorCode + ".");
+        }
+        return LoadServer.drain(channel.input);
+    }
+
+    /**
+     * Shutdown the client's MSL control.
+     */
+    public void shutdown() {
+        ctrl.shutdown();
+    }
+
+    /** MSL context. */
+    private final MockMslContext ctx;
+    /** MSL control. */
+    private final MslControl ctrl;
+    /** Server URL. */
+    private final Url url;
+    /** Request message context. */
+    private final MessageContext msgCtx;
+}
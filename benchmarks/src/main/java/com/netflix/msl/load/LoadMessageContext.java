@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+
+import javax.crypto.interfaces.DHPrivateKey;
+import javax.crypto.interfaces.DHPublicKey;
+import javax.crypto.spec.DHParameterSpec;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslKeyExchangeException;
+import com.netflix.msl.keyx.AsymmetricWrappedExchange;
+import com.netflix.msl.keyx.DiffieHellmanExchange;
+import com.netflix.msl.keyx.DiffieHellmanParameters;
+import com.netflix.msl.keyx.JsonWebEncryptionLadderExchange;
+import com.netflix.msl.keyx.JsonWebKeyLadderExchange;
+import com.netflix.msl.keyx.KeyExchangeScheme;
+import com.netflix.msl.keyx.KeyRequestData;
+import com.netflix.msl.keyx.MockDiffieHellmanParameters;
+import com.netflix.msl.keyx.SymmetricWrappedExchange;
+import com.netflix.msl.keyx.SymmetricWrappedExchange.KeyId;
+import com.netflix.msl.msg.MessageOutputStream;
+import com.netflix.msl.msg.MockMessageContext;
+import com.netflix.msl.userauth.UserAuthenticationScheme;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>A message context that writes a fixed block of application data and
+ * then closes the message output stream.</p>
+ *
+ * <p>If a key exchange scheme is specified then the key request data will
+ * only contain request data for that scheme.</p>
+ *
+ * <p>The application data is never modified so a single instance may be
+ * shared by many concurrent requests.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class LoadMessageContext extends MockMessageContext {
+    /** RSA key pair ID. */
+    private static final String RSA_KEYPAIR_ID = "rsaKeypairId";
+
+    /**
+     * Create a new load message context.
+     *
+     * @param ctx MSL context.
+     * @param data application data.
+     * @param encrypted true if the message must be encrypted.
+     * @param integrityProtected true if the message must be integrity
+     *        protected.
+     * @param scheme key exchange scheme. May be {@code null} to use the
+     *        default key request data.
+     * @throws GeneralSecurityException if there is an error generating the
+     *         key request data.
+     * @throws MslException if there is an error creating the service token
+     *         crypto contexts or key request data.
+     */
+    public LoadMessageContext(final MslContext ctx, final byte[] data, final boolean encrypted, final boolean integrityProtected, final KeyExchangeScheme scheme) throws GeneralSecurityException, MslException {
+        super(ctx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+        this.data = data;
+        setEncrypted(encrypted);
+        setIntegrityProtected(integrityProtected);
+        if (scheme != null)
+            setKeyRequestData(Collections.singleton(getKeyRequestData(scheme)));
+    }
+
+    /**
+     * Return new key request data for the specified key exchange scheme.
+     *
+     * @param scheme key exchange scheme.
+     * @return the key request data.
+     * @throws GeneralSecurityException if there is an error generating the
+     *         request key pair.
+     * @throws MslKeyExchangeException if the Diffie-Hellman parameters are
+     *         not found.
+     * @throws IllegalArgumentException if the scheme is not supported.
+     */
+    private static KeyRequestData getKeyRequestData(final KeyExchangeScheme scheme) throws GeneralSecurityException, MslKeyExchangeException {
+        if (KeyExchangeScheme.ASYMMETRIC_WRAPPED.equals(scheme)) {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            final KeyPair keyPair = generator.generateKeyPair();
+            return new AsymmetricWrappedExchange.RequestData(RSA_KEYPAIR_ID, AsymmetricWrappedExchange.RequestData.Mechanism.RSA, keyPair.getPublic(), keyPair.getPrivate());
+        } else if (KeyExchangeScheme.SYMMETRIC_WRAPPED.equals(scheme)) {
+            return new SymmetricWrappedExchange.RequestData(KeyId.PSK);
+        } else if (KeyExchangeScheme.DIFFIE_HELLMAN.equals(scheme)) {
+            final DiffieHellmanParameters params = MockDiffieHellmanParameters.getDefaultParameters();
+            final DHParameterSpec paramSpec = params.getParameterSpec(MockDiffieHellmanParameters.DEFAULT_ID);
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("DH");
+            generator.initialize(paramSpec);
+            final KeyPair keyPair = generator.generateKeyPair();
+            final BigInteger publicKey = ((DHPublicKey)keyPair.getPublic()).getY();
+            return new DiffieHellmanExchange.RequestData(MockDiffieHellmanParameters.DEFAULT_ID, publicKey, (DHPrivateKey)keyPair.getPrivate());
+        } else if (KeyExchangeScheme.JWE_LADDER.equals(scheme)) {
+            return new JsonWebEncryptionLadderExchange.RequestData(JsonWebEncryptionLadderExchange.Mechanism.PSK, null);
+        } else if (KeyExchangeScheme.JWK_LADDER.equals(scheme)) {
+            return new JsonWebKeyLadderExchange.RequestData(JsonWebKeyLadderExchange.Mechanism.PSK, null);
+        }
+        throw new IllegalArgumentException("Unsupported key exchange scheme " + scheme + ".");
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MockMessageContext#write(com.netflix.msl.msg.MessageOutputStream)
+     */
+    @Override
+    public void write(final MessageOutputStream output) throws IOException {
+        output.write(data);
+        output.close();
+    }
+
+    /** Application data. */
+    private final byte[] data;
+}
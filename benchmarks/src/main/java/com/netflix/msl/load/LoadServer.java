@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.keyx.JsonWebEncryptionLadderExchange;
+import com.netflix.msl.keyx.JsonWebKeyLadderExchange;
+import com.netflix.msl.keyx.MockCryptoContextRepository;
+import com.netflix.msl.msg.MessageContext;
+import com.netflix.msl.msg.MessageInputStream;
+import com.netflix.msl.msg.MockMessageContext;
+import com.netflix.msl.msg.MslControl;
+import com.netflix.msl.userauth.UserAuthenticationScheme;
+import com.netflix.msl.util.MockAuthenticationUtils;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * <p>A trusted network MSL server that receives a request, reads all of its
+ * application data, and responds with a fixed block of application data.</p>
+ *
+ * <p>The server does not own any threads. Callers invoke
+ * {@link #serve(InputStream, OutputStream)} once per connection from
+ * whichever thread accepted the connection.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class LoadServer {
+    /** Renewal lock acquisition timeout in milliseconds. */
+    private static final int TIMEOUT = 30000;
+    /** Read buffer size in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Maximum number of cached key ladder wrapping keys. */
+    private static final int WRAP_KEY_CACHE_SIZE = 65536;
+    /** Cached key ladder wrapping key lifetime in milliseconds. */
+    private static final long WRAP_KEY_CACHE_TTL = 60000;
+
+    /**
+     * Create a new load server.
+     *
+     * @param responseSize response application data size in bytes.
+     * @param encrypted true if responses must be encrypted.
+     * @param integrityProtected true if responses must be integrity
+     *        protected.
+     * @param renewalOffset master token renewal window offset in
+     *        milliseconds.
+     * @throws GeneralSecurityException if there is an error creating the
+     *         message contexts.
+     * @throws MslException if there is an error creating the MSL context or
+     *         message contexts.
+     */
+    public LoadServer(final int responseSize, final boolean encrypted, final boolean integrityProtected, final long renewalOffset) throws GeneralSecurityException, MslException {
+        final MockMslContext ctx = new MockMslContext(EntityAuthenticationScheme.RSA, false);
+        ctx.setTokenFactory(new LoadTokenFactory(renewalOffset));
+        final MockAuthenticationUtils authutils = new MockAuthenticationUtils();
+        ctx.addKeyExchangeFactory(new JsonWebEncryptionLadderExchange(new MockCryptoContextRepository(), authutils, WRAP_KEY_CACHE_SIZE, WRAP_KEY_CACHE_TTL));
+        ctx.addKeyExchangeFactory(new JsonWebKeyLadderExchange(new MockCryptoContextRepository(), authutils, WRAP_KEY_CACHE_SIZE, WRAP_KEY_CACHE_TTL));
+        this.ctx = ctx;
+        this.ctrl = new MslControl(0);
+
+        final byte[] responseData = new byte[responseSize];
+        new Random().nextBytes(responseData);
+        this.receiveMsgCtx = new MockMessageContext(ctx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+        this.respondMsgCtx = new LoadMessageContext(ctx, responseData, encrypted, integrityProtected, null);
+    }
+
+    /**
+     * Receive a request and send a response over the provided streams. The
+     * streams are not closed.
+     *
+     * @param in server input stream.
+     * @param out server output stream.
+     * @throws InterruptedException if interrupted.
+     * @throws ExecutionException if the receive or respond fails.
+     * @throws IOException if there is an error reading the request.
+     */
+    public void serve(final InputStream in, final OutputStream out) throws InterruptedException, ExecutionException, IOException {
+        final MessageInputStream request = ctrl.receive(ctx, receiveMsgCtx, in, out, TIMEOUT).get();
+        if (request == null)
+            return;
+        if (request.getErrorHeader() != null) {
+            request.close();
+            return;
+        }
+        drain(request);
+        ctrl.respond(ctx, respondMsgCtx, in, out, request, TIMEOUT).get();
+    }
+
+    /**
+     * Read all remaining application data from the message input stream and
+     * then close it.
+     *
+     * @param mis message input stream.
+     * @return the number of bytes read.
+     * @throws IOException if there is an error reading the message.
+     */
+    public static int drain(final MessageInputStream mis) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int total = 0;
+        try {
+            do {
+                final int read = mis.read(buffer);
+                if (read == -1) break;
+                total += read;
+            } while (true);
+        } finally {
+            mis.close();
+        }
+        return total;
+    }
+
+    /**
+     * Shutdown the server's MSL control.
+     */
+    public void shutdown() {
+        ctrl.shutdown();
+    }
+
+    /** MSL context. */
+    private final MockMslContext ctx;
+    /** MSL control. */
+    private final MslControl ctrl;
+    /** Receive message context. */
+    private final MessageContext receiveMsgCtx;
+    /** Respond message context. */
+    private final MessageContext respondMsgCtx;
+}
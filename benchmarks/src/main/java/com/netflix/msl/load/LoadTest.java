@@ -0,0 +1,541 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import com.netflix.msl.io.Url;
+import com.netflix.msl.keyx.KeyExchangeScheme;
+
+/**
+ * <p>End-to-end trusted network request/respond load test.</p>
+ *
+ * <p>A number of worker threads issue requests through a shared
+ * {@link LoadClient} to a {@link LoadServer} over in-memory pipes or
+ * loopback sockets. Each worker records request latency into its own
+ * histogram; the histograms are merged once the run completes and the
+ * latency percentiles and message throughput are reported.</p>
+ *
+ * <p>The run fails if any configured threshold is exceeded or if the
+ * results regress from a baseline results file by more than the configured
+ * tolerance. The process exits with status 0 on success, 1 on failure, and
+ * 2 if the arguments are invalid.</p>
+ *
+ * <p>Run with {@code --help} for the supported options.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class LoadTest {
+    /** Exit status on success. */
+    private static final int EXIT_OK = 0;
+    /** Exit status on failure or regression. */
+    private static final int EXIT_FAILED = 1;
+    /** Exit status on invalid arguments. */
+    private static final int EXIT_USAGE = 2;
+
+    /** Histogram significant value digits. */
+    private static final int SIGNIFICANT_DIGITS = 3;
+    /** Microseconds per millisecond. */
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    /** Result key: transport. */
+    public static final String KEY_TRANSPORT = "transport";
+    /** Result key: concurrency. */
+    public static final String KEY_CONCURRENCY = "concurrency";
+    /** Result key: application data size. */
+    public static final String KEY_SIZE = "size";
+    /** Result key: completed requests. */
+    public static final String KEY_REQUESTS = "requests";
+    /** Result key: failed requests. */
+    public static final String KEY_ERRORS = "errors";
+    /** Result key: error rate. */
+    public static final String KEY_ERROR_RATE = "errorRate";
+    /** Result key: messages per second. */
+    public static final String KEY_THROUGHPUT = "throughput";
+    /** Result key: 50th percentile latency in milliseconds. */
+    public static final String KEY_P50 = "p50";
+    /** Result key: 90th percentile latency in milliseconds. */
+    public static final String KEY_P90 = "p90";
+    /** Result key: 99th percentile latency in milliseconds. */
+    public static final String KEY_P99 = "p99";
+    /** Result key: 99.9th percentile latency in milliseconds. */
+    public static final String KEY_P999 = "p99.9";
+    /** Result key: maximum latency in milliseconds. */
+    public static final String KEY_MAX = "max";
+
+    /** Transport types. */
+    private static enum Transport {
+        /** In-memory pipes. */
+        PIPED,
+        /** Loopback TCP sockets. */
+        SOCKET,
+    }
+
+    /** Command line options and their descriptions. */
+    private static final String[][] OPTIONS = {
+        { "--transport", "piped|socket (default piped)" },
+        { "--concurrency", "number of client threads (default 8)" },
+        { "--duration", "measurement duration in seconds (default 30)" },
+        { "--warmup", "warmup duration in seconds (default 5)" },
+        { "--size", "request and response application data size in bytes (default 1024)" },
+        { "--encrypted", "true|false (default true)" },
+        { "--integrity", "true|false (default true)" },
+        { "--renewal-interval", "master token renewal interval in milliseconds (default 60000)" },
+        { "--keyx", "key exchange scheme name (default ASYMMETRIC_WRAPPED)" },
+        { "--max-p50-ms", "fail if the 50th percentile latency exceeds this value" },
+        { "--max-p99-ms", "fail if the 99th percentile latency exceeds this value" },
+        { "--min-throughput", "fail if messages per second is below this value" },
+        { "--max-error-rate", "fail if the failed request fraction exceeds this value (default 0)" },
+        { "--baseline", "baseline results file to compare against" },
+        { "--tolerance", "allowed regression from the baseline in percent (default 10)" },
+        { "--output", "write results to this file" },
+    };
+
+    /**
+     * Thrown if the command line arguments are invalid.
+     */
+    private static class UsageException extends Exception {
+        private static final long serialVersionUID = 3372512096512341870L;
+
+        /**
+         * @param message the detail message.
+         */
+        public UsageException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A load generating worker. Each worker issues requests back-to-back
+     * until the run ends and records the latency of requests completed after
+     * warmup.
+     */
+    private static class Worker implements Runnable {
+        /**
+         * @param client the client.
+         * @param measureStart nanosecond time at which recording begins.
+         * @param end nanosecond time at which the worker stops.
+         * @param errors shared error counter.
+         */
+        public Worker(final LoadClient client, final long measureStart, final long end, final AtomicLong errors) {
+            this.client = client;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.errors = errors;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            while (true) {
+                final long start = System.nanoTime();
+                if (start >= end)
+                    return;
+                try {
+                    client.request();
+                    final long stop = System.nanoTime();
+                    if (start >= measureStart)
+                        histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(stop - start));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (final Exception e) {
+                    if (start >= measureStart) {
+                        if (errors.getAndIncrement() == 0)
+                            e.printStackTrace(System.err);
+                    }
+                }
+            }
+        }
+
+        /** Client. */
+        private final LoadClient client;
+        /** Recording start time in nanoseconds. */
+        private final long measureStart;
+        /** End time in nanoseconds. */
+        private final long end;
+        /** Shared error counter. */
+        private final AtomicLong errors;
+        /** Latency histogram in microseconds. */
+        private final Histogram histogram = new Histogram(SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Parse the command line arguments into an option map.
+     *
+     * @param args command line arguments.
+     * @return the option map.
+     * @throws UsageException if an option is unknown or missing its value.
+     */
+    private static Map<String,String> parse(final String[] args) throws UsageException {
+        final Map<String,String> options = new HashMap<String,String>();
+        for (int i = 0; i < args.length; ++i) {
+            final String name = args[i];
+            boolean known = false;
+            for (final String[] option : OPTIONS)
+                known |= option[0].equals(name);
+            if (!known)
+                throw new UsageException("Unknown option " + name + ".");
+            if (i + 1 == args.length)
+                throw new UsageException("Missing value for option " + name + ".");
+            options.put(name, args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * @param options the option map.
+     * @param name the option name.
+     * @param def the default value.
+     * @return the option value as a long or the default value if not set.
+     * @throws UsageException if the value is not a non-negative integer.
+     */
+    private static long getLong(final Map<String,String> options, final String name, final long def) throws UsageException {
+        final String value = options.get(name);
+        if (value == null) return def;
+        try {
+            final long l = Long.parseLong(value);
+            if (l < 0) throw new UsageException("Option " + name + " must not be negative.");
+            return l;
+        } catch (final NumberFormatException e) {
+            throw new UsageException("Option " + name + " must be an integer.");
+        }
+    }
+
+    /**
+     * @param options the option map.
+     * @param name the option name.
+     * @param def the default value. May be {@code null}.
+     * @return the option value as a double or the default value if not set.
+     * @throws UsageException if the value is not a non-negative number.
+     */
+    private static Double getDouble(final Map<String,String> options, final String name, final Double def) throws UsageException {
+        final String value = options.get(name);
+        if (value == null) return def;
+        try {
+            final double d = Double.parseDouble(value);
+            if (d < 0) throw new UsageException("Option " + name + " must not be negative.");
+            return d;
+        } catch (final NumberFormatException e) {
+            throw new UsageException("Option " + name + " must be a number.");
+        }
+    }
+
+    /**
+     * @param options the option map.
+     * @param name the option name.
+     * @param def the default value.
+     * @return the option value as a boolean or the default value if not set.
+     * @throws UsageException if the value is not true or false.
+     */
+    private static boolean getBoolean(final Map<String,String> options, final String name, final boolean def) throws UsageException {
+        final String value = options.get(name);
+        if (value == null) return def;
+        if ("true".equalsIgnoreCase(value)) return true;
+        if ("false".equalsIgnoreCase(value)) return false;
+        throw new UsageException("Option " + name + " must be true or false.");
+    }
+
+    /**
+     * Print usage information.
+     *
+     * @param out the output stream.
+     */
+    private static void usage(final PrintStream out) {
+        out.println("Usage: LoadTest [options]");
+        for (final String[] option : OPTIONS)
+            out.println(String.format("  %-20s %s", option[0], option[1]));
+    }
+
+    /**
+     * @param micros a value in microseconds.
+     * @return the value in milliseconds.
+     */
+    private static double millis(final long micros) {
+        return micros / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Check a result against an upper bound and report a failure if it is
+     * exceeded.
+     *
+     * @param failures the failure list.
+     * @param name the result name.
+     * @param value the result value.
+     * @param max the upper bound. May be {@code null}.
+     */
+    private static void checkMax(final List<String> failures, final String name, final double value, final Double max) {
+        if (max != null && value > max)
+            failures.add(String.format(Locale.US, "%s %.3f exceeds %.3f", name, value, max));
+    }
+
+    /**
+     * Check a result against a lower bound and report a failure if it is not
+     * met.
+     *
+     * @param failures the failure list.
+     * @param name the result name.
+     * @param value the result value.
+     * @param min the lower bound. May be {@code null}.
+     */
+    private static void checkMin(final List<String> failures, final String name, final double value, final Double min) {
+        if (min != null && value < min)
+            failures.add(String.format(Locale.US, "%s %.3f is below %.3f", name, value, min));
+    }
+
+    /**
+     * @param baseline baseline results.
+     * @param name the result name.
+     * @return the baseline value or {@code null} if not present.
+     * @throws UsageException if the baseline value is not a number.
+     */
+    private static Double getBaseline(final Properties baseline, final String name) throws UsageException {
+        final String value = baseline.getProperty(name);
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            throw new UsageException("Baseline " + name + " must be a number.");
+        }
+    }
+
+    /**
+     * Run the load test.
+     *
+     * @param args command line arguments.
+     * @return the exit status.
+     * @throws Exception if there is an error setting up the load test.
+     */
+    public static int run(final String[] args) throws Exception {
+        if (args.length == 1 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            usage(System.out);
+            return EXIT_OK;
+        }
+
+        // Parse the arguments.
+        final Transport transport;
+        final int concurrency, size;
+        final long duration, warmup, renewalInterval;
+        final boolean encrypted, integrity;
+        final KeyExchangeScheme scheme;
+        final Double maxP50, maxP99, minThroughput, maxErrorRate, tolerance;
+        final Properties baseline;
+        final String output;
+        try {
+            final Map<String,String> options = parse(args);
+            try {
+                transport = Transport.valueOf(options.containsKey("--transport") ? options.get("--transport").toUpperCase(Locale.US) : Transport.PIPED.name());
+            } catch (final IllegalArgumentException e) {
+                throw new UsageException("Unknown transport " + options.get("--transport") + ".");
+            }
+            concurrency = (int)getLong(options, "--concurrency", 8);
+            if (concurrency < 1)
+                throw new UsageException("Option --concurrency must be positive.");
+            duration = getLong(options, "--duration", 30);
+            if (duration < 1)
+                throw new UsageException("Option --duration must be positive.");
+            warmup = getLong(options, "--warmup", 5);
+            size = (int)getLong(options, "--size", 1024);
+            encrypted = getBoolean(options, "--encrypted", true);
+            integrity = getBoolean(options, "--integrity", true);
+            renewalInterval = getLong(options, "--renewal-interval", 60000);
+            if (renewalInterval < 1)
+                throw new UsageException("Option --renewal-interval must be positive.");
+            final String keyx = options.containsKey("--keyx") ? options.get("--keyx") : KeyExchangeScheme.ASYMMETRIC_WRAPPED.name();
+            scheme = KeyExchangeScheme.getScheme(keyx);
+            if (scheme == null)
+                throw new UsageException("Unknown key exchange scheme " + keyx + ".");
+            maxP50 = getDouble(options, "--max-p50-ms", null);
+            maxP99 = getDouble(options, "--max-p99-ms", null);
+            minThroughput = getDouble(options, "--min-throughput", null);
+            maxErrorRate = getDouble(options, "--max-error-rate", 0.0);
+            tolerance = getDouble(options, "--tolerance", 10.0);
+            final String baselineFile = options.get("--baseline");
+            if (baselineFile != null) {
+                baseline = new Properties();
+                try {
+                    final InputStream in = new FileInputStream(baselineFile);
+                    try {
+                        baseline.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (final IOException e) {
+                    throw new UsageException("Unable to read baseline " + baselineFile + ": " + e.getMessage());
+                }
+            } else {
+                baseline = null;
+            }
+            output = options.get("--output");
+        } catch (final UsageException e) {
+            System.err.println(e.getMessage());
+            usage(System.err);
+            return EXIT_USAGE;
+        }
+
+        Security.addProvider(new BouncyCastleProvider());
+
+        // Start the server. The server executor must be able to serve one
+        // connection per worker plus the socket listener.
+        final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+        final LoadServer server = new LoadServer(size, encrypted, integrity, renewalInterval);
+        final SocketListener listener;
+        final Url url;
+        switch (transport) {
+            case SOCKET:
+                listener = new SocketListener(server, serverExecutor);
+                serverExecutor.execute(listener);
+                url = listener.getUrl();
+                break;
+            default:
+                listener = null;
+                url = new PipedUrl(server, serverExecutor);
+                break;
+        }
+
+        // Establish the master token before starting the clock.
+        final LoadClient client = new LoadClient(url, size, encrypted, integrity, scheme);
+        final AtomicLong errors = new AtomicLong();
+        final List<Worker> workers = new ArrayList<Worker>(concurrency);
+        final long measureNanos;
+        try {
+            client.request();
+
+            final long now = System.nanoTime();
+            final long measureStart = now + TimeUnit.SECONDS.toNanos(warmup);
+            final long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+            final List<Thread> threads = new ArrayList<Thread>(concurrency);
+            for (int i = 0; i < concurrency; ++i) {
+                final Worker worker = new Worker(client, measureStart, end, errors);
+                final Thread thread = new Thread(worker, "LoadTest-" + i);
+                workers.add(worker);
+                threads.add(thread);
+                thread.start();
+            }
+            for (final Thread thread : threads)
+                thread.join();
+            measureNanos = end - measureStart;
+        } finally {
+            if (listener != null) listener.close();
+            client.shutdown();
+            server.shutdown();
+            serverExecutor.shutdownNow();
+        }
+
+        // Merge the results.
+        final Histogram histogram = new Histogram(SIGNIFICANT_DIGITS);
+        for (final Worker worker : workers)
+            histogram.add(worker.histogram);
+        final long requests = histogram.getTotalCount();
+        final long errorCount = errors.get();
+        final double errorRate = (requests + errorCount > 0) ? (double)errorCount / (requests + errorCount) : 0;
+        final double throughput = requests / (measureNanos / 1e9);
+        final double p50 = millis(histogram.getValueAtPercentile(50));
+        final double p90 = millis(histogram.getValueAtPercentile(90));
+        final double p99 = millis(histogram.getValueAtPercentile(99));
+        final double p999 = millis(histogram.getValueAtPercentile(99.9));
+        final double max = millis(histogram.getMaxValue());
+
+        final Properties results = new Properties();
+        results.setProperty(KEY_TRANSPORT, transport.name().toLowerCase(Locale.US));
+        results.setProperty(KEY_CONCURRENCY, Integer.toString(concurrency));
+        results.setProperty(KEY_SIZE, Integer.toString(size));
+        results.setProperty(KEY_REQUESTS, Long.toString(requests));
+        results.setProperty(KEY_ERRORS, Long.toString(errorCount));
+        results.setProperty(KEY_ERROR_RATE, String.format(Locale.US, "%.6f", errorRate));
+        results.setProperty(KEY_THROUGHPUT, String.format(Locale.US, "%.1f", throughput));
+        results.setProperty(KEY_P50, String.format(Locale.US, "%.3f", p50));
+        results.setProperty(KEY_P90, String.format(Locale.US, "%.3f", p90));
+        results.setProperty(KEY_P99, String.format(Locale.US, "%.3f", p99));
+        results.setProperty(KEY_P999, String.format(Locale.US, "%.3f", p999));
+        results.setProperty(KEY_MAX, String.format(Locale.US, "%.3f", max));
+
+        final PrintStream out = System.out;
+        out.println(String.format(Locale.US, "%s transport, %d threads, %d bytes, %s key exchange, %d ms renewal interval",
+            transport.name().toLowerCase(Locale.US), concurrency, size, scheme.name(), renewalInterval));
+        out.println(String.format(Locale.US, "requests: %d  errors: %d  throughput: %.1f msgs/sec", requests, errorCount, throughput));
+        out.println(String.format(Locale.US, "latency (ms)  p50: %.3f  p90: %.3f  p99: %.3f  p99.9: %.3f  max: %.3f", p50, p90, p99, p999, max));
+
+        if (output != null) {
+            final OutputStream os = new FileOutputStream(output);
+            try {
+                results.store(os, "MSL load test results");
+            } finally {
+                os.close();
+            }
+        }
+
+        // Check the thresholds.
+        final List<String> failures = new ArrayList<String>();
+        checkMax(failures, "p50 latency", p50, maxP50);
+        checkMax(failures, "p99 latency", p99, maxP99);
+        checkMin(failures, "throughput", throughput, minThroughput);
+        checkMax(failures, "error rate", errorRate, maxErrorRate);
+        if (requests == 0)
+            failures.add("no requests completed");
+
+        // Check against the baseline.
+        if (baseline != null) {
+            try {
+                final double factor = tolerance / 100;
+                final Double baseP50 = getBaseline(baseline, KEY_P50);
+                final Double baseP99 = getBaseline(baseline, KEY_P99);
+                final Double baseThroughput = getBaseline(baseline, KEY_THROUGHPUT);
+                checkMax(failures, "p50 latency vs. baseline", p50, (baseP50 != null) ? baseP50 * (1 + factor) : null);
+                checkMax(failures, "p99 latency vs. baseline", p99, (baseP99 != null) ? baseP99 * (1 + factor) : null);
+                checkMin(failures, "throughput vs. baseline", throughput, (baseThroughput != null) ? baseThroughput * (1 - factor) : null);
+            } catch (final UsageException e) {
+                System.err.println(e.getMessage());
+                return EXIT_USAGE;
+            }
+        }
+
+        if (failures.isEmpty())
+            return EXIT_OK;
+        for (final String failure : failures)
+            System.err.println("FAILED: " + failure);
+        return EXIT_FAILED;
+    }
+
+    /**
+     * @param args command line arguments.
+     * @throws Exception if there is an error setting up the load test.
+     */
+    public static void main(final String[] args) throws Exception {
+        System.exit(run(args));
+    }
+}
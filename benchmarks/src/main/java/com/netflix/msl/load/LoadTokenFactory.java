@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.util.Date;
+
+import javax.crypto.SecretKey;
+
+import org.json.JSONObject;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslMasterTokenException;
+import com.netflix.msl.entityauth.EntityAuthenticationData;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.MockTokenFactory;
+import com.netflix.msl.util.JsonUtils;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>A token factory that issues master tokens with a configurable renewal
+ * window. This controls how often clients renew their master token and
+ * therefore how often key exchange occurs under load.</p>
+ *
+ * <p>Master tokens expire at twice the renewal offset.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class LoadTokenFactory extends MockTokenFactory {
+    /**
+     * Create a new token factory.
+     *
+     * @param renewalOffset master token renewal window offset from the issue
+     *        time in milliseconds.
+     */
+    public LoadTokenFactory(final long renewalOffset) {
+        if (renewalOffset <= 0)
+            throw new IllegalArgumentException("Renewal offset must be positive.");
+        this.renewalOffset = renewalOffset;
+        this.expirationOffset = 2 * renewalOffset;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.tokens.MockTokenFactory#createMasterToken(com.netflix.msl.util.MslContext, com.netflix.msl.entityauth.EntityAuthenticationData, javax.crypto.SecretKey, javax.crypto.SecretKey, org.json.JSONObject)
+     */
+    @Override
+    public MasterToken createMasterToken(final MslContext ctx, final EntityAuthenticationData entityAuthData, final SecretKey encryptionKey, final SecretKey hmacKey, final JSONObject issuerData) throws MslEncodingException, MslCryptoException {
+        final Date renewalWindow = new Date(ctx.getTime() + renewalOffset);
+        final Date expiration = new Date(ctx.getTime() + expirationOffset);
+        final long sequenceNumber = 0;
+        long serialNumber = -1;
+        do {
+            serialNumber = ctx.getRandom().nextLong();
+        } while (serialNumber < 0 || serialNumber > MslConstants.MAX_LONG_VALUE);
+        final String identity = entityAuthData.getIdentity();
+        return new MasterToken(ctx, renewalWindow, expiration, sequenceNumber, serialNumber, issuerData, identity, encryptionKey, hmacKey);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.tokens.MockTokenFactory#renewMasterToken(com.netflix.msl.util.MslContext, com.netflix.msl.tokens.MasterToken, javax.crypto.SecretKey, javax.crypto.SecretKey, org.json.JSONObject)
+     */
+    @Override
+    public MasterToken renewMasterToken(final MslContext ctx, final MasterToken masterToken, final SecretKey encryptionKey, final SecretKey hmacKey, final JSONObject issuerData) throws MslEncodingException, MslCryptoException, MslMasterTokenException {
+        if (!masterToken.isDecrypted())
+            throw new MslMasterTokenException(MslError.MASTERTOKEN_UNTRUSTED, masterToken);
+
+        final Date renewalWindow = new Date(ctx.getTime() + renewalOffset);
+        final Date expiration = new Date(ctx.getTime() + expirationOffset);
+        final long oldSequenceNumber = masterToken.getSequenceNumber();
+        final long sequenceNumber = (oldSequenceNumber == MslConstants.MAX_LONG_VALUE) ? 0 : oldSequenceNumber + 1;
+        final long serialNumber = masterToken.getSerialNumber();
+        final JSONObject mergedIssuerData = JsonUtils.merge(masterToken.getIssuerData(), issuerData);
+        final String identity = masterToken.getIdentity();
+        return new MasterToken(ctx, renewalWindow, expiration, sequenceNumber, serialNumber, mergedIssuerData, identity, encryptionKey, hmacKey);
+    }
+
+    /** Renewal window offset in milliseconds. */
+    private final long renewalOffset;
+    /** Expiration offset in milliseconds. */
+    private final long expirationOffset;
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Executor;
+
+import com.netflix.msl.io.Url;
+
+/**
+ * <p>A URL whose connections are in-memory pipes to a {@link LoadServer}.
+ * Each connection is served by a task submitted to the provided
+ * executor.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class PipedUrl implements Url {
+    /** Pipe buffer size in bytes. */
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * Create a new piped URL.
+     *
+     * @param server the server.
+     * @param executor server connection executor. Must be able to run at
+     *        least as many tasks concurrently as there are open connections.
+     */
+    public PipedUrl(final LoadServer server, final Executor executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.Url#setTimeout(int)
+     */
+    @Override
+    public void setTimeout(final int timeout) {
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.Url#openConnection()
+     */
+    @Override
+    public Connection openConnection() throws IOException {
+        final PipedOutputStream clientOut = new PipedOutputStream();
+        final PipedInputStream serverIn = new PipedInputStream(clientOut, PIPE_SIZE);
+        final PipedOutputStream serverOut = new PipedOutputStream();
+        final PipedInputStream clientIn = new PipedInputStream(serverOut, PIPE_SIZE);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.serve(serverIn, serverOut);
+                } catch (final Exception e) {
+                    e.printStackTrace(System.err);
+                } finally {
+                    try { serverOut.close(); } catch (final IOException e) {}
+                }
+            }
+        });
+        return new Connection() {
+            @Override
+            public InputStream getInputStream() {
+                return clientIn;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return clientOut;
+            }
+        };
+    }
+
+    /** Server. */
+    private final LoadServer server;
+    /** Server connection executor. */
+    private final Executor executor;
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.load;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+
+import com.netflix.msl.io.Url;
+
+/**
+ * <p>A loopback TCP listener that serves each accepted connection with a
+ * {@link LoadServer}. Each connection carries exactly one request and one
+ * response.</p>
+ *
+ * <p>Clients connect using the URL returned by {@link #getUrl()}. The client
+ * output stream half-closes the socket so the server observes the end of
+ * the request, and the client input stream closes the socket.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class SocketListener implements Runnable {
+    /** Listen backlog. */
+    private static final int BACKLOG = 1024;
+
+    /**
+     * A URL whose connections are loopback sockets to this listener.
+     */
+    private class SocketUrl implements Url {
+        /* (non-Javadoc)
+         * @see com.netflix.msl.io.Url#setTimeout(int)
+         */
+        @Override
+        public void setTimeout(final int timeout) {
+            this.timeout = timeout;
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.io.Url#openConnection()
+         */
+        @Override
+        public Connection openConnection() throws IOException {
+            final Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(timeout);
+                socket.connect(serverSocket.getLocalSocketAddress(), timeout);
+            } catch (final IOException e) {
+                socket.close();
+                throw e;
+            }
+            final InputStream in = new FilterInputStream(socket.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    socket.close();
+                }
+            };
+            final OutputStream out = new FilterOutputStream(socket.getOutputStream()) {
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    this.out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (!socket.isClosed())
+                        socket.shutdownOutput();
+                }
+            };
+            return new Connection() {
+                @Override
+                public InputStream getInputStream() {
+                    return in;
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return out;
+                }
+            };
+        }
+
+        /** Connect and read timeout in milliseconds. */
+        private int timeout = 0;
+    }
+
+    /**
+     * Create a new listener bound to an ephemeral loopback port. The
+     * listener does not accept connections until it is run.
+     *
+     * @param server the server.
+     * @param executor server connection executor. Must be able to run at
+     *        least as many tasks concurrently as there are open connections
+     *        in addition to this listener.
+     * @throws IOException if the server socket cannot be bound.
+     */
+    public SocketListener(final LoadServer server, final ExecutorService executor) throws IOException {
+        this.server = server;
+        this.executor = executor;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+    }
+
+    /**
+     * @return a URL that connects to this listener.
+     */
+    public Url getUrl() {
+        return new SocketUrl();
+    }
+
+    /**
+     * Stop accepting connections and close the server socket.
+     */
+    public void close() {
+        try { serverSocket.close(); } catch (final IOException e) {}
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (final SocketException e) {
+                // The server socket was closed.
+                return;
+            } catch (final IOException e) {
+                e.printStackTrace(System.err);
+                continue;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        server.serve(socket.getInputStream(), socket.getOutputStream());
+                    } catch (final Exception e) {
+                        e.printStackTrace(System.err);
+                    } finally {
+                        try { socket.close(); } catch (final IOException e) {}
+                    }
+                }
+            });
+        }
+    }
+
+    /** Server. */
+    private final LoadServer server;
+    /** Server connection executor. */
+    private final ExecutorService executor;
+    /** Server socket. */
+    private final ServerSocket serverSocket;
+}
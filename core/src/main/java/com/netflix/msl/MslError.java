@@ -147,6 +147,7 @@ public class MslError {
     public static final MslError SERVICETOKEN_TOKENDATA_INVALID = new MslError(3007, ResponseCode.FAIL, "Invalid service token data.");
     public static final MslError SERVICETOKEN_SIGNATURE_INVALID = new MslError(3008, ResponseCode.FAIL, "Invalid service token signature.");
     public static final MslError SERVICETOKEN_TOKENDATA_MISSING = new MslError(3009, ResponseCode.FAIL, "No service token data found.");
+    public static final MslError SERVICETOKEN_REFERENCE_NOT_FOUND = new MslError(3010, ResponseCode.FAIL, "Referenced service token not found.");
     
     // 4 Entity Authentication
     public static final MslError UNIDENTIFIED_ENTITYAUTH_SCHEME = new MslError(4000, ResponseCode.FAIL, "Unable to identify entity authentication scheme.");
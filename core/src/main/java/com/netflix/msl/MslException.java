@@ -15,18 +15,68 @@
  */
 package com.netflix.msl;
 
+import org.json.JSONString;
+
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.tokens.MasterToken;
 import com.netflix.msl.tokens.UserIdToken;
 import com.netflix.msl.userauth.UserAuthenticationData;
+import com.netflix.msl.util.Base64;
 
 /**
- * Thrown when an exception occurs within the Message Security Layer.
+ * <p>Thrown when an exception occurs within the Message Security Layer.</p>
+ * 
+ * <p>The exception message is formatted from the error and details the first
+ * time it is requested. Details provided as an object are only converted to
+ * a string at that time; this avoids serializing JSON and other large
+ * objects for exceptions whose message is never examined. Byte array
+ * details are copied when the exception is constructed. Other mutable
+ * details, such as {@code JSONObject} instances, are retained and must not
+ * be modified after the exception is constructed.</p>
+ * 
+ * <p>Expected protocol rejections such as expired or revoked tokens and
+ * replayed messages may occur at a high rate. If fast failure is enabled
+ * then MSL exceptions are created without a stack trace, which greatly
+ * reduces their cost. Stack traces are always captured if assertions are
+ * enabled for this package so full traces remain available in debug and
+ * test environments.</p>
  * 
  * @author Wesley Miaw <wmiaw@netflix.com>
+ * @see #setFastFailure(boolean)
  */
 public class MslException extends Exception {
     private static final long serialVersionUID = -2444322310603180494L;
+    
+    /** True if assertions are enabled. */
+    private static final boolean DEBUG;
+    static {
+        boolean debug = false;
+        assert debug = true;
+        DEBUG = debug;
+    }
+    
+    /** True if fast failure is enabled. */
+    private static volatile boolean fastFailure = false;
+    
+    /**
+     * <p>Enable or disable fast failure. When enabled MSL exceptions do not
+     * capture a stack trace unless assertions are enabled for this
+     * package.</p>
+     * 
+     * <p>Fast failure is disabled by default.</p>
+     * 
+     * @param enabled true to enable fast failure.
+     */
+    public static void setFastFailure(final boolean enabled) {
+        fastFailure = enabled;
+    }
+    
+    /**
+     * @return true if MSL exceptions are created without a stack trace.
+     */
+    public static boolean isFastFailure() {
+        return fastFailure && !DEBUG;
+    }
 
     /**
      * Construct a new MSL exception with the specified error.
@@ -34,8 +84,10 @@ public class MslException extends Exception {
      * @param error the error.
      */
     public MslException(final MslError error) {
-        super(error.getMessage());
+        super();
         this.error = error;
+        this.label = null;
+        this.details = NO_DETAILS;
     }
     
     /**
@@ -45,10 +97,30 @@ public class MslException extends Exception {
      * @param details the details text.
      */
     public MslException(final MslError error, final String details) {
-        super(error.getMessage() + " [" + details + "]");
+        super();
         this.error = error;
+        this.label = null;
+        this.details = details;
     }
     
+    /**
+     * Construct a new MSL exception with the specified error and labeled
+     * details. The details are converted to a string only if the exception
+     * message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object. {@link JSONString} objects are
+     *        converted using {@link JSONString#toJSONString()} and byte
+     *        arrays are copied and Base64-encoded. Other mutable objects
+     *        must not be modified after this call.
+     */
+    public MslException(final MslError error, final String label, final Object details) {
+        super();
+        this.error = error;
+        this.label = label;
+        this.details = capture(details);
+    }
     
     /**
      * Construct a new MSL exception with the specified error, details, and
@@ -59,8 +131,30 @@ public class MslException extends Exception {
      * @param cause the cause.
      */
     public MslException(final MslError error, final String details, final Throwable cause) {
-        super(error.getMessage() + " [" + details + "]", cause);
+        super(cause);
         this.error = error;
+        this.label = null;
+        this.details = details;
+    }
+    
+    /**
+     * Construct a new MSL exception with the specified error, labeled
+     * details, and cause. The details are converted to a string only if the
+     * exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object. {@link JSONString} objects are
+     *        converted using {@link JSONString#toJSONString()} and byte
+     *        arrays are copied and Base64-encoded. Other mutable objects
+     *        must not be modified after this call.
+     * @param cause the cause.
+     */
+    public MslException(final MslError error, final String label, final Object details, final Throwable cause) {
+        super(cause);
+        this.error = error;
+        this.label = label;
+        this.details = capture(details);
     }
     
     /**
@@ -70,8 +164,56 @@ public class MslException extends Exception {
      * @param cause the cause.
      */
     public MslException(final MslError error, final Throwable cause) {
-        super(error.getMessage(), cause);
+        super(cause);
         this.error = error;
+        this.label = null;
+        this.details = NO_DETAILS;
+    }
+    
+    /**
+     * Copy mutable details that are cheap to copy so the formatted message
+     * reflects the details at construction.
+     * 
+     * @param details the details object. May be {@code null}.
+     * @return the details to retain.
+     */
+    private static Object capture(final Object details) {
+        if (details instanceof byte[])
+            return ((byte[])details).clone();
+        return details;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Throwable#getMessage()
+     */
+    @Override
+    public String getMessage() {
+        // Benign race: the formatted message is always the same.
+        if (message == null) {
+            if (details == NO_DETAILS) {
+                message = error.getMessage();
+            } else {
+                final String text;
+                if (details instanceof JSONString)
+                    text = ((JSONString)details).toJSONString();
+                else if (details instanceof byte[])
+                    text = Base64.encode((byte[])details);
+                else
+                    text = String.valueOf(details);
+                message = error.getMessage() + " [" + ((label != null) ? label + " " + text : text) + "]";
+            }
+        }
+        return message;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Throwable#fillInStackTrace()
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (isFastFailure())
+            return this;
+        return super.fillInStackTrace();
     }
     
     /**
@@ -267,8 +409,17 @@ public class MslException extends Exception {
         return null;
     }
     
+    /** Placeholder indicating no details were provided. */
+    private static final Object NO_DETAILS = new Object();
+    
     /** MSL error. */
     private final MslError error;
+    /** Details label. May be null. */
+    private final String label;
+    /** Details. */
+    private final Object details;
+    /** Formatted message. */
+    private String message = null;
     /** Master token. */
     private MasterToken masterToken = null;
     /** Entity authentication data. */
@@ -61,6 +61,33 @@ public class MslKeyExchangeException extends MslException {
         super(error, details, cause);
     }
     
+    /**
+     * Construct a new MSL key exchange exception with the specified error and
+     * labeled details. The details are converted to a string only if the
+     * exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object.
+     */
+    public MslKeyExchangeException(final MslError error, final String label, final Object details) {
+        super(error, label, details);
+    }
+    
+    /**
+     * Construct a new MSL key exchange exception with the specified error,
+     * labeled details, and cause. The details are converted to a string only if
+     * the exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object.
+     * @param cause the cause.
+     */
+    public MslKeyExchangeException(final MslError error, final String label, final Object details, final Throwable cause) {
+        super(error, label, details, cause);
+    }
+    
     /**
      * Construct a new MSL key exchange exception with the specified error and
      * cause.
@@ -58,6 +58,33 @@ public class MslMessageException extends MslException {
     public MslMessageException(final MslError error, final String details, final Throwable cause) {
         super(error, details, cause);
     }
+    
+    /**
+     * Construct a new MSL message exception with the specified error and
+     * labeled details. The details are converted to a string only if the
+     * exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object.
+     */
+    public MslMessageException(final MslError error, final String label, final Object details) {
+        super(error, label, details);
+    }
+    
+    /**
+     * Construct a new MSL message exception with the specified error, labeled
+     * details, and cause. The details are converted to a string only if the
+     * exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object.
+     * @param cause the cause.
+     */
+    public MslMessageException(final MslError error, final String label, final Object details, final Throwable cause) {
+        super(error, label, details, cause);
+    }
 
     /* (non-Javadoc)
      * @see com.netflix.msl.MslException#setMasterToken(com.netflix.msl.tokens.MasterToken)
@@ -60,6 +60,33 @@ public class MslUserAuthException extends MslException {
         super(error, details, cause);
     }
     
+    /**
+     * Construct a new MSL user authentication exception with the specified
+     * error and labeled details. The details are converted to a string only if
+     * the exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object.
+     */
+    public MslUserAuthException(final MslError error, final String label, final Object details) {
+        super(error, label, details);
+    }
+    
+    /**
+     * Construct a new MSL user authentication exception with the specified
+     * error, labeled details, and cause. The details are converted to a string
+     * only if the exception message is requested.
+     * 
+     * @param error the error.
+     * @param label the details label.
+     * @param details the details object.
+     * @param cause the cause.
+     */
+    public MslUserAuthException(final MslError error, final String label, final Object details, final Throwable cause) {
+        super(error, label, details, cause);
+    }
+    
     /**
      * Construct a new MSL user authentication exception with the specified
      * error and cause.
@@ -356,7 +356,7 @@ public class JsonWebKey implements JSONString {
             extractable = jsonObj.has(KEY_EXTRACTABLE) ? jsonObj.getBoolean(KEY_EXTRACTABLE) : false;
             id = jsonObj.has(KEY_KEY_ID) ? jsonObj.getString(KEY_KEY_ID) : null;
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "jwk " + jsonObj.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "jwk", jsonObj, e);
         }
         
         // Set values.
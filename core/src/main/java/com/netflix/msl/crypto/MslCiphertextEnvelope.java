@@ -134,7 +134,7 @@ public class MslCiphertextEnvelope implements JSONString {
             // If anything fails to parse, treat this as a version 1 envelope.
             return Version.V1;
         } catch (final IllegalArgumentException e) {
-            throw new MslCryptoException(MslError.UNIDENTIFIED_CIPHERTEXT_ENVELOPE, "ciphertext envelope " + jo.toString(), e);
+            throw new MslCryptoException(MslError.UNIDENTIFIED_CIPHERTEXT_ENVELOPE, "ciphertext envelope", jo, e);
         }
     }
     
@@ -201,16 +201,16 @@ public class MslCiphertextEnvelope implements JSONString {
                     try {
                         this.iv = (jsonObj.has(KEY_IV)) ? Base64.decode(jsonObj.getString(KEY_IV)) : null;
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.INVALID_IV, "ciphertext envelope " + jsonObj.toString(), e);
+                        throw new MslCryptoException(MslError.INVALID_IV, "ciphertext envelope", jsonObj, e);
                     }
                     try {
                         this.ciphertext = Base64.decode(jsonObj.getString(KEY_CIPHERTEXT));
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.INVALID_CIPHERTEXT, "ciphertext envelope " + jsonObj.toString(), e);
+                        throw new MslCryptoException(MslError.INVALID_CIPHERTEXT, "ciphertext envelope", jsonObj, e);
                     }
                     jsonObj.getString(KEY_SHA256);
                 } catch (final JSONException e) {
-                    throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "ciphertext envelope " + jsonObj.toString(), e);
+                    throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "ciphertext envelope", jsonObj, e);
                 }
                 break;
             case V2:
@@ -218,27 +218,27 @@ public class MslCiphertextEnvelope implements JSONString {
                     final int v = jsonObj.getInt(KEY_VERSION);
                     this.version = Version.valueOf(v);
                     if (!Version.V2.equals(this.version))
-                        throw new MslCryptoException(MslError.UNIDENTIFIED_CIPHERTEXT_ENVELOPE, "ciphertext envelope " + jsonObj.toString());
+                        throw new MslCryptoException(MslError.UNIDENTIFIED_CIPHERTEXT_ENVELOPE, "ciphertext envelope", jsonObj);
                     this.keyId = null;
                     this.cipherSpec = CipherSpec.fromString(jsonObj.getString(KEY_CIPHERSPEC));
                     try {
                         this.iv = (jsonObj.has(KEY_IV)) ? Base64.decode(jsonObj.getString(KEY_IV)) : null;
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.INVALID_IV, "ciphertext envelope " + jsonObj.toString(), e);
+                        throw new MslCryptoException(MslError.INVALID_IV, "ciphertext envelope", jsonObj, e);
                     }
                     try {
                         this.ciphertext = Base64.decode(jsonObj.getString(KEY_CIPHERTEXT));
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.INVALID_CIPHERTEXT, "ciphertext envelope " + jsonObj.toString(), e);
+                        throw new MslCryptoException(MslError.INVALID_CIPHERTEXT, "ciphertext envelope", jsonObj, e);
                     }
                 } catch (final IllegalArgumentException e) {
-                    throw new MslCryptoException(MslError.UNIDENTIFIED_CIPHERSPEC, "ciphertext envelope " + jsonObj.toString(), e);
+                    throw new MslCryptoException(MslError.UNIDENTIFIED_CIPHERSPEC, "ciphertext envelope", jsonObj, e);
                 } catch (final JSONException e) {
-                    throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "ciphertext envelope " + jsonObj.toString(), e);
+                    throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "ciphertext envelope", jsonObj, e);
                 }
                 break;
             default:
-                throw new MslCryptoException(MslError.UNSUPPORTED_CIPHERTEXT_ENVELOPE, "ciphertext envelope version " + version);
+                throw new MslCryptoException(MslError.UNSUPPORTED_CIPHERTEXT_ENVELOPE, "ciphertext envelope version", version);
         }
     }
     
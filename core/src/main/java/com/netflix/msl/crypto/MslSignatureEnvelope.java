@@ -150,9 +150,9 @@ public class MslSignatureEnvelope {
                     try {
                         final Version v = Version.valueOf(envelopeJo.getInt(KEY_VERSION));
                         if (!Version.V2.equals(v))
-                            throw new MslCryptoException(MslError.UNSUPPORTED_SIGNATURE_ENVELOPE, "signature envelope " + Base64.encode(envelope));
+                            throw new MslCryptoException(MslError.UNSUPPORTED_SIGNATURE_ENVELOPE, "signature envelope", envelope);
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.UNIDENTIFIED_SIGNATURE_ENVELOPE, "signature envelope " + Base64.encode(envelope), e);
+                        throw new MslCryptoException(MslError.UNIDENTIFIED_SIGNATURE_ENVELOPE, "signature envelope", envelope, e);
                     }
                     
                     // Grab algorithm.
@@ -160,7 +160,7 @@ public class MslSignatureEnvelope {
                     try {
                         algorithm = SignatureAlgo.fromString(envelopeJo.getString(KEY_ALGORITHM));
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.UNIDENTIFIED_ALGORITHM, "signature envelope " + Base64.encode(envelope), e);
+                        throw new MslCryptoException(MslError.UNIDENTIFIED_ALGORITHM, "signature envelope", envelope, e);
                     }
                     
                     // Grab signature.
@@ -168,18 +168,18 @@ public class MslSignatureEnvelope {
                     try {
                         signature = Base64.decode(envelopeJo.getString(KEY_SIGNATURE));
                     } catch (final IllegalArgumentException e) {
-                        throw new MslCryptoException(MslError.INVALID_SIGNATURE, "signature envelope " + Base64.encode(envelope));
+                        throw new MslCryptoException(MslError.INVALID_SIGNATURE, "signature envelope", envelope);
                     }
                     if (signature == null)
-                        throw new MslCryptoException(MslError.INVALID_SIGNATURE, "signature envelope " + Base64.encode(envelope));
+                        throw new MslCryptoException(MslError.INVALID_SIGNATURE, "signature envelope", envelope);
                     
                     // Return the envelope.
                     return new MslSignatureEnvelope(algorithm, signature);
                 } catch (final JSONException e) {
-                    throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "signature envelope " + Base64.encode(envelope), e);
+                    throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "signature envelope", envelope, e);
                 }
             default:
-                throw new MslCryptoException(MslError.UNSUPPORTED_SIGNATURE_ENVELOPE, "signature envelope " + Base64.encode(envelope));
+                throw new MslCryptoException(MslError.UNSUPPORTED_SIGNATURE_ENVELOPE, "signature envelope", envelope);
         }
     }
     
@@ -254,7 +254,7 @@ public class MslSignatureEnvelope {
                 }
                 return new MslSignatureEnvelope(algorithm, signature);
             default:
-                throw new MslCryptoException(MslError.UNSUPPORTED_SIGNATURE_ENVELOPE, "signature envelope " + Base64.encode(envelope));
+                throw new MslCryptoException(MslError.UNSUPPORTED_SIGNATURE_ENVELOPE, "signature envelope", envelope);
         }
     }
     
@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.crypto;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.netflix.msl.MslInternalException;
+
+/**
+ * <p>A random number generator that does not contend between threads.</p>
+ *
+ * <p>Each thread uses its own HMAC_DRBG instance (NIST SP 800-90A) using
+ * HMAC-SHA256, seeded and periodically reseeded from a shared
+ * {@code SecureRandom} seed source. Random bytes are generated in bulk into
+ * a per-thread buffer, so the small requests made for IVs, keys, and message
+ * IDs rarely run the generator.</p>
+ *
+ * <p>The seed source is only used when a thread first requests random data
+ * and when its generator must be reseeded, so the seed source lock is not
+ * acquired at high message rates. A single instance should be shared, for
+ * example by returning it from {@link com.netflix.msl.util.MslContext#getRandom()}.</p>
+ *
+ * <p>Calls to {@link #setSeed(long)} supplement the current thread's
+ * generator and never replace its seed.</p>
+ *
+ * <p>The seed source and generators are not serialized. A deserialized
+ * random source is seeded from a new {@code SecureRandom}, so it never
+ * repeats the output of the instance it was serialized from.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class RandomSource extends Random {
+    private static final long serialVersionUID = -3213622843497214046L;
+
+    /** Default per-thread buffer size in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    /** Entropy input and nonce size in bytes. */
+    private static final int SEED_SIZE = 48;
+    /** Number of generate requests between reseeds. */
+    private static final long RESEED_INTERVAL = 1L << 20;
+    /** Maximum number of bytes per generate request. */
+    private static final int MAX_REQUEST_SIZE = 1 << 16;
+
+    /**
+     * <p>HMAC_DRBG using HMAC-SHA256 without prediction resistance, as
+     * specified in NIST SP 800-90A section 10.1.2.</p>
+     *
+     * <p>This class is not thread-safe.</p>
+     */
+    static class HmacDrbg {
+        /** HMAC algorithm. */
+        private static final String ALGORITHM = "HmacSHA256";
+        /** HMAC output length in bytes. */
+        private static final int OUTLEN = 32;
+
+        /**
+         * Instantiate a new HMAC_DRBG.
+         *
+         * @param seedMaterial entropy input, nonce, and personalization
+         *        string.
+         */
+        public HmacDrbg(final byte[] seedMaterial) {
+            try {
+                this.mac = Mac.getInstance(ALGORITHM);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new MslInternalException("Invalid HMAC algorithm specified.", e);
+            }
+            Arrays.fill(key, (byte)0x00);
+            Arrays.fill(value, (byte)0x01);
+            rekey();
+            update(seedMaterial);
+        }
+
+        /**
+         * Reseed the HMAC_DRBG.
+         *
+         * @param seedMaterial entropy input and additional input.
+         */
+        public void reseed(final byte[] seedMaterial) {
+            update(seedMaterial);
+            requests = 0;
+        }
+
+        /**
+         * Mix additional input into the HMAC_DRBG state without counting as
+         * a reseed.
+         *
+         * @param input additional input.
+         */
+        public void addInput(final byte[] input) {
+            update(input);
+        }
+
+        /**
+         * @return true if the HMAC_DRBG must be reseeded before generating
+         *         more data.
+         */
+        public boolean isReseedRequired() {
+            return requests >= RESEED_INTERVAL;
+        }
+
+        /**
+         * Generate random bytes.
+         *
+         * @param output the output buffer.
+         * @param offset offset into the output buffer.
+         * @param length number of bytes to generate. Must not exceed
+         *        {@link #MAX_REQUEST_SIZE}.
+         */
+        public void generate(final byte[] output, final int offset, final int length) {
+            int generated = 0;
+            while (generated < length) {
+                hmac(value, value);
+                final int count = Math.min(OUTLEN, length - generated);
+                System.arraycopy(value, 0, output, offset + generated, count);
+                generated += count;
+            }
+            update(null);
+            ++requests;
+        }
+
+        /**
+         * The HMAC_DRBG update function.
+         *
+         * @param data provided data. May be {@code null}.
+         */
+        private void update(final byte[] data) {
+            hmac(key, value, new byte[] { 0x00 }, data);
+            rekey();
+            hmac(value, value);
+            if (data == null || data.length == 0)
+                return;
+            hmac(key, value, new byte[] { 0x01 }, data);
+            rekey();
+            hmac(value, value);
+        }
+
+        /**
+         * Initialize the HMAC with the current key. The HMAC keeps its key
+         * between computations, so this is only needed when the key changes.
+         */
+        private void rekey() {
+            try {
+                mac.init(new SecretKeySpec(key, ALGORITHM));
+            } catch (final InvalidKeyException e) {
+                throw new MslInternalException("Invalid HMAC key.", e);
+            }
+        }
+
+        /**
+         * Compute the HMAC of the concatenated inputs using the current key.
+         *
+         * @param output the output buffer. Must be {@link #OUTLEN} bytes.
+         * @param inputs the inputs. Elements may be {@code null}.
+         */
+        private void hmac(final byte[] output, final byte[]... inputs) {
+            try {
+                for (final byte[] input : inputs) {
+                    if (input != null)
+                        mac.update(input);
+                }
+                mac.doFinal(output, 0);
+            } catch (final ShortBufferException e) {
+                throw new MslInternalException("HMAC output buffer too small.", e);
+            }
+        }
+
+        /** HMAC. */
+        private final Mac mac;
+        /** Key. */
+        private final byte[] key = new byte[OUTLEN];
+        /** Value. */
+        private final byte[] value = new byte[OUTLEN];
+        /** Generate requests since the last reseed. */
+        private long requests = 0;
+    }
+
+    /**
+     * <p>A thread's generator and its buffered random bytes.</p>
+     */
+    private static class Generator {
+        /**
+         * @param drbg the HMAC_DRBG.
+         * @param bufferSize buffer size in bytes.
+         */
+        public Generator(final HmacDrbg drbg, final int bufferSize) {
+            this.drbg = drbg;
+            this.buffer = new byte[bufferSize];
+            this.position = bufferSize;
+        }
+
+        /** HMAC_DRBG. */
+        public final HmacDrbg drbg;
+        /** Buffered random bytes. */
+        public final byte[] buffer;
+        /** Position of the next unused buffered byte. */
+        public int position;
+    }
+
+    /**
+     * Create a new random source seeded from a new {@code SecureRandom},
+     * with a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes per thread.
+     */
+    public RandomSource() {
+        this(new SecureRandom(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new random source.
+     *
+     * @param seedSource source of entropy input for the per-thread
+     *        generators.
+     * @param bufferSize per-thread buffer size in bytes. Zero if random
+     *        bytes should not be buffered.
+     * @throws IllegalArgumentException if the buffer size is negative or
+     *         greater than the maximum generate request size.
+     */
+    public RandomSource(final SecureRandom seedSource, final int bufferSize) {
+        if (bufferSize < 0 || bufferSize > MAX_REQUEST_SIZE)
+            throw new IllegalArgumentException("Buffer size " + bufferSize + " is outside the valid range.");
+        this.seedSource = seedSource;
+        this.bufferSize = bufferSize;
+        this.generators = createGenerators();
+    }
+
+    /**
+     * @return new per-thread generators seeded from the seed source.
+     */
+    private ThreadLocal<Generator> createGenerators() {
+        return new ThreadLocal<Generator>() {
+            @Override
+            protected Generator initialValue() {
+                final HmacDrbg drbg = new HmacDrbg(seed());
+                return new Generator(drbg, RandomSource.this.bufferSize);
+            }
+        };
+    }
+
+    /**
+     * Restore the transient seed source and generators. The deserialized
+     * random source is seeded from a new {@code SecureRandom}.
+     *
+     * @param in the object input stream.
+     * @throws IOException if there is an error reading the object.
+     * @throws ClassNotFoundException if a serialized class cannot be found.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (bufferSize < 0 || bufferSize > MAX_REQUEST_SIZE)
+            throw new IOException("Buffer size " + bufferSize + " is outside the valid range.");
+        seedSource = new SecureRandom();
+        generators = createGenerators();
+    }
+
+    /**
+     * @return new entropy input and nonce from the seed source.
+     */
+    private byte[] seed() {
+        final byte[] seed = new byte[SEED_SIZE];
+        seedSource.nextBytes(seed);
+        return seed;
+    }
+
+    /**
+     * Generate random bytes directly from the generator, reseeding it first
+     * if required.
+     *
+     * @param generator the thread's generator.
+     * @param output the output buffer.
+     * @param offset offset into the output buffer.
+     * @param length number of bytes to generate.
+     */
+    private void generate(final Generator generator, final byte[] output, final int offset, final int length) {
+        int generated = 0;
+        while (generated < length) {
+            if (generator.drbg.isReseedRequired())
+                generator.drbg.reseed(seed());
+            final int count = Math.min(MAX_REQUEST_SIZE, length - generated);
+            generator.drbg.generate(output, offset + generated, count);
+            generated += count;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Random#nextBytes(byte[])
+     */
+    @Override
+    public void nextBytes(final byte[] bytes) {
+        final Generator generator = generators.get();
+        final byte[] buffer = generator.buffer;
+
+        // Large requests bypass the buffer.
+        if (bytes.length >= buffer.length) {
+            generate(generator, bytes, 0, bytes.length);
+            return;
+        }
+
+        // Serve small requests from the buffer, refilling it when empty.
+        int copied = 0;
+        while (copied < bytes.length) {
+            if (generator.position == buffer.length) {
+                generate(generator, buffer, 0, buffer.length);
+                generator.position = 0;
+            }
+            final int count = Math.min(buffer.length - generator.position, bytes.length - copied);
+            System.arraycopy(buffer, generator.position, bytes, copied, count);
+            Arrays.fill(buffer, generator.position, generator.position + count, (byte)0);
+            generator.position += count;
+            copied += count;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Random#next(int)
+     */
+    @Override
+    protected int next(final int bits) {
+        final byte[] b = new byte[4];
+        nextBytes(b);
+        final int value = ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+        return value >>> (32 - bits);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Random#setSeed(long)
+     */
+    @Override
+    public void setSeed(final long seed) {
+        // The Random constructor calls this method before the generators
+        // exist.
+        if (generators == null)
+            return;
+        final byte[] data = new byte[8];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = (byte)(seed >>> (56 - 8 * i));
+        generators.get().drbg.addInput(data);
+    }
+
+    /** Seed source. */
+    private transient SecureRandom seedSource;
+    /** Per-thread buffer size in bytes. */
+    private final int bufferSize;
+    /** Per-thread generators. */
+    private transient ThreadLocal<Generator> generators;
+}
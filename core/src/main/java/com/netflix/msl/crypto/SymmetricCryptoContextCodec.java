@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.crypto;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>Encodes and decodes the key material of a symmetric crypto context so
+ * it can be persisted, for example in a
+ * {@link com.netflix.msl.util.MslStoreSnapshot}.</p>
+ *
+ * <p>Symmetric crypto contexts do not expose their keys. This is the only
+ * way to extract them, and only in this encoded form, which contains the
+ * secret key material in the clear and must be protected accordingly.</p>
+ *
+ * <p>The key set identity is encoded as a string followed by the
+ * encryption, signature, and wrapping keys. A string is encoded as its
+ * length as a 32-bit big-endian integer followed by its UTF-8 bytes, or as
+ * -1 if {@code null}. A key is encoded as its algorithm string followed by
+ * the length of its encoded key material as a 32-bit big-endian integer and
+ * the key material, or as a {@code null} algorithm string if
+ * {@code null}.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class SymmetricCryptoContextCodec {
+    /**
+     * Write the key set identity and keys of a symmetric crypto context.
+     *
+     * @param out the output stream.
+     * @param cryptoContext the symmetric crypto context.
+     * @throws IOException if there is an error writing the data or a key
+     *         cannot be encoded.
+     */
+    public static void write(final DataOutputStream out, final SymmetricCryptoContext cryptoContext) throws IOException {
+        writeString(out, cryptoContext.id);
+        writeKey(out, cryptoContext.encryptionKey);
+        writeKey(out, cryptoContext.signatureKey);
+        writeKey(out, cryptoContext.wrappingKey);
+    }
+
+    /**
+     * Read a symmetric crypto context written by
+     * {@link #write(DataOutputStream, SymmetricCryptoContext)}. Field lengths
+     * are checked against the bytes available from the input stream, which
+     * should therefore hold exactly the data to read.
+     *
+     * @param ctx MSL context.
+     * @param in the input stream.
+     * @return the symmetric crypto context.
+     * @throws IOException if there is an error reading the data or a length
+     *         is invalid.
+     * @throws IllegalArgumentException if the keys are not valid for a
+     *         symmetric crypto context.
+     */
+    public static SymmetricCryptoContext read(final MslContext ctx, final DataInputStream in) throws IOException {
+        final String id = readString(in);
+        final SecretKey encryptionKey = readKey(in);
+        final SecretKey signatureKey = readKey(in);
+        final SecretKey wrappingKey = readKey(in);
+        return new SymmetricCryptoContext(ctx, id, encryptionKey, signatureKey, wrappingKey);
+    }
+
+    /**
+     * <p>Write a string that may be {@code null} prefixed by its length.</p>
+     *
+     * @param out the output stream.
+     * @param s the string. May be {@code null}.
+     * @throws IOException if there is an error writing the data.
+     */
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] b = s.getBytes(MslConstants.DEFAULT_CHARSET);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * <p>Write a secret key that may be {@code null} as its algorithm and
+     * encoded key material.</p>
+     *
+     * @param out the output stream.
+     * @param key the secret key. May be {@code null}.
+     * @throws IOException if there is an error writing the data or the key
+     *         cannot be encoded.
+     */
+    private static void writeKey(final DataOutputStream out, final SecretKey key) throws IOException {
+        if (key == null) {
+            writeString(out, null);
+            return;
+        }
+        final byte[] encoded = key.getEncoded();
+        if (encoded == null)
+            throw new IOException("Secret key " + key.getAlgorithm() + " cannot be encoded.");
+        writeString(out, key.getAlgorithm());
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * <p>Read a byte array of the provided length.</p>
+     *
+     * @param in the input stream.
+     * @param length the byte array length.
+     * @return the byte array.
+     * @throws IOException if there is an error reading the data or the length
+     *         is invalid.
+     */
+    private static byte[] readBytes(final DataInputStream in, final int length) throws IOException {
+        if (length < 0 || length > in.available())
+            throw new IOException("Invalid crypto context field length " + length + ".");
+        final byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * <p>Read a string that may be {@code null} prefixed by its length.</p>
+     *
+     * @param in the input stream.
+     * @return the string. May be {@code null}.
+     * @throws IOException if there is an error reading the data or the length
+     *         is invalid.
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1)
+            return null;
+        return new String(readBytes(in, length), MslConstants.DEFAULT_CHARSET);
+    }
+
+    /**
+     * <p>Read a secret key that may be {@code null}.</p>
+     *
+     * @param in the input stream.
+     * @return the secret key. May be {@code null}.
+     * @throws IOException if there is an error reading the data or the length
+     *         is invalid.
+     */
+    private static SecretKey readKey(final DataInputStream in) throws IOException {
+        final String algorithm = readString(in);
+        if (algorithm == null)
+            return null;
+        return new SecretKeySpec(readBytes(in, in.readInt()), algorithm);
+    }
+}
@@ -71,7 +71,7 @@ public class EccAuthenticationData extends EntityAuthenticationData {
             identity = eccAuthJO.getString(KEY_IDENTITY);
             pubkeyid = eccAuthJO.getString(KEY_PUBKEY_ID);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "ECC authdata " + eccAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "ECC authdata", eccAuthJO, e);
         }
     }
     
@@ -92,7 +92,7 @@ public abstract class EntityAuthenticationData implements JSONString {
                 throw new MslEntityAuthException(MslError.ENTITYAUTH_FACTORY_NOT_FOUND, scheme.name());
             return factory.createData(ctx, authdata);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "entityauthdata " + entityAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "entityauthdata", entityAuthJO, e);
         }
     }
     
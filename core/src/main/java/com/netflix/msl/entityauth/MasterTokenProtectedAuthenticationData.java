@@ -117,20 +117,20 @@ public class MasterTokenProtectedAuthenticationData extends EntityAuthentication
             try {
                 this.masterToken = new MasterToken(ctx, authdataJO.getJSONObject(KEY_MASTER_TOKEN));
             } catch (final MslException e) {
-                throw new MslEntityAuthException(MslError.ENTITYAUTH_MASTERTOKEN_INVALID, "master token protected authdata " + authdataJO.toString(), e);
+                throw new MslEntityAuthException(MslError.ENTITYAUTH_MASTERTOKEN_INVALID, "master token protected authdata", authdataJO, e);
             }
             try {
                 this.ciphertext = Base64.decode(authdataJO.getString(KEY_AUTHENTICATION_DATA));
             } catch (final IllegalArgumentException e) {
-                throw new MslEntityAuthException(MslError.ENTITYAUTH_CIPHERTEXT_INVALID, "master token protected authdata " + authdataJO.toString(), e);
+                throw new MslEntityAuthException(MslError.ENTITYAUTH_CIPHERTEXT_INVALID, "master token protected authdata", authdataJO, e);
             }
             try {
                 this.signature = Base64.decode(authdataJO.getString(KEY_SIGNATURE));
             } catch (final IllegalArgumentException e) {
-                throw new MslEntityAuthException(MslError.ENTITYAUTH_SIGNATURE_INVALID, "master token protected authdata " + authdataJO.toString(), e);
+                throw new MslEntityAuthException(MslError.ENTITYAUTH_SIGNATURE_INVALID, "master token protected authdata", authdataJO, e);
             }
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "master token protected authdata " + authdataJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "master token protected authdata", authdataJO, e);
         }
         
         // Grab master token crypto context.
@@ -148,12 +148,12 @@ public class MasterTokenProtectedAuthenticationData extends EntityAuthentication
         // Verify and decrypt the authentication data.
         try {
             if (!cryptoContext.verify(this.ciphertext, this.signature))
-                throw new MslEntityAuthException(MslError.ENTITYAUTH_VERIFICATION_FAILED, "master token protected authdata " + authdataJO.toString());
+                throw new MslEntityAuthException(MslError.ENTITYAUTH_VERIFICATION_FAILED, "master token protected authdata", authdataJO);
             final byte[] plaintext = cryptoContext.decrypt(this.ciphertext);
             final JSONObject internalAuthdataJO = new JSONObject(new String(plaintext, MslConstants.DEFAULT_CHARSET));
             this.authdata = EntityAuthenticationData.create(ctx, internalAuthdataJO);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "master token protected authdata " + authdataJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "master token protected authdata", authdataJO, e);
         }
     }
 
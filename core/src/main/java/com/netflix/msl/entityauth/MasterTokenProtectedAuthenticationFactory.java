@@ -64,7 +64,7 @@ public class MasterTokenProtectedAuthenticationFactory extends EntityAuthenticat
         // Check for revocation.
         final String identity = mtpad.getIdentity();
         if (authutils.isEntityRevoked(identity))
-            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "none " + identity).setEntityAuthenticationData(mtpad);
+            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "none", identity).setEntityAuthenticationData(mtpad);
 
         // Verify the scheme is permitted.
         if (!authutils.isSchemePermitted(identity, getScheme()))
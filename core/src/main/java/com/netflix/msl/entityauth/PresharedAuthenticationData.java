@@ -63,7 +63,7 @@ public class PresharedAuthenticationData extends EntityAuthenticationData {
         try {
             identity = presharedAuthJO.getString(KEY_IDENTITY);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "psk authdata " + presharedAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "psk authdata", presharedAuthJO, e);
         }
     }
     
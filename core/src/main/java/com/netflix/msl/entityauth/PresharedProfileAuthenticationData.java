@@ -73,7 +73,7 @@ public class PresharedProfileAuthenticationData extends EntityAuthenticationData
             pskid = authJo.getString(KEY_PSKID);
             profile = authJo.getString(KEY_PROFILE);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "psk profile authdata " + authJo.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "psk profile authdata", authJo, e);
         }
     }
 
@@ -66,7 +66,7 @@ public class PresharedProfileAuthenticationFactory extends EntityAuthenticationF
         // Check for revocation.
         final String pskId = ppad.getPresharedKeysId();
         if (authutils.isEntityRevoked(pskId))
-            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "psk profile " + pskId).setEntityAuthenticationData(ppad);
+            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "psk profile", pskId).setEntityAuthenticationData(ppad);
         
         // Verify the scheme is permitted.
         if (!authutils.isSchemePermitted(pskId, getScheme()))
@@ -75,7 +75,7 @@ public class PresharedProfileAuthenticationFactory extends EntityAuthenticationF
         // Load preshared keys authentication data.
         final KeySet keys = store.getKeys(pskId);
         if (keys == null)
-            throw new MslEntityAuthException(MslError.ENTITY_NOT_FOUND, "psk profile " + pskId).setEntityAuthenticationData(ppad);
+            throw new MslEntityAuthException(MslError.ENTITY_NOT_FOUND, "psk profile", pskId).setEntityAuthenticationData(ppad);
         
         // Return the crypto context.
         final String identity = ppad.getIdentity();
@@ -72,7 +72,7 @@ public class RsaAuthenticationData extends EntityAuthenticationData {
             identity = rsaAuthJO.getString(KEY_IDENTITY);
             pubkeyid = rsaAuthJO.getString(KEY_PUBKEY_ID);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "RSA authdata " + rsaAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "RSA authdata", rsaAuthJO, e);
         }
     }
     
@@ -86,7 +86,7 @@ public class RsaAuthenticationFactory extends EntityAuthenticationFactory {
         // Check for revocation.
         final String identity = rad.getIdentity();
         if (authutils.isEntityRevoked(identity))
-            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "rsa " + identity).setEntityAuthenticationData(rad);
+            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "rsa", identity).setEntityAuthenticationData(rad);
         
         // Verify the scheme is permitted.
         if (!authutils.isSchemePermitted(identity, getScheme()))
@@ -66,7 +66,7 @@ public class UnauthenticatedAuthenticationData extends EntityAuthenticationData
         try {
             identity = unauthenticatedAuthJO.getString(KEY_IDENTITY);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "unauthenticated authdata " + unauthenticatedAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "unauthenticated authdata", unauthenticatedAuthJO, e);
         }
     }
     
@@ -63,7 +63,7 @@ public class UnauthenticatedAuthenticationFactory extends EntityAuthenticationFa
         // Check for revocation.
         final String identity = uad.getIdentity();
         if (authutils.isEntityRevoked(identity))
-            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "none " + identity).setEntityAuthenticationData(uad);
+            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "none", identity).setEntityAuthenticationData(uad);
         
         // Verify the scheme is permitted.
         if (!authutils.isSchemePermitted(identity, getScheme()))
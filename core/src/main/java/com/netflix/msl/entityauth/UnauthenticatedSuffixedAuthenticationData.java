@@ -84,7 +84,7 @@ public class UnauthenticatedSuffixedAuthenticationData extends EntityAuthenticat
             root = unauthSuffixedAuthJO.getString(KEY_ROOT);
             suffix = unauthSuffixedAuthJO.getString(KEY_SUFFIX);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "unauthenticated suffixed authdata " + unauthSuffixedAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "unauthenticated suffixed authdata", unauthSuffixedAuthJO, e);
         }
     }
     
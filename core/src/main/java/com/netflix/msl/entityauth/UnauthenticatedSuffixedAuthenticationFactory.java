@@ -63,7 +63,7 @@ public class UnauthenticatedSuffixedAuthenticationFactory extends EntityAuthenti
         // Check for revocation.
         final String root = usad.getRoot();
         if (authutils.isEntityRevoked(root))
-            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "none suffixed " + root).setEntityAuthenticationData(usad);
+            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "none suffixed", root).setEntityAuthenticationData(usad);
         
         // Verify the scheme is permitted.
         if (!authutils.isSchemePermitted(root, getScheme()))
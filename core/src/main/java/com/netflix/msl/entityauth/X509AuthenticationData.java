@@ -84,7 +84,7 @@ public class X509AuthenticationData extends EntityAuthenticationData {
         try {
             x509 = x509AuthJO.getString(KEY_X509_CERT);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "X.509 authdata " + x509AuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "X.509 authdata", x509AuthJO, e);
         }
         
         // Get the X.509 certificate factory.
@@ -76,7 +76,7 @@ public class X509AuthenticationFactory extends EntityAuthenticationFactory {
         
         // Check for revocation.
         if (authutils.isEntityRevoked(identity))
-            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, cert.toString()).setEntityAuthenticationData(x509ad);
+            throw new MslEntityAuthException(MslError.ENTITY_REVOKED, "x509", cert).setEntityAuthenticationData(x509ad);
         
         // Verify the scheme is permitted.
         if (!authutils.isSchemePermitted(identity, getScheme()))
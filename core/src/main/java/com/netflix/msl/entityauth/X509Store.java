@@ -18,19 +18,25 @@ package com.netflix.msl.entityauth;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SignatureException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.security.auth.x500.X500Principal;
 
@@ -44,32 +50,194 @@ import com.netflix.msl.util.Base64;
  * may support CRLs in the future. It provides X.509 certificate signature
  * verification, certificate chaining, validity (time) checks, and trust store
  * management functionality.</p>
+ * 
+ * <p>Issuers are indexed by subject name and subject key identifier, and
+ * positive certificate verification results are cached so repeated
+ * verification of the same certificate does not repeat the signature
+ * check.</p>
+ * 
+ * <p>This class is thread-safe.</p>
  */
 public class X509Store {
+    /** Authority key identifier extension OID. */
+    private static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";
+    /** Subject key identifier extension OID. */
+    private static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+    /** DER OCTET STRING tag. */
+    private static final int TAG_OCTET_STRING = 0x04;
+    /** DER SEQUENCE tag. */
+    private static final int TAG_SEQUENCE = 0x30;
+    /** DER authority key identifier keyIdentifier [0] tag. */
+    private static final int TAG_KEY_IDENTIFIER = 0x80;
+    /** Certificate fingerprint digest algorithm. */
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+    /** Default maximum number of cached verification results. */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 65536;
+
+    /**
+     * <p>A cached positive verification result.</p>
+     */
+    private static class Verification {
+        /**
+         * @param issuer the verified issuing certificate.
+         * @param expiration the time in milliseconds since the epoch after
+         *        which this result must not be used.
+         */
+        public Verification(final X509Certificate issuer, final long expiration) {
+            this.issuer = issuer;
+            this.expiration = expiration;
+        }
+
+        /** Issuing certificate. */
+        public final X509Certificate issuer;
+        /** Expiration in milliseconds since the epoch. */
+        public final long expiration;
+    }
+
+    /**
+     * <p>Return the contents of the DER-encoded value at the specified offset
+     * if it has the expected tag.</p>
+     * 
+     * @param der DER-encoded data.
+     * @param offset value offset.
+     * @param tag expected tag.
+     * @return the value contents or {@code null} if the tag does not match or
+     *         the value is malformed.
+     */
+    private static byte[] getDerContents(final byte[] der, final int offset, final int tag) {
+        if (der == null || offset + 2 > der.length || (der[offset] & 0xff) != tag)
+            return null;
+        int index = offset + 1;
+        int length = der[index++] & 0xff;
+        if ((length & 0x80) != 0) {
+            final int lengthBytes = length & 0x7f;
+            if (lengthBytes == 0 || lengthBytes > 3 || index + lengthBytes > der.length)
+                return null;
+            length = 0;
+            for (int i = 0; i < lengthBytes; ++i)
+                length = (length << 8) | (der[index++] & 0xff);
+        }
+        if (index + length > der.length)
+            return null;
+        return Arrays.copyOfRange(der, index, index + length);
+    }
+
+    /**
+     * @param cert the certificate.
+     * @return the certificate subject key identifier or {@code null} if the
+     *         extension is missing or malformed.
+     */
+    private static ByteBuffer getSubjectKeyIdentifier(final X509Certificate cert) {
+        final byte[] extension = getDerContents(cert.getExtensionValue(SUBJECT_KEY_IDENTIFIER_OID), 0, TAG_OCTET_STRING);
+        final byte[] keyId = getDerContents(extension, 0, TAG_OCTET_STRING);
+        return (keyId != null) ? ByteBuffer.wrap(keyId) : null;
+    }
+
+    /**
+     * @param cert the certificate.
+     * @return the certificate authority key identifier or {@code null} if
+     *         the extension is missing, malformed, or does not contain a key
+     *         identifier.
+     */
+    private static ByteBuffer getAuthorityKeyIdentifier(final X509Certificate cert) {
+        final byte[] extension = getDerContents(cert.getExtensionValue(AUTHORITY_KEY_IDENTIFIER_OID), 0, TAG_OCTET_STRING);
+        final byte[] sequence = getDerContents(extension, 0, TAG_SEQUENCE);
+        final byte[] keyId = getDerContents(sequence, 0, TAG_KEY_IDENTIFIER);
+        return (keyId != null) ? ByteBuffer.wrap(keyId) : null;
+    }
+
+    /**
+     * @param cert the certificate.
+     * @return the certificate fingerprint or {@code null} if it cannot be
+     *         computed.
+     */
+    private static ByteBuffer getFingerprint(final X509Certificate cert) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+            return ByteBuffer.wrap(digest.digest(cert.getEncoded()));
+        } catch (final NoSuchAlgorithmException e) {
+            return null;
+        } catch (final CertificateEncodingException e) {
+            return null;
+        }
+    }
+
     /**
      * <p>Return the issuing certificate for the provided certificate. The
      * certificate will only be returned if the provided certificate signature
      * is verified by the issuing certificate.</p>
      * 
+     * <p>Candidate issuers are found by the certificate authority key
+     * identifier if present and known, otherwise by the certificate issuer
+     * name. Positive results are cached by certificate fingerprint until the
+     * certificate or issuer expires, whichever is first.</p>
+     * 
      * @param cert the certificate.
      * @return the issuing certificate or {@code null} if not found.
      */
     private X509Certificate getIssuer(final X509Certificate cert) {
+        // Return the cached issuer if there is one.
+        final ByteBuffer fingerprint = (maxCacheSize > 0) ? getFingerprint(cert) : null;
+        if (fingerprint != null) {
+            final Verification verification = verifications.get(fingerprint);
+            if (verification != null) {
+                if (System.currentTimeMillis() <= verification.expiration)
+                    return verification.issuer;
+                verifications.remove(fingerprint, verification);
+            }
+        }
+
+        // Look up candidate issuers.
         final X500Principal issuerDn = cert.getIssuerX500Principal();
-        final List<X509Certificate> issuers = store.get(issuerDn);
+        final ByteBuffer authorityKeyId = getAuthorityKeyIdentifier(cert);
+        List<X509Certificate> issuers = (authorityKeyId != null) ? keyIdentifiers.get(authorityKeyId) : null;
+        if (issuers == null)
+            issuers = store.get(issuerDn);
         if (issuers == null)
             return null;
         for (final X509Certificate issuer : issuers) {
+            if (!issuerDn.equals(issuer.getSubjectX500Principal()))
+                continue;
             try {
                 cert.verify(issuer.getPublicKey());
-                return issuer;
             } catch (final Exception e) {
                 // Ignore failures.
+                continue;
+            }
+            if (fingerprint != null) {
+                final long expiration = Math.min(cert.getNotAfter().getTime(), issuer.getNotAfter().getTime());
+                cache(fingerprint, new Verification(issuer, expiration));
             }
+            return issuer;
         }
         return null;
     }
 
+    /**
+     * <p>Cache a verification result. If the cache is full expired results
+     * are removed first, and if that is not enough arbitrary results are
+     * removed until the cache is three-quarters full.</p>
+     * 
+     * @param fingerprint certificate fingerprint.
+     * @param verification the verification result.
+     */
+    private void cache(final ByteBuffer fingerprint, final Verification verification) {
+        if (verifications.size() >= maxCacheSize) {
+            final long now = System.currentTimeMillis();
+            final Iterator<Verification> expired = verifications.values().iterator();
+            while (expired.hasNext()) {
+                if (expired.next().expiration < now)
+                    expired.remove();
+            }
+            final Iterator<ByteBuffer> arbitrary = verifications.keySet().iterator();
+            while (verifications.size() > maxCacheSize * 3 / 4 && arbitrary.hasNext()) {
+                arbitrary.next();
+                arbitrary.remove();
+            }
+        }
+        verifications.put(fingerprint, verification);
+    }
+
     /**
      * <p>Returns the chain of issuer certificates for the provided
      * certificate.</p>
@@ -180,6 +348,26 @@ public class X509Store {
         return true;
     }
     
+    /**
+     * <p>Create a new empty X.509 certificate store that caches up to
+     * {@link #DEFAULT_MAX_CACHE_SIZE} verification results.</p>
+     */
+    public X509Store() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+    
+    /**
+     * <p>Create a new empty X.509 certificate store.</p>
+     * 
+     * @param maxCacheSize maximum number of cached verification results.
+     *        Zero disables caching.
+     */
+    public X509Store(final int maxCacheSize) {
+        if (maxCacheSize < 0)
+            throw new IllegalArgumentException("Maximum cache size " + maxCacheSize + " is negative.");
+        this.maxCacheSize = maxCacheSize;
+    }
+    
     /**
      * <p>Add one or more trusted certificates (in DER format, binary or Base64-
      * encoded) to this X509Store.</p>
@@ -305,11 +493,29 @@ public class X509Store {
 
         // Add the certificate.
         final X500Principal subjectName = cert.getSubjectX500Principal();
-        if (!store.containsKey(subjectName))
-            store.put(subjectName, new ArrayList<X509Certificate>());
-        final List<X509Certificate> certs = store.get(subjectName);
-        if (!certs.contains(cert))
-            certs.add(cert);
+        add(store, subjectName, cert);
+        final ByteBuffer subjectKeyId = getSubjectKeyIdentifier(cert);
+        if (subjectKeyId != null)
+            add(keyIdentifiers, subjectKeyId, cert);
+    }
+    
+    /**
+     * <p>Add a certificate to the list of certificates associated with the
+     * provided key.</p>
+     * 
+     * @param index the certificate index.
+     * @param key the certificate key.
+     * @param cert the certificate.
+     */
+    private static <K> void add(final ConcurrentMap<K,CopyOnWriteArrayList<X509Certificate>> index, final K key, final X509Certificate cert) {
+        CopyOnWriteArrayList<X509Certificate> certs = index.get(key);
+        if (certs == null) {
+            final CopyOnWriteArrayList<X509Certificate> newCerts = new CopyOnWriteArrayList<X509Certificate>();
+            certs = index.putIfAbsent(key, newCerts);
+            if (certs == null)
+                certs = newCerts;
+        }
+        certs.addIfAbsent(cert);
     }
     
     /**
@@ -327,6 +533,12 @@ public class X509Store {
         return isVerified(cert);
     }
 
+    /** Maximum number of cached verification results. */
+    private final int maxCacheSize;
     /** Map of certificate subject names onto X.509 certificates. */
-    private final Map</*SubjectName*/X500Principal, List<X509Certificate>> store = new HashMap<X500Principal, List<X509Certificate>>();
+    private final ConcurrentMap</*SubjectName*/X500Principal, CopyOnWriteArrayList<X509Certificate>> store = new ConcurrentHashMap<X500Principal, CopyOnWriteArrayList<X509Certificate>>();
+    /** Map of certificate subject key identifiers onto X.509 certificates. */
+    private final ConcurrentMap</*SubjectKeyId*/ByteBuffer, CopyOnWriteArrayList<X509Certificate>> keyIdentifiers = new ConcurrentHashMap<ByteBuffer, CopyOnWriteArrayList<X509Certificate>>();
+    /** Map of certificate fingerprints onto positive verification results. */
+    private final ConcurrentMap</*Fingerprint*/ByteBuffer, Verification> verifications = new ConcurrentHashMap<ByteBuffer, Verification>();
 }
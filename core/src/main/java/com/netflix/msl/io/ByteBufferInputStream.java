@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+import java.nio.charset.Charset;
+
+/**
+ * <p>An {@link InputStream} that reads from a {@link ByteBuffer}. Heap and
+ * direct byte buffers are both supported.</p>
+ *
+ * <p>Reading advances the byte buffer position. Marking and resetting the
+ * stream marks and resets the byte buffer.</p>
+ *
+ * <p>{@link com.netflix.msl.msg.MessageInputStream} decodes messages
+ * directly out of the byte buffer instead of copying the bytes through an
+ * {@link java.io.InputStreamReader}.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ByteBufferInputStream extends InputStream {
+    /**
+     * <p>Create a new byte buffer input stream that reads the remaining bytes
+     * of the provided byte buffer.</p>
+     *
+     * @param buffer backing byte buffer.
+     */
+    public ByteBufferInputStream(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * <p>Make more data available in the byte buffer. The remaining bytes of
+     * the byte buffer must be kept but may be moved to the start of the byte
+     * buffer.</p>
+     *
+     * <p>The default implementation does nothing since all of the data is
+     * already in the byte buffer.</p>
+     *
+     * @return true if more data was made available, false if the end of the
+     *         stream has been reached.
+     * @throws IOException if there is an error reading more data.
+     */
+    protected boolean fill() throws IOException {
+        return false;
+    }
+
+    /**
+     * @return the backing byte buffer.
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * <p>Return a reader that decodes characters directly out of the backing
+     * byte buffer. Malformed and unmappable input is replaced, as with
+     * {@link java.io.InputStreamReader}.</p>
+     *
+     * <p>The reader and this stream share the byte buffer position.</p>
+     *
+     * @param charset input character set encoding.
+     * @return a new reader.
+     */
+    public Reader newReader(final Charset charset) {
+        return new ByteBufferReader(this, charset);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        final int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0) return 0;
+        if (!buffer.hasRemaining() && !fill())
+            return 0;
+        final int count = (int)Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#mark(int)
+     */
+    @Override
+    public synchronized void mark(final int readlimit) {
+        buffer.mark();
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#reset()
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        try {
+            buffer.reset();
+        } catch (final InvalidMarkException e) {
+            throw new IOException("Stream has not been marked.", e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#markSupported()
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /** Backing byte buffer. */
+    private final ByteBuffer buffer;
+}
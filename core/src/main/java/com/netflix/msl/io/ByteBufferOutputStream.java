@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>An {@link OutputStream} that writes into a {@link ByteBuffer}. Heap and
+ * direct byte buffers are both supported.</p>
+ *
+ * <p>Writing advances the byte buffer position. A write that does not fit in
+ * the remaining space of the byte buffer throws an {@link IOException} and
+ * leaves the byte buffer unchanged.</p>
+ *
+ * <p>{@link com.netflix.msl.msg.MessageOutputStream} encodes message headers
+ * and payload chunks directly into the byte buffer.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    /**
+     * <p>Create a new byte buffer output stream that writes into the provided
+     * byte buffer.</p>
+     *
+     * @param buffer backing byte buffer.
+     */
+    public ByteBufferOutputStream(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        try {
+            buffer.put((byte)(b & 0xff));
+        } catch (final BufferOverflowException | ReadOnlyBufferException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        try {
+            buffer.put(b, off, len);
+        } catch (final BufferOverflowException | ReadOnlyBufferException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * <p>Write the remaining bytes of the provided byte buffer.</p>
+     *
+     * @param src the source byte buffer.
+     * @throws IOException if the bytes do not fit or the backing byte buffer
+     *         is read-only.
+     */
+    public void write(final ByteBuffer src) throws IOException {
+        try {
+            buffer.put(src);
+        } catch (final BufferOverflowException | ReadOnlyBufferException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * <p>Encode the provided characters directly into the byte buffer.
+     * Unmappable characters are replaced.</p>
+     *
+     * @param chars the characters.
+     * @param charset output character set encoding.
+     * @throws IOException if the encoded characters do not fit or the backing
+     *         byte buffer is read-only.
+     */
+    public void write(final CharSequence chars, final Charset charset) throws IOException {
+        if (buffer.isReadOnly())
+            throw new IOException(new ReadOnlyBufferException());
+        final CharsetEncoder encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final int start = buffer.position();
+        final CharBuffer in = CharBuffer.wrap(chars);
+        final CoderResult result = encoder.encode(in, buffer, true);
+        if (result.isOverflow() || encoder.flush(buffer).isOverflow()) {
+            buffer.position(start);
+            throw new IOException(new BufferOverflowException());
+        }
+    }
+
+    /** Backing byte buffer. */
+    private final ByteBuffer buffer;
+}
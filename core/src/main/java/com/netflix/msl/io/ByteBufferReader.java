@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>A {@link Reader} that decodes characters directly out of the byte buffer
+ * of a {@link ByteBufferInputStream}, refilling it from the stream as
+ * needed.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+class ByteBufferReader extends Reader {
+    /**
+     * <p>Create a new byte buffer reader.</p>
+     *
+     * @param stream the byte buffer input stream.
+     * @param charset input character set encoding.
+     */
+    public ByteBufferReader(final ByteBufferInputStream stream, final Charset charset) {
+        this.stream = stream;
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.pending.flip();
+    }
+
+    /**
+     * <p>Decode at least one character into the provided character buffer,
+     * unless the end of the stream has been reached. The character buffer
+     * must have room for at least two characters.</p>
+     *
+     * @param out the character buffer.
+     * @throws IOException if there is an error reading more data.
+     */
+    private void decode(final CharBuffer out) throws IOException {
+        final int start = out.position();
+        while (!finished && out.position() == start) {
+            final ByteBuffer buffer = stream.buffer();
+            final CoderResult result = decoder.decode(buffer, out, eof);
+            if (result.isOverflow())
+                return;
+            if (eof) {
+                decoder.flush(out);
+                finished = true;
+            } else if (!stream.fill()) {
+                eof = true;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Reader#read(char[], int, int)
+     */
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || len > cbuf.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+
+        // Return the second half of a previously split surrogate pair.
+        if (pending.hasRemaining()) {
+            cbuf[off] = pending.get();
+            return 1;
+        }
+
+        // Decode directly into the caller's array if there is room for a
+        // surrogate pair.
+        if (len >= 2) {
+            final CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            decode(out);
+            final int count = out.position() - off;
+            return (count > 0) ? count : -1;
+        }
+
+        // Otherwise decode through the pending buffer.
+        pending.clear();
+        decode(pending);
+        pending.flip();
+        if (!pending.hasRemaining())
+            return -1;
+        cbuf[off] = pending.get();
+        return 1;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Reader#close()
+     */
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    /** Byte buffer input stream. */
+    private final ByteBufferInputStream stream;
+    /** Character set decoder. */
+    private final CharsetDecoder decoder;
+    /** Characters decoded but not yet returned. */
+    private final CharBuffer pending = CharBuffer.allocate(2);
+    /** True if the end of the stream has been reached. */
+    private boolean eof = false;
+    /** True if all characters have been decoded. */
+    private boolean finished = false;
+}
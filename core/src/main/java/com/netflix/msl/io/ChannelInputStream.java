@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * <p>An {@link java.io.InputStream} that reads from a
+ * {@link ReadableByteChannel} through a byte buffer. By default a direct byte
+ * buffer is used so channel reads do not go through a temporary buffer.</p>
+ *
+ * <p>Data may be read from the channel ahead of what has been read from this
+ * stream. To receive several messages over one channel, create one channel
+ * input stream and use it for every message.</p>
+ *
+ * <p>Selectable channels must be in blocking mode.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ChannelInputStream extends ByteBufferInputStream {
+    /** Default buffer size in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * <p>Create a new channel input stream with a direct byte buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.</p>
+     *
+     * @param channel the channel.
+     */
+    public ChannelInputStream(final ReadableByteChannel channel) {
+        this(channel, ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * <p>Create a new channel input stream with the provided byte buffer.
+     * Any data in the byte buffer is discarded.</p>
+     *
+     * <p>When reading characters the byte buffer must be large enough to
+     * hold the longest encoded character.</p>
+     *
+     * @param channel the channel.
+     * @param buffer the byte buffer.
+     * @throws IllegalArgumentException if the byte buffer has no capacity or
+     *         is read-only.
+     */
+    public ChannelInputStream(final ReadableByteChannel channel, final ByteBuffer buffer) {
+        super(empty(buffer));
+        this.channel = channel;
+    }
+
+    /**
+     * @param buffer the byte buffer.
+     * @return the byte buffer, cleared and flipped so it has no remaining
+     *         bytes.
+     * @throws IllegalArgumentException if the byte buffer has no capacity or
+     *         is read-only.
+     */
+    private static ByteBuffer empty(final ByteBuffer buffer) {
+        if (buffer.capacity() == 0)
+            throw new IllegalArgumentException("Byte buffer has no capacity.");
+        if (buffer.isReadOnly())
+            throw new IllegalArgumentException("Byte buffer is read-only.");
+        buffer.clear();
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return the channel.
+     */
+    public ReadableByteChannel getChannel() {
+        return channel;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.ByteBufferInputStream#fill()
+     */
+    @Override
+    protected boolean fill() throws IOException {
+        if (eof)
+            return false;
+        if (channel instanceof SelectableChannel && !((SelectableChannel)channel).isBlocking())
+            throw new IllegalBlockingModeException();
+
+        // A full byte buffer holds an incomplete character that can never
+        // be decoded.
+        final ByteBuffer buffer = buffer();
+        if (buffer.remaining() == buffer.capacity())
+            throw new IOException("Byte buffer is too small to hold a complete character.");
+        buffer.compact();
+        try {
+            int count = 0;
+            while (count == 0 && buffer.hasRemaining())
+                count = channel.read(buffer);
+            if (count < 0)
+                eof = true;
+            return count > 0;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.ByteBufferInputStream#mark(int)
+     */
+    @Override
+    public synchronized void mark(final int readlimit) {
+        // Mark is not supported.
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.ByteBufferInputStream#reset()
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark and reset are not supported.");
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.ByteBufferInputStream#markSupported()
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Channel. */
+    private final ReadableByteChannel channel;
+    /** True if the end of the channel has been reached. */
+    private boolean eof = false;
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>An {@link OutputStream} that writes to a {@link WritableByteChannel}.</p>
+ *
+ * <p>Written data is held until the stream is flushed and then written to
+ * the channel. If the channel is a {@link GatheringByteChannel} all of the
+ * held data is written with a single gathering write.</p>
+ *
+ * <p>{@link com.netflix.msl.msg.MessageOutputStream} does not flush a
+ * message header written to a channel output stream, so the header and the
+ * first payload chunk are written together.</p>
+ *
+ * <p>Selectable channels must be in blocking mode.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ChannelOutputStream extends OutputStream {
+    /**
+     * <p>Create a new channel output stream.</p>
+     *
+     * @param channel the channel.
+     */
+    public ChannelOutputStream(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return the channel.
+     */
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte)(b & 0xff) }, 0, 1);
+    }
+
+    /**
+     * <p>The data is copied since the caller may reuse the byte array.</p>
+     *
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0) return;
+        write(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+    }
+
+    /**
+     * <p>Write the remaining bytes of the provided byte buffer when the stream
+     * is next flushed. The byte buffer is not copied and must not be modified
+     * until then.</p>
+     *
+     * @param src the source byte buffer.
+     * @throws IOException if the stream is closed.
+     */
+    public void write(final ByteBuffer src) throws IOException {
+        if (closed)
+            throw new IOException("Channel output stream already closed.");
+        if (src.hasRemaining())
+            pending.add(src);
+    }
+
+    /**
+     * <p>Encode the provided characters and write them when the stream is next
+     * flushed. Unmappable characters are replaced.</p>
+     *
+     * @param chars the characters.
+     * @param charset output character set encoding.
+     * @throws IOException if the stream is closed.
+     */
+    public void write(final CharSequence chars, final Charset charset) throws IOException {
+        write(charset.encode(chars.toString()));
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        if (pending.isEmpty()) return;
+        if (channel instanceof SelectableChannel && !((SelectableChannel)channel).isBlocking())
+            throw new IllegalBlockingModeException();
+
+        final ByteBuffer[] buffers = pending.toArray(new ByteBuffer[pending.size()]);
+        pending.clear();
+        if (channel instanceof GatheringByteChannel) {
+            final GatheringByteChannel gathering = (GatheringByteChannel)channel;
+            int first = 0;
+            while (first < buffers.length) {
+                gathering.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining())
+                    ++first;
+            }
+        } else {
+            for (final ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /** Channel. */
+    private final WritableByteChannel channel;
+    /** Byte buffers waiting to be written. */
+    private final List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+    /** True if closed. */
+    private boolean closed = false;
+}
@@ -0,0 +1,600 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A multiplexed connection carries many independent exchanges over a
+ * single duplex stream, such as one socket. Each exchange appears to the
+ * application as its own {@link Url.Connection} with an input and output
+ * stream, so a complete MSL message exchange (including any handshake or key
+ * exchange messages) can run on each exchange while other exchanges are in
+ * flight on the same underlying stream.</p>
+ *
+ * <p>Either entity may open exchanges. Exchanges opened by the remote entity
+ * are returned by {@link #accept()}. Exchange data is sent as frames carrying
+ * the exchange ID, so responses are matched to their requests regardless of
+ * the order in which they arrive:
+ * {@code flags (1 byte) | exchange ID (4 bytes) | length (4 bytes) | data}.
+ * Closing an exchange output stream sends a final frame signalling the end of
+ * that exchange's data to the remote entity.</p>
+ *
+ * <p>Incoming frames are read by a daemon thread owned by the connection,
+ * which exits when the connection is closed or the underlying input stream
+ * ends. Pending reads then fail or end, depending on whether the remote
+ * entity finished sending.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MultiplexedConnection implements Closeable {
+    /** Maximum frame data size in bytes. */
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    /** Initial exchange output buffer size in bytes. */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /** Frame flag indicating the end of the sender's exchange data. */
+    private static final int FLAG_FIN = 0x01;
+    /** Frame flag indicating the sender opened the exchange. */
+    private static final int FLAG_OPENER = 0x02;
+
+    /**
+     * <p>A single exchange carried by the connection.</p>
+     */
+    public class Exchange implements Url.Connection, Closeable {
+        /**
+         * @param id exchange ID.
+         * @param local true if the exchange was opened by the local entity.
+         */
+        private Exchange(final int id, final boolean local) {
+            this.id = id;
+            this.local = local;
+            this.input = new ExchangeInputStream();
+            this.output = new ExchangeOutputStream(this);
+        }
+
+        /**
+         * @return the exchange ID. Exchange IDs are only unique among the
+         *         exchanges opened by the same entity.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return true if the exchange was opened by the local entity.
+         */
+        public boolean isLocal() {
+            return local;
+        }
+
+        /**
+         * Set the input stream read timeout.
+         *
+         * @param timeout read timeout in milliseconds. Zero means reads wait
+         *        indefinitely.
+         */
+        public void setTimeout(final int timeout) {
+            input.setTimeout(timeout);
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.io.Url.Connection#getInputStream()
+         */
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.io.Url.Connection#getOutputStream()
+         */
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        /**
+         * Close the exchange output and input streams.
+         *
+         * @throws IOException if there is an error sending the end of the
+         *         exchange data.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                output.close();
+            } finally {
+                input.close();
+            }
+        }
+
+        /**
+         * Record that the local entity has finished sending.
+         */
+        private synchronized void sent() {
+            sent = true;
+            release();
+        }
+
+        /**
+         * Record that the remote entity has finished sending.
+         */
+        private synchronized void received() {
+            received = true;
+            release();
+        }
+
+        /**
+         * Release the exchange once both entities have finished sending.
+         */
+        private void release() {
+            if (!sent || !received)
+                return;
+            if (local)
+                localExchanges.remove(id, this);
+            else
+                remoteExchanges.remove(id, this);
+        }
+
+        /** Exchange ID. */
+        private final int id;
+        /** True if opened by the local entity. */
+        private final boolean local;
+        /** Exchange input stream. */
+        private final ExchangeInputStream input;
+        /** Exchange output stream. */
+        private final ExchangeOutputStream output;
+        /** True once the local entity has finished sending. */
+        private boolean sent = false;
+        /** True once the remote entity has finished sending. */
+        private boolean received = false;
+    }
+
+    /**
+     * <p>Exchange input stream fed by the connection reader.</p>
+     */
+    private static class ExchangeInputStream extends InputStream {
+        /**
+         * @param timeout read timeout in milliseconds. Zero means reads wait
+         *        indefinitely.
+         */
+        public synchronized void setTimeout(final int timeout) {
+            this.timeout = timeout;
+        }
+
+        /**
+         * Deliver data received from the remote entity.
+         *
+         * @param data the data.
+         * @param fin true if the remote entity has finished sending.
+         */
+        public synchronized void deliver(final byte[] data, final boolean fin) {
+            if (!closed && data.length > 0) {
+                chunks.add(data);
+                available += data.length;
+            }
+            if (fin)
+                finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Fail any pending and future reads once delivered data has been
+         * consumed, unless the remote entity already finished sending.
+         *
+         * @param cause the failure cause.
+         */
+        public synchronized void fail(final IOException cause) {
+            if (error == null)
+                error = cause;
+            notifyAll();
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int count = read(b, 0, 1);
+            return (count == -1) ? -1 : (b[0] & 0xff);
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (closed)
+                throw new IOException("Stream closed.");
+            if (len == 0)
+                return 0;
+
+            // Wait for data.
+            final long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+            while (available == 0 && !finished && error == null && !closed) {
+                try {
+                    if (deadline == 0) {
+                        wait();
+                    } else {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0)
+                            throw new SocketTimeoutException("Read timed out.");
+                        wait(remaining);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for exchange data.");
+                }
+            }
+            if (closed)
+                throw new IOException("Stream closed.");
+            if (available == 0) {
+                if (finished)
+                    return -1;
+                throw new IOException("Connection failed.", error);
+            }
+
+            // Copy out as much data as is available.
+            int copied = 0;
+            while (copied < len && available > 0) {
+                final byte[] chunk = chunks.peek();
+                final int count = Math.min(len - copied, chunk.length - offset);
+                System.arraycopy(chunk, offset, b, off + copied, count);
+                copied += count;
+                offset += count;
+                available -= count;
+                if (offset == chunk.length) {
+                    chunks.poll();
+                    offset = 0;
+                }
+            }
+            return copied;
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public synchronized int available() {
+            return available;
+        }
+
+        /**
+         * Discard any buffered and future data. Closing the input stream does
+         * not notify the remote entity.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            chunks.clear();
+            available = 0;
+            offset = 0;
+            notifyAll();
+        }
+
+        /** Received data chunks. */
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+        /** Read offset into the first chunk. */
+        private int offset = 0;
+        /** Number of bytes available. */
+        private int available = 0;
+        /** True if the remote entity has finished sending. */
+        private boolean finished = false;
+        /** True if closed by the local entity. */
+        private boolean closed = false;
+        /** Connection failure. May be null. */
+        private IOException error = null;
+        /** Read timeout in milliseconds. */
+        private int timeout = 0;
+    }
+
+    /**
+     * <p>Exchange output stream that buffers data until flushed or closed and
+     * then sends it as one or more frames.</p>
+     */
+    private class ExchangeOutputStream extends OutputStream {
+        /**
+         * @param exchange the owning exchange.
+         */
+        public ExchangeOutputStream(final Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (closed)
+                throw new IOException("Stream closed.");
+            int written = 0;
+            while (written < len) {
+                final int count = Math.min(len - written, MAX_FRAME_SIZE - position);
+                if (position + count > buffer.length)
+                    buffer = Arrays.copyOf(buffer, Math.min(MAX_FRAME_SIZE, Math.max(2 * buffer.length, position + count)));
+                System.arraycopy(b, off + written, buffer, position, count);
+                position += count;
+                written += count;
+                if (position == MAX_FRAME_SIZE)
+                    send(0);
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.OutputStream#flush()
+         */
+        @Override
+        public synchronized void flush() throws IOException {
+            if (closed)
+                throw new IOException("Stream closed.");
+            if (position > 0)
+                send(0);
+        }
+
+        /**
+         * Send any buffered data and signal the end of the local entity's
+         * exchange data.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                send(FLAG_FIN);
+            } finally {
+                exchange.sent();
+            }
+        }
+
+        /**
+         * Send the buffered data as one frame.
+         *
+         * @param flags additional frame flags.
+         * @throws IOException if there is an error sending the frame.
+         */
+        private void send(final int flags) throws IOException {
+            final int opener = (exchange.local) ? FLAG_OPENER : 0;
+            sendFrame(flags | opener, exchange.id, buffer, position);
+            position = 0;
+        }
+
+        /** Owning exchange. */
+        private final Exchange exchange;
+        /** Frame data buffer. Grows up to the maximum frame size. */
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+        /** Number of buffered bytes. */
+        private int position = 0;
+        /** True if closed. */
+        private boolean closed = false;
+    }
+
+    /**
+     * <p>Create a new multiplexed connection over the provided streams and
+     * start reading frames from the input stream.</p>
+     *
+     * @param in underlying input stream.
+     * @param out underlying output stream.
+     */
+    public MultiplexedConnection(final InputStream in, final OutputStream out) {
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(out);
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "MultiplexedConnection");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Write one frame to the underlying output stream.
+     *
+     * @param flags frame flags.
+     * @param id exchange ID.
+     * @param data frame data.
+     * @param length frame data length.
+     * @throws IOException if the connection is closed or there is an error
+     *         writing the frame.
+     */
+    private void sendFrame(final int flags, final int id, final byte[] data, final int length) throws IOException {
+        synchronized (out) {
+            if (closed)
+                throw new IOException("Connection is closed.");
+            try {
+                out.writeByte(flags);
+                out.writeInt(id);
+                out.writeInt(length);
+                out.write(data, 0, length);
+                out.flush();
+            } catch (final IOException e) {
+                shutdown(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Read frames from the underlying input stream and deliver them to their
+     * exchanges until the stream ends or fails.
+     */
+    private void read() {
+        IOException cause = new EOFException("Connection closed by the remote entity.");
+        try {
+            while (true) {
+                final int flags = in.read();
+                if (flags == -1)
+                    break;
+                final int id = in.readInt();
+                final int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_SIZE)
+                    throw new IOException("Frame length " + length + " is invalid.");
+                final byte[] data = new byte[length];
+                in.readFully(data);
+
+                // Exchanges opened by the remote entity are created on their
+                // first frame. Frames for released local exchanges are
+                // discarded.
+                final Exchange exchange;
+                if ((flags & FLAG_OPENER) != 0) {
+                    final Exchange existing = remoteExchanges.get(id);
+                    if (existing != null) {
+                        exchange = existing;
+                    } else {
+                        exchange = new Exchange(id, false);
+                        remoteExchanges.put(id, exchange);
+                        accepted.add(exchange);
+                        if (closed)
+                            exchange.input.fail(new IOException("Connection is closed."));
+                    }
+                } else {
+                    exchange = localExchanges.get(id);
+                    if (exchange == null)
+                        continue;
+                }
+                final boolean fin = (flags & FLAG_FIN) != 0;
+                exchange.input.deliver(data, fin);
+                if (fin)
+                    exchange.received();
+            }
+        } catch (final IOException e) {
+            cause = e;
+        } finally {
+            shutdown(cause);
+        }
+    }
+
+    /**
+     * Close the connection and fail all unfinished exchanges.
+     *
+     * @param cause the failure cause.
+     */
+    private void shutdown(final IOException cause) {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        for (final Exchange exchange : localExchanges.values())
+            exchange.input.fail(cause);
+        for (final Exchange exchange : remoteExchanges.values())
+            exchange.input.fail(cause);
+        accepted.add(CLOSED);
+        try { in.close(); } catch (final IOException e) {}
+        try { out.close(); } catch (final IOException e) {}
+    }
+
+    /**
+     * Open a new exchange. The remote entity is not notified until data is
+     * sent or the exchange output stream is closed.
+     *
+     * @return the new exchange.
+     * @throws IOException if the connection is closed.
+     */
+    public Exchange open() throws IOException {
+        if (closed)
+            throw new IOException("Connection is closed.");
+        final Exchange exchange = new Exchange(nextId.getAndIncrement(), true);
+        localExchanges.put(exchange.id, exchange);
+
+        // Fail the exchange if the connection closed concurrently.
+        if (closed)
+            exchange.input.fail(new IOException("Connection is closed."));
+        return exchange;
+    }
+
+    /**
+     * Wait for and return the next exchange opened by the remote entity.
+     *
+     * @return the exchange or {@code null} if the connection is closed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Exchange accept() throws InterruptedException {
+        final Exchange exchange = accepted.take();
+        if (exchange == CLOSED) {
+            // Wake up any other waiting callers.
+            accepted.add(CLOSED);
+            return null;
+        }
+        return exchange;
+    }
+
+    /**
+     * @return true if the connection is closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the connection and the underlying streams. Unfinished exchanges
+     * fail.
+     */
+    @Override
+    public void close() {
+        shutdown(new IOException("Connection closed."));
+    }
+
+    /** Underlying input stream. */
+    private final DataInputStream in;
+    /** Underlying output stream. */
+    private final DataOutputStream out;
+    /** Next local exchange ID. */
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    /** Open exchanges opened by the local entity by ID. */
+    private final ConcurrentMap<Integer,Exchange> localExchanges = new ConcurrentHashMap<Integer,Exchange>();
+    /** Open exchanges opened by the remote entity by ID. */
+    private final ConcurrentMap<Integer,Exchange> remoteExchanges = new ConcurrentHashMap<Integer,Exchange>();
+    /** Remote exchanges waiting to be accepted. */
+    private final BlockingQueue<Exchange> accepted = new LinkedBlockingQueue<Exchange>();
+    /** Marker queued for accepting callers once the connection is closed. */
+    private final Exchange CLOSED = new Exchange(-1, false);
+    /** True once the connection is closed. */
+    private volatile boolean closed = false;
+}
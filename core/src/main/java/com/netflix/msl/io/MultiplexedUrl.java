@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+
+import com.netflix.msl.io.MultiplexedConnection.Exchange;
+
+/**
+ * <p>A {@link Url} whose connections are new exchanges on a shared
+ * {@link MultiplexedConnection}. Passing this URL to
+ * {@link com.netflix.msl.msg.MslControl#request(com.netflix.msl.util.MslContext, com.netflix.msl.msg.MessageContext, Url, int)}
+ * lets many requests be in flight concurrently over one underlying stream.
+ * MSL control closes each exchange once its request completes.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MultiplexedUrl implements Url {
+    /**
+     * Create a new multiplexed URL.
+     *
+     * @param connection the shared multiplexed connection.
+     */
+    public MultiplexedUrl(final MultiplexedConnection connection) {
+        this.connection = connection;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.Url#setTimeout(int)
+     */
+    @Override
+    public void setTimeout(final int timeout) {
+        this.timeout = timeout;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.io.Url#openConnection()
+     */
+    @Override
+    public Connection openConnection() throws IOException {
+        final Exchange exchange = connection.open();
+        exchange.setTimeout(timeout);
+        return exchange;
+    }
+
+    /** Shared multiplexed connection. */
+    private final MultiplexedConnection connection;
+    /** Read timeout in milliseconds. */
+    private volatile int timeout = 0;
+}
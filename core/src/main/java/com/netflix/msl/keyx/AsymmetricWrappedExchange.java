@@ -292,10 +292,10 @@ public class AsymmetricWrappedExchange extends KeyExchangeFactory {
                 try {
                     encodedKey = Base64.decode(keyRequestJO.getString(KEY_PUBLIC_KEY));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslCryptoException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyRequestJO.toString(), e);
+                    throw new MslCryptoException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyRequestJO, e);
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyRequestJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyRequestJO, e);
             }
             
             try {
@@ -324,11 +324,11 @@ public class AsymmetricWrappedExchange extends KeyExchangeFactory {
                         throw new MslCryptoException(MslError.UNSUPPORTED_KEYX_MECHANISM, mechanism.name());
                 }
             } catch (final NullPointerException e) {
-                throw new MslCryptoException(MslError.INVALID_PUBLIC_KEY, "keydata " + keyRequestJO.toString(), e);
+                throw new MslCryptoException(MslError.INVALID_PUBLIC_KEY, "keydata", keyRequestJO, e);
             } catch (final NoSuchAlgorithmException e) {
-                throw new MslCryptoException(MslError.UNSUPPORTED_KEYX_MECHANISM, "keydata " + keyRequestJO.toString(), e);
+                throw new MslCryptoException(MslError.UNSUPPORTED_KEYX_MECHANISM, "keydata", keyRequestJO, e);
             } catch (final InvalidKeySpecException e) {
-                throw new MslCryptoException(MslError.INVALID_PUBLIC_KEY, "keydata " + keyRequestJO.toString(), e);
+                throw new MslCryptoException(MslError.INVALID_PUBLIC_KEY, "keydata", keyRequestJO, e);
             }
             privateKey = null;
         }
@@ -475,15 +475,15 @@ public class AsymmetricWrappedExchange extends KeyExchangeFactory {
                 try {
                     encryptionKey = Base64.decode(keyDataJO.getString(KEY_ENCRYPTION_KEY));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_ENCRYPTION_KEY, "keydata " + keyDataJO.toString(), e);
+                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_ENCRYPTION_KEY, "keydata", keyDataJO, e);
                 }
                 try {
                     hmacKey = Base64.decode(keyDataJO.getString(KEY_HMAC_KEY));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_HMAC_KEY, "keydata " + keyDataJO.toString(), e);
+                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_HMAC_KEY, "keydata", keyDataJO, e);
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyDataJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyDataJO, e);
             }
         }
         
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.keyx;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A bounded cache of expiring values used by the key ladder exchanges and
+ * their wrapping key crypto context repository.</p>
+ *
+ * <p>The cache is split into independently locked access-ordered segments.
+ * Once a segment is full its least recently used entry is evicted. Expired
+ * entries are removed when they are looked up.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+class BoundedCache<K,V> {
+    /** Number of segments. Must be a power of two. */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * <p>A cached value and its expiration.</p>
+     */
+    public static class CacheEntry<K,V> {
+        /**
+         * @param key the key.
+         * @param value the value.
+         * @param expiration expiration in milliseconds since the epoch.
+         */
+        private CacheEntry(final K key, final V value, final long expiration) {
+            this.key = key;
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        /** Key. */
+        public final K key;
+        /** Value. */
+        public final V value;
+        /** Expiration in milliseconds since the epoch. */
+        public final long expiration;
+    }
+
+    /**
+     * <p>An access-ordered segment that evicts its least recently used entry
+     * once it exceeds its capacity. Access must be synchronized on the
+     * segment.</p>
+     */
+    private static class Segment<K,V> extends LinkedHashMap<K,CacheEntry<K,V>> {
+        private static final long serialVersionUID = 2810436524580367941L;
+
+        /**
+         * @param capacity maximum number of entries.
+         */
+        public Segment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+         */
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K,CacheEntry<K,V>> eldest) {
+            return size() > capacity;
+        }
+
+        /** Maximum number of entries. */
+        private final int capacity;
+    }
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize maximum number of entries. Must be positive.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public BoundedCache(final int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Maximum size " + maxSize + " is not positive.");
+        final int capacity = (maxSize + SEGMENTS - 1) / SEGMENTS;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; ++i)
+            segments[i] = new Segment<K,V>(capacity);
+    }
+
+    /**
+     * @param key the key.
+     * @return the segment holding the key.
+     */
+    private Segment<K,V> segment(final Object key) {
+        final int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @param key the key.
+     * @param now the current time in milliseconds since the epoch.
+     * @return the value or {@code null} if there is none or it has expired.
+     */
+    public V get(final K key, final long now) {
+        final Segment<K,V> segment = segment(key);
+        synchronized (segment) {
+            final CacheEntry<K,V> entry = segment.get(key);
+            if (entry == null)
+                return null;
+            if (entry.expiration < now) {
+                segment.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /**
+     * Add or replace a value.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @param expiration expiration in milliseconds since the epoch.
+     */
+    public void put(final K key, final V value, final long expiration) {
+        final Segment<K,V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, new CacheEntry<K,V>(key, value, expiration));
+        }
+    }
+
+    /**
+     * @param key the key.
+     */
+    public void remove(final K key) {
+        final Segment<K,V> segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * @param now the current time in milliseconds since the epoch.
+     * @return the unexpired entries, least recently used first within each
+     *         segment.
+     */
+    public List<CacheEntry<K,V>> entries(final long now) {
+        final List<CacheEntry<K,V>> entries = new ArrayList<CacheEntry<K,V>>();
+        for (final Segment<K,V> segment : segments) {
+            synchronized (segment) {
+                for (final CacheEntry<K,V> entry : segment.values()) {
+                    if (entry.expiration >= now)
+                        entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the number of entries, including any that have expired but not
+     *         yet been removed.
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment<K,V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        for (final Segment<K,V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /** Segments. */
+    private final Segment<K,V>[] segments;
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.keyx;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.keyx.BoundedCache.CacheEntry;
+import com.netflix.msl.keyx.JsonWebEncryptionLadderExchange.AesKwJweCryptoContext;
+import com.netflix.msl.keyx.JsonWebKeyLadderExchange.AesKwJwkCryptoContext;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>A bounded in-memory wrapping key crypto context repository.</p>
+ *
+ * <p>Crypto contexts are keyed by the content of their wrap data and expire a
+ * fixed time after they are added. Once the repository is full the least
+ * recently used crypto contexts are evicted. The repository is split into
+ * independently locked segments so concurrent access by many entities does
+ * not contend on a single lock; least recently used order is maintained per
+ * segment.</p>
+ *
+ * <p>The wrapping key crypto contexts created by
+ * {@link JsonWebEncryptionLadderExchange} and
+ * {@link JsonWebKeyLadderExchange} can be written to and restored from a
+ * compact binary snapshot so wrapping keys survive a restart. Other crypto
+ * contexts are not included in snapshots. Snapshots contain the raw
+ * wrapping keys and must be protected accordingly.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class BoundedWrapCryptoContextRepository implements WrapCryptoContextRepository {
+    /** Default maximum number of crypto contexts. */
+    public static final int DEFAULT_MAX_SIZE = 65536;
+    /** Default crypto context lifetime in milliseconds (30 days). */
+    public static final long DEFAULT_TTL = 30L * 24 * 60 * 60 * 1000;
+
+    /** Snapshot magic number ("MSLW"). */
+    private static final int SNAPSHOT_MAGIC = 0x4d534c57;
+    /** Snapshot format version. */
+    private static final int SNAPSHOT_VERSION = 1;
+    /** JSON Web Encryption ladder AES key wrap crypto context type. */
+    private static final int TYPE_JWE_AESKW = 1;
+    /** JSON Web Key ladder AES key wrap crypto context type. */
+    private static final int TYPE_JWK_AESKW = 2;
+
+    /**
+     * <p>Wrap data keyed by content with a precomputed hash code.</p>
+     */
+    private static class Wrapdata {
+        /**
+         * @param wrapdata the wrap data. The array is not copied.
+         */
+        public Wrapdata(final byte[] wrapdata) {
+            this.wrapdata = wrapdata;
+            this.hashCode = Arrays.hashCode(wrapdata);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof Wrapdata)) return false;
+            final Wrapdata that = (Wrapdata)obj;
+            return this.hashCode == that.hashCode && Arrays.equals(this.wrapdata, that.wrapdata);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        /** Wrap data. */
+        public final byte[] wrapdata;
+        /** Hash code. */
+        private final int hashCode;
+    }
+
+    /**
+     * Create a new repository with the default maximum size and crypto
+     * context lifetime.
+     *
+     * @param ctx MSL context.
+     */
+    public BoundedWrapCryptoContextRepository(final MslContext ctx) {
+        this(ctx, DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * Create a new repository.
+     *
+     * @param ctx MSL context. Used for the current time and to restore
+     *        crypto contexts from a snapshot.
+     * @param maxSize maximum number of crypto contexts. Must be positive.
+     * @param ttl crypto context lifetime in milliseconds. Must be positive.
+     */
+    public BoundedWrapCryptoContextRepository(final MslContext ctx, final int maxSize, final long ttl) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Maximum size " + maxSize + " is not positive.");
+        if (ttl < 1)
+            throw new IllegalArgumentException("Lifetime " + ttl + " is not positive.");
+        this.ctx = ctx;
+        this.ttl = ttl;
+        this.cache = new BoundedCache<Wrapdata,ICryptoContext>(maxSize);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.keyx.WrapCryptoContextRepository#addCryptoContext(byte[], com.netflix.msl.crypto.ICryptoContext)
+     */
+    @Override
+    public void addCryptoContext(final byte[] wrapdata, final ICryptoContext cryptoContext) {
+        final Wrapdata key = new Wrapdata(Arrays.copyOf(wrapdata, wrapdata.length));
+        cache.put(key, cryptoContext, ctx.getTime() + ttl);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.keyx.WrapCryptoContextRepository#getCryptoContext(byte[])
+     */
+    @Override
+    public ICryptoContext getCryptoContext(final byte[] wrapdata) {
+        return cache.get(new Wrapdata(wrapdata), ctx.getTime());
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.keyx.WrapCryptoContextRepository#removeCryptoContext(byte[])
+     */
+    @Override
+    public void removeCryptoContext(final byte[] wrapdata) {
+        cache.remove(new Wrapdata(wrapdata));
+    }
+
+    /**
+     * @return the number of crypto contexts, including any that have expired
+     *         but not yet been removed.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Remove all crypto contexts.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * <p>Write a compact binary snapshot of the unexpired persistable crypto
+     * contexts. The snapshot contains a magic number, version and count
+     * followed by each entry's wrap data, expiration, crypto context type,
+     * key algorithm and raw key.</p>
+     *
+     * <p>The output stream is flushed but not closed.</p>
+     *
+     * @param out snapshot output stream.
+     * @throws IOException if there is an error writing the snapshot.
+     */
+    public void save(final OutputStream out) throws IOException {
+        // Collect the entries first so the count is known.
+        final List<CacheEntry<Wrapdata,ICryptoContext>> entries = new ArrayList<CacheEntry<Wrapdata,ICryptoContext>>();
+        for (final CacheEntry<Wrapdata,ICryptoContext> entry : cache.entries(ctx.getTime())) {
+            if (getKey(entry.value) != null)
+                entries.add(entry);
+        }
+
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(SNAPSHOT_MAGIC);
+        dos.writeByte(SNAPSHOT_VERSION);
+        dos.writeInt(entries.size());
+        for (final CacheEntry<Wrapdata,ICryptoContext> entry : entries) {
+            final byte[] wrapdata = entry.key.wrapdata;
+            final SecretKey key = getKey(entry.value);
+            final byte[] encoded = key.getEncoded();
+            dos.writeInt(wrapdata.length);
+            dos.write(wrapdata);
+            dos.writeLong(entry.expiration);
+            dos.writeByte((entry.value instanceof AesKwJweCryptoContext) ? TYPE_JWE_AESKW : TYPE_JWK_AESKW);
+            dos.writeUTF(key.getAlgorithm());
+            dos.writeShort(encoded.length);
+            dos.write(encoded);
+        }
+        dos.flush();
+    }
+
+    /**
+     * @param cryptoContext the crypto context.
+     * @return the persistable wrapping key of the crypto context or
+     *         {@code null} if it cannot be persisted.
+     */
+    private static SecretKey getKey(final ICryptoContext cryptoContext) {
+        final SecretKey key;
+        if (cryptoContext instanceof AesKwJweCryptoContext)
+            key = ((AesKwJweCryptoContext)cryptoContext).getKey();
+        else if (cryptoContext instanceof AesKwJwkCryptoContext)
+            key = ((AesKwJwkCryptoContext)cryptoContext).getKey();
+        else
+            return null;
+        return (key != null && key.getEncoded() != null) ? key : null;
+    }
+
+    /**
+     * <p>Add the unexpired crypto contexts found in a snapshot previously
+     * written by {@link #save(OutputStream)}. Existing crypto contexts with
+     * the same wrap data are replaced. If the snapshot cannot be read no
+     * crypto contexts are added.</p>
+     *
+     * <p>The input stream is not closed.</p>
+     *
+     * @param in snapshot input stream.
+     * @throws IOException if there is an error reading the snapshot or the
+     *         snapshot is malformed.
+     */
+    public void load(final InputStream in) throws IOException {
+        final DataInputStream dis = new DataInputStream(in);
+        final int magic = dis.readInt();
+        if (magic != SNAPSHOT_MAGIC)
+            throw new IOException("Wrap crypto context snapshot magic number " + Integer.toHexString(magic) + " is not recognized.");
+        final int version = dis.readUnsignedByte();
+        if (version != SNAPSHOT_VERSION)
+            throw new IOException("Wrap crypto context snapshot version " + version + " is not supported.");
+        final int count = dis.readInt();
+        if (count < 0)
+            throw new IOException("Wrap crypto context snapshot count " + count + " is negative.");
+
+        // Parse all entries before adding any of them.
+        final List<Wrapdata> keys = new ArrayList<Wrapdata>();
+        final List<ICryptoContext> cryptoContexts = new ArrayList<ICryptoContext>();
+        final List<Long> expirations = new ArrayList<Long>();
+        final long now = ctx.getTime();
+        for (int i = 0; i < count; ++i) {
+            final int length = dis.readInt();
+            if (length < 0)
+                throw new IOException("Wrap crypto context snapshot wrap data length " + length + " is negative.");
+            final byte[] wrapdata = new byte[length];
+            dis.readFully(wrapdata);
+            final long expiration = dis.readLong();
+            final int type = dis.readUnsignedByte();
+            final String algorithm = dis.readUTF();
+            final byte[] encoded = new byte[dis.readUnsignedShort()];
+            dis.readFully(encoded);
+
+            final SecretKey key;
+            try {
+                key = new SecretKeySpec(encoded, algorithm);
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Wrap crypto context snapshot key is invalid.", e);
+            }
+            final ICryptoContext cryptoContext;
+            try {
+                switch (type) {
+                    case TYPE_JWE_AESKW:
+                        cryptoContext = new AesKwJweCryptoContext(ctx, key);
+                        break;
+                    case TYPE_JWK_AESKW:
+                        cryptoContext = new AesKwJwkCryptoContext(key);
+                        break;
+                    default:
+                        throw new IOException("Wrap crypto context snapshot type " + type + " is not recognized.");
+                }
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Wrap crypto context snapshot key algorithm " + algorithm + " is invalid.", e);
+            }
+            if (expiration >= now) {
+                keys.add(new Wrapdata(wrapdata));
+                cryptoContexts.add(cryptoContext);
+                expirations.add(expiration);
+            }
+        }
+
+        for (int i = 0; i < keys.size(); ++i)
+            cache.put(keys.get(i), cryptoContexts.get(i), expirations.get(i));
+    }
+
+    /** MSL context. */
+    private final MslContext ctx;
+    /** Crypto context lifetime in milliseconds. */
+    private final long ttl;
+    /** Crypto contexts by wrap data. */
+    private final BoundedCache<Wrapdata,ICryptoContext> cache;
+}
@@ -146,13 +146,13 @@ public class DiffieHellmanExchange extends KeyExchangeFactory {
                 final byte[] publicKeyY = Base64.decode(keyDataJO.getString(KEY_PUBLIC_KEY));
                 publicKey = new BigInteger(correctNullBytes(publicKeyY));
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyDataJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyDataJO, e);
             } catch (final NullPointerException e) {
-                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyDataJO.toString(), e);
+                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyDataJO, e);
             } catch (final NumberFormatException e) {
-                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyDataJO.toString(), e);
+                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyDataJO, e);
             } catch (final IllegalArgumentException e) {
-                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyDataJO.toString(), e);
+                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyDataJO, e);
             }
             privateKey = null;
         }
@@ -275,13 +275,13 @@ public class DiffieHellmanExchange extends KeyExchangeFactory {
                 final byte[] publicKeyY = Base64.decode(keyDataJO.getString(KEY_PUBLIC_KEY));
                 publicKey = new BigInteger(correctNullBytes(publicKeyY));
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyDataJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyDataJO, e);
             } catch (final NullPointerException e) {
-                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyDataJO.toString(), e);
+                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyDataJO, e);
             } catch (final NumberFormatException e) {
-                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyDataJO.toString(), e);
+                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyDataJO, e);
             } catch (final IllegalArgumentException e) {
-                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata " + keyDataJO.toString(), e);
+                throw new MslKeyExchangeException(MslError.KEYX_INVALID_PUBLIC_KEY, "keydata", keyDataJO, e);
             }
         }
 
@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.keyx;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.interfaces.DHPrivateKey;
+import javax.crypto.interfaces.DHPublicKey;
+import javax.crypto.spec.DHParameterSpec;
+
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslInternalException;
+import com.netflix.msl.MslKeyExchangeException;
+import com.netflix.msl.crypto.CryptoCache;
+import com.netflix.msl.keyx.DiffieHellmanExchange.RequestData;
+
+/**
+ * <p>A pool of Diffie-Hellman key exchange request data generated ahead of
+ * time for each Diffie-Hellman parameters ID.</p>
+ *
+ * <p>Each request data is handed out exactly once. Whenever request data is
+ * taken from the pool a replacement is generated in the background, so
+ * callers only pay for key pair generation if the pool is empty. An empty
+ * pool never blocks the caller on another thread; the caller generates its
+ * own request data instead.</p>
+ *
+ * <p>A single pool is intended to be shared by all of the MSL contexts and
+ * message contexts in a process, with
+ * {@link com.netflix.msl.msg.MessageContext#getKeyRequestData()}
+ * implementations calling {@link #getRequestData(String)}. Calling
+ * {@link #fill(String)} at startup avoids a burst of key pair generation
+ * when many contexts issue their first key request at once.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class DiffieHellmanRequestPool {
+    /** Default number of request data to keep per parameters ID. */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * <p>Lazily created shared background executor used when none is
+     * provided.</p>
+     */
+    private static class DefaultExecutor {
+        /** Shared executor backed by a single daemon thread. */
+        private static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "DiffieHellmanRequestPool");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * <p>Request data pool for a single parameters ID.</p>
+     */
+    private static class Pool {
+        /**
+         * @param parametersId the parameters ID.
+         * @param paramSpec the parameter specification.
+         */
+        public Pool(final String parametersId, final DHParameterSpec paramSpec) {
+            this.parametersId = parametersId;
+            this.paramSpec = paramSpec;
+        }
+
+        /** Parameters ID. */
+        public final String parametersId;
+        /** Parameter specification. */
+        public final DHParameterSpec paramSpec;
+        /** Available request data. */
+        public final Queue<RequestData> requests = new ConcurrentLinkedQueue<RequestData>();
+        /** Number of available request data. */
+        public final AtomicInteger available = new AtomicInteger(0);
+        /** Number of request data being generated in the background. */
+        public final AtomicInteger pending = new AtomicInteger(0);
+    }
+
+    /**
+     * Create a new pool that keeps the default number of request data per
+     * parameters ID and generates replacements on a shared background
+     * thread.
+     *
+     * @param params Diffie-Hellman parameters.
+     */
+    public DiffieHellmanRequestPool(final DiffieHellmanParameters params) {
+        this(params, DEFAULT_POOL_SIZE, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Create a new pool.
+     *
+     * @param params Diffie-Hellman parameters.
+     * @param poolSize number of request data to keep per parameters ID. Must
+     *        be positive.
+     * @param executor executor used to generate replacement request data.
+     *        May be {@code null} in which case the pool is only refilled by
+     *        {@link #fill(String)}.
+     */
+    public DiffieHellmanRequestPool(final DiffieHellmanParameters params, final int poolSize, final Executor executor) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("Pool size " + poolSize + " is not positive.");
+        this.params = params;
+        this.poolSize = poolSize;
+        this.executor = executor;
+    }
+
+    /**
+     * @param parametersId the parameters ID.
+     * @return the pool for the parameters ID.
+     * @throws MslKeyExchangeException if the parameters ID is not recognized
+     *         or there is an error accessing the parameters.
+     */
+    private Pool getPool(final String parametersId) throws MslKeyExchangeException {
+        final Pool pool = pools.get(parametersId);
+        if (pool != null)
+            return pool;
+        final DHParameterSpec paramSpec = params.getParameterSpec(parametersId);
+        if (paramSpec == null)
+            throw new MslKeyExchangeException(MslError.UNKNOWN_KEYX_PARAMETERS_ID, parametersId);
+        final Pool newPool = new Pool(parametersId, paramSpec);
+        final Pool existing = pools.putIfAbsent(parametersId, newPool);
+        return (existing != null) ? existing : newPool;
+    }
+
+    /**
+     * Generate new request data.
+     *
+     * @param pool the pool identifying the parameters.
+     * @return the new request data.
+     * @throws MslInternalException if the Diffie-Hellman algorithm is not
+     *         supported or the parameters are rejected.
+     */
+    private static RequestData generate(final Pool pool) {
+        final KeyPair keyPair;
+        try {
+            final KeyPairGenerator generator = CryptoCache.getKeyPairGenerator("DH");
+            generator.initialize(pool.paramSpec);
+            keyPair = generator.generateKeyPair();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new MslInternalException("Diffie-Hellman algorithm not found.", e);
+        } catch (final InvalidAlgorithmParameterException e) {
+            throw new MslInternalException("Diffie-Hellman algorithm parameters rejected by Diffie-Hellman key agreement.", e);
+        }
+        final DHPublicKey publicKey = (DHPublicKey)keyPair.getPublic();
+        final DHPrivateKey privateKey = (DHPrivateKey)keyPair.getPrivate();
+        return new RequestData(pool.parametersId, publicKey.getY(), privateKey);
+    }
+
+    /**
+     * Schedule background generation until the available and pending
+     * request data fill the pool. Does nothing if there is no executor.
+     *
+     * @param pool the pool to replenish.
+     */
+    private void replenish(final Pool pool) {
+        if (executor == null)
+            return;
+        while (true) {
+            final int pending = pool.pending.get();
+            if (pool.available.get() + pending >= poolSize)
+                return;
+            if (!pool.pending.compareAndSet(pending, pending + 1))
+                continue;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            final RequestData request = generate(pool);
+                            pool.requests.offer(request);
+                            pool.available.incrementAndGet();
+                        } finally {
+                            pool.pending.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                // The caller will generate its own request data.
+                pool.pending.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>Return request data for the specified parameters ID. The returned
+     * request data will not be returned again.</p>
+     *
+     * <p>If the pool is empty the request data is generated by the calling
+     * thread.</p>
+     *
+     * @param parametersId the parameters ID.
+     * @return the request data.
+     * @throws MslKeyExchangeException if the parameters ID is not recognized
+     *         or there is an error accessing the parameters.
+     */
+    public RequestData getRequestData(final String parametersId) throws MslKeyExchangeException {
+        final Pool pool = getPool(parametersId);
+        final RequestData request = pool.requests.poll();
+        if (request != null)
+            pool.available.decrementAndGet();
+        replenish(pool);
+        return (request != null) ? request : generate(pool);
+    }
+
+    /**
+     * <p>Generate request data for the specified parameters ID on the
+     * calling thread until the pool is full.</p>
+     *
+     * @param parametersId the parameters ID.
+     * @throws MslKeyExchangeException if the parameters ID is not recognized
+     *         or there is an error accessing the parameters.
+     */
+    public void fill(final String parametersId) throws MslKeyExchangeException {
+        final Pool pool = getPool(parametersId);
+        while (true) {
+            final int available = pool.available.get();
+            if (available + pool.pending.get() >= poolSize)
+                return;
+            if (!pool.available.compareAndSet(available, available + 1))
+                continue;
+            try {
+                pool.requests.offer(generate(pool));
+            } catch (final RuntimeException e) {
+                pool.available.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @param parametersId the parameters ID.
+     * @return the number of request data available for the parameters ID.
+     */
+    public int size(final String parametersId) {
+        final Pool pool = pools.get(parametersId);
+        return (pool != null) ? pool.available.get() : 0;
+    }
+
+    /** Diffie-Hellman parameters. */
+    private final DiffieHellmanParameters params;
+    /** Number of request data to keep per parameters ID. */
+    private final int poolSize;
+    /** Background generation executor. May be null. */
+    private final Executor executor;
+    /** Pools by parameters ID. */
+    private final ConcurrentMap<String,Pool> pools = new ConcurrentHashMap<String,Pool>();
+}
@@ -74,6 +74,15 @@ import com.netflix.msl.util.MslContext;
  * <p>This key exchange scheme does not provide perfect forward secrecy and
  * should only be used if necessary to satisfy other security requirements.</p>
  * 
+ * <p>The responding entity may optionally cache the wrapping key issued in
+ * response to each previous wrapping key for a limited time. Repeated or
+ * concurrent key requests presenting the same previous wrapping key then
+ * receive the same wrapping key and wrap data, avoiding regeneration of the
+ * wrap data and rewrapping of the wrapping key. Session keys are always
+ * newly generated. The requesting entity reuses the wrapping key crypto
+ * context already found in its repository for wrap data it has previously
+ * been issued.</p>
+ * 
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
 public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
@@ -170,7 +179,7 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
                     throw new MslKeyExchangeException(MslError.UNIDENTIFIED_KEYX_MECHANISM, mechanismName, e);
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyRequestJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyRequestJO, e);
             }
             
             try {
@@ -185,17 +194,17 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
                         try {
                             wrapdata = Base64.decode(keyRequestJO.getString(KEY_WRAPDATA));
                         } catch (final IllegalArgumentException e) {
-                            throw new MslKeyExchangeException(MslError.KEYX_INVALID_WRAPDATA, "keydata " + keyRequestJO.toString(), e);
+                            throw new MslKeyExchangeException(MslError.KEYX_INVALID_WRAPDATA, "keydata", keyRequestJO, e);
                         }
                         if (wrapdata == null || wrapdata.length == 0)
-                            throw new MslKeyExchangeException(MslError.KEYX_WRAPPING_KEY_MISSING, "keydata " + keyRequestJO.toString());
+                            throw new MslKeyExchangeException(MslError.KEYX_WRAPPING_KEY_MISSING, "keydata", keyRequestJO);
                         break;
                     }
                     default:
                         throw new MslCryptoException(MslError.UNSUPPORTED_KEYX_MECHANISM, mechanism.name());
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyRequestJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyRequestJO, e);
             }
         }
 
@@ -316,25 +325,25 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
                 try {
                     wrapKey = Base64.decode(keyDataJO.getString(KEY_WRAP_KEY));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_WRAPPING_KEY, "keydata " + keyDataJO.toString(), e);
+                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_WRAPPING_KEY, "keydata", keyDataJO, e);
                 }
                 try {
                     wrapdata = Base64.decode(keyDataJO.getString(KEY_WRAPDATA));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_WRAPDATA, "keydata " + keyDataJO.toString(), e);
+                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_WRAPDATA, "keydata", keyDataJO, e);
                 }
                 try {
                     encryptionKey = Base64.decode(keyDataJO.getString(KEY_ENCRYPTION_KEY));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_ENCRYPTION_KEY, "keydata " + keyDataJO.toString(), e);
+                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_ENCRYPTION_KEY, "keydata", keyDataJO, e);
                 }
                 try {
                     hmacKey = Base64.decode(keyDataJO.getString(KEY_HMAC_KEY));
                 } catch (final IllegalArgumentException e) {
-                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_HMAC_KEY, "keydata " + keyDataJO.toString(), e);
+                    throw new MslKeyExchangeException(MslError.KEYX_INVALID_HMAC_KEY, "keydata", keyDataJO, e);
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyDataJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyDataJO, e);
             }
         }
         
@@ -573,6 +582,14 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
             return cryptoContext.unwrap(data);
         }
         
+        /**
+         * @return the AES secret key or {@code null} if this crypto context
+         *         is backed by another crypto context.
+         */
+        SecretKey getKey() {
+            return key;
+        }
+        
         /** AES secret key. */
         private final SecretKey key;
         /** AES key wrap crypto context. */
@@ -618,7 +635,31 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
     }
     
     /**
-     * Create a new JSON Web Key ladder key exchange factory.
+     * <p>A wrapping key issued in response to a key request.</p>
+     */
+    private static class WrapKey {
+        /**
+         * @param wrapCryptoContext the wrapping key crypto context.
+         * @param wrapdata the wrap data.
+         * @param wrappedWrapJwk the wrapped wrapping key JSON web key.
+         */
+        public WrapKey(final ICryptoContext wrapCryptoContext, final byte[] wrapdata, final byte[] wrappedWrapJwk) {
+            this.wrapCryptoContext = wrapCryptoContext;
+            this.wrapdata = wrapdata;
+            this.wrappedWrapJwk = wrappedWrapJwk;
+        }
+        
+        /** Wrapping key crypto context. */
+        public final ICryptoContext wrapCryptoContext;
+        /** Wrap data. */
+        public final byte[] wrapdata;
+        /** Wrapped wrapping key JSON web key. */
+        public final byte[] wrappedWrapJwk;
+    }
+    
+    /**
+     * Create a new JSON Web Key ladder key exchange factory that does not
+     * cache issued wrapping keys.
      * 
      * @param repository the wrapping key crypto context repository.
      * @param authutils authentication utilities.
@@ -627,6 +668,86 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         super(KeyExchangeScheme.JWK_LADDER);
         this.repository = repository;
         this.authutils = authutils;
+        this.wrapKeys = null;
+        this.wrapKeyTtl = 0;
+    }
+    
+    /**
+     * <p>Create a new JSON Web Key ladder key exchange factory that caches
+     * the wrapping key issued in response to each previous wrapping key.</p>
+     * 
+     * <p>A cached wrapping key is reissued to every key request presenting
+     * the same previous wrapping key until it expires, so the lifetime should
+     * be kept short.</p>
+     * 
+     * @param repository the wrapping key crypto context repository.
+     * @param authutils authentication utilities.
+     * @param wrapKeyCacheSize maximum number of cached wrapping keys. Must be
+     *        positive.
+     * @param wrapKeyCacheTtl cached wrapping key lifetime in milliseconds.
+     *        Must be positive.
+     */
+    public JsonWebKeyLadderExchange(final WrapCryptoContextRepository repository, final AuthenticationUtils authutils, final int wrapKeyCacheSize, final long wrapKeyCacheTtl) {
+        super(KeyExchangeScheme.JWK_LADDER);
+        if (wrapKeyCacheTtl < 1)
+            throw new IllegalArgumentException("Wrapping key cache lifetime " + wrapKeyCacheTtl + " is not positive.");
+        this.repository = repository;
+        this.authutils = authutils;
+        this.wrapKeys = new BoundedCache<String,WrapKey>(wrapKeyCacheSize);
+        this.wrapKeyTtl = wrapKeyCacheTtl;
+    }
+    
+    /**
+     * Return the wrapping key to issue in response to a key request. If
+     * caching is enabled and a wrapping key has already been issued for the
+     * same mechanism, previous wrapping key and entity identity then it is
+     * returned. Otherwise a new random wrapping key is created.
+     * 
+     * @param ctx MSL context.
+     * @param mechanism the wrap key wrapping mechanism.
+     * @param prevWrapdata the wrap key previous wrapping key data. May be
+     *        null.
+     * @param identity the entity identity.
+     * @return the wrapping key.
+     * @throws MslCryptoException if there is an error wrapping the wrapping
+     *         key.
+     * @throws MslKeyExchangeException if the mechanism is unsupported or the
+     *         previous wrapping key is missing.
+     * @throws MslEntityAuthException if there is a problem with the entity
+     *         identity.
+     */
+    private WrapKey getWrapKey(final MslContext ctx, final Mechanism mechanism, final byte[] prevWrapdata, final String identity) throws MslCryptoException, MslKeyExchangeException, MslEntityAuthException {
+        // Return the cached wrapping key if there is one. The identity goes
+        // last because it may contain the separator.
+        final String cacheKey;
+        if (wrapKeys != null) {
+            final String prev = (prevWrapdata != null) ? Base64.encode(prevWrapdata) : "";
+            cacheKey = mechanism.name() + ":" + prev + ":" + identity;
+            final WrapKey cached = wrapKeys.get(cacheKey, ctx.getTime());
+            if (cached != null)
+                return cached;
+        } else {
+            cacheKey = null;
+        }
+        
+        // Create random AES-128 wrapping key.
+        final byte[] wrapBytes = new byte[16];
+        ctx.getRandom().nextBytes(wrapBytes);
+        final SecretKey wrapKey = new SecretKeySpec(wrapBytes, JcaAlgorithm.AESKW);
+        
+        // Create the wrap data.
+        final ICryptoContext mslCryptoContext = ctx.getMslCryptoContext();
+        final byte[] wrapdata = mslCryptoContext.wrap(wrapBytes);
+        
+        // Wrap wrapping key using specified wrapping key.
+        final JsonWebKey wrapJwk = new JsonWebKey(WRAP_UNWRAP, Algorithm.A128KW, false, WRAP_KEY_ID, wrapKey);
+        final ICryptoContext wrapKeyCryptoContext = createCryptoContext(ctx, mechanism, prevWrapdata, identity);
+        final byte[] wrappedWrapJwk = wrapKeyCryptoContext.wrap(wrapJwk.toJSONString().getBytes(UTF_8));
+        
+        final WrapKey issued = new WrapKey(new AesKwJwkCryptoContext(wrapKey), wrapdata, wrappedWrapJwk);
+        if (wrapKeys != null)
+            wrapKeys.put(cacheKey, issued, ctx.getTime() + wrapKeyTtl);
+        return issued;
     }
 
     /* (non-Javadoc)
@@ -668,14 +789,8 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         if (!authutils.isSchemePermitted(identity, this.getScheme()))
             throw new MslKeyExchangeException(MslError.KEYX_INCORRECT_DATA, "Authentication scheme for entity not permitted " + identity + ":" + this.getScheme()).setMasterToken(masterToken);
         
-        // Create random AES-128 wrapping key.
-        final byte[] wrapBytes = new byte[16];
-        ctx.getRandom().nextBytes(wrapBytes);
-        final SecretKey wrapKey = new SecretKeySpec(wrapBytes, JcaAlgorithm.AESKW);
-        
-        // Create the wrap data.
-        final ICryptoContext mslCryptoContext = ctx.getMslCryptoContext();
-        final byte[] wrapdata = mslCryptoContext.wrap(wrapBytes);
+        // Create or reuse the wrapping key.
+        final WrapKey wrapKey = getWrapKey(ctx, mechanism, prevWrapdata, identity);
         
         // Create random AES-128 encryption and SHA-256 HMAC keys.
         final byte[] encryptionBytes = new byte[16];
@@ -685,13 +800,8 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         final SecretKey encryptionKey = new SecretKeySpec(encryptionBytes, JcaAlgorithm.AES);
         final SecretKey hmacKey = new SecretKeySpec(hmacBytes, JcaAlgorithm.HMAC_SHA256);
         
-        // Wrap wrapping key using specified wrapping key.
-        final JsonWebKey wrapJwk = new JsonWebKey(WRAP_UNWRAP, Algorithm.A128KW, false, WRAP_KEY_ID, wrapKey);
-        final ICryptoContext wrapKeyCryptoContext = createCryptoContext(ctx, mechanism, prevWrapdata, identity);
-        final byte[] wrappedWrapJwk = wrapKeyCryptoContext.wrap(wrapJwk.toJSONString().getBytes(UTF_8));
-        
         // Wrap session keys inside JSON Web Key objects with the wrapping key.
-        final ICryptoContext wrapCryptoContext = new AesKwJwkCryptoContext(wrapKey);
+        final ICryptoContext wrapCryptoContext = wrapKey.wrapCryptoContext;
         final JsonWebKey encryptionJwk = new JsonWebKey(ENCRYPT_DECRYPT, Algorithm.A128CBC, false, null, encryptionKey);
         final JsonWebKey hmacJwk = new JsonWebKey(SIGN_VERIFY, Algorithm.HS256, false, null, hmacKey);
         final byte[] wrappedEncryptionJwk = wrapCryptoContext.wrap(encryptionJwk.toJSONString().getBytes(UTF_8));
@@ -705,7 +815,7 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         final ICryptoContext cryptoContext = new SessionCryptoContext(ctx, newMasterToken);
         
         // Return the key exchange data.
-        final KeyResponseData keyResponseData = new ResponseData(newMasterToken, wrappedWrapJwk, wrapdata, wrappedEncryptionJwk, wrappedHmacJwk);
+        final KeyResponseData keyResponseData = new ResponseData(newMasterToken, wrapKey.wrappedWrapJwk, wrapKey.wrapdata, wrappedEncryptionJwk, wrappedHmacJwk);
         return new KeyExchangeData(keyResponseData, cryptoContext);
     }
 
@@ -723,15 +833,6 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         if (!authutils.isSchemePermitted(identity, this.getScheme()))
             throw new MslKeyExchangeException(MslError.KEYX_INCORRECT_DATA, "Authentication scheme for entity not permitted " + identity + ":" + this.getScheme()).setEntityAuthenticationData(entityAuthData);
 
-        // Create random AES-128 wrapping key.
-        final byte[] wrapBytes = new byte[16];
-        ctx.getRandom().nextBytes(wrapBytes);
-        final SecretKey wrapKey = new SecretKeySpec(wrapBytes, JcaAlgorithm.AESKW);
-        
-        // Create the wrap data.
-        final ICryptoContext mslCryptoContext = ctx.getMslCryptoContext();
-        final byte[] wrapdata = mslCryptoContext.wrap(wrapBytes);
-        
         // Create random AES-128 encryption and SHA-256 HMAC keys.
         final byte[] encryptionBytes = new byte[16];
         final byte[] hmacBytes = new byte[32];
@@ -744,13 +845,11 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         final Mechanism mechanism = request.getMechanism();
         final byte[] prevWrapdata = request.getWrapdata();
         
-        // Wrap wrapping key using specified wrapping key.
-        final JsonWebKey wrapJwk = new JsonWebKey(WRAP_UNWRAP, Algorithm.A128KW, false, WRAP_KEY_ID, wrapKey);
-        final ICryptoContext wrapKeyCryptoContext = createCryptoContext(ctx, mechanism, prevWrapdata, identity);
-        final byte[] wrappedWrapJwk = wrapKeyCryptoContext.wrap(wrapJwk.toJSONString().getBytes(UTF_8));
+        // Create or reuse the wrapping key.
+        final WrapKey wrapKey = getWrapKey(ctx, mechanism, prevWrapdata, identity);
         
         // Wrap session keys inside JSON Web Key objects with the wrapping key.
-        final ICryptoContext wrapCryptoContext = new AesKwJwkCryptoContext(wrapKey);
+        final ICryptoContext wrapCryptoContext = wrapKey.wrapCryptoContext;
         final JsonWebKey encryptionJwk = new JsonWebKey(ENCRYPT_DECRYPT, Algorithm.A128CBC, false, null, encryptionKey);
         final JsonWebKey hmacJwk = new JsonWebKey(SIGN_VERIFY, Algorithm.HS256, false, null, hmacKey);
         final byte[] wrappedEncryptionJwk = wrapCryptoContext.wrap(encryptionJwk.toJSONString().getBytes(UTF_8));
@@ -764,7 +863,7 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         final ICryptoContext cryptoContext = new SessionCryptoContext(ctx, newMasterToken);
         
         // Return the key exchange data.
-        final KeyResponseData keyResponseData = new ResponseData(newMasterToken, wrappedWrapJwk, wrapdata, wrappedEncryptionJwk, wrappedHmacJwk);
+        final KeyResponseData keyResponseData = new ResponseData(newMasterToken, wrapKey.wrappedWrapJwk, wrapKey.wrapdata, wrappedEncryptionJwk, wrappedHmacJwk);
         return new KeyExchangeData(keyResponseData, cryptoContext);
     }
 
@@ -780,47 +879,57 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
             throw new MslInternalException("Key response data " + keyResponseData.getClass().getName() + " was not created by this factory.");
         final ResponseData response = (ResponseData)keyResponseData;
         
-        // Unwrap new wrapping key.
+        // Reuse the wrapping key crypto context if this wrap data has
+        // already been delivered by an earlier response. Otherwise unwrap the
+        // new wrapping key.
         final Mechanism mechanism = request.getMechanism();
         final byte[] requestWrapdata = request.getWrapdata();
+        final byte[] wrapdata = response.getWrapdata();
         final EntityAuthenticationData entityAuthData = ctx.getEntityAuthenticationData(null);
         final String identity = entityAuthData.getIdentity();
-        final ICryptoContext wrapKeyCryptoContext;
-        switch (mechanism) {
-            case PSK:
-            {
-                final EntityAuthenticationData authdata = new PresharedAuthenticationData(identity);
-                final EntityAuthenticationFactory factory = ctx.getEntityAuthenticationFactory(EntityAuthenticationScheme.PSK);
-                if (factory == null)
+        final ICryptoContext existingCryptoContext = (requestWrapdata == null || !Arrays.equals(requestWrapdata, wrapdata)) ? repository.getCryptoContext(wrapdata) : null;
+        final ICryptoContext unwrapCryptoContext;
+        if (existingCryptoContext != null) {
+            unwrapCryptoContext = existingCryptoContext;
+        } else {
+            final ICryptoContext wrapKeyCryptoContext;
+            switch (mechanism) {
+                case PSK:
+                {
+                    final EntityAuthenticationData authdata = new PresharedAuthenticationData(identity);
+                    final EntityAuthenticationFactory factory = ctx.getEntityAuthenticationFactory(EntityAuthenticationScheme.PSK);
+                    if (factory == null)
+                        throw new MslKeyExchangeException(MslError.UNSUPPORTED_KEYX_MECHANISM, mechanism.name()).setEntityAuthenticationData(entityAuthData);
+                    final ICryptoContext cryptoContext = factory.getCryptoContext(ctx, authdata);
+                    wrapKeyCryptoContext = new AesKwJwkCryptoContext(cryptoContext);
+                    break;
+                }
+                case WRAP:
+                {
+                    wrapKeyCryptoContext = repository.getCryptoContext(requestWrapdata);
+                    if (wrapKeyCryptoContext == null)
+                        throw new MslKeyExchangeException(MslError.KEYX_WRAPPING_KEY_MISSING, Base64.encode(requestWrapdata)).setEntityAuthenticationData(entityAuthData);
+                    break;
+                }
+                default:
                     throw new MslKeyExchangeException(MslError.UNSUPPORTED_KEYX_MECHANISM, mechanism.name()).setEntityAuthenticationData(entityAuthData);
-                final ICryptoContext cryptoContext = factory.getCryptoContext(ctx, authdata);
-                wrapKeyCryptoContext = new AesKwJwkCryptoContext(cryptoContext);
-                break;
-            }
-            case WRAP:
-            {
-                wrapKeyCryptoContext = repository.getCryptoContext(requestWrapdata);
-                if (wrapKeyCryptoContext == null)
-                    throw new MslKeyExchangeException(MslError.KEYX_WRAPPING_KEY_MISSING, Base64.encode(requestWrapdata)).setEntityAuthenticationData(entityAuthData);
-                break;
             }
-            default:
-                throw new MslKeyExchangeException(MslError.UNSUPPORTED_KEYX_MECHANISM, mechanism.name()).setEntityAuthenticationData(entityAuthData);
-        }
         
-        // Unwrap wrapping key.
-        final byte[] unwrappedWrapJwk = wrapKeyCryptoContext.unwrap(response.getWrapKey());
-        final String wrapJwkJson = new String(unwrappedWrapJwk, UTF_8);
-        final JsonWebKey wrapJwk;
-        try {
-            wrapJwk = new JsonWebKey(new JSONObject(wrapJwkJson));
-        } catch (final JSONException e) {
-            throw new MslKeyExchangeException(MslError.INVALID_JWK, wrapJwkJson, e).setEntityAuthenticationData(entityAuthData);
+            // Unwrap wrapping key.
+            final byte[] unwrappedWrapJwk = wrapKeyCryptoContext.unwrap(response.getWrapKey());
+            final String wrapJwkJson = new String(unwrappedWrapJwk, UTF_8);
+            final JsonWebKey wrapJwk;
+            try {
+                wrapJwk = new JsonWebKey(new JSONObject(wrapJwkJson));
+            } catch (final JSONException e) {
+                throw new MslKeyExchangeException(MslError.INVALID_JWK, wrapJwkJson, e).setEntityAuthenticationData(entityAuthData);
+            }
+            final SecretKey wrapKey = wrapJwk.getSecretKey();
+            
+            unwrapCryptoContext = new AesKwJwkCryptoContext(wrapKey);
         }
-        final SecretKey wrapKey = wrapJwk.getSecretKey();
         
         // Unwrap session keys with wrapping key.
-        final ICryptoContext unwrapCryptoContext = new AesKwJwkCryptoContext(wrapKey);
         final byte[] unwrappedEncryptionJwk = unwrapCryptoContext.unwrap(response.getEncryptionKey());
         final byte[] unwrappedHmacJwk = unwrapCryptoContext.unwrap(response.getHmacKey());
         final String encryptionJwkJson = new String(unwrappedEncryptionJwk, UTF_8);
@@ -839,8 +948,8 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
         }
         
         // Deliver wrap data to wrap key repository.
-        final byte[] wrapdata = response.getWrapdata();
-        repository.addCryptoContext(wrapdata, unwrapCryptoContext);
+        if (existingCryptoContext == null)
+            repository.addCryptoContext(wrapdata, unwrapCryptoContext);
         if (requestWrapdata != null)
             repository.removeCryptoContext(requestWrapdata);
 
@@ -855,4 +964,8 @@ public class JsonWebKeyLadderExchange extends KeyExchangeFactory {
     private final WrapCryptoContextRepository repository;
     /** Authentication utilities. */
     private final AuthenticationUtils authutils;
+    /** Issued wrapping keys by mechanism, previous wrap data and identity. May be null. */
+    private final BoundedCache<String,WrapKey> wrapKeys;
+    /** Issued wrapping key cache lifetime in milliseconds. */
+    private final long wrapKeyTtl;
 }
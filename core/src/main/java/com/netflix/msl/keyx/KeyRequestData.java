@@ -95,7 +95,7 @@ public abstract class KeyRequestData implements JSONString {
                 throw new MslKeyExchangeException(MslError.KEYX_FACTORY_NOT_FOUND, scheme.name());
             return keyFactory.createRequestData(ctx, keyData);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keyrequestdata " + keyRequestDataJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keyrequestdata", keyRequestDataJO, e);
         }
     }
     
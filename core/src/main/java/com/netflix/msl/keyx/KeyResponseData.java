@@ -103,7 +103,7 @@ public abstract class KeyResponseData implements JSONString {
                 throw new MslKeyExchangeException(MslError.KEYX_FACTORY_NOT_FOUND, scheme.name());
             return factory.createResponseData(ctx, masterToken, keyData);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keyresponsedata " + keyResponseDataJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keyresponsedata", keyResponseDataJO, e);
         }
     }
     
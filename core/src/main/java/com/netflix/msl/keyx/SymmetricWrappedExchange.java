@@ -101,7 +101,7 @@ public class SymmetricWrappedExchange extends KeyExchangeFactory {
                     throw new MslKeyExchangeException(MslError.UNIDENTIFIED_KEYX_KEY_ID, keyIdName, e);
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyDataJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyDataJO, e);
             }
         }
         
@@ -205,18 +205,18 @@ public class SymmetricWrappedExchange extends KeyExchangeFactory {
                     try {
                         encryptionKey = Base64.decode(keyDataJO.getString(KEY_ENCRYPTION_KEY));
                     } catch (final IllegalArgumentException e) {
-                        throw new MslKeyExchangeException(MslError.KEYX_INVALID_ENCRYPTION_KEY, "keydata " + keyDataJO.toString(), e);
+                        throw new MslKeyExchangeException(MslError.KEYX_INVALID_ENCRYPTION_KEY, "keydata", keyDataJO, e);
                     }
                     try {
                         hmacKey = Base64.decode(keyDataJO.getString(KEY_HMAC_KEY));
                     } catch (final IllegalArgumentException e) {
-                        throw new MslKeyExchangeException(MslError.KEYX_INVALID_HMAC_KEY, "keydata " + keyDataJO.toString(), e);
+                        throw new MslKeyExchangeException(MslError.KEYX_INVALID_HMAC_KEY, "keydata", keyDataJO, e);
                     }
                 } catch (final IllegalArgumentException e) {
                     throw new MslKeyExchangeException(MslError.UNIDENTIFIED_KEYX_KEY_ID, keyIdName, e);
                 }
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata " + keyDataJO.toString(), e);
+                throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "keydata", keyDataJO, e);
             }
         }
         
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslKeyExchangeException;
+import com.netflix.msl.MslMessageException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.keyx.KeyRequestData;
+import com.netflix.msl.tokens.MslUser;
+import com.netflix.msl.userauth.UserAuthenticationData;
+
+/**
+ * <p>A message context whose application data is a batch of independent
+ * records. All other calls are passed through to the backing application
+ * message context, which determines the security properties and tokens of
+ * the message.</p>
+ *
+ * <p>Each record is written as a four-byte big-endian length followed by the
+ * record data and then flushed, so every record is carried in its own
+ * payload chunk. The application data of a received batch message is split
+ * back into its records by {@link #read(InputStream)}. A response to a batch
+ * request carries one record per request record, in the same order.</p>
+ *
+ * <p>Servers receiving a batch request should read the records, process
+ * them, and respond with a batch message context containing the response
+ * records.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ * @see BatchRequestQueue
+ */
+public class BatchMessageContext implements MessageContext {
+    /**
+     * Create a new batch message context.
+     *
+     * @param appCtx the backing application message context.
+     * @param records the application data records.
+     */
+    public BatchMessageContext(final MessageContext appCtx, final List<byte[]> records) {
+        this.appCtx = appCtx;
+        this.records = Collections.unmodifiableList(new ArrayList<byte[]>(records));
+    }
+
+    /**
+     * @return the application data records.
+     */
+    public List<byte[]> getRecords() {
+        return records;
+    }
+
+    /**
+     * Read all of the remaining application data records from the provided
+     * input stream. The input stream is not closed.
+     *
+     * @param in the input stream, typically a message input stream.
+     * @return the records in order.
+     * @throws IOException if there is an error reading the input stream or
+     *         the application data is not a sequence of records.
+     */
+    public static List<byte[]> read(final InputStream in) throws IOException {
+        final List<byte[]> records = new ArrayList<byte[]>();
+        final byte[] lengthBytes = new byte[4];
+        while (true) {
+            // Stop at the end of the data if it falls on a record boundary.
+            final int first = in.read();
+            if (first == -1)
+                return records;
+            lengthBytes[0] = (byte)first;
+            readFully(in, lengthBytes, 1, 3);
+            final int length = ((lengthBytes[0] & 0xff) << 24) | ((lengthBytes[1] & 0xff) << 16) | ((lengthBytes[2] & 0xff) << 8) | (lengthBytes[3] & 0xff);
+            if (length < 0)
+                throw new IOException("Batch record " + records.size() + " length " + length + " is invalid.");
+            final byte[] record = new byte[length];
+            readFully(in, record, 0, length);
+            records.add(record);
+        }
+    }
+
+    /**
+     * Read exactly the requested number of bytes.
+     *
+     * @param in the input stream.
+     * @param b destination buffer.
+     * @param off destination offset.
+     * @param len number of bytes to read.
+     * @throws IOException if there is an error reading the input stream or
+     *         it ends early.
+     */
+    private static void readFully(final InputStream in, final byte[] b, final int off, final int len) throws IOException {
+        int count = 0;
+        while (count < len) {
+            final int read = in.read(b, off + count, len - count);
+            if (read == -1)
+                throw new EOFException("Batch record truncated.");
+            count += read;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getCryptoContexts()
+     */
+    @Override
+    public Map<String,ICryptoContext> getCryptoContexts() {
+        return appCtx.getCryptoContexts();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getRecipient()
+     */
+    @Override
+    public String getRecipient() {
+        return appCtx.getRecipient();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#isEncrypted()
+     */
+    @Override
+    public boolean isEncrypted() {
+        return appCtx.isEncrypted();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#isIntegrityProtected()
+     */
+    @Override
+    public boolean isIntegrityProtected() {
+        return appCtx.isIntegrityProtected();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#isNonReplayable()
+     */
+    @Override
+    public boolean isNonReplayable() {
+        return appCtx.isNonReplayable();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#isRequestingTokens()
+     */
+    @Override
+    public boolean isRequestingTokens() {
+        return appCtx.isRequestingTokens();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getUserId()
+     */
+    @Override
+    public String getUserId() {
+        return appCtx.getUserId();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getUserAuthData(com.netflix.msl.msg.MessageContext.ReauthCode, boolean, boolean)
+     */
+    @Override
+    public UserAuthenticationData getUserAuthData(final ReauthCode reauthCode, final boolean renewable, final boolean required) {
+        return appCtx.getUserAuthData(reauthCode, renewable, required);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getUser()
+     */
+    @Override
+    public MslUser getUser() {
+        return appCtx.getUser();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getKeyRequestData()
+     */
+    @Override
+    public Set<KeyRequestData> getKeyRequestData() throws MslKeyExchangeException {
+        return appCtx.getKeyRequestData();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#updateServiceTokens(com.netflix.msl.msg.MessageServiceTokenBuilder, boolean)
+     */
+    @Override
+    public void updateServiceTokens(final MessageServiceTokenBuilder builder, final boolean handshake) throws MslMessageException, MslCryptoException, MslEncodingException, MslException {
+        appCtx.updateServiceTokens(builder, handshake);
+    }
+
+    /**
+     * <p>Write each record into its own payload chunk and then close the
+     * message output stream. This may be called more than once if the
+     * message must be resent.</p>
+     *
+     * @see com.netflix.msl.msg.MessageContext#write(com.netflix.msl.msg.MessageOutputStream)
+     */
+    @Override
+    public void write(final MessageOutputStream output) throws IOException {
+        for (final byte[] record : records) {
+            final int length = record.length;
+            output.write(new byte[] { (byte)(length >>> 24), (byte)(length >>> 16), (byte)(length >>> 8), (byte)length });
+            output.write(record);
+            output.flush();
+        }
+        output.close();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.msg.MessageContext#getDebugContext()
+     */
+    @Override
+    public MessageDebugContext getDebugContext() {
+        return appCtx.getDebugContext();
+    }
+
+    /** The backing application message context. */
+    private final MessageContext appCtx;
+    /** Application data records. */
+    private final List<byte[]> records;
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.msl.io.Url;
+import com.netflix.msl.msg.MslControl.MslChannel;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>Collects independent application requests to the same remote entity
+ * and sends them together as a single MSL request.</p>
+ *
+ * <p>Each submitted request becomes one record of a
+ * {@link BatchMessageContext}. Queued requests are sent once the maximum
+ * batch size is reached, once the oldest queued request has waited the
+ * maximum delay, or when {@link #flush()} is called. The response must
+ * contain one record per request record, in the same order; each response
+ * record completes the future of its request.</p>
+ *
+ * <p>All requests in a batch share one message header and therefore one set
+ * of tokens, one user, and the security properties of the message context
+ * provided to the queue. If the batch request fails or an error response is
+ * received then every request in the batch fails with the same cause.</p>
+ *
+ * <p>At most the configured number of batches are sent concurrently and at
+ * most {@link #MAX_QUEUED_BATCHES} further batches wait to be sent. Every
+ * request of a batch that cannot be queued fails with a
+ * {@code RejectedExecutionException}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class BatchRequestQueue {
+    /** Default maximum number of batches sent concurrently. */
+    public static final int DEFAULT_MAX_SENDERS = 4;
+    /** Maximum number of batches waiting for a sender. */
+    public static final int MAX_QUEUED_BATCHES = 16;
+    /** Idle sender thread keep-alive time in seconds. */
+    private static final long SENDER_KEEP_ALIVE = 60;
+
+    /**
+     * <p>Thread factory for daemon queue threads.</p>
+     */
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "BatchRequestQueue");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    /**
+     * <p>The result of a single queued request.</p>
+     */
+    private static class Request extends FutureTask<byte[]> {
+        /**
+         * @param data request data.
+         */
+        public Request(final byte[] data) {
+            super(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    throw new IllegalStateException("Batch requests are completed by their batch.");
+                }
+            });
+            this.data = data;
+        }
+
+        /**
+         * @param response the response data.
+         */
+        public void complete(final byte[] response) {
+            set(response);
+        }
+
+        /**
+         * @param cause the failure cause.
+         */
+        public void fail(final Throwable cause) {
+            setException(cause);
+        }
+
+        /** Request data. */
+        public final byte[] data;
+    }
+
+    /**
+     * Create a new batch request queue that sends at most
+     * {@link #DEFAULT_MAX_SENDERS} batches concurrently.
+     *
+     * @param ctrl MSL control used to send the batch requests.
+     * @param ctx MSL context.
+     * @param msgCtx message context providing the security properties,
+     *        user, and tokens of every batch request. Its
+     *        {@link MessageContext#write(MessageOutputStream)} method is not
+     *        called.
+     * @param remoteEntity remote entity URL.
+     * @param timeout connect, read, and renewal lock acquisition timeout in
+     *        milliseconds.
+     * @param maxBatchSize maximum number of requests in one batch. Must be
+     *        positive.
+     * @param maxDelay maximum time in milliseconds a request is queued before
+     *        its batch is sent. Zero if batches are only sent once full or
+     *        explicitly flushed.
+     * @throws IllegalArgumentException if the maximum batch size is not
+     *         positive or the maximum delay is negative.
+     */
+    public BatchRequestQueue(final MslControl ctrl, final MslContext ctx, final MessageContext msgCtx, final Url remoteEntity, final int timeout, final int maxBatchSize, final long maxDelay) {
+        this(ctrl, ctx, msgCtx, remoteEntity, timeout, maxBatchSize, maxDelay, DEFAULT_MAX_SENDERS);
+    }
+
+    /**
+     * Create a new batch request queue.
+     *
+     * @param ctrl MSL control used to send the batch requests.
+     * @param ctx MSL context.
+     * @param msgCtx message context providing the security properties,
+     *        user, and tokens of every batch request. Its
+     *        {@link MessageContext#write(MessageOutputStream)} method is not
+     *        called.
+     * @param remoteEntity remote entity URL.
+     * @param timeout connect, read, and renewal lock acquisition timeout in
+     *        milliseconds.
+     * @param maxBatchSize maximum number of requests in one batch. Must be
+     *        positive.
+     * @param maxDelay maximum time in milliseconds a request is queued before
+     *        its batch is sent. Zero if batches are only sent once full or
+     *        explicitly flushed.
+     * @param maxSenders maximum number of batches sent concurrently. Each
+     *        batch being sent occupies one thread until its response is
+     *        received. Must be positive.
+     * @throws IllegalArgumentException if the maximum batch size or maximum
+     *         number of senders is not positive or the maximum delay is
+     *         negative.
+     */
+    public BatchRequestQueue(final MslControl ctrl, final MslContext ctx, final MessageContext msgCtx, final Url remoteEntity, final int timeout, final int maxBatchSize, final long maxDelay, final int maxSenders) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Maximum batch size " + maxBatchSize + " is not positive.");
+        if (maxDelay < 0)
+            throw new IllegalArgumentException("Maximum delay " + maxDelay + " is negative.");
+        if (maxSenders < 1)
+            throw new IllegalArgumentException("Maximum senders " + maxSenders + " is not positive.");
+        this.ctrl = ctrl;
+        this.ctx = ctx;
+        this.msgCtx = msgCtx;
+        this.remoteEntity = remoteEntity;
+        this.timeout = timeout;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+        final ThreadPoolExecutor senders = new ThreadPoolExecutor(maxSenders, maxSenders, SENDER_KEEP_ALIVE, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_BATCHES), THREAD_FACTORY, new ThreadPoolExecutor.AbortPolicy());
+        senders.allowCoreThreadTimeOut(true);
+        this.senders = senders;
+    }
+
+    /**
+     * <p>Queue a request. The returned future returns the response data, or
+     * throws an {@code ExecutionException} whose cause is a
+     * {@code MslException}, {@code IOException}, or
+     * {@code TimeoutException} if the batch failed, or a
+     * {@code RejectedExecutionException} if too many batches were waiting to
+     * be sent or the queue was shut down before the batch could be
+     * sent.</p>
+     *
+     * <p>Cancelling the future before its batch is sent removes the request
+     * from the batch.</p>
+     *
+     * @param data request data.
+     * @return a future for the response data.
+     * @throws IllegalStateException if the queue has been shut down.
+     */
+    public Future<byte[]> submit(final byte[] data) {
+        final Request request = new Request(data);
+        final List<Request> batch;
+        synchronized (this) {
+            if (shutdown)
+                throw new IllegalStateException("Batch request queue is shut down.");
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                batch = takePending();
+            } else {
+                batch = null;
+                if (pending.size() == 1 && maxDelay > 0) {
+                    timer = scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, maxDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (batch != null)
+            send(batch);
+        return request;
+    }
+
+    /**
+     * Send all queued requests now.
+     */
+    public void flush() {
+        final List<Request> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        send(batch);
+    }
+
+    /**
+     * Remove and return all queued requests and cancel the delay timer. The
+     * caller must hold the lock.
+     *
+     * @return the queued requests. May be empty.
+     */
+    private List<Request> takePending() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        final List<Request> batch = pending;
+        pending = new ArrayList<Request>();
+        return batch;
+    }
+
+    /**
+     * Send a batch of requests in the background and complete their futures
+     * with the response records.
+     *
+     * @param batch the requests. Cancelled requests are skipped.
+     */
+    private void send(final List<Request> batch) {
+        final List<Request> requests = new ArrayList<Request>(batch.size());
+        final List<byte[]> records = new ArrayList<byte[]>(batch.size());
+        for (final Request request : batch) {
+            if (request.isCancelled())
+                continue;
+            requests.add(request);
+            records.add(request.data);
+        }
+        if (requests.isEmpty())
+            return;
+
+        // The batch is sent outside the lock so the queue may have been shut
+        // down concurrently.
+        final Runnable sender = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<byte[]> responses = exchange(new BatchMessageContext(msgCtx, records));
+                    if (responses.size() != requests.size())
+                        throw new IOException("Received " + responses.size() + " batch response records for " + requests.size() + " request records.");
+                    for (int i = 0; i < requests.size(); ++i)
+                        requests.get(i).complete(responses.get(i));
+                } catch (final ExecutionException e) {
+                    failAll(requests, e.getCause());
+                } catch (final InterruptedException e) {
+                    failAll(requests, e);
+                    Thread.currentThread().interrupt();
+                } catch (final IOException e) {
+                    failAll(requests, e);
+                } catch (final RuntimeException e) {
+                    failAll(requests, e);
+                }
+            }
+        };
+        try {
+            senders.execute(sender);
+        } catch (final RejectedExecutionException e) {
+            failAll(requests, e);
+        }
+    }
+
+    /**
+     * Send one batch request and read the response records.
+     *
+     * @param batchCtx the batch message context.
+     * @return the response records.
+     * @throws ExecutionException if the request fails.
+     * @throws InterruptedException if interrupted.
+     * @throws IOException if the request was cancelled, an error response
+     *         was received, or there is an error reading the response.
+     */
+    private List<byte[]> exchange(final BatchMessageContext batchCtx) throws ExecutionException, InterruptedException, IOException {
+        final MslChannel channel = ctrl.request(ctx, batchCtx, remoteEntity, timeout).get();
+        if (channel == null)
+            throw new IOException("Batch request was cancelled.");
+        try {
+            final ErrorHeader errorHeader = channel.input.getErrorHeader();
+            if (errorHeader != null)
+                throw new IOException("Received error response " + errorHeader.getErrorCode() + " [" + errorHeader.getInternalCode() + "]: " + errorHeader.getErrorMessage());
+            return BatchMessageContext.read(channel.input);
+        } finally {
+            try { channel.input.close(); } catch (final IOException e) {}
+            if (channel.output != null)
+                try { channel.output.close(); } catch (final IOException e) {}
+        }
+    }
+
+    /**
+     * @param requests the requests to fail.
+     * @param cause the failure cause.
+     */
+    private static void failAll(final List<Request> requests, final Throwable cause) {
+        for (final Request request : requests)
+            request.fail(cause);
+    }
+
+    /**
+     * @return the number of queued requests that have not been sent.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Send all queued requests and stop accepting new requests. Batches
+     * already being sent are allowed to complete.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        flush();
+        scheduler.shutdown();
+        senders.shutdown();
+    }
+
+    /** MSL control. */
+    private final MslControl ctrl;
+    /** MSL context. */
+    private final MslContext ctx;
+    /** Message context. */
+    private final MessageContext msgCtx;
+    /** Remote entity URL. */
+    private final Url remoteEntity;
+    /** Request timeout in milliseconds. */
+    private final int timeout;
+    /** Maximum number of requests per batch. */
+    private final int maxBatchSize;
+    /** Maximum queueing delay in milliseconds. */
+    private final long maxDelay;
+    /** Delay timer scheduler. */
+    private final ScheduledExecutorService scheduler;
+    /** Batch senders. */
+    private final ExecutorService senders;
+
+    /** Queued requests. */
+    private List<Request> pending = new ArrayList<Request>();
+    /** Delay timer for the queued requests. May be null. */
+    private ScheduledFuture<?> timer = null;
+    /** True once shut down. */
+    private boolean shutdown = false;
+}
@@ -219,9 +219,9 @@ public class ErrorHeader extends Header {
             errordataJO = new JSONObject(errordataJson);
             messageId = errordataJO.getLong(KEY_MESSAGE_ID);
             if (this.messageId < 0 || this.messageId > MslConstants.MAX_LONG_VALUE)
-                throw new MslMessageException(MslError.MESSAGE_ID_OUT_OF_RANGE, "errordata " + errordataJson).setEntityAuthenticationData(entityAuthData);
+                throw new MslMessageException(MslError.MESSAGE_ID_OUT_OF_RANGE, "errordata", errordataJson).setEntityAuthenticationData(entityAuthData);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "errordata " + errordataJson, e).setEntityAuthenticationData(entityAuthData);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "errordata", errordataJson, e).setEntityAuthenticationData(entityAuthData);
         }
         
         try {
@@ -240,14 +240,14 @@ public class ErrorHeader extends Header {
             if (errordataJO.has(KEY_INTERNAL_CODE)) {
                 internalCode = errordataJO.getInt(KEY_INTERNAL_CODE);
                 if (this.internalCode < 0)
-                    throw new MslMessageException(MslError.INTERNAL_CODE_NEGATIVE, "errordata " + errordataJO.toString()).setEntityAuthenticationData(entityAuthData).setMessageId(messageId);
+                    throw new MslMessageException(MslError.INTERNAL_CODE_NEGATIVE, "errordata", errordataJO).setEntityAuthenticationData(entityAuthData).setMessageId(messageId);
             } else {
                 internalCode = -1;
             }
             errorMsg = errordataJO.optString(KEY_ERROR_MESSAGE, null);
             userMsg = errordataJO.optString(KEY_USER_MESSAGE, null);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "errordata " + errordataJO.toString(), e).setEntityAuthenticationData(entityAuthData).setMessageId(messageId);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "errordata", errordataJO, e).setEntityAuthenticationData(entityAuthData).setMessageId(messageId);
         }
     }
     
@@ -317,12 +317,19 @@ public class ErrorHeader extends Header {
      */
     @Override
     public String toJSONString() {
+        // The header is immutable so its encoding only needs to be computed
+        // once. Concurrent callers may compute the same encoding.
+        final String cached = encoding;
+        if (cached != null)
+            return cached;
         try {
             final JSONObject jsonObj = new JSONObject();
             jsonObj.put(HeaderKeys.KEY_ENTITY_AUTHENTICATION_DATA, entityAuthData);
             jsonObj.put(HeaderKeys.KEY_ERRORDATA, Base64.encode(errordata));
             jsonObj.put(HeaderKeys.KEY_SIGNATURE, Base64.encode(signature));
-            return jsonObj.toString();
+            final String json = jsonObj.toString();
+            encoding = json;
+            return json;
         } catch (final JSONException e) {
             throw new MslInternalException("Error encoding " + this.getClass().getName() + " JSON.", e);
         }
@@ -383,4 +390,7 @@ public class ErrorHeader extends Header {
     private final String errorMsg;
     /** User message. */
     private final String userMsg;
+    
+    /** Cached JSON encoding. */
+    private volatile String encoding = null;
 }
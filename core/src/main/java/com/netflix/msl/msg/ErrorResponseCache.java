@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.netflix.msl.MslConstants.ResponseCode;
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslEntityAuthException;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslMessageException;
+import com.netflix.msl.entityauth.EntityAuthenticationData;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>Caches signed error responses so that a request that is replayed or
+ * retransmitted many times, for example during a replay storm, does not
+ * require a new error header to be encrypted and signed each time.</p>
+ *
+ * <p>The recipient and message ID of an error header are encrypted and
+ * signed together with the error, so an error header can only be reused for
+ * an error response to the same recipient and request message ID. The
+ * cache is keyed on exactly those fields that repeat when the same request
+ * is received again: the MSL context, entity authentication data,
+ * recipient, message ID, error, and user message. Error responses without a
+ * request message ID use a random message ID and are never reused.</p>
+ *
+ * <p>The timestamp of a reused error header is not updated. A cached error
+ * header is therefore only reused until it is older than the maximum age,
+ * which bounds how far behind the current time a reused timestamp may
+ * be.</p>
+ *
+ * <p>Error responses are not cached by {@link MslControl} unless an error
+ * response cache is assigned with
+ * {@link MslControl#setErrorResponseCache(ErrorResponseCache)}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ErrorResponseCache {
+    /** Default maximum number of cached error headers. */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+    /** Default maximum age of a reused error header in milliseconds. */
+    public static final long DEFAULT_MAX_AGE = 1000;
+
+    /**
+     * <p>Error header cache key. Every field of the error data except the
+     * timestamp is part of the key.</p>
+     */
+    private static class HeaderKey {
+        /**
+         * @param ctx MSL context.
+         * @param entityAuthData entity authentication data.
+         * @param recipient error response recipient. May be {@code null}.
+         * @param messageId error response message ID.
+         * @param error MSL error.
+         * @param userMessage user message. May be {@code null}.
+         */
+        public HeaderKey(final MslContext ctx, final EntityAuthenticationData entityAuthData, final String recipient, final long messageId, final MslError error, final String userMessage) {
+            this.ctx = ctx;
+            this.entityAuthData = entityAuthData;
+            this.recipient = recipient;
+            this.messageId = messageId;
+            this.errorCode = error.getResponseCode();
+            this.internalCode = error.getInternalCode();
+            this.errorMsg = error.getMessage();
+            this.userMessage = userMessage;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof HeaderKey)) return false;
+            final HeaderKey that = (HeaderKey)obj;
+            return ctx == that.ctx &&
+                entityAuthData.equals(that.entityAuthData) &&
+                (recipient == that.recipient || (recipient != null && recipient.equals(that.recipient))) &&
+                messageId == that.messageId &&
+                errorCode == that.errorCode &&
+                internalCode == that.internalCode &&
+                (errorMsg == that.errorMsg || (errorMsg != null && errorMsg.equals(that.errorMsg))) &&
+                (userMessage == that.userMessage || (userMessage != null && userMessage.equals(that.userMessage)));
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(ctx) ^
+                entityAuthData.hashCode() ^
+                ((recipient != null) ? recipient.hashCode() : 0) ^
+                Long.valueOf(messageId).hashCode() ^
+                errorCode.hashCode() ^
+                internalCode ^
+                ((errorMsg != null) ? errorMsg.hashCode() : 0) ^
+                ((userMessage != null) ? userMessage.hashCode() : 0);
+        }
+
+        /** MSL context. */
+        private final MslContext ctx;
+        /** Entity authentication data. */
+        private final EntityAuthenticationData entityAuthData;
+        /** Recipient. */
+        private final String recipient;
+        /** Message ID. */
+        private final long messageId;
+        /** Error code. */
+        private final ResponseCode errorCode;
+        /** Internal code. */
+        private final int internalCode;
+        /** Error message. */
+        private final String errorMsg;
+        /** User message. */
+        private final String userMessage;
+    }
+
+    /**
+     * Create a new error response cache holding up to
+     * {@link #DEFAULT_MAX_SIZE} error headers for up to
+     * {@link #DEFAULT_MAX_AGE} milliseconds.
+     */
+    public ErrorResponseCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Create a new error response cache.
+     *
+     * @param maxSize maximum number of cached error headers. Must be
+     *        positive.
+     * @param maxAge maximum age in milliseconds of a reused error header.
+     *        Must be positive.
+     * @throws IllegalArgumentException if the maximum size or maximum age is
+     *         not positive.
+     */
+    public ErrorResponseCache(final int maxSize, final long maxAge) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Maximum size " + maxSize + " is not positive.");
+        if (maxAge < 1)
+            throw new IllegalArgumentException("Maximum age " + maxAge + " is not positive.");
+        this.maxAge = maxAge;
+        this.headers = new LinkedHashMap<HeaderKey,ErrorHeader>(16, 0.75f, true) {
+            private static final long serialVersionUID = 2897404187476458546L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<HeaderKey,ErrorHeader> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * <p>Return an error response for the provided error, reusing a cached
+     * error header if an error response to the same request was built no
+     * more than the maximum age ago.</p>
+     *
+     * @param ctx MSL context.
+     * @param recipient error response recipient. May be {@code null}.
+     * @param requestMessageId request message ID. May be {@code null}.
+     * @param error the MSL error.
+     * @param userMessage localized user-consumable error message. May be
+     *        {@code null}.
+     * @return the error header.
+     * @throws MslEncodingException if there is an error encoding the JSON
+     *         data.
+     * @throws MslCryptoException if there is an error encrypting or signing
+     *         the message.
+     * @throws MslEntityAuthException if there is an error with the entity
+     *         authentication data.
+     * @throws MslMessageException if no entity authentication data was
+     *         returned by the MSL context.
+     * @see MessageBuilder#createErrorResponse(MslContext, String, Long, MslError, String)
+     */
+    public ErrorHeader createErrorResponse(final MslContext ctx, final String recipient, final Long requestMessageId, final MslError error, final String userMessage) throws MslEncodingException, MslCryptoException, MslEntityAuthException, MslMessageException {
+        // Random message IDs are never reused.
+        final EntityAuthenticationData entityAuthData = ctx.getEntityAuthenticationData(null);
+        if (requestMessageId == null || entityAuthData == null)
+            return MessageBuilder.createErrorResponse(ctx, entityAuthData, recipient, requestMessageId, error, userMessage);
+
+        // Return the cached error header if it is not too old.
+        final long messageId = MessageBuilder.incrementMessageId(requestMessageId);
+        final HeaderKey key = new HeaderKey(ctx, entityAuthData, recipient, messageId, error, userMessage);
+        final ErrorHeader cached;
+        synchronized (headers) {
+            cached = headers.get(key);
+        }
+        if (cached != null && ctx.getTime() - cached.getTimestamp().getTime() < maxAge)
+            return cached;
+
+        // Cache the new error header.
+        final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, entityAuthData, recipient, requestMessageId, error, userMessage);
+        synchronized (headers) {
+            headers.put(key, errorHeader);
+        }
+        return errorHeader;
+    }
+
+    /** Maximum age of a reused error header in milliseconds. */
+    private final long maxAge;
+    /** Cached error headers. */
+    private final Map<HeaderKey,ErrorHeader> headers;
+}
@@ -111,6 +111,52 @@ public abstract class Header implements JSONString {
      *         bound to another token.
      */
     public static Header parseHeader(final MslContext ctx, final JSONObject headerJO, final Map<String,ICryptoContext> cryptoContexts) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslKeyExchangeException, MslUserAuthException, MslMessageException, MslException {
+        return parseHeader(ctx, headerJO, cryptoContexts, null);
+    }
+    
+    /**
+     * <p>Construct a new header from the provided JSON object.</p>
+     * 
+     * <p>Headers are encrypted and signed. If a master token is found, it will
+     * be used for this purpose. Otherwise the crypto context appropriate for
+     * the entity authentication scheme will be used.</p>
+     * 
+     * <p>For message headers the master token or entity authentication data
+     * must be found. For error headers the entity authentication data must be
+     * found.</p>
+     * 
+     * <p>Service tokens will be decrypted and verified with the provided crypto
+     * contexts identified by token name. A default crypto context may be
+     * provided by using the empty string as the token name; if a token name is
+     * not explcitly mapped onto a crypto context, the default crypto context
+     * will be used.</p>
+     * 
+     * <p>Service token references are resolved using the provided token
+     * reference cache.</p>
+     * 
+     * @param ctx MSL context.
+     * @param headerJO header JSON object.
+     * @param cryptoContexts the map of service token names onto crypto
+     *        contexts used to decrypt and verify service tokens.
+     * @param references the channel token reference cache used to resolve
+     *        service token references. May be null.
+     * @return the header.
+     * @throws MslEncodingException if there is an error parsing the JSON.
+     * @throws MslCryptoException if there is an error decrypting or verifying
+     *         the message.
+     * @throws MslEntityAuthException if unable to create the entity
+     *         authentication data.
+     * @throws MslKeyExchangeException if unable to create the key request data
+     *         or key response data.
+     * @throws MslUserAuthException if unable to create the user authentication
+     *         data.
+     * @throws MslMessageException if the header signature is invalid or a
+     *         referenced service token is not found.
+     * @throws MslException if the message does not contain an entity
+     *         authentication data or a master token or a token is improperly
+     *         bound to another token.
+     */
+    public static Header parseHeader(final MslContext ctx, final JSONObject headerJO, final Map<String,ICryptoContext> cryptoContexts, final TokenReferenceCache references) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslKeyExchangeException, MslUserAuthException, MslMessageException, MslException {
         // Pull authentication data.
         final EntityAuthenticationData entityAuthData;
         final MasterToken masterToken;
@@ -126,19 +172,19 @@ public abstract class Header implements JSONString {
             try {
                 signature = Base64.decode(headerJO.getString(HeaderKeys.KEY_SIGNATURE));
             } catch (final IllegalArgumentException e) {
-                throw new MslMessageException(MslError.HEADER_SIGNATURE_INVALID, "header/errormsg " + headerJO.toString());
+                throw new MslMessageException(MslError.HEADER_SIGNATURE_INVALID, "header/errormsg", headerJO);
             }
             if (signature == null)
-                throw new MslMessageException(MslError.HEADER_SIGNATURE_INVALID, "header/errormsg " + headerJO.toString());
+                throw new MslMessageException(MslError.HEADER_SIGNATURE_INVALID, "header/errormsg", headerJO);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "header/errormsg " + headerJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "header/errormsg", headerJO, e);
         }
 
         try {
             // Process message headers.
             if (headerJO.has(HeaderKeys.KEY_HEADERDATA)) {
                 final String headerdata = headerJO.getString(HeaderKeys.KEY_HEADERDATA);
-                final MessageHeader messageHeader = new MessageHeader(ctx, headerdata, entityAuthData, masterToken, signature, cryptoContexts);
+                final MessageHeader messageHeader = new MessageHeader(ctx, headerdata, entityAuthData, masterToken, signature, cryptoContexts, references);
                 
                 // Make sure the header was verified and decrypted.
                 //
@@ -161,7 +207,7 @@ public abstract class Header implements JSONString {
                 return new ErrorHeader(ctx, errordata, entityAuthData, signature);
             }
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "header/errormsg " + headerJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "header/errormsg", headerJO, e);
         }
         
         // Unknown header.
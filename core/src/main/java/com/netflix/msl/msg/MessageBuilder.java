@@ -378,6 +378,31 @@ public class MessageBuilder {
      */
     public static ErrorHeader createErrorResponse(final MslContext ctx, final String recipient, final Long requestMessageId, final MslError error, final String userMessage) throws MslEncodingException, MslCryptoException, MslEntityAuthException, MslMessageException {
         final EntityAuthenticationData entityAuthData = ctx.getEntityAuthenticationData(null);
+        return createErrorResponse(ctx, entityAuthData, recipient, requestMessageId, error, userMessage);
+    }
+    
+    /**
+     * <p>Create a new error message in response to another message using the
+     * provided entity authentication data.</p>
+     * 
+     * @param ctx MSL context.
+     * @param entityAuthData the local entity authentication data. May be
+     *        null.
+     * @param recipient error response recipient. May be null.
+     * @param requestMessageId message ID of request. May be null.
+     * @param error the MSL error.
+     * @param userMessage localized user-consumable error message. May be null.
+     * @return the error header.
+     * @throws MslEncodingException if there is an error encoding the JSON
+     *         data.
+     * @throws MslCryptoException if there is an error encrypting or signing
+     *         the message.
+     * @throws MslEntityAuthException if there is an error with the entity
+     *         authentication data.
+     * @throws MslMessageException if the entity authentication data is null.
+     * @see #createErrorResponse(MslContext, String, Long, MslError, String)
+     */
+    static ErrorHeader createErrorResponse(final MslContext ctx, final EntityAuthenticationData entityAuthData, final String recipient, final Long requestMessageId, final MslError error, final String userMessage) throws MslEncodingException, MslCryptoException, MslEntityAuthException, MslMessageException {
         // If we have the request message ID then the error response message ID
         // must be equal to the request message ID + 1.
         long messageId;
@@ -445,7 +470,7 @@ public class MessageBuilder {
         
         // Set the initial service tokens based on the MSL store and provided
         // service tokens.
-        final Set<ServiceToken> tokens = ctx.getMslStore().getServiceTokens(serviceMasterToken, userIdToken);
+        final Set<ServiceToken> tokens = ctx.getMslStore().getServiceTokenView(serviceMasterToken, userIdToken);
         for (final ServiceToken token : tokens)
             this.serviceTokens.put(token.getName(), token);
         if (serviceTokens != null) {
@@ -468,7 +493,7 @@ public class MessageBuilder {
             
             // Set the initial peer service tokens based on the MSL store and
             // provided peer service tokens.
-            final Set<ServiceToken> peerTokens = ctx.getMslStore().getServiceTokens(peerServiceMasterToken, peerUserIdToken);
+            final Set<ServiceToken> peerTokens = ctx.getMslStore().getServiceTokenView(peerServiceMasterToken, peerUserIdToken);
             for (final ServiceToken peerToken : peerTokens)
                 this.peerServiceTokens.put(peerToken.getName(), peerToken);
             if (peerServiceTokens != null) {
@@ -579,7 +604,7 @@ public class MessageBuilder {
         final Set<ServiceToken> peerTokens = new HashSet<ServiceToken>(peerServiceTokens.values());
         final HeaderPeerData peerData = new HeaderPeerData(peerMasterToken, peerUserIdToken, peerTokens);
         
-        return new MessageHeader(ctx, ctx.getEntityAuthenticationData(null), masterToken, headerData, peerData);
+        return new MessageHeader(ctx, ctx.getEntityAuthenticationData(null), masterToken, headerData, peerData, tokenReferences);
     }
     
     /**
@@ -651,6 +676,20 @@ public class MessageBuilder {
         return this;
     }
     
+    /**
+     * <p>Set the channel token reference cache. Service tokens the cache
+     * reports as held by the remote entity will be sent as service token
+     * references.</p>
+     * 
+     * @param references the token reference cache. May be null to always
+     *        send the full service tokens.
+     * @return this.
+     */
+    public MessageBuilder setTokenReferences(final TokenReferenceCache references) {
+        this.tokenReferences = references;
+        return this;
+    }
+    
     /**
      * <p>Set or change the master token and user ID token. This will overwrite
      * any existing tokens. If the user ID token is not null then any existing
@@ -680,7 +719,7 @@ public class MessageBuilder {
         // Load the stored service tokens.
         final Set<ServiceToken> storedTokens;
         try {
-            storedTokens = ctx.getMslStore().getServiceTokens(masterToken, userIdToken);
+            storedTokens = ctx.getMslStore().getServiceTokenView(masterToken, userIdToken);
         } catch (final MslException e) {
             // This should never happen because we already checked that the
             // user ID token is bound to the master token.
@@ -942,7 +981,7 @@ public class MessageBuilder {
         // Load the stored peer service tokens.
         final Set<ServiceToken> storedTokens;
         try {
-            storedTokens = ctx.getMslStore().getServiceTokens(masterToken, userIdToken);
+            storedTokens = ctx.getMslStore().getServiceTokenView(masterToken, userIdToken);
         } catch (final MslException e) {
             // The checks above should have prevented any invalid master token,
             // user ID token combinations.
@@ -1103,4 +1142,7 @@ public class MessageBuilder {
     private UserIdToken peerUserIdToken = null;
     /** Header peer data service tokens keyed off token name. */
     private final Map<String,ServiceToken> peerServiceTokens = new HashMap<String,ServiceToken>();
+    
+    /** Channel token reference cache. */
+    private TokenReferenceCache tokenReferences = null;
 }
@@ -41,10 +41,12 @@ import com.netflix.msl.util.JsonUtils;
  * capabilities = {
  *   "compressionalgos" : [ enum(GZIP|LZW) ],
  *   "languages" : [ "string" ],
+ *   "tokenrefs" : "boolean",
  * }} where:
  * <ul>
  * <li>{@code compressionalgos} is the set of supported compression algorithms</li>
  * <li>{@code languages} is the preferred list of BCP-47 languages in descending order</li>
+ * <li>{@code tokenrefs} indicates service token references are accepted (default false)</li>
  * </ul></p>
  * 
  * @author Wesley Miaw <wmiaw@netflix.com>
@@ -54,6 +56,8 @@ public class MessageCapabilities implements JSONString {
     private static final String KEY_COMPRESSION_ALGOS = "compressionalgos";
     /** JSON key languages. */
     private static final String KEY_LANGUAGES = "languages";
+    /** JSON key token references. */
+    private static final String KEY_TOKEN_REFERENCES = "tokenrefs";
     
     /**
      * Computes and returns the intersection of two message capabilities.
@@ -76,7 +80,10 @@ public class MessageCapabilities implements JSONString {
         final List<String> languages = new ArrayList<String>(mc1.languages);
         languages.retainAll(mc2.languages);
         
-        return new MessageCapabilities(compressionAlgos, languages);
+        // Token references must be supported by both.
+        final boolean tokenReferences = mc1.tokenReferences && mc2.tokenReferences;
+        
+        return new MessageCapabilities(compressionAlgos, languages, tokenReferences);
     }
     
     /**
@@ -89,8 +96,25 @@ public class MessageCapabilities implements JSONString {
      *        order. May be {@code null}.
      */
     public MessageCapabilities(final Set<CompressionAlgorithm> compressionAlgos, final List<String> languages) {
+        this(compressionAlgos, languages, false);
+    }
+    
+    /**
+     * Create a new message capabilities object with the specified supported
+     * features.
+     * 
+     * @param compressionAlgos supported payload compression algorithms. May be
+     *        {@code null}.
+     * @param languages preferred languages as BCP-47 codes in descending
+     *        order. May be {@code null}.
+     * @param tokenReferences true if service token references are accepted
+     *        in place of previously received service tokens.
+     * @see TokenReferenceCache
+     */
+    public MessageCapabilities(final Set<CompressionAlgorithm> compressionAlgos, final List<String> languages, final boolean tokenReferences) {
         this.compressionAlgos = Collections.unmodifiableSet(compressionAlgos != null ? compressionAlgos : EnumSet.noneOf(CompressionAlgorithm.class));
         this.languages = Collections.unmodifiableList(languages != null ? languages : new ArrayList<String>());
+        this.tokenReferences = tokenReferences;
     }
     
     /**
@@ -120,8 +144,11 @@ public class MessageCapabilities implements JSONString {
             for (int i = 0; langs != null && i < langs.length(); ++i)
                 languages.add(langs.getString(i));
             this.languages = Collections.unmodifiableList(languages);
+            
+            // Extract token references.
+            this.tokenReferences = capabilitiesJO.optBoolean(KEY_TOKEN_REFERENCES, false);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "capabilities " + capabilitiesJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "capabilities", capabilitiesJO, e);
         }
     }
     
@@ -138,6 +165,13 @@ public class MessageCapabilities implements JSONString {
     public List<String> getLanguages() {
         return this.languages;
     }
+    
+    /**
+     * @return true if service token references are accepted.
+     */
+    public boolean isTokenReferences() {
+        return this.tokenReferences;
+    }
 
     /* (non-Javadoc)
      * @see org.json.JSONString#toJSONString()
@@ -148,6 +182,8 @@ public class MessageCapabilities implements JSONString {
             final JSONObject jo = new JSONObject();
             jo.put(KEY_COMPRESSION_ALGOS, JsonUtils.createArray(compressionAlgos));
             jo.put(KEY_LANGUAGES, languages);
+            if (tokenReferences)
+                jo.put(KEY_TOKEN_REFERENCES, tokenReferences);
             return jo.toString();
         } catch (final JSONException e) {
             throw new MslInternalException("Error encoding " + this.getClass().getName() + " JSON.", e);
@@ -171,7 +207,8 @@ public class MessageCapabilities implements JSONString {
         if (!(obj instanceof MessageCapabilities)) return false;
         final MessageCapabilities that = (MessageCapabilities)obj;
         return this.compressionAlgos.equals(that.compressionAlgos) &&
-            this.languages.equals(that.languages);
+            this.languages.equals(that.languages) &&
+            this.tokenReferences == that.tokenReferences;
     }
 
     /* (non-Javadoc)
@@ -179,11 +216,13 @@ public class MessageCapabilities implements JSONString {
      */
     @Override
     public int hashCode() {
-        return this.compressionAlgos.hashCode() ^ this.languages.hashCode();
+        return this.compressionAlgos.hashCode() ^ this.languages.hashCode() ^ Boolean.valueOf(this.tokenReferences).hashCode();
     }
 
     /** Supported payload compression algorithms. */
     private final Set<CompressionAlgorithm> compressionAlgos;
     /** Preferred languages as BCP-47 codes in descending order. */
     private final List<String> languages;
+    /** Service token references accepted. */
+    private final boolean tokenReferences;
 }
@@ -15,9 +15,11 @@
  */
 package com.netflix.msl.msg;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -87,9 +89,13 @@ import com.netflix.msl.util.MslContext;
  *   "userauthdata" : userauthdata,
  *   "useridtoken" : useridtoken,
  *   "servicetokens" : [ servicetoken ],
+ *   "servicetokenrefs" : [ "base64" ],
+ *   "servicetokenset" : "base64",
  *   "peermastertoken" : mastertoken,
  *   "peeruseridtoken" : useridtoken,
- *   "peerservicetokens" : [ servicetoken ]
+ *   "peerservicetokens" : [ servicetoken ],
+ *   "peerservicetokenrefs" : [ "base64" ],
+ *   "peerservicetokenset" : "base64"
  * }} where:
  * <ul>
  * <li>{@code sender} is the sender entity identity</li>
@@ -105,11 +111,21 @@ import com.netflix.msl.util.MslContext;
  * <li>{@code userauthdata} is the user authentication data</li>
  * <li>{@code useridtoken} is the user ID token</li>
  * <li>{@code servicetokens} are the service tokens</li>
+ * <li>{@code servicetokenrefs} are references to previously exchanged service tokens</li>
+ * <li>{@code servicetokenset} is a reference to a previously exchanged set of service tokens</li>
  * <li>{@code peermastertoken} is the peer master token</li>
  * <li>{@code peeruseridtoken} is the peer user ID token</li>
  * <li>{@code peerservicetokens} are the peer service tokens</li>
+ * <li>{@code peerservicetokenrefs} are references to previously exchanged peer service tokens</li>
+ * <li>{@code peerservicetokenset} is a reference to a previously exchanged set of peer service tokens</li>
  * </ul></p>
  * 
+ * <p>Service token references and service token set references are only sent
+ * to a remote entity that has advertised support for them in its message
+ * capabilities, and are resolved using the {@link TokenReferenceCache} of the
+ * channel. The service tokens of a header are the union of the service
+ * tokens, the referenced service tokens, and the referenced set.</p>
+ * 
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
 public class MessageHeader extends Header {
@@ -145,6 +161,10 @@ public class MessageHeader extends Header {
     private static final String KEY_USER_ID_TOKEN = "useridtoken";
     /** JSON key service tokens. */
     private static final String KEY_SERVICE_TOKENS = "servicetokens";
+    /** JSON key service token references. */
+    private static final String KEY_SERVICE_TOKEN_REFERENCES = "servicetokenrefs";
+    /** JSON key service token set reference. */
+    private static final String KEY_SERVICE_TOKEN_SET = "servicetokenset";
     
     // Message header peer data.
     /** JSON key peer master token. */
@@ -153,6 +173,10 @@ public class MessageHeader extends Header {
     private static final String KEY_PEER_USER_ID_TOKEN = "peeruseridtoken";
     /** JSON key peer service tokens. */
     private static final String KEY_PEER_SERVICE_TOKENS = "peerservicetokens";
+    /** JSON key peer service token references. */
+    private static final String KEY_PEER_SERVICE_TOKEN_REFERENCES = "peerservicetokenrefs";
+    /** JSON key peer service token set reference. */
+    private static final String KEY_PEER_SERVICE_TOKEN_SET = "peerservicetokenset";
     
     /**
      * Container struct for message header data.
@@ -262,6 +286,46 @@ public class MessageHeader extends Header {
      *         token is provided.
      */
     public MessageHeader(final MslContext ctx, final EntityAuthenticationData entityAuthData, final MasterToken masterToken, final HeaderData headerData, final HeaderPeerData peerData) throws MslEncodingException, MslCryptoException, MslMasterTokenException, MslEntityAuthException, MslMessageException {
+        this(ctx, entityAuthData, masterToken, headerData, peerData, null);
+    }
+    
+    /**
+     * <p>Construct a new message header with the provided message data.</p>
+     * 
+     * <p>Headers are encrypted and signed. If a master token is provided, it
+     * will be used for this purpose. Otherwise the crypto context appropriate
+     * for the entity authentication scheme will be used. N.B. Either the
+     * entity authentication data or the master token must be provided.</p>
+     * 
+     * <p>Peer tokens are only processed if operating in peer-to-peer mode.</p>
+     * 
+     * <p>If a token reference cache is provided then any service tokens it
+     * reports as held by the remote entity are encoded as service token
+     * references. The header still returns the full set of service
+     * tokens.</p>
+     * 
+     * @param ctx MSL context.
+     * @param entityAuthData the entity authentication data. May be null if a
+     *        master token is provided.
+     * @param masterToken the master token. May be null if entity
+     *        authentication data is provided.
+     * @param headerData message header data container.
+     * @param peerData message header peer data container.
+     * @param references the channel token reference cache used to replace
+     *        service tokens held by the remote entity with their references.
+     *        May be null.
+     * @throws MslEncodingException if there is an error encoding the JSON
+     *         data.
+     * @throws MslCryptoException if there is an error encrypting or signing
+     *         the message.
+     * @throws MslMasterTokenException if the header master token is not
+     *         trusted and needs to be to accept this message header.
+     * @throws MslEntityAuthException if there is an error with the entity
+     *         authentication data.
+     * @throws MslMessageException if no entity authentication data or master
+     *         token is provided.
+     */
+    public MessageHeader(final MslContext ctx, final EntityAuthenticationData entityAuthData, final MasterToken masterToken, final HeaderData headerData, final HeaderPeerData peerData, final TokenReferenceCache references) throws MslEncodingException, MslCryptoException, MslMasterTokenException, MslEntityAuthException, MslMessageException {
         // Message ID must be within range.
         if (headerData.messageId < 0 || headerData.messageId > MslConstants.MAX_LONG_VALUE)
             throw new MslInternalException("Message ID " + headerData.messageId + " is out of range.");
@@ -349,7 +413,9 @@ public class MessageHeader extends Header {
                 throw new MslInternalException("User ID token bound peer service tokens must be bound to the provided peer user ID token.");
         }
         
-        // Construct the JSON.
+        // Construct the JSON. Tokens are inserted using their cached
+        // encodings. Service tokens held by the remote entity are replaced
+        // by their references.
         final JSONObject headerJO = new JSONObject();
         try {
             if (this.sender != null) headerJO.put(KEY_SENDER, this.sender);
@@ -365,10 +431,11 @@ public class MessageHeader extends Header {
             if (this.keyResponseData != null) headerJO.put(KEY_KEY_RESPONSE_DATA, this.keyResponseData);
             if (this.userAuthData != null) headerJO.put(KEY_USER_AUTHENTICATION_DATA, this.userAuthData);
             if (this.userIdToken != null) headerJO.put(KEY_USER_ID_TOKEN, this.userIdToken);
-            if (this.serviceTokens.size() > 0) headerJO.put(KEY_SERVICE_TOKENS, JsonUtils.createArray(this.serviceTokens));
+            putServiceTokens(headerJO, KEY_SERVICE_TOKENS, KEY_SERVICE_TOKEN_REFERENCES, KEY_SERVICE_TOKEN_SET, this.serviceTokens, references);
             if (this.peerMasterToken != null) headerJO.put(KEY_PEER_MASTER_TOKEN, this.peerMasterToken);
             if (this.peerUserIdToken != null) headerJO.put(KEY_PEER_USER_ID_TOKEN, this.peerUserIdToken);
-            if (this.peerServiceTokens.size() > 0) headerJO.put(KEY_PEER_SERVICE_TOKENS, JsonUtils.createArray(this.peerServiceTokens));
+            putServiceTokens(headerJO, KEY_PEER_SERVICE_TOKENS, KEY_PEER_SERVICE_TOKEN_REFERENCES, KEY_PEER_SERVICE_TOKEN_SET, this.peerServiceTokens, references);
+            this.tokenReferences = hasTokenReferences(headerJO);
         } catch (final JSONException e) {
             throw new MslEncodingException(MslError.JSON_ENCODE_ERROR, "headerdata", e)
                 .setMasterToken(this.masterToken)
@@ -430,6 +497,92 @@ public class MessageHeader extends Header {
             throw e;
         }
     }
+    
+    /**
+     * Add service tokens to the header data JSON object. If the token
+     * reference cache reports a set of the service tokens as held by the
+     * remote entity that set is added as a set reference. Remaining service
+     * tokens held by the remote entity are added as references.
+     * 
+     * @param headerJO header data JSON object.
+     * @param tokensKey JSON key for the service tokens.
+     * @param referencesKey JSON key for the service token references.
+     * @param setKey JSON key for the service token set reference.
+     * @param serviceTokens the service tokens.
+     * @param references the channel token reference cache. May be null.
+     * @throws JSONException if there is an error encoding the JSON data.
+     */
+    private static void putServiceTokens(final JSONObject headerJO, final String tokensKey, final String referencesKey, final String setKey, final Set<ServiceToken> serviceTokens, final TokenReferenceCache references) throws JSONException {
+        final Set<ServiceToken> heldSet = (references != null) ? references.getHeldSet(serviceTokens) : null;
+        if (heldSet != null) headerJO.put(setKey, TokenReferenceCache.getSetReference(heldSet));
+        final List<ServiceToken> tokens = new ArrayList<ServiceToken>();
+        final JSONArray refs = new JSONArray();
+        for (final ServiceToken serviceToken : serviceTokens) {
+            if (heldSet != null && heldSet.contains(serviceToken))
+                continue;
+            final String reference = (references != null) ? references.getReferenceIfHeld(serviceToken) : null;
+            if (reference != null)
+                refs.put(reference);
+            else
+                tokens.add(serviceToken);
+        }
+        if (tokens.size() > 0) headerJO.put(tokensKey, JsonUtils.createEncodedArray(tokens));
+        if (refs.length() > 0) headerJO.put(referencesKey, refs);
+    }
+    
+    /**
+     * @param headerdataJO header data JSON object.
+     * @return true if the header data contains service token references or
+     *         service token set references.
+     */
+    private static boolean hasTokenReferences(final JSONObject headerdataJO) {
+        return headerdataJO.has(KEY_SERVICE_TOKEN_REFERENCES) || headerdataJO.has(KEY_SERVICE_TOKEN_SET) ||
+            headerdataJO.has(KEY_PEER_SERVICE_TOKEN_REFERENCES) || headerdataJO.has(KEY_PEER_SERVICE_TOKEN_SET);
+    }
+    
+    /**
+     * Resolve service token references and the service token set reference
+     * found in the header data JSON object and verify the resolved service
+     * tokens are bound to the provided tokens.
+     * 
+     * @param headerdataJO header data JSON object.
+     * @param referencesKey JSON key for the service token references.
+     * @param setKey JSON key for the service token set reference.
+     * @param references the channel token reference cache. May be null.
+     * @param masterToken the verification master token. May be null.
+     * @param userIdToken the verification user ID token. May be null.
+     * @param serviceTokens the set to add resolved service tokens to.
+     * @throws JSONException if there is an error parsing the JSON.
+     * @throws MslMessageException if a referenced service token or service
+     *         token set is not found.
+     * @throws MslException if a resolved service token is not bound to the
+     *         provided tokens.
+     */
+    private static void resolveServiceTokens(final JSONObject headerdataJO, final String referencesKey, final String setKey, final TokenReferenceCache references, final MasterToken masterToken, final UserIdToken userIdToken, final Set<ServiceToken> serviceTokens) throws JSONException, MslMessageException, MslException {
+        final Set<ServiceToken> resolved = new HashSet<ServiceToken>();
+        if (headerdataJO.has(setKey)) {
+            final String reference = headerdataJO.getString(setKey);
+            final Set<ServiceToken> set = (references != null) ? references.getSet(reference) : null;
+            if (set == null)
+                throw new MslMessageException(MslError.SERVICETOKEN_REFERENCE_NOT_FOUND, "set " + reference);
+            resolved.addAll(set);
+        }
+        final JSONArray refs = headerdataJO.optJSONArray(referencesKey);
+        for (int i = 0; refs != null && i < refs.length(); ++i) {
+            final String reference = refs.getString(i);
+            final ServiceToken serviceToken = (references != null) ? references.get(reference) : null;
+            if (serviceToken == null)
+                throw new MslMessageException(MslError.SERVICETOKEN_REFERENCE_NOT_FOUND, reference);
+            resolved.add(serviceToken);
+        }
+        for (final ServiceToken serviceToken : resolved) {
+            if (serviceToken.isMasterTokenBound() && (masterToken == null || !serviceToken.isBoundTo(masterToken)))
+                throw new MslException(MslError.SERVICETOKEN_MASTERTOKEN_MISMATCH, "st mtserialnumber " + serviceToken.getMasterTokenSerialNumber() + "; mt " + masterToken);
+            if (serviceToken.isUserIdTokenBound() && (userIdToken == null || !serviceToken.isBoundTo(userIdToken)))
+                throw new MslException(MslError.SERVICETOKEN_USERIDTOKEN_MISMATCH, "st uitserialnumber " + serviceToken.getUserIdTokenSerialNumber() + "; uit " + userIdToken);
+            serviceTokens.add(serviceToken);
+        }
+    }
 
     /**
      * <p>Construct a new message from the provided JSON object.</p>
@@ -476,6 +629,60 @@ public class MessageHeader extends Header {
      * @throws MslException if a token is improperly bound to another token.
      */
     protected MessageHeader(final MslContext ctx, final String headerdata, final EntityAuthenticationData entityAuthData, final MasterToken masterToken, final byte[] signature, final Map<String,ICryptoContext> cryptoContexts) throws MslEncodingException, MslCryptoException, MslKeyExchangeException, MslUserAuthException, MslMasterTokenException, MslMessageException, MslEntityAuthException, MslException {
+        this(ctx, headerdata, entityAuthData, masterToken, signature, cryptoContexts, null);
+    }
+    
+    /**
+     * <p>Construct a new message from the provided JSON object.</p>
+     * 
+     * <p>Headers are encrypted and signed. If a master token is found, it will
+     * be used for this purpose. Otherwise the crypto context appropriate for
+     * the entity authentication scheme will be used. Either the master token
+     * or entity authentication data must be found.</p>
+     * 
+     * <p>If user authentication data is included user authentication will be
+     * performed. If a user ID token is included then its user information is
+     * considered to be trusted.</p>
+     * 
+     * <p>Service tokens will be decrypted and verified with the provided crypto
+     * contexts identified by token name. A default crypto context may be
+     * provided by using the empty string as the token name; if a token name is
+     * not explicitly mapped onto a crypto context, the default crypto context
+     * will be used.</p>
+     * 
+     * <p>Service token references are resolved using the provided token
+     * reference cache.</p>
+     * 
+     * @param ctx MSL context.
+     * @param headerdata header data JSON representation.
+     * @param entityAuthData the entity authentication data. May be null if a
+     *        master token is provided.
+     * @param masterToken the master token. May be null if entity
+     *        authentication data is provided.
+     * @param signature the header signature.
+     * @param cryptoContexts the map of service token names onto crypto
+     *        contexts used to decrypt and verify service tokens.
+     * @param references the channel token reference cache used to resolve
+     *        service token references. May be null.
+     * @throws MslEncodingException if there is an error parsing the JSON.
+     * @throws MslCryptoException if there is an error decrypting or verifying
+     *         the header or creating the key exchange crypto context.
+     * @throws MslEntityAuthException if unable to create the entity
+     *         authentication data or there is an error with the entity
+     *         authentication data.
+     * @throws MslKeyExchangeException if unable to create the key request data
+     *         or key response data.
+     * @throws MslUserAuthException if unable to create the user authentication
+     *         data or authenticate the user.
+     * @throws MslMasterTokenException if the header master token is not
+     *         trusted and needs to be to accept this message header.
+     * @throws MslMessageException if the message does not contain an entity
+     *         authentication data or a master token, the header data is
+     *         missing or invalid, the message ID is negative, or a
+     *         referenced service token is not found.
+     * @throws MslException if a token is improperly bound to another token.
+     */
+    protected MessageHeader(final MslContext ctx, final String headerdata, final EntityAuthenticationData entityAuthData, final MasterToken masterToken, final byte[] signature, final Map<String,ICryptoContext> cryptoContexts, final TokenReferenceCache references) throws MslEncodingException, MslCryptoException, MslKeyExchangeException, MslUserAuthException, MslMasterTokenException, MslMessageException, MslEntityAuthException, MslException {
         try {
             this.entityAuthData = (masterToken == null) ? entityAuthData : null;
             this.masterToken = masterToken;
@@ -553,6 +760,7 @@ public class MessageHeader extends Header {
             this.peerMasterToken = null;
             this.peerUserIdToken = null;
             this.peerServiceTokens = Collections.emptySet();
+            this.tokenReferences = false;
             return;
         }
         
@@ -565,10 +773,11 @@ public class MessageHeader extends Header {
             // use it.
             this.messageId = headerdataJO.getLong(KEY_MESSAGE_ID);
             if (this.messageId < 0 || this.messageId > MslConstants.MAX_LONG_VALUE)
-                throw new MslMessageException(MslError.MESSAGE_ID_OUT_OF_RANGE, "headerdata " + headerdataJson).setMasterToken(masterToken).setEntityAuthenticationData(entityAuthData);
+                throw new MslMessageException(MslError.MESSAGE_ID_OUT_OF_RANGE, "headerdata", headerdataJson).setMasterToken(masterToken).setEntityAuthenticationData(entityAuthData);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "headerdata " + headerdataJson, e).setMasterToken(masterToken).setEntityAuthenticationData(entityAuthData);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "headerdata", headerdataJson, e).setMasterToken(masterToken).setEntityAuthenticationData(entityAuthData);
         }
+        this.tokenReferences = hasTokenReferences(headerdataJO);
         
         try {
             // If the message was sent with a master token pull the sender.
@@ -630,9 +839,15 @@ public class MessageHeader extends Header {
                     }
                 }
             }
+            try {
+                resolveServiceTokens(headerdataJO, KEY_SERVICE_TOKEN_REFERENCES, KEY_SERVICE_TOKEN_SET, references, tokenVerificationMasterToken, this.userIdToken, serviceTokens);
+            } catch (final MslException e) {
+                e.setMasterToken(tokenVerificationMasterToken).setUserIdToken(this.userIdToken).setUserAuthenticationData(userAuthData);
+                throw e;
+            }
             this.serviceTokens = Collections.unmodifiableSet(serviceTokens);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "headerdata " + headerdataJson, e).setMasterToken(masterToken).setEntityAuthenticationData(entityAuthData).setMessageId(this.messageId);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "headerdata", headerdataJson, e).setMasterToken(masterToken).setEntityAuthenticationData(entityAuthData).setMessageId(this.messageId);
         } catch (final MslException e) {
             e.setMasterToken(masterToken);
             e.setEntityAuthenticationData(entityAuthData);
@@ -648,7 +863,7 @@ public class MessageHeader extends Header {
             
             // Verify values.
             if (nonReplayableId != null && (nonReplayableId < 0 || nonReplayableId > MslConstants.MAX_LONG_VALUE))
-                throw new MslMessageException(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE, "headerdata " + headerdataJson);
+                throw new MslMessageException(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE, "headerdata", headerdataJson);
             
             // Pull message capabilities.
             if (headerdataJO.has(KEY_CAPABILITIES)) {
@@ -707,6 +922,12 @@ public class MessageHeader extends Header {
                         }
                     }
                 }
+                try {
+                    resolveServiceTokens(headerdataJO, KEY_PEER_SERVICE_TOKEN_REFERENCES, KEY_PEER_SERVICE_TOKEN_SET, references, peerVerificationMasterToken, this.peerUserIdToken, peerServiceTokens);
+                } catch (final MslException e) {
+                    e.setMasterToken(peerVerificationMasterToken).setUserIdToken(this.peerUserIdToken);
+                    throw e;
+                }
                 this.peerServiceTokens = Collections.unmodifiableSet(peerServiceTokens);
             } else {
                 this.peerMasterToken = null;
@@ -714,7 +935,7 @@ public class MessageHeader extends Header {
                 this.peerServiceTokens = Collections.emptySet();
             }
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "headerdata " + headerdataJO.toString(), e)
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "headerdata", headerdataJO, e)
                 .setMasterToken(masterToken)
                 .setEntityAuthenticationData(entityAuthData)
                 .setUserIdToken(this.userIdToken)
@@ -941,6 +1162,15 @@ public class MessageHeader extends Header {
         return peerServiceTokens;
     }
     
+    /**
+     * @return true if the message header carries service token references or
+     *         service token set references in place of service tokens.
+     * @see TokenReferenceCache
+     */
+    public boolean hasTokenReferences() {
+        return tokenReferences;
+    }
+    
     /* (non-Javadoc)
      * @see org.json.JSONString#toJSONString()
      */
@@ -1066,6 +1296,8 @@ public class MessageHeader extends Header {
     private final UserIdToken peerUserIdToken;
     /** Peer service tokens (immutable). */
     private final Set<ServiceToken> peerServiceTokens;
+    /** True if service token references were sent or received. */
+    private final boolean tokenReferences;
     
     /** User (if authenticated). */
     private final MslUser user;
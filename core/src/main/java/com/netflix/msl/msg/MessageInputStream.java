@@ -19,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -46,6 +47,7 @@ import com.netflix.msl.MslUserIdTokenException;
 import com.netflix.msl.crypto.ICryptoContext;
 import com.netflix.msl.crypto.SessionCryptoContext;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
+import com.netflix.msl.io.ByteBufferInputStream;
 import com.netflix.msl.keyx.KeyExchangeFactory;
 import com.netflix.msl.keyx.KeyExchangeScheme;
 import com.netflix.msl.keyx.KeyRequestData;
@@ -66,7 +68,10 @@ import com.netflix.msl.util.MslContext;
  * <p>Data is read until an end-of-message payload chunk is encountered or an
  * error occurs. Closing a {@code MessageInputStream} does not close the source
  * input stream in case additional MSL messages will be read.</p>
- * 
+ *
+ * <p>If the source is a {@link ByteBufferInputStream} the message is decoded
+ * directly out of its byte buffer.</p>
+ *
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
 public class MessageInputStream extends InputStream {
@@ -204,9 +209,63 @@ public class MessageInputStream extends InputStream {
      *         bound to another token.
      */
     public MessageInputStream(final MslContext ctx, final InputStream source, final Charset charset, final Set<KeyRequestData> keyRequestData, final Map<String,ICryptoContext> cryptoContexts) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslUserAuthException, MslMessageException, MslKeyExchangeException, MslMasterTokenException, MslUserIdTokenException, MslMessageException, MslException {
+        this(ctx, source, charset, keyRequestData, cryptoContexts, null);
+    }
+    
+    /**
+     * <p>Construct a new message input stream. The header is parsed.</p>
+     * 
+     * <p>If key request data is provided and a matching key response data is
+     * found in the message header the key exchange will be performed to
+     * process the message payloads.</p>
+     * 
+     * <p>Service tokens will be decrypted and verified with the provided crypto
+     * contexts identified by token name. A default crypto context may be
+     * provided by using the empty string as the token name; if a token name is
+     * not explcitly mapped onto a crypto context, the default crypto context
+     * will be used.</p>
+     * 
+     * <p>Service token references are resolved using the provided token
+     * reference cache.</p>
+     * 
+     * @param ctx MSL context.
+     * @param source MSL input stream.
+     * @param charset input stream character set encoding.
+     * @param keyRequestData key request data to use when processing key
+     *        response data.
+     * @param cryptoContexts the map of service token names onto crypto
+     *        contexts used to decrypt and verify service tokens.
+     * @param references the channel token reference cache used to resolve
+     *        service token references. May be null.
+     * @throws MslEncodingException if there is an error parsing the message.
+     * @throws MslCryptoException if there is an error decrypting or verifying
+     *         the header or creating the message payload crypto context.
+     * @throws MslEntityAuthException if unable to create the entity
+     *         authentication data.
+     * @throws MslUserAuthException if unable to create the user authentication
+     *         data.
+     * @throws MslMessageException if the message master token is expired and
+     *         the message is not renewable or a referenced service token is
+     *         not found.
+     * @throws MslMasterTokenException if the master token is not trusted and
+     *         needs to be or if it has been revoked.
+     * @throws MslUserIdTokenException if the user ID token has been revoked.
+     * @throws MslKeyExchangeException if there is an error with the key
+     *         request data or key response data or the key exchange scheme is
+     *         not supported.
+     * @throws MslMessageException if the message master token is expired and
+     *         the message is not renewable.
+     * @throws MslException if the message does not contain an entity
+     *         authentication data or a master token, or a token is improperly
+     *         bound to another token.
+     */
+    public MessageInputStream(final MslContext ctx, final InputStream source, final Charset charset, final Set<KeyRequestData> keyRequestData, final Map<String,ICryptoContext> cryptoContexts, final TokenReferenceCache references) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslUserAuthException, MslMessageException, MslKeyExchangeException, MslMasterTokenException, MslUserIdTokenException, MslMessageException, MslException {
         // Parse the header.
         this.source = source;
-        this.tokener = new JSONTokener(new InputStreamReader(source, charset));
+        final Reader reader = (source instanceof ByteBufferInputStream)
+            ? ((ByteBufferInputStream)source).newReader(charset)
+            : new InputStreamReader(source, charset);
+        this.tokener = new JSONTokener(reader);
         final JSONObject jo;
         try {
             if (!this.tokener.more())
@@ -218,7 +277,7 @@ public class MessageInputStream extends InputStream {
         } catch (final JSONException e) {
             throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "header", e);
         }
-        this.header = Header.parseHeader(ctx, jo, cryptoContexts);
+        this.header = Header.parseHeader(ctx, jo, cryptoContexts, references);
         
         try {
             // For error messages there are no key exchange or payload crypto
@@ -249,7 +308,7 @@ public class MessageInputStream extends InputStream {
             if (messageHeader.isHandshake() &&
                 (!messageHeader.isRenewable() || messageHeader.getKeyRequestData().isEmpty()))
             {
-                throw new MslMessageException(MslError.HANDSHAKE_DATA_MISSING, messageHeader.toJSONString());
+                throw new MslMessageException(MslError.HANDSHAKE_DATA_MISSING, "messageheader", messageHeader);
             }
             
             // If I am in peer-to-peer mode or the master token is verified
@@ -279,7 +338,7 @@ public class MessageInputStream extends InputStream {
                     // If the message is not renewable or does not contain key
                     // request data then reject the message.
                     if (!messageHeader.isRenewable() || messageHeader.getKeyRequestData().isEmpty())
-                        throw new MslMessageException(MslError.MESSAGE_EXPIRED, messageHeader.toJSONString());
+                        throw new MslMessageException(MslError.MESSAGE_EXPIRED, "messageheader", messageHeader);
                     
                     // If the master token will not be renewed by the token
                     // factory then reject the message.
@@ -299,14 +358,14 @@ public class MessageInputStream extends InputStream {
                 // ...and does not include a master token then reject the
                 // message.
                 if (masterToken == null)
-                    throw new MslMessageException(MslError.INCOMPLETE_NONREPLAYABLE_MESSAGE, messageHeader.toJSONString());
+                    throw new MslMessageException(MslError.INCOMPLETE_NONREPLAYABLE_MESSAGE, "messageheader", messageHeader);
                 
                 // If the non-replayable ID is not accepted then notify the
                 // sender.
                 final TokenFactory factory = ctx.getTokenFactory();
                 final MslError replayed = factory.acceptNonReplayableId(ctx, masterToken, nonReplayableId);
                 if (replayed != null)
-                    throw new MslMessageException(replayed, messageHeader.toJSONString());
+                    throw new MslMessageException(replayed, "messageheader", messageHeader);
             }
         } catch (final MslException e) {
             if (this.header instanceof MessageHeader) {
@@ -30,6 +30,8 @@ import com.netflix.msl.MslEncodingException;
 import com.netflix.msl.MslException;
 import com.netflix.msl.MslInternalException;
 import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.io.ByteBufferOutputStream;
+import com.netflix.msl.io.ChannelOutputStream;
 import com.netflix.msl.util.MslContext;
 
 /**
@@ -48,6 +50,12 @@ import com.netflix.msl.util.MslContext;
  * <p>A copy of the payload chunks is kept in-memory and can be retrieved by a
  * a call to {@code getPayloads()} until {@code stopCaching()} is called. This
  * is used to facilitate automatic re-sending of messages.</p>
+ *
+ * <p>Headers and payload chunks are encoded directly into the byte buffer of
+ * a {@link ByteBufferOutputStream} destination. The header of a non-handshake
+ * message written to a {@link ChannelOutputStream} destination is held until
+ * the first payload chunk or {@code flush()} so both are written to the
+ * channel with one gathering write.</p>
  * 
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
@@ -70,15 +78,17 @@ public class MessageOutputStream extends OutputStream {
         this.header = header;
         this.compressionAlgo = null;
         this.cryptoContext = null;
-        this.destination.write(this.header.toJSONString().getBytes(charset));
+        send(this.header.toJSONString());
         this.destination.flush();
     }
 
     /**
      * Construct a new message output stream. The header is output
      * immediately by calling {@code #flush()} on the destination output
-     * stream. The most preferred compression algorithm supported by the
-     * local entity and message header will be used.
+     * stream, unless the destination is a {@link ChannelOutputStream} and
+     * this is not a handshake message. The most preferred compression
+     * algorithm supported by the local entity and message header will be
+     * used.
      * 
      * @param ctx the MSL context.
      * @param destination MSL output stream.
@@ -105,8 +115,29 @@ public class MessageOutputStream extends OutputStream {
         this.header = header;
         this.compressionAlgo = compressionAlgo;
         this.cryptoContext = cryptoContext;
-        this.destination.write(this.header.toJSONString().getBytes(charset));
-        this.destination.flush();
+        send(this.header.toJSONString());
+        
+        // Hold the header for a gathering write with the first payload chunk
+        // if writing to a channel.
+        if (destination instanceof ChannelOutputStream && !header.isHandshake())
+            this.headerPending = true;
+        else
+            this.destination.flush();
+    }
+    
+    /**
+     * Write the provided JSON string to the destination without flushing it.
+     * 
+     * @param json the JSON string.
+     * @throws IOException if there is an error writing the string.
+     */
+    private void send(final String json) throws IOException {
+        if (destination instanceof ByteBufferOutputStream)
+            ((ByteBufferOutputStream)destination).write(json, charset);
+        else if (destination instanceof ChannelOutputStream)
+            ((ChannelOutputStream)destination).write(json, charset);
+        else
+            destination.write(json.getBytes(charset));
     }
     
     /* (non-Javadoc)
@@ -221,6 +252,19 @@ public class MessageOutputStream extends OutputStream {
             destination.close();
     }
 
+    /**
+     * Send the message header if it is being held for a gathering write with
+     * the first payload chunk. Otherwise this function does nothing.
+     * 
+     * @throws IOException if the message header could not be sent.
+     */
+    void flushHeader() throws IOException {
+        if (headerPending) {
+            destination.flush();
+            headerPending = false;
+        }
+    }
+
     /**
      * Flush any buffered data out to the destination. This creates a payload
      * chunk. If there is no buffered data or this is an error message this
@@ -236,8 +280,11 @@ public class MessageOutputStream extends OutputStream {
         if (currentPayload == null) return;
         
         // If we are not closed, and there is no data then we have nothing to
-        // send.
-        if (!closed && currentPayload.size() == 0) return;
+        // send other than a held header.
+        if (!closed && currentPayload.size() == 0) {
+            flushHeader();
+            return;
+        }
         
         // This is a no-op for error messages and handshake messages.
         final MessageHeader messageHeader = getMessageHeader();
@@ -250,8 +297,9 @@ public class MessageOutputStream extends OutputStream {
             final byte[] data = (currentPayload != null) ? currentPayload.toByteArray() : new byte[0];
             final PayloadChunk chunk = new PayloadChunk(payloadSequenceNumber, messageHeader.getMessageId(), closed, compressionAlgo, data, this.cryptoContext);
             if (caching) payloads.add(chunk);
-            destination.write(chunk.toJSONString().getBytes(charset));
+            send(chunk.toJSONString());
             destination.flush();
+            headerPending = false;
             ++payloadSequenceNumber;
             
             // If we are closed, get rid of the current payload. This prevents
@@ -326,6 +374,8 @@ public class MessageOutputStream extends OutputStream {
     /** Current payload chunk data. */
     private ByteArrayOutputStream currentPayload = new ByteArrayOutputStream();
     
+    /** True if the header has been written but not flushed. */
+    private boolean headerPending = false;
     /** Stream is closed. */
     private boolean closed = false;
     /** True if the destination output stream should be closed. */
@@ -85,6 +85,54 @@ public class MessageStreamFactory {
     public MessageInputStream createInputStream(final MslContext ctx, final InputStream source, final Charset charset, final Set<KeyRequestData> keyRequestData, final Map<String,ICryptoContext> cryptoContexts) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslUserAuthException, MslMessageException, MslKeyExchangeException, MslMasterTokenException, MslUserIdTokenException, MslMessageException, MslException {
         return new MessageInputStream(ctx, source, charset, keyRequestData, cryptoContexts);
     }
+    
+    /**
+     * <p>Construct a new message input stream. The header is parsed.</p>
+     * 
+     * <p>If key request data is provided and a matching key response data is
+     * found in the message header the key exchange will be performed to
+     * process the message payloads.</p>
+     * 
+     * <p>Service tokens will be decrypted and verified with the provided crypto
+     * contexts identified by token name. A default crypto context may be
+     * provided by using the empty string as the token name; if a token name is
+     * not explcitly mapped onto a crypto context, the default crypto context
+     * will be used.</p>
+     * 
+     * @param ctx MSL context.
+     * @param source MSL input stream.
+     * @param charset input stream character set encoding.
+     * @param keyRequestData key request data to use when processing key
+     *        response data.
+     * @param cryptoContexts the map of service token names onto crypto
+     *        contexts used to decrypt and verify service tokens.
+     * @param references the channel token reference cache used to resolve
+     *        service token references. May be null.
+     * @throws MslEncodingException if there is an error parsing the message.
+     * @throws MslCryptoException if there is an error decrypting or verifying
+     *         the header or creating the message payload crypto context.
+     * @throws MslEntityAuthException if unable to create the entity
+     *         authentication data.
+     * @throws MslUserAuthException if unable to create the user authentication
+     *         data.
+     * @throws MslMessageException if the message master token is expired and
+     *         the message is not renewable or a referenced service token is
+     *         not found.
+     * @throws MslMasterTokenException if the master token is not trusted and
+     *         needs to be or if it has been revoked.
+     * @throws MslUserIdTokenException if the user ID token has been revoked.
+     * @throws MslKeyExchangeException if there is an error with the key
+     *         request data or key response data or the key exchange scheme is
+     *         not supported.
+     * @throws MslMessageException if the message master token is expired and
+     *         the message is not renewable.
+     * @throws MslException if the message does not contain an entity
+     *         authentication data or a master token, or a token is improperly
+     *         bound to another token.
+     */
+    public MessageInputStream createInputStream(final MslContext ctx, final InputStream source, final Charset charset, final Set<KeyRequestData> keyRequestData, final Map<String,ICryptoContext> cryptoContexts, final TokenReferenceCache references) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslUserAuthException, MslMessageException, MslKeyExchangeException, MslMasterTokenException, MslUserIdTokenException, MslMessageException, MslException {
+        return new MessageInputStream(ctx, source, charset, keyRequestData, cryptoContexts, references);
+    }
 
     /**
      * Construct a new error message output stream. The header is output
@@ -22,8 +22,11 @@ import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileLockInterruptionException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -33,6 +36,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -73,6 +77,10 @@ import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.entityauth.EntityAuthenticationFactory;
 import com.netflix.msl.entityauth.EntityAuthenticationScheme;
 import com.netflix.msl.entityauth.UnauthenticatedAuthenticationData;
+import com.netflix.msl.io.ByteBufferInputStream;
+import com.netflix.msl.io.ByteBufferOutputStream;
+import com.netflix.msl.io.ChannelInputStream;
+import com.netflix.msl.io.ChannelOutputStream;
 import com.netflix.msl.io.Url;
 import com.netflix.msl.io.Url.Connection;
 import com.netflix.msl.keyx.KeyExchangeFactory;
@@ -103,11 +111,20 @@ import com.netflix.msl.util.NullMslStore;
  * Refer to the documentation for each method to determine which methods should
  * be used based on the entity's role and network type.</p>
  * 
+ * <p>Peer-to-peer entities that support token references in their message
+ * capabilities send service token references in place of service tokens the
+ * remote entity holds, in both requests and responses. The token references
+ * of a channel are kept until the application no longer references the
+ * channel's input stream, or its channel for channel streams, so
+ * applications must drop closed streams and channels.</p>
+ * 
  * <h3>Error Handling</h3>
  * 
  * <dl>
  *  <dt>{@link ResponseCode#FAIL}</dt>
- *  <dd>The caller is notified of the failure.</dd>
+ *  <dd>The caller is notified of the failure. If the remote entity could not
+ *      resolve a service token reference MSL will instead resend the message
+ *      once with its full service tokens.</dd>
  *  
  *  <dt>{@link ResponseCode#TRANSIENT_FAILURE}</dt>
  *  <dd>The caller is notified of the failure. MSL will not automatically
@@ -808,6 +825,45 @@ public class MslControl {
         filterFactory = factory;
     }
     
+    /**
+     * Assigns an error response cache that will be used to reuse the error
+     * responses sent to requests that are received again, such as replayed
+     * or retransmitted requests. Error responses are not cached if no error
+     * response cache is assigned.
+     * 
+     * @param cache error response cache. May be null.
+     */
+    public void setErrorResponseCache(final ErrorResponseCache cache) {
+        errorResponses = cache;
+    }
+    
+    /**
+     * Create an error response using the error response cache if one is
+     * assigned.
+     * 
+     * @param ctx MSL context.
+     * @param recipient error response recipient. May be null.
+     * @param requestMessageId message ID of request. May be null.
+     * @param error the MSL error.
+     * @param userMessage localized user-consumable error message. May be null.
+     * @return the error header.
+     * @throws MslEncodingException if there is an error encoding the JSON
+     *         data.
+     * @throws MslCryptoException if there is an error encrypting or signing
+     *         the message.
+     * @throws MslEntityAuthException if there is an error with the entity
+     *         authentication data.
+     * @throws MslMessageException if no entity authentication data was
+     *         returned by the MSL context.
+     * @see MessageBuilder#createErrorResponse(MslContext, String, Long, MslError, String)
+     */
+    private ErrorHeader createErrorResponse(final MslContext ctx, final String recipient, final Long requestMessageId, final MslError error, final String userMessage) throws MslEncodingException, MslCryptoException, MslEntityAuthException, MslMessageException {
+        final ErrorResponseCache cache = errorResponses;
+        if (cache != null)
+            return cache.createErrorResponse(ctx, recipient, requestMessageId, error, userMessage);
+        return MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, error, userMessage);
+    }
+    
     /**
      * Gracefully shutdown the MSL control instance. No additional messages may
      * be processed. Any messages pending or in process will be completed.
@@ -1359,6 +1415,49 @@ public class MslControl {
                 requestBuilder.setNonReplayable(resendMsgCtx.isNonReplayable());
                 return new ErrorResult(requestBuilder, resendMsgCtx);
             }
+            case FAIL:
+            {
+                // This error will be received if the remote entity could not
+                // resolve a service token reference of the previous request,
+                // for example because it already evicted the service token.
+                // The channel token references were cleared when the error
+                // was received so the request is resent with its full service
+                // tokens. Only resend if the previous request carried
+                // references so this happens at most once.
+                if (errorHeader.getInternalCode() != MslError.SERVICETOKEN_REFERENCE_NOT_FOUND.getInternalCode() ||
+                    !requestHeader.hasTokenReferences())
+                {
+                    return null;
+                }
+                
+                // Grab the newest master token and its read lock.
+                final MasterToken masterToken = getNewestMasterToken(ctx);
+                final UserIdToken userIdToken;
+                if (masterToken != null) {
+                    // Grab the user ID token for the message's user. It may not be bound
+                    // to the newest master token if the newest master token invalidated
+                    // it.
+                    final String userId = msgCtx.getUserId();
+                    final MslStore store = ctx.getMslStore();
+                    final UserIdToken storedUserIdToken = (userId != null) ? store.getUserIdToken(userId) : null;
+                    userIdToken = (storedUserIdToken != null && storedUserIdToken.isBoundTo(masterToken)) ? storedUserIdToken : null;
+                } else {
+                    userIdToken = null;
+                }
+                
+                // Resend the request.
+                final long messageId = MessageBuilder.incrementMessageId(errorHeader.getMessageId());
+                final MessageContext resendMsgCtx = new ResendMessageContext(payloads, msgCtx);
+                final String recipient = resendMsgCtx.getRecipient();
+                final MessageBuilder requestBuilder = MessageBuilder.createRequest(ctx, masterToken, userIdToken, recipient, messageId);
+                if (ctx.isPeerToPeer()) {
+                    final MasterToken peerMasterToken = requestHeader.getPeerMasterToken();
+                    final UserIdToken peerUserIdToken = requestHeader.getPeerUserIdToken();
+                    requestBuilder.setPeerAuthTokens(peerMasterToken, peerUserIdToken);
+                }
+                requestBuilder.setNonReplayable(resendMsgCtx.isNonReplayable());
+                return new ErrorResult(requestBuilder, resendMsgCtx);
+            }
             default:
                 // Nothing to do. Return null.
                 return null;
@@ -1439,6 +1538,45 @@ public class MslControl {
         public final boolean handshake;
     }
     
+    /**
+     * <p>Return the token reference cache of a peer-to-peer channel, creating
+     * it if necessary. Channels are identified by their remote entity input
+     * stream, so consecutive messages over the same streams share the
+     * cache.</p>
+     * 
+     * <p>Token references are only used in peer-to-peer mode and only if the
+     * local entity advertises support for them in its message capabilities.
+     * Trusted network messages are not guaranteed to reach the same remote
+     * entity instance.</p>
+     * 
+     * <p>Caches are held weakly by their input stream or channel. A cache is
+     * only discarded once the application no longer references the input
+     * stream or channel, so applications must drop closed streams and
+     * channels.</p>
+     * 
+     * @param ctx MSL context.
+     * @param in remote entity input stream.
+     * @return the channel token reference cache or {@code null} if token
+     *         references are not used.
+     */
+    private TokenReferenceCache getTokenReferences(final MslContext ctx, final InputStream in) {
+        if (!ctx.isPeerToPeer() || in == null)
+            return null;
+        final MessageCapabilities capabilities = ctx.getMessageCapabilities();
+        if (capabilities == null || !capabilities.isTokenReferences())
+            return null;
+        // Channel input streams are identified by their channel.
+        final Object connection = (in instanceof ChannelInputStream) ? ((ChannelInputStream)in).getChannel() : in;
+        synchronized (tokenReferences) {
+            TokenReferenceCache references = tokenReferences.get(connection);
+            if (references == null) {
+                references = new TokenReferenceCache(ctx);
+                tokenReferences.put(connection, references);
+            }
+            return references;
+        }
+    }
+    
     /**
      * <p>Send a message. The message context will be used to build the message.
      * If the message will be sent then the stored master token crypto contexts
@@ -1459,6 +1597,7 @@ public class MslControl {
      * @param builder message builder.
      * @param closeDestination true if the remote entity output stream must
      *        be closed when the constructed message output stream is closed.
+     * @param references the channel token reference cache. May be null.
      * @return a result containing the sent message header and a copy of the
      *         application data.
      * @throws IOException if there is an error writing the message.
@@ -1478,7 +1617,7 @@ public class MslControl {
      * @throws InterruptedException if the thread is interrupted while trying
      *         to delete an old master token the sent message is replacing.
      */
-    private SendResult send(final MslContext ctx, final MessageContext msgCtx, final OutputStream out, final MessageBuilder builder, final boolean closeDestination) throws IOException, MslMessageException, MslEncodingException, MslCryptoException, MslMasterTokenException, MslEntityAuthException, MslKeyExchangeException, MslException, InterruptedException {
+    private SendResult send(final MslContext ctx, final MessageContext msgCtx, final OutputStream out, final MessageBuilder builder, final boolean closeDestination, final TokenReferenceCache references) throws IOException, MslMessageException, MslEncodingException, MslCryptoException, MslMasterTokenException, MslEntityAuthException, MslKeyExchangeException, MslException, InterruptedException {
         final MasterToken masterToken = builder.getMasterToken();
         UserIdToken userIdToken = builder.getUserIdToken();
         final UserIdToken peerUserIdToken = builder.getPeerUserIdToken();
@@ -1559,7 +1698,10 @@ public class MslControl {
         // message and then build the message.
         final MessageServiceTokenBuilder serviceTokenBuilder = new MessageServiceTokenBuilder(ctx, msgCtx, builder);
         msgCtx.updateServiceTokens(serviceTokenBuilder, handshake);
+        builder.setTokenReferences(references);
         final MessageHeader requestHeader = builder.getHeader();
+        if (references != null)
+            references.sent(requestHeader);
         
         // Deliver the header that will be sent to the debug context.
         final MessageDebugContext debugCtx = msgCtx.getDebugContext();
@@ -1596,6 +1738,10 @@ public class MslControl {
         if (!handshake)
             msgCtx.write(request);
         
+        // Make sure the header has been sent in case it was held for a
+        // gathering write with the first payload chunk.
+        request.flushHeader();
+        
         // Return the result.
         return new SendResult(request, handshake);
     }
@@ -1611,6 +1757,7 @@ public class MslControl {
      * @param in remote entity input stream.
      * @param request message header of the previously sent message, if any,
      *        the received message is responding to. May be null.
+     * @param references the channel token reference cache. May be null.
      * @return the received message.
      * @throws MslEncodingException if there is an error parsing the message.
      * @throws MslCryptoException if there is an error decrypting or verifying
@@ -1635,14 +1782,16 @@ public class MslControl {
      * @throws InterruptedException if the thread is interrupted while trying
      *         to delete an old master token the received message is replacing.
      */
-    private MessageInputStream receive(final MslContext ctx, final MessageContext msgCtx, final InputStream in, final MessageHeader request) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslUserAuthException, MslMessageException, MslKeyExchangeException, MslMasterTokenException, MslException, InterruptedException {
+    private MessageInputStream receive(final MslContext ctx, final MessageContext msgCtx, final InputStream in, final MessageHeader request, final TokenReferenceCache references) throws MslEncodingException, MslEntityAuthException, MslCryptoException, MslUserAuthException, MslMessageException, MslKeyExchangeException, MslMasterTokenException, MslException, InterruptedException {
         // Grab the response.
         final Set<KeyRequestData> keyRequestData = new HashSet<KeyRequestData>();
         if (request != null)
             keyRequestData.addAll(request.getKeyRequestData());
         final Map<String,ICryptoContext> cryptoContexts = msgCtx.getCryptoContexts();
         final InputStream is = (filterFactory != null) ? filterFactory.getInputStream(in) : in;
-        final MessageInputStream response = streamFactory.createInputStream(ctx, is, MslConstants.DEFAULT_CHARSET, keyRequestData, cryptoContexts);
+        final MessageInputStream response = (references != null)
+            ? streamFactory.createInputStream(ctx, is, MslConstants.DEFAULT_CHARSET, keyRequestData, cryptoContexts, references)
+            : streamFactory.createInputStream(ctx, is, MslConstants.DEFAULT_CHARSET, keyRequestData, cryptoContexts);
 
         // Deliver the received header to the debug context.
         final MessageHeader responseHeader = response.getMessageHeader();
@@ -1749,6 +1898,15 @@ public class MslControl {
             final Date timestamp = (responseHeader != null) ? responseHeader.getTimestamp() : errorHeader.getTimestamp();
             if (timestamp != null && (request != null || ctx.isPeerToPeer()))
                 ctx.updateRemoteTime(timestamp);
+            
+            // Update the channel token references. An error may indicate the
+            // remote entity could not resolve a reference.
+            if (references != null) {
+                if (responseHeader != null)
+                    references.received(responseHeader);
+                else
+                    references.clear();
+            }
         } catch (final MslException e) {
             e.setMasterToken(masterToken);
             e.setEntityAuthenticationData(entityAuthData);
@@ -1804,6 +1962,7 @@ public class MslControl {
      *        must be closed when the constructed message input and output
      *        streams are closed.
      * @param timeout renewal lock acquisition timeout in milliseconds.
+     * @param references the channel token reference cache. May be null.
      * @return the received message or {@code null} if cancelled or interrupted.
      * @throws IOException if there was an error reading or writing a
      *         message.
@@ -1835,7 +1994,7 @@ public class MslControl {
      * @throws TimeoutException if the thread timed out while trying to acquire
      *         a master token from a renewing thread.
      */
-    private SendReceiveResult sendReceive(final MslContext ctx, final MessageContext msgCtx, final InputStream in, final OutputStream out, final MessageBuilder builder, final boolean receive, final boolean closeStreams, final int timeout) throws IOException, MslEncodingException, MslCryptoException, MslEntityAuthException, MslUserAuthException, MslMessageException, MslMasterTokenException, MslKeyExchangeException, MslException, InterruptedException, TimeoutException {
+    private SendReceiveResult sendReceive(final MslContext ctx, final MessageContext msgCtx, final InputStream in, final OutputStream out, final MessageBuilder builder, final boolean receive, final boolean closeStreams, final int timeout, final TokenReferenceCache references) throws IOException, MslEncodingException, MslCryptoException, MslEntityAuthException, MslUserAuthException, MslMessageException, MslMasterTokenException, MslKeyExchangeException, MslException, InterruptedException, TimeoutException {
         // Attempt to acquire the renewal lock.
         final BlockingQueue<MasterToken> renewalQueue = new ArrayBlockingQueue<MasterToken>(1, true);
         final boolean renewing;
@@ -1859,7 +2018,7 @@ public class MslControl {
         try {
             // Send the request.
             builder.setRenewable(renewing);
-            sent = send(ctx, msgCtx, out, builder, closeStreams);
+            sent = send(ctx, msgCtx, out, builder, closeStreams, references);
             
             // Receive the response if expected, if we sent a handshake request,
             // if key request data was included, or if a master token and user
@@ -1869,7 +2028,7 @@ public class MslControl {
             if (receive || sent.handshake || !keyRequestData.isEmpty() ||
                 (requestHeader.isRenewable() && requestHeader.getMasterToken() != null && requestHeader.getUserAuthenticationData() != null))
             {
-                response = receive(ctx, msgCtx, in, requestHeader);
+                response = receive(ctx, msgCtx, in, requestHeader, references);
                 response.closeSource(closeStreams);
                 
                 // If we received an error response then cleanup.
@@ -2211,7 +2370,7 @@ public class MslControl {
             // Read the incoming message.
             final MessageInputStream request;
             try {
-                request = receive(ctx, msgCtx, in, null);
+                request = receive(ctx, msgCtx, in, null, getTokenReferences(ctx, in));
             } catch (final InterruptedException e) {
                 // We were cancelled so return null.
                 return null;
@@ -2226,7 +2385,7 @@ public class MslControl {
                     final String recipient = (masterToken != null) ? masterToken.getIdentity() : ((entityAuthData != null) ? entityAuthData.getIdentity() : null);
                     final MslError error = e.getError();
                     final String userMessage = messageRegistry.getUserMessage(error, null);
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2243,7 +2402,7 @@ public class MslControl {
                 
                 // Try to send an error response.
                 try {
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, null, null, MslError.INTERNAL_EXCEPTION, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, null, null, MslError.INTERNAL_EXCEPTION, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2277,7 +2436,7 @@ public class MslControl {
                     final String recipient = (masterToken != null) ? masterToken.getIdentity() : ((entityAuthData != null) ? entityAuthData.getIdentity() : null);
                     final MslError error = e.getError();
                     final String userMessage = messageRegistry.getUserMessage(error, null);
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2296,7 +2455,7 @@ public class MslControl {
                 try {
                     final String recipient = request.getIdentity();
                     final Long requestMessageId = requestHeader.getMessageId();
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2329,7 +2488,7 @@ public class MslControl {
                     final MessageCapabilities caps = requestHeader.getMessageCapabilities();
                     final List<String> languages = (caps != null) ? caps.getLanguages() : null;
                     final String userMessage = messageRegistry.getUserMessage(error, languages);
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2348,7 +2507,7 @@ public class MslControl {
                 try {
                     final String recipient = request.getIdentity();
                     final Long requestMessageId = requestHeader.getMessageId();
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2371,7 +2530,7 @@ public class MslControl {
             if (!ctx.isPeerToPeer()) {
                 try {
                     responseBuilder.setRenewable(false);
-                    send(ctx, keyxMsgCtx, out, responseBuilder, false);
+                    send(ctx, keyxMsgCtx, out, responseBuilder, false, null);
                     return null;
                 } catch (final InterruptedException e) {
                     // We were cancelled so return null.
@@ -2388,7 +2547,7 @@ public class MslControl {
                         final MessageCapabilities caps = requestHeader.getMessageCapabilities();
                         final List<String> languages = (caps != null) ? caps.getLanguages() : null;
                         final String userMessage = messageRegistry.getUserMessage(error, languages);
-                        final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, error, userMessage);
+                        final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, error, userMessage);
                         if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                         final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                         response.close();
@@ -2407,7 +2566,7 @@ public class MslControl {
                     try {
                         final String recipient = request.getIdentity();
                         final Long requestMessageId = requestHeader.getMessageId();
-                        final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.MSL_COMMS_FAILURE, null);
+                        final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.MSL_COMMS_FAILURE, null);
                         if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                         final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                         response.close();
@@ -2426,7 +2585,7 @@ public class MslControl {
                     try {
                         final String recipient = request.getIdentity();
                         final Long requestMessageId = requestHeader.getMessageId();
-                        final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
+                        final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
                         if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                         final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                         response.close();
@@ -2547,7 +2706,7 @@ public class MslControl {
                     try {
                         final String recipient = MslControl.getIdentity(request);
                         final long requestMessageId = MessageBuilder.decrementMessageId(builder.getMessageId());
-                        final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, securityRequired, null);
+                        final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, securityRequired, null);
                         if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                         final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                         response.close();
@@ -2568,7 +2727,7 @@ public class MslControl {
                     try {
                         final String recipient = MslControl.getIdentity(request);
                         final long requestMessageId = MessageBuilder.decrementMessageId(builder.getMessageId());
-                        final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.RESPONSE_REQUIRES_MASTERTOKEN, null);
+                        final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.RESPONSE_REQUIRES_MASTERTOKEN, null);
                         if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                         final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                         response.close();
@@ -2583,7 +2742,7 @@ public class MslControl {
                 
                 // Otherwise simply send the response.
                 builder.setRenewable(false);
-                final SendResult result = send(ctx, msgCtx, out, builder, false);
+                final SendResult result = send(ctx, msgCtx, out, builder, false, getTokenReferences(ctx, in));
                 return new MslChannel(request, result.request);
             } finally {
                 // Release the master token lock.
@@ -2632,7 +2791,7 @@ public class MslControl {
                 try {
                     final String recipient = MslControl.getIdentity(request);
                     final long requestMessageId = MessageBuilder.decrementMessageId(builder.getMessageId());
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.RESPONSE_REQUIRES_MASTERTOKEN, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.RESPONSE_REQUIRES_MASTERTOKEN, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2649,7 +2808,7 @@ public class MslControl {
             // This adds two to our message count.
             //
             // This will release the master token lock.
-            final SendReceiveResult result = sendReceive(ctx, msgCtx, in, out, builder, false, false, timeout);
+            final SendReceiveResult result = sendReceive(ctx, msgCtx, in, out, builder, false, false, timeout, getTokenReferences(ctx, in));
             final MessageInputStream response = result.response;
             msgCount += 2;
             
@@ -2752,7 +2911,7 @@ public class MslControl {
                     final MessageCapabilities caps = requestHeader.getMessageCapabilities();
                     final List<String> languages = (caps != null) ? caps.getLanguages() : null;
                     final String userMessage = messageRegistry.getUserMessage(error, languages);
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, e.getMessageId(), error, userMessage);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2766,7 +2925,7 @@ public class MslControl {
                 
                 try {
                     final String recipient = MslControl.getIdentity(request);
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, null, MslError.INTERNAL_EXCEPTION, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, null, MslError.INTERNAL_EXCEPTION, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2803,7 +2962,7 @@ public class MslControl {
                 try {
                     final String recipient = MslControl.getIdentity(request);
                     final long requestMessageId = MessageBuilder.decrementMessageId(builder.getMessageId());
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.MSL_COMMS_FAILURE, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.MSL_COMMS_FAILURE, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2826,7 +2985,7 @@ public class MslControl {
                     final MessageCapabilities caps = requestHeader.getMessageCapabilities();
                     final List<String> languages = (caps != null) ? caps.getLanguages() : null;
                     final String userMessage = messageRegistry.getUserMessage(error, languages);
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, error, userMessage);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, error, userMessage);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2845,7 +3004,7 @@ public class MslControl {
                 try {
                     final String recipient = MslControl.getIdentity(request);
                     final long requestMessageId = MessageBuilder.decrementMessageId(builder.getMessageId());
-                    final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
+                    final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, requestMessageId, MslError.INTERNAL_EXCEPTION, null);
                     if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                     final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                     response.close();
@@ -2932,7 +3091,7 @@ public class MslControl {
                 final MessageCapabilities caps = header.getMessageCapabilities();
                 final List<String> languages = (caps != null) ? caps.getLanguages() : null;
                 final String userMessage = messageRegistry.getUserMessage(error, languages);
-                final ErrorHeader errorHeader = MessageBuilder.createErrorResponse(ctx, recipient, header.getMessageId(), error, userMessage);
+                final ErrorHeader errorHeader = createErrorResponse(ctx, recipient, header.getMessageId(), error, userMessage);
                 if (debugCtx != null) debugCtx.sentHeader(errorHeader);
                 final MessageOutputStream response = streamFactory.createOutputStream(ctx, out, MslConstants.DEFAULT_CHARSET, errorHeader);
                 response.close();
@@ -3191,7 +3350,7 @@ public class MslControl {
             // message count.
             //
             // This will release the master token lock.
-            final SendReceiveResult result = sendReceive(ctx, msgCtx, in, out, builder, true, openedStreams, timeout);
+            final SendReceiveResult result = sendReceive(ctx, msgCtx, in, out, builder, true, openedStreams, timeout, getTokenReferences(ctx, in));
             final MessageOutputStream request = result.request;
             final MessageInputStream response = result.response;
             msgCount += 2;
@@ -3360,7 +3519,7 @@ public class MslControl {
                         // Return the original message input stream and the new
                         // message output stream to the caller.
                         keyxBuilder.setRenewable(false);
-                        final SendResult newResult = send(ctx, keyxMsgCtx, out, keyxBuilder, openedStreams);
+                        final SendResult newResult = send(ctx, keyxMsgCtx, out, keyxBuilder, openedStreams, getTokenReferences(ctx, in));
                         return new MslChannel(response, newResult.request);
                     }
                     
@@ -3545,6 +3704,49 @@ public class MslControl {
         return executor.submit(service);
     }
     
+    /**
+     * <p>Receive a request contained in the provided byte buffer. The byte
+     * buffer must contain the entire request. Any error or handshake response
+     * will be written into the provided output byte buffer.</p>
+     * 
+     * <p>This method behaves the same as
+     * {@link #receive(MslContext, MessageContext, InputStream, OutputStream, int)}
+     * except that the message is decoded directly out of the input byte
+     * buffer and responses are encoded directly into the output byte buffer.
+     * Heap and direct byte buffers are both supported.</p>
+     * 
+     * @param ctx MSL context.
+     * @param msgCtx message context.
+     * @param in remote entity input byte buffer.
+     * @param out remote entity output byte buffer.
+     * @param timeout renewal acquisition lock timeout in milliseconds.
+     * @return a future for the message.
+     */
+    public Future<MessageInputStream> receive(final MslContext ctx, final MessageContext msgCtx, final ByteBuffer in, final ByteBuffer out, final int timeout) {
+        return receive(ctx, msgCtx, new ByteBufferInputStream(in), new ByteBufferOutputStream(out), timeout);
+    }
+    
+    /**
+     * <p>Receive a request over the provided channel.</p>
+     * 
+     * <p>This method behaves the same as
+     * {@link #receive(MslContext, MessageContext, InputStream, OutputStream, int)}
+     * using a {@link ChannelInputStream} and {@link ChannelOutputStream}.
+     * Data read from the input channel beyond the end of the message is not
+     * retained; to receive several messages over one channel use a single
+     * {@code ChannelInputStream} with the stream method instead.</p>
+     * 
+     * @param ctx MSL context.
+     * @param msgCtx message context.
+     * @param in remote entity input channel.
+     * @param out remote entity output channel.
+     * @param timeout renewal acquisition lock timeout in milliseconds.
+     * @return a future for the message.
+     */
+    public Future<MessageInputStream> receive(final MslContext ctx, final MessageContext msgCtx, final ReadableByteChannel in, final WritableByteChannel out, final int timeout) {
+        return receive(ctx, msgCtx, new ChannelInputStream(in), new ChannelOutputStream(out), timeout);
+    }
+    
     /**
      * <p>Send a response over the provided output stream.</p>
      * 
@@ -3605,6 +3807,51 @@ public class MslControl {
         return executor.submit(service);
     }
     
+    /**
+     * <p>Write a response into the provided output byte buffer.</p>
+     * 
+     * <p>This method behaves the same as
+     * {@link #respond(MslContext, MessageContext, InputStream, OutputStream, MessageInputStream, int)}
+     * except that the response is encoded directly into the output byte
+     * buffer. Heap and direct byte buffers are both supported.</p>
+     * 
+     * @param ctx MSL context.
+     * @param msgCtx message context.
+     * @param in remote entity input byte buffer.
+     * @param out remote entity output byte buffer.
+     * @param request message input stream to create the response for.
+     * @param timeout renewal lock acquisition timeout in milliseconds.
+     * @return a future for the communication channel.
+     * @throws IllegalArgumentException if the request message input stream is
+     *         an error message.
+     */
+    public Future<MslChannel> respond(final MslContext ctx, final MessageContext msgCtx, final ByteBuffer in, final ByteBuffer out, final MessageInputStream request, final int timeout) {
+        return respond(ctx, msgCtx, new ByteBufferInputStream(in), new ByteBufferOutputStream(out), request, timeout);
+    }
+    
+    /**
+     * <p>Send a response over the provided channel.</p>
+     * 
+     * <p>This method behaves the same as
+     * {@link #respond(MslContext, MessageContext, InputStream, OutputStream, MessageInputStream, int)}
+     * using a {@link ChannelInputStream} and {@link ChannelOutputStream}. The
+     * response header and its first payload chunk are written with one
+     * gathering write.</p>
+     * 
+     * @param ctx MSL context.
+     * @param msgCtx message context.
+     * @param in remote entity input channel.
+     * @param out remote entity output channel.
+     * @param request message input stream to create the response for.
+     * @param timeout renewal lock acquisition timeout in milliseconds.
+     * @return a future for the communication channel.
+     * @throws IllegalArgumentException if the request message input stream is
+     *         an error message.
+     */
+    public Future<MslChannel> respond(final MslContext ctx, final MessageContext msgCtx, final ReadableByteChannel in, final WritableByteChannel out, final MessageInputStream request, final int timeout) {
+        return respond(ctx, msgCtx, new ChannelInputStream(in), new ChannelOutputStream(out), request, timeout);
+    }
+    
     /**
      * <p>Send an error response over the provided output stream. Any replies
      * to the error response may be received by a subsequent call to
@@ -3733,6 +3980,28 @@ public class MslControl {
         return executor.submit(service);
     }
     
+    /**
+     * <p>Send a request to the remote entity over the provided output channel
+     * and receive a response over the provided input channel.</p>
+     * 
+     * <p>This method behaves the same as
+     * {@link #request(MslContext, MessageContext, InputStream, OutputStream, int)}
+     * using a {@link ChannelInputStream} and {@link ChannelOutputStream}. The
+     * request header and its first payload chunk are written with one
+     * gathering write.</p>
+     * 
+     * @param ctx MSL context.
+     * @param msgCtx message context.
+     * @param in remote entity input channel.
+     * @param out remote entity output channel.
+     * @param timeout renewal lock acquisition timeout in milliseconds.
+     * @return a future for the communication channel.
+     * @throws IllegalStateException if used in trusted network mode.
+     */
+    public Future<MslChannel> request(final MslContext ctx, final MessageContext msgCtx, final ReadableByteChannel in, final WritableByteChannel out, final int timeout) {
+        return request(ctx, msgCtx, new ChannelInputStream(in), new ChannelOutputStream(out), timeout);
+    }
+    
     /** MSL executor. */
     private final ExecutorService executor;
     
@@ -3742,6 +4011,14 @@ public class MslControl {
     private final ErrorMessageRegistry messageRegistry;
     /** Filter stream factory. May be null. */
     private FilterStreamFactory filterFactory = null;
+    /** Error response cache. May be null. */
+    private volatile ErrorResponseCache errorResponses = null;
+    /**
+     * Peer-to-peer channel token reference caches by remote entity input
+     * stream or channel. Entries are held until the application drops the
+     * input stream or channel.
+     */
+    private final Map<Object,TokenReferenceCache> tokenReferences = new WeakHashMap<Object,TokenReferenceCache>();
     
     /**
      * Map tracking outstanding renewable messages by MSL context. The blocking
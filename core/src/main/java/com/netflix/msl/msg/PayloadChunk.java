@@ -182,17 +182,17 @@ public class PayloadChunk implements JSONString {
             try {
                 payload = Base64.decode(payloadChunkJO.getString(KEY_PAYLOAD));
             } catch (final IllegalArgumentException e) {
-                throw new MslMessageException(MslError.PAYLOAD_INVALID, "payload chunk " + payloadChunkJO.toString(), e);
+                throw new MslMessageException(MslError.PAYLOAD_INVALID, "payload chunk", payloadChunkJO, e);
             }
             try {
                 signature = Base64.decode(payloadChunkJO.getString(KEY_SIGNATURE));
             } catch (final IllegalArgumentException e) {
-                throw new MslMessageException(MslError.PAYLOAD_SIGNATURE_INVALID, "payload chunk " + payloadChunkJO.toString(), e);
+                throw new MslMessageException(MslError.PAYLOAD_SIGNATURE_INVALID, "payload chunk", payloadChunkJO, e);
             }
             if (!cryptoContext.verify(payload, signature))
                 throw new MslCryptoException(MslError.PAYLOAD_VERIFICATION_FAILED);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "payload chunk " + payloadChunkJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "payload chunk", payloadChunkJO, e);
         }
         
         // Pull the payload data.
@@ -202,10 +202,10 @@ public class PayloadChunk implements JSONString {
             final JSONObject payloadJO = new JSONObject(payloadJson);
             sequenceNumber = payloadJO.getLong(KEY_SEQUENCE_NUMBER);
             if (sequenceNumber < 0 || sequenceNumber > MslConstants.MAX_LONG_VALUE)
-                throw new MslException(MslError.PAYLOAD_SEQUENCE_NUMBER_OUT_OF_RANGE, "payload chunk payload " + payloadJson);
+                throw new MslException(MslError.PAYLOAD_SEQUENCE_NUMBER_OUT_OF_RANGE, "payload chunk payload", payloadJson);
             messageId = payloadJO.getLong(KEY_MESSAGE_ID);
             if (messageId < 0 || messageId > MslConstants.MAX_LONG_VALUE)
-                throw new MslException(MslError.PAYLOAD_MESSAGE_ID_OUT_OF_RANGE, "payload chunk payload " + payloadJson);
+                throw new MslException(MslError.PAYLOAD_MESSAGE_ID_OUT_OF_RANGE, "payload chunk payload", payloadJson);
             endofmsg = (payloadJO.has(KEY_END_OF_MESSAGE)) ? payloadJO.getBoolean(KEY_END_OF_MESSAGE) : false;
             if (payloadJO.has(KEY_COMPRESSION_ALGORITHM)) {
                 final String algoName = payloadJO.getString(KEY_COMPRESSION_ALGORITHM);
@@ -240,7 +240,7 @@ public class PayloadChunk implements JSONString {
                 }
             }
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "payload chunk payload " + payloadJson, e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "payload chunk payload", payloadJson, e);
         }
     }
     
@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslInternalException;
+import com.netflix.msl.crypto.CryptoCache;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.util.Base64;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>Tracks the service tokens exchanged over a single peer-to-peer channel so
+ * consecutive message headers can carry service token references in place of
+ * the full service tokens.</p>
+ *
+ * <p>A service token reference is the Base64-encoded SHA-256 digest of the
+ * service token JSON encoding. The digest covers the token data, including
+ * its master token and user ID token serial number bindings, and its
+ * signature, so a reference identifies exactly one service token. It is
+ * computed once per service token.</p>
+ *
+ * <p>Every service token sent or received over the channel can be resolved
+ * from its reference. A service token is only replaced by its reference when
+ * sending if the remote entity has proven that it holds the token by
+ * including it in a received message header (peer-to-peer responses return
+ * the request's service tokens as peer service tokens) and if the remote
+ * entity has advertised support for token references in its message
+ * capabilities. Entries expire after the time-to-live and service tokens are
+ * only referenced while younger than half the time-to-live, so the remote
+ * entity's entry is still present when the reference is resolved.</p>
+ *
+ * <p>The service token sets of each sent and received message header are also
+ * tracked. A set reference is the Base64-encoded SHA-256 digest of the sorted
+ * references of its service tokens. If the remote entity returned a set of
+ * service tokens that is still part of the service tokens being sent, that
+ * set is sent as a single set reference and only the service tokens that
+ * changed since are sent individually.</p>
+ *
+ * <p>The remote entity may still evict a service token before its
+ * reference is resolved, since each entity evicts its least recently used
+ * entries independently. Receiving an error header stops service token
+ * references until the remote entity proves it holds the tokens again, and
+ * {@link MslControl} resends a request that failed because a reference could
+ * not be resolved once with its full service tokens.</p>
+ *
+ * <p>The token reference cache should only be used by an entity that
+ * advertises support for token references in its own message
+ * capabilities.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ * @see MessageCapabilities#isTokenReferences()
+ */
+public class TokenReferenceCache {
+    /** Default entry time-to-live in milliseconds. */
+    public static final long DEFAULT_TTL = 60000;
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /** Service token reference digest algorithm. */
+    private static final String DIGEST_ALGO = "SHA-256";
+    /** Maximum number of service token set entries. */
+    private static final int MAX_SETS = 16;
+
+    /**
+     * Return the reference of a service token.
+     *
+     * @param token the service token.
+     * @return the service token reference.
+     * @see ServiceToken#getEncodingDigest()
+     */
+    public static String getReference(final ServiceToken token) {
+        return token.getEncodingDigest();
+    }
+
+    /**
+     * Compute the reference of a set of service tokens.
+     *
+     * @param tokens the service tokens.
+     * @return the service token set reference.
+     */
+    public static String getSetReference(final Set<ServiceToken> tokens) {
+        final List<String> references = new ArrayList<String>(tokens.size());
+        for (final ServiceToken token : tokens)
+            references.add(getReference(token));
+        Collections.sort(references);
+        final StringBuilder joined = new StringBuilder();
+        for (final String reference : references)
+            joined.append(reference).append(',');
+        try {
+            final MessageDigest digest = CryptoCache.getMessageDigest(DIGEST_ALGO);
+            final byte[] hash = digest.digest(joined.toString().getBytes(MslConstants.DEFAULT_CHARSET));
+            return Base64.encode(hash);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new MslInternalException(DIGEST_ALGO + " algorithm not found.", e);
+        }
+    }
+
+    /**
+     * A cached service token or service token set.
+     */
+    private static class CachedToken<T> {
+        /**
+         * @param value the service token or service token set.
+         * @param time the creation time in milliseconds.
+         */
+        public CachedToken(final T value, final long time) {
+            this.value = value;
+            this.time = time;
+        }
+
+        /** Service token or service token set. */
+        public final T value;
+        /** Time last sent, received, or resolved in milliseconds. */
+        public long time;
+        /** True if the remote entity holds the value. */
+        public boolean confirmed = false;
+    }
+    
+    /**
+     * Create a bounded access-ordered entry map.
+     *
+     * @param maxSize maximum number of entries.
+     * @return the entry map.
+     */
+    private static <T> Map<String,CachedToken<T>> createEntries(final int maxSize) {
+        return new LinkedHashMap<String,CachedToken<T>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String,CachedToken<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Create a new token reference cache with the default time-to-live and
+     * maximum size.
+     *
+     * @param ctx MSL context providing the time.
+     */
+    public TokenReferenceCache(final MslContext ctx) {
+        this(ctx, DEFAULT_TTL, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a new token reference cache.
+     *
+     * @param ctx MSL context providing the time.
+     * @param ttl entry time-to-live in milliseconds. Must be positive.
+     * @param maxSize maximum number of entries. Must be positive.
+     * @throws IllegalArgumentException if the time-to-live or maximum size
+     *         is not positive.
+     */
+    public TokenReferenceCache(final MslContext ctx, final long ttl, final int maxSize) {
+        if (ttl < 1)
+            throw new IllegalArgumentException("Time-to-live " + ttl + " is not positive.");
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Maximum size " + maxSize + " is not positive.");
+        this.ctx = ctx;
+        this.ttl = ttl;
+        this.entries = createEntries(maxSize);
+        this.sets = createEntries(Math.min(maxSize, MAX_SETS));
+    }
+
+    /**
+     * @return true if the remote entity accepts service token references.
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * <p>Record the service tokens of a message header about to be sent. The
+     * service tokens and service token sets can be resolved from their
+     * references but will not be referenced until the remote entity returns
+     * them.</p>
+     *
+     * @param header the sent message header.
+     */
+    public synchronized void sent(final MessageHeader header) {
+        final long now = ctx.getTime();
+        add(header.getServiceTokens(), false, now);
+        add(header.getPeerServiceTokens(), false, now);
+        addSet(header.getServiceTokens(), false, now);
+        addSet(header.getPeerServiceTokens(), false, now);
+    }
+
+    /**
+     * <p>Record the service tokens of a received message header. The remote
+     * entity holds these service tokens so they will be referenced if it
+     * accepts service token references.</p>
+     *
+     * @param header the received message header.
+     */
+    public synchronized void received(final MessageHeader header) {
+        final MessageCapabilities capabilities = header.getMessageCapabilities();
+        enabled = capabilities != null && capabilities.isTokenReferences();
+        final long now = ctx.getTime();
+        add(header.getServiceTokens(), true, now);
+        add(header.getPeerServiceTokens(), true, now);
+        addSet(header.getServiceTokens(), true, now);
+        addSet(header.getPeerServiceTokens(), true, now);
+    }
+
+    /**
+     * <p>Stop referencing service tokens until the remote entity returns them
+     * again. This should be called when an error header is received.</p>
+     */
+    public synchronized void clear() {
+        for (final CachedToken<ServiceToken> entry : entries.values())
+            entry.confirmed = false;
+        for (final CachedToken<Set<ServiceToken>> entry : sets.values())
+            entry.confirmed = false;
+    }
+
+    /**
+     * Return the service token identified by the provided reference.
+     *
+     * @param reference the service token reference.
+     * @return the service token or {@code null} if the reference is unknown or
+     *         expired.
+     */
+    public synchronized ServiceToken get(final String reference) {
+        return resolve(entries, reference);
+    }
+
+    /**
+     * Return the service token set identified by the provided set reference.
+     *
+     * @param reference the service token set reference.
+     * @return the unmodifiable service token set or {@code null} if the
+     *         reference is unknown or expired.
+     */
+    public synchronized Set<ServiceToken> getSet(final String reference) {
+        return resolve(sets, reference);
+    }
+
+    /**
+     * Return an unexpired entry value and refresh its time. The caller must
+     * hold the lock.
+     *
+     * @param map the entries.
+     * @param reference the entry reference.
+     * @return the entry value or {@code null} if the reference is unknown or
+     *         expired.
+     */
+    private <T> T resolve(final Map<String,CachedToken<T>> map, final String reference) {
+        final CachedToken<T> entry = map.get(reference);
+        if (entry == null)
+            return null;
+        final long now = ctx.getTime();
+        if (now - entry.time >= ttl) {
+            map.remove(reference);
+            return null;
+        }
+        entry.time = now;
+        return entry.value;
+    }
+
+    /**
+     * Return the reference that should be sent in place of the provided
+     * service token.
+     *
+     * @param token the service token.
+     * @return the service token reference or {@code null} if the full
+     *         service token must be sent.
+     */
+    public synchronized String getReferenceIfHeld(final ServiceToken token) {
+        if (!enabled)
+            return null;
+        final String reference = getReference(token);
+        final CachedToken<ServiceToken> entry = entries.get(reference);
+        if (entry == null || !entry.confirmed)
+            return null;
+        if (ctx.getTime() - entry.time >= ttl / 2)
+            return null;
+        return reference;
+    }
+
+    /**
+     * Return the largest service token set held by the remote entity that is
+     * contained in the provided service tokens. The returned set should be
+     * sent as a set reference in place of its service tokens.
+     *
+     * @param tokens the service tokens.
+     * @return the held service token set or {@code null} if the remote entity
+     *         does not hold any contained set.
+     */
+    public synchronized Set<ServiceToken> getHeldSet(final Set<ServiceToken> tokens) {
+        if (!enabled)
+            return null;
+        final long now = ctx.getTime();
+        Set<String> references = null;
+        Set<ServiceToken> held = null;
+        for (final CachedToken<Set<ServiceToken>> entry : sets.values()) {
+            if (!entry.confirmed || now - entry.time >= ttl / 2)
+                continue;
+            final Set<ServiceToken> set = entry.value;
+            if (held != null && set.size() <= held.size())
+                continue;
+            // Service token equality ignores the token data, so compare the
+            // references to detect updated service tokens.
+            if (references == null) {
+                references = new HashSet<String>();
+                for (final ServiceToken token : tokens)
+                    references.add(getReference(token));
+            }
+            if (containsAll(references, set))
+                held = set;
+        }
+        return held;
+    }
+
+    /**
+     * @param references service token references.
+     * @param tokens service tokens.
+     * @return true if the references of all service tokens are found.
+     */
+    private static boolean containsAll(final Set<String> references, final Set<ServiceToken> tokens) {
+        for (final ServiceToken token : tokens) {
+            if (!references.contains(getReference(token)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add or refresh service token entries. The caller must hold the lock.
+     *
+     * @param tokens the service tokens.
+     * @param confirmed true if the remote entity holds the service tokens.
+     * @param now the current time in milliseconds.
+     */
+    private void add(final Set<ServiceToken> tokens, final boolean confirmed, final long now) {
+        for (final ServiceToken token : tokens) {
+            final String reference = getReference(token);
+            CachedToken<ServiceToken> entry = entries.get(reference);
+            if (entry == null) {
+                entry = new CachedToken<ServiceToken>(token, now);
+                entries.put(reference, entry);
+            } else {
+                entry.time = now;
+            }
+            if (confirmed)
+                entry.confirmed = true;
+        }
+    }
+
+    /**
+     * Add or refresh a service token set entry. Sets of fewer than two
+     * service tokens are not tracked. The caller must hold the lock.
+     *
+     * @param tokens the service token set.
+     * @param confirmed true if the remote entity holds the service tokens.
+     * @param now the current time in milliseconds.
+     */
+    private void addSet(final Set<ServiceToken> tokens, final boolean confirmed, final long now) {
+        if (tokens.size() < 2)
+            return;
+        final String reference = getSetReference(tokens);
+        CachedToken<Set<ServiceToken>> entry = sets.get(reference);
+        if (entry == null) {
+            entry = new CachedToken<Set<ServiceToken>>(Collections.unmodifiableSet(new HashSet<ServiceToken>(tokens)), now);
+            sets.put(reference, entry);
+        } else {
+            entry.time = now;
+        }
+        if (confirmed)
+            entry.confirmed = true;
+    }
+
+    /** MSL context. */
+    private final MslContext ctx;
+    /** Entry time-to-live in milliseconds. */
+    private final long ttl;
+    /** Entries by service token reference in access order. */
+    private final Map<String,CachedToken<ServiceToken>> entries;
+    /** Entries by service token set reference in access order. */
+    private final Map<String,CachedToken<Set<ServiceToken>>> sets;
+    /** True if the remote entity accepts service token references. */
+    private boolean enabled = false;
+}
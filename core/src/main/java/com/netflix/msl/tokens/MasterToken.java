@@ -274,18 +274,18 @@ public class MasterToken implements JSONString {
             try {
                 tokendata = Base64.decode(masterTokenJO.getString(KEY_TOKENDATA));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.MASTERTOKEN_TOKENDATA_INVALID, "mastertoken " + masterTokenJO.toString(), e);
+                throw new MslEncodingException(MslError.MASTERTOKEN_TOKENDATA_INVALID, "mastertoken", masterTokenJO, e);
             }
             if (tokendata == null || tokendata.length == 0)
-                throw new MslEncodingException(MslError.MASTERTOKEN_TOKENDATA_MISSING, "mastertoken " + masterTokenJO.toString());
+                throw new MslEncodingException(MslError.MASTERTOKEN_TOKENDATA_MISSING, "mastertoken", masterTokenJO);
             try {
                 signature = Base64.decode(masterTokenJO.getString(KEY_SIGNATURE));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.MASTERTOKEN_SIGNATURE_INVALID, "mastertoken " + masterTokenJO.toString(), e);
+                throw new MslEncodingException(MslError.MASTERTOKEN_SIGNATURE_INVALID, "mastertoken", masterTokenJO, e);
             }
             verified = cryptoContext.verify(tokendata, signature);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "mastertoken " + masterTokenJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "mastertoken", masterTokenJO, e);
         }
         
         // Pull the token data.
@@ -295,13 +295,13 @@ public class MasterToken implements JSONString {
             renewalWindow = tokenDataJO.getLong(KEY_RENEWAL_WINDOW);
             expiration = tokenDataJO.getLong(KEY_EXPIRATION);
             if (expiration < renewalWindow)
-                throw new MslException(MslError.MASTERTOKEN_EXPIRES_BEFORE_RENEWAL, "mastertokendata " + tokenDataJson);
+                throw new MslException(MslError.MASTERTOKEN_EXPIRES_BEFORE_RENEWAL, "mastertokendata", tokenDataJson);
             sequenceNumber = tokenDataJO.getLong(KEY_SEQUENCE_NUMBER);
             if (sequenceNumber < 0 || sequenceNumber > MslConstants.MAX_LONG_VALUE)
-                throw new MslException(MslError.MASTERTOKEN_SEQUENCE_NUMBER_OUT_OF_RANGE, "mastertokendata " + tokenDataJson);
+                throw new MslException(MslError.MASTERTOKEN_SEQUENCE_NUMBER_OUT_OF_RANGE, "mastertokendata", tokenDataJson);
             serialNumber = tokenDataJO.getLong(KEY_SERIAL_NUMBER);
             if (serialNumber < 0 || serialNumber > MslConstants.MAX_LONG_VALUE)
-                throw new MslException(MslError.MASTERTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "mastertokendata " + tokenDataJson);
+                throw new MslException(MslError.MASTERTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "mastertokendata", tokenDataJson);
             final byte[] ciphertext;
             try {
                 ciphertext = Base64.decode(tokenDataJO.getString(KEY_SESSIONDATA));
@@ -312,7 +312,7 @@ public class MasterToken implements JSONString {
                 throw new MslEncodingException(MslError.MASTERTOKEN_SESSIONDATA_MISSING, tokenDataJO.getString(KEY_SESSIONDATA));
             sessiondata = (this.verified) ? cryptoContext.decrypt(ciphertext) : null;
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.MASTERTOKEN_TOKENDATA_PARSE_ERROR, "mastertokendata " + tokenDataJson, e);
+            throw new MslEncodingException(MslError.MASTERTOKEN_TOKENDATA_PARSE_ERROR, "mastertokendata", tokenDataJson, e);
         }
         
         // Pull the session data.
@@ -332,7 +332,7 @@ public class MasterToken implements JSONString {
                     : sessionDataJO.getString(KEY_HMAC_KEY);
                 signatureAlgo = sessionDataJO.optString(KEY_SIGNATURE_ALGORITHM, JcaAlgorithm.HMAC_SHA256);
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.MASTERTOKEN_SESSIONDATA_PARSE_ERROR, "sessiondata " + sessionDataJson, e);
+                throw new MslEncodingException(MslError.MASTERTOKEN_SESSIONDATA_PARSE_ERROR, "sessiondata", sessionDataJson, e);
             }
             
             // Decode algorithm names.
@@ -549,17 +549,26 @@ public class MasterToken implements JSONString {
     
     /** Token is verified. */
     private final boolean verified;
+    /** Cached JSON encoding. */
+    private volatile String encoding = null;
 
     /* (non-Javadoc)
      * @see org.json.JSONString#toJSONString()
      */
     @Override
     public String toJSONString() {
+        // The token is immutable so its encoding only needs to be computed
+        // once. Concurrent callers may compute the same encoding.
+        final String cached = encoding;
+        if (cached != null)
+            return cached;
         try {
             final JSONObject jsonObj = new JSONObject();
             jsonObj.put(KEY_TOKENDATA, Base64.encode(tokendata));
             jsonObj.put(KEY_SIGNATURE, Base64.encode(signature));
-            return jsonObj.toString();
+            final String json = jsonObj.toString();
+            encoding = json;
+            return json;
         } catch (final JSONException e) {
             throw new MslInternalException("Error encoding " + this.getClass().getName() + " JSON.", e);
         }
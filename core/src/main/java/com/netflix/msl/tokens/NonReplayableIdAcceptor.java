@@ -0,0 +1,411 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.tokens;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslMasterTokenException;
+import com.netflix.msl.util.MslContext;
+
+/**
+ * <p>A sliding window non-replayable ID acceptor suitable for use by
+ * {@link TokenFactory#acceptNonReplayableId(MslContext, MasterToken, long)}
+ * implementations.</p>
+ *
+ * <p>A window of recently accepted non-replayable IDs is tracked for each
+ * master token, identified by its entity identity and serial number,
+ * starting at the first non-replayable ID received for that master
+ * token. A non-replayable ID is accepted if it is
+ * larger than the largest non-replayable ID accepted so far by no more than
+ * the acceptance window, or if it is within the window behind the largest
+ * non-replayable ID accepted so far and has not already been accepted. This
+ * permits messages to arrive out of order, for example when sent by one
+ * entity over parallel connections. Comparisons consider the wrap around at
+ * {@link MslConstants#MAX_LONG_VALUE}.</p>
+ *
+ * <p>Windows are updated atomically without locking. The window of a master
+ * token is evicted once the newest master token seen with that identity and
+ * serial number has expired and no non-replayable ID has been presented for
+ * the idle timeout. Only the largest non-replayable ID accepted so far is
+ * retained after eviction. Non-replayable IDs at or behind it continue to be
+ * rejected, so waiting out eviction does not allow old messages to be
+ * replayed. The retained non-replayable ID is discarded by
+ * {@link #remove(String, long)}, which should be called once the master
+ * token is no longer valid.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class NonReplayableIdAcceptor {
+    /**
+     * Default maximum amount a non-replayable ID may be larger than the
+     * largest non-replayable ID accepted so far.
+     */
+    public static final long DEFAULT_ACCEPTANCE_WINDOW = 65536;
+    /** Default window size in non-replayable IDs. */
+    public static final int DEFAULT_WINDOW_SIZE = 1024;
+    /** Default idle timeout in milliseconds. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 60 * 1000;
+
+    /** Number of non-replayable IDs. */
+    private static final long ID_SPACE = MslConstants.MAX_LONG_VALUE + 1;
+    /** Bits per window word. */
+    private static final int WORD_BITS = Long.SIZE;
+
+    /**
+     * <p>An immutable window of accepted non-replayable IDs.</p>
+     *
+     * <p>Bit {@code i} of the window is set if the non-replayable ID
+     * {@code largest - i} has been accepted.</p>
+     */
+    private static class Window {
+        /**
+         * Create a new window.
+         *
+         * @param largest largest non-replayable ID accepted so far.
+         * @param words window bits.
+         */
+        public Window(final long largest, final long[] words) {
+            this.largest = largest;
+            this.words = words;
+        }
+
+        /**
+         * @param index bit index.
+         * @return true if the bit is set.
+         */
+        public boolean isSet(final long index) {
+            return (words[(int)(index / WORD_BITS)] & (1L << (index % WORD_BITS))) != 0;
+        }
+
+        /**
+         * Return a new window with the specified bit set.
+         *
+         * @param index bit index.
+         * @return the new window.
+         */
+        public Window set(final long index) {
+            final long[] bits = words.clone();
+            bits[(int)(index / WORD_BITS)] |= (1L << (index % WORD_BITS));
+            return new Window(largest, bits);
+        }
+
+        /**
+         * Return a new window advanced to a larger non-replayable ID, which is
+         * marked as accepted.
+         *
+         * @param id the new largest non-replayable ID.
+         * @param distance the distance from the current largest non-
+         *        replayable ID to the new one.
+         * @return the new window.
+         */
+        public Window advance(final long id, final long distance) {
+            final long[] bits = new long[words.length];
+            final long size = (long)words.length * WORD_BITS;
+            if (distance < size) {
+                final int wordShift = (int)(distance / WORD_BITS);
+                final int bitShift = (int)(distance % WORD_BITS);
+                for (int i = bits.length - 1; i >= wordShift; --i) {
+                    final int src = i - wordShift;
+                    long word = words[src] << bitShift;
+                    if (bitShift != 0 && src > 0)
+                        word |= words[src - 1] >>> (WORD_BITS - bitShift);
+                    bits[i] = word;
+                }
+            }
+            bits[0] |= 1L;
+            return new Window(id, bits);
+        }
+
+        /**
+         * Return a new window of the same size in which every non-replayable
+         * ID up to and including the specified one is marked as accepted.
+         *
+         * @param id the largest non-replayable ID.
+         * @return the new window.
+         */
+        public Window fill(final long id) {
+            final long[] bits = new long[words.length];
+            Arrays.fill(bits, -1L);
+            return new Window(id, bits);
+        }
+
+        /** Largest non-replayable ID accepted so far. */
+        public final long largest;
+        /** Window bits. */
+        private final long[] words;
+    }
+
+    /** Window marker indicating the entry has been evicted. */
+    private static final Window EVICTED = new Window(-1, new long[0]);
+
+    /**
+     * Per master token identity and serial number state.
+     */
+    private static class Entry {
+        /**
+         * Create a new entry with an initial window.
+         *
+         * @param window the initial window.
+         */
+        public Entry(final Window window) {
+            this.window = new AtomicReference<Window>(window);
+        }
+
+        /** Current window. */
+        public final AtomicReference<Window> window;
+        /** Last access time in milliseconds. */
+        public volatile long lastAccess;
+        /** Newest master token expiration time in milliseconds. */
+        public volatile long expiration;
+    }
+
+    /**
+     * Create a new non-replayable ID acceptor with the default acceptance
+     * window, window size, and idle timeout.
+     */
+    public NonReplayableIdAcceptor() {
+        this(DEFAULT_ACCEPTANCE_WINDOW, DEFAULT_WINDOW_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Create a new non-replayable ID acceptor.
+     *
+     * @param acceptanceWindow maximum amount a non-replayable ID may be
+     *        larger than the largest non-replayable ID accepted so far.
+     * @param windowSize number of non-replayable IDs behind the largest
+     *        accepted non-replayable ID that are tracked. Will be rounded up
+     *        to a multiple of 64.
+     * @param idleTimeout time in milliseconds after which the window of an
+     *        expired master token may be evicted.
+     * @throws IllegalArgumentException if the acceptance window, window
+     *         size, or idle timeout is not positive or the acceptance window
+     *         is too large.
+     */
+    public NonReplayableIdAcceptor(final long acceptanceWindow, final int windowSize, final long idleTimeout) {
+        if (acceptanceWindow < 1 || acceptanceWindow > MslConstants.MAX_LONG_VALUE / 2)
+            throw new IllegalArgumentException("Acceptance window " + acceptanceWindow + " is out of range.");
+        if (windowSize < 1)
+            throw new IllegalArgumentException("Window size " + windowSize + " is not positive.");
+        if (idleTimeout < 1)
+            throw new IllegalArgumentException("Idle timeout " + idleTimeout + " is not positive.");
+        this.empty = new Window(0, new long[(windowSize + WORD_BITS - 1) / WORD_BITS]);
+        this.acceptanceWindow = acceptanceWindow;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * <p>Accept or reject a non-replayable ID for the provided master
+     * token.</p>
+     *
+     * <p>{@link MslError#MESSAGE_REPLAYED} is returned if the non-replayable
+     * ID has already been accepted or is behind the window by no more than
+     * the acceptance window; the sender can recover by using a new non-
+     * replayable ID. {@link MslError#MESSAGE_REPLAYED_UNRECOVERABLE} is
+     * returned for any other rejected non-replayable ID.</p>
+     *
+     * @param ctx MSL context.
+     * @param masterToken the master token.
+     * @param nonReplayableId non-replayable ID.
+     * @return {@code null} if the non-replayable ID has been accepted.
+     *         Otherwise the MSL error identifying the reason it was rejected.
+     * @throws MslMasterTokenException if the master token is not trusted.
+     * @throws MslException if the non-replayable ID is out of range.
+     */
+    public MslError accept(final MslContext ctx, final MasterToken masterToken, final long nonReplayableId) throws MslMasterTokenException, MslException {
+        if (!masterToken.isDecrypted())
+            throw new MslMasterTokenException(MslError.MASTERTOKEN_UNTRUSTED, masterToken);
+        if (nonReplayableId < 0 || nonReplayableId > MslConstants.MAX_LONG_VALUE)
+            throw new MslException(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE, "nonReplayableId", nonReplayableId);
+
+        final long now = ctx.getTime();
+        evictIdle(now);
+
+        final String key = key(masterToken.getIdentity(), masterToken.getSerialNumber());
+        final long expiration = masterToken.getExpiration().getTime();
+        while (true) {
+            // Grab the window entry, creating one if necessary. A new window
+            // starts at the first non-replayable ID received, which is
+            // accepted, unless a window was previously evicted. Then it
+            // starts at the largest non-replayable ID accepted by the evicted
+            // window, which is checked like any other window.
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                final Long highWaterMark = highWaterMarks.get(key);
+                final Window initial = (highWaterMark != null)
+                    ? empty.fill(highWaterMark.longValue())
+                    : empty.advance(nonReplayableId, size());
+                final Entry created = new Entry(initial);
+                created.lastAccess = now;
+                created.expiration = expiration;
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    if (highWaterMark == null)
+                        return null;
+                    highWaterMarks.remove(key, highWaterMark);
+                    entry = created;
+                }
+            }
+            entry.lastAccess = now;
+            if (expiration > entry.expiration)
+                entry.expiration = expiration;
+
+            // If the entry was evicted remove it and try again.
+            final Window current = entry.window.get();
+            if (current == EVICTED) {
+                entries.remove(key, entry);
+                continue;
+            }
+
+            // Compute the distance ahead of the largest non-replayable ID
+            // accepted so far.
+            long ahead = nonReplayableId - current.largest;
+            if (ahead < 0) ahead += ID_SPACE;
+
+            final Window next;
+            if (ahead > 0 && ahead <= acceptanceWindow) {
+                // Advance the window.
+                next = current.advance(nonReplayableId, ahead);
+            } else {
+                // The non-replayable ID is equal to or behind the largest
+                // non-replayable ID accepted so far.
+                final long behind = (ahead == 0) ? 0 : ID_SPACE - ahead;
+                if (behind < size()) {
+                    if (current.isSet(behind))
+                        return MslError.MESSAGE_REPLAYED;
+                    next = current.set(behind);
+                } else if (behind <= size() + acceptanceWindow) {
+                    return MslError.MESSAGE_REPLAYED;
+                } else {
+                    return MslError.MESSAGE_REPLAYED_UNRECOVERABLE;
+                }
+            }
+
+            // Try to update the window. If another thread updated the window
+            // first then try again.
+            if (entry.window.compareAndSet(current, next))
+                return null;
+        }
+    }
+
+    /**
+     * Discard the window and any retained non-replayable ID of the specified
+     * master token. This should be called when a master token is no longer
+     * valid.
+     *
+     * @param identity master token entity identity.
+     * @param serialNumber master token serial number.
+     */
+    public void remove(final String identity, final long serialNumber) {
+        final String key = key(identity, serialNumber);
+        final Entry entry = entries.remove(key);
+        if (entry != null)
+            entry.window.set(EVICTED);
+        highWaterMarks.remove(key);
+    }
+
+    /**
+     * @return the number of master tokens with a window.
+     */
+    public int getSerialNumberCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of master tokens whose window was evicted and whose
+     *         largest accepted non-replayable ID is retained.
+     */
+    public int getEvictedCount() {
+        return highWaterMarks.size();
+    }
+
+    /**
+     * @param identity master token entity identity.
+     * @param serialNumber master token serial number.
+     * @return the window key.
+     */
+    private static String key(final String identity, final long serialNumber) {
+        return identity + ":" + serialNumber;
+    }
+
+    /**
+     * @return the number of non-replayable IDs tracked behind the largest
+     *         non-replayable ID accepted so far.
+     */
+    private long size() {
+        return (long)empty.words.length * WORD_BITS;
+    }
+
+    /**
+     * Evict idle windows if an eviction pass is due. Only one thread will
+     * perform any given eviction pass.
+     *
+     * @param now the current time in milliseconds.
+     */
+    private void evictIdle(final long now) {
+        final long due = nextEviction.get();
+        if (now < due || !nextEviction.compareAndSet(due, now + idleTimeout / 2))
+            return;
+
+        final Iterator<Map.Entry<String,Entry>> entryIt = entries.entrySet().iterator();
+        while (entryIt.hasNext()) {
+            final Map.Entry<String,Entry> mapEntry = entryIt.next();
+            final String key = mapEntry.getKey();
+            final Entry entry = mapEntry.getValue();
+            if (now - entry.lastAccess <= idleTimeout || now <= entry.expiration)
+                continue;
+
+            // Retain the largest accepted non-replayable ID before marking
+            // the entry evicted, so a concurrent update either completes
+            // before eviction or retries with a window starting there.
+            final Window current = entry.window.get();
+            if (current == EVICTED)
+                continue;
+            final Long highWaterMark = Long.valueOf(current.largest);
+            highWaterMarks.put(key, highWaterMark);
+            if (entry.window.compareAndSet(current, EVICTED))
+                entries.remove(key, entry);
+            else
+                highWaterMarks.remove(key, highWaterMark);
+        }
+    }
+
+    /** Empty window. */
+    private final Window empty;
+    /** Acceptance window. */
+    private final long acceptanceWindow;
+    /** Idle timeout in milliseconds. */
+    private final long idleTimeout;
+    /** Windows by master token identity and serial number. */
+    private final ConcurrentMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+    /**
+     * Largest accepted non-replayable IDs of evicted windows by master token
+     * identity and serial number.
+     */
+    private final ConcurrentMap<String,Long> highWaterMarks = new ConcurrentHashMap<String,Long>();
+    /** Time of the next eviction pass in milliseconds. */
+    private final AtomicLong nextEviction = new AtomicLong(0);
+}
@@ -15,6 +15,8 @@
  */
 package com.netflix.msl.tokens;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 
 import org.json.JSONException;
@@ -28,6 +30,7 @@ import com.netflix.msl.MslEncodingException;
 import com.netflix.msl.MslError;
 import com.netflix.msl.MslException;
 import com.netflix.msl.MslInternalException;
+import com.netflix.msl.crypto.CryptoCache;
 import com.netflix.msl.crypto.ICryptoContext;
 import com.netflix.msl.util.Base64;
 import com.netflix.msl.util.MslContext;
@@ -87,6 +90,9 @@ import com.netflix.msl.util.MslUtils;
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
 public class ServiceToken implements JSONString {
+    /** Encoding digest algorithm. */
+    private static final String DIGEST_ALGO = "SHA-256";
+    
     /** JSON key token data. */
     private static final String KEY_TOKENDATA = "tokendata";
     /** JSON key signature. */
@@ -128,17 +134,17 @@ public class ServiceToken implements JSONString {
             try {
                 tokendata = Base64.decode(serviceTokenJO.getString(KEY_TOKENDATA));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_INVALID, "servicetoken " + serviceTokenJO.toString(), e);
+                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_INVALID, "servicetoken", serviceTokenJO, e);
             }
             if (tokendata == null || tokendata.length == 0)
-                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_MISSING, "servicetoken " + serviceTokenJO.toString());
+                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_MISSING, "servicetoken", serviceTokenJO);
             final JSONObject tokenDataJO = new JSONObject(new String(tokendata, MslConstants.DEFAULT_CHARSET));
             final String name = tokenDataJO.getString(KEY_NAME);
             if (cryptoContexts.containsKey(name))
                 return cryptoContexts.get(name);
             return cryptoContexts.get("");
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "servicetoken " + serviceTokenJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "servicetoken", serviceTokenJO, e);
         }
     }
     
@@ -298,18 +304,18 @@ public class ServiceToken implements JSONString {
             try {
                 tokendata = Base64.decode(serviceTokenJO.getString(KEY_TOKENDATA));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_INVALID, "servicetoken " + serviceTokenJO.toString(), e).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_INVALID, "servicetoken", serviceTokenJO, e).setMasterToken(masterToken).setUserIdToken(userIdToken);
             }
             if (tokendata == null || tokendata.length == 0)
-                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_MISSING, "servicetoken " + serviceTokenJO.toString()).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                throw new MslEncodingException(MslError.SERVICETOKEN_TOKENDATA_MISSING, "servicetoken", serviceTokenJO).setMasterToken(masterToken).setUserIdToken(userIdToken);
             try {
                 signature = Base64.decode(serviceTokenJO.getString(KEY_SIGNATURE));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.SERVICETOKEN_SIGNATURE_INVALID, "servicetoken " + serviceTokenJO.toString(), e).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                throw new MslEncodingException(MslError.SERVICETOKEN_SIGNATURE_INVALID, "servicetoken", serviceTokenJO, e).setMasterToken(masterToken).setUserIdToken(userIdToken);
             }
             verified = (cryptoContext != null) ? cryptoContext.verify(tokendata, signature) : false;
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "servicetoken " + serviceTokenJO.toString(), e).setMasterToken(masterToken).setUserIdToken(userIdToken);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "servicetoken", serviceTokenJO, e).setMasterToken(masterToken).setUserIdToken(userIdToken);
         } catch (final MslCryptoException e) {
             e.setMasterToken(masterToken);
             throw e;
@@ -323,14 +329,14 @@ public class ServiceToken implements JSONString {
             if (tokenDataJO.has(KEY_MASTER_TOKEN_SERIAL_NUMBER)) {
                 mtSerialNumber = tokenDataJO.getLong(KEY_MASTER_TOKEN_SERIAL_NUMBER);
                 if (mtSerialNumber < 0 || mtSerialNumber > MslConstants.MAX_LONG_VALUE)
-                    throw new MslException(MslError.SERVICETOKEN_MASTERTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "servicetokendata " + tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                    throw new MslException(MslError.SERVICETOKEN_MASTERTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "servicetokendata", tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
             } else {
                 mtSerialNumber = -1;
             }
             if (tokenDataJO.has(KEY_USER_ID_TOKEN_SERIAL_NUMBER)) {
                 uitSerialNumber = tokenDataJO.getLong(KEY_USER_ID_TOKEN_SERIAL_NUMBER);
                 if (uitSerialNumber < 0 || uitSerialNumber > MslConstants.MAX_LONG_VALUE)
-                    throw new MslException(MslError.SERVICETOKEN_USERIDTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "servicetokendata " + tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                    throw new MslException(MslError.SERVICETOKEN_USERIDTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "servicetokendata", tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
             } else {
                 uitSerialNumber = -1;
             }
@@ -358,10 +364,10 @@ public class ServiceToken implements JSONString {
                 try {
                     ciphertext = Base64.decode(data);
                 } catch (final IllegalArgumentException e) {
-                    throw new MslException(MslError.SERVICETOKEN_SERVICEDATA_INVALID, "servicetokendata " + tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                    throw new MslException(MslError.SERVICETOKEN_SERVICEDATA_INVALID, "servicetokendata", tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
                 }
                 if (ciphertext == null)
-                    throw new MslException(MslError.SERVICETOKEN_SERVICEDATA_INVALID, "servicetokendata " + tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
+                    throw new MslException(MslError.SERVICETOKEN_SERVICEDATA_INVALID, "servicetokendata", tokenDataJson).setMasterToken(masterToken).setUserIdToken(userIdToken);
                 final byte[] compressedData = (encrypted && ciphertext.length > 0)
                     ? cryptoContext.decrypt(ciphertext)
                     : ciphertext;
@@ -372,7 +378,7 @@ public class ServiceToken implements JSONString {
                 servicedata = (data.isEmpty()) ? new byte[0] : null;
             }
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "servicetokendata " + tokenDataJson, e).setMasterToken(masterToken).setUserIdToken(userIdToken);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "servicetokendata", tokenDataJson, e).setMasterToken(masterToken).setUserIdToken(userIdToken);
         } catch (final MslCryptoException e) {
             e.setMasterToken(masterToken);
             e.setUserIdToken(userIdToken);
@@ -524,22 +530,56 @@ public class ServiceToken implements JSONString {
     
     /** Token is verified. */
     private final boolean verified;
+    /** Cached JSON encoding. */
+    private volatile String encoding = null;
+    /** Cached JSON encoding digest. */
+    private volatile String encodingDigest = null;
 
     /* (non-Javadoc)
      * @see org.json.JSONString#toJSONString()
      */
     @Override
     public String toJSONString() {
+        // The token is immutable so its encoding only needs to be computed
+        // once. Concurrent callers may compute the same encoding.
+        final String cached = encoding;
+        if (cached != null)
+            return cached;
         try {
             final JSONObject jsonObj = new JSONObject();
             jsonObj.put(KEY_TOKENDATA, Base64.encode(tokendata));
             jsonObj.put(KEY_SIGNATURE, Base64.encode(signature));
-            return jsonObj.toString();
+            final String json = jsonObj.toString();
+            encoding = json;
+            return json;
         } catch (final JSONException e) {
             throw new MslInternalException("Error encoding " + this.getClass().getName() + " JSON.", e);
         }
     }
     
+    /**
+     * <p>Returns the Base64-encoded SHA-256 digest of the JSON encoding. The
+     * digest covers the token data and signature so it identifies exactly
+     * one service token, unlike service token equality.</p>
+     * 
+     * @return the Base64-encoded digest of the JSON encoding.
+     */
+    public String getEncodingDigest() {
+        // Computed once like the encoding.
+        final String cached = encodingDigest;
+        if (cached != null)
+            return cached;
+        try {
+            final MessageDigest digest = CryptoCache.getMessageDigest(DIGEST_ALGO);
+            final byte[] hash = digest.digest(toJSONString().getBytes(MslConstants.DEFAULT_CHARSET));
+            final String encoded = Base64.encode(hash);
+            encodingDigest = encoded;
+            return encoded;
+        } catch (final NoSuchAlgorithmException e) {
+            throw new MslInternalException(DIGEST_ALGO + " algorithm not found.", e);
+        }
+    }
+    
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
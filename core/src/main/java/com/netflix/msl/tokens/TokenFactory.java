@@ -49,6 +49,9 @@ public interface TokenFactory {
      * will be called for every received message and should not check the
      * renewability of the master token.</p>
      * 
+     * <p>{@link com.netflix.msl.util.RevocationIndex} provides a lock-free
+     * implementation of this method.</p>
+     * 
      * <p>This method should return the exact {@link MslError} identifying the
      * reason the master token has been revoked. The response code associated
      * with the error will be honored.</p>
@@ -82,6 +85,9 @@ public interface TokenFactory {
      * should be limited in size based on a reasonable expectation for the the
      * number of concurrent non-replayable messages the entity may create.</p>
      * 
+     * <p>{@link NonReplayableIdAcceptor} provides a sliding window
+     * implementation of this method.</p>
+     * 
      * <p>This method should return the exact {@link MslError} identifying the
      * reason the non-replayable ID was rejected. The response code associated
      * with the error will be honored. If the master token entity cannot be
@@ -179,6 +185,9 @@ public interface TokenFactory {
      * The user will be forced to re-authenticate if its user ID token is
      * rejected.</p>
      * 
+     * <p>{@link com.netflix.msl.util.RevocationIndex} provides a lock-free
+     * implementation of this method.</p>
+     * 
      * <p>This method should return the exact {@link MslError} identifying the
      * reason the user ID token has been revoked.</p>
      * 
@@ -216,18 +216,18 @@ public class UserIdToken implements JSONString {
             try {
                 tokendata = Base64.decode(userIdTokenJO.getString(KEY_TOKENDATA));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.USERIDTOKEN_TOKENDATA_INVALID, "useridtoken " + userIdTokenJO.toString(), e).setMasterToken(masterToken);
+                throw new MslEncodingException(MslError.USERIDTOKEN_TOKENDATA_INVALID, "useridtoken", userIdTokenJO, e).setMasterToken(masterToken);
             }
             if (tokendata == null || tokendata.length == 0)
-                throw new MslEncodingException(MslError.USERIDTOKEN_TOKENDATA_MISSING, "useridtoken " + userIdTokenJO.toString()).setMasterToken(masterToken);
+                throw new MslEncodingException(MslError.USERIDTOKEN_TOKENDATA_MISSING, "useridtoken", userIdTokenJO).setMasterToken(masterToken);
             try {
                 signature = Base64.decode(userIdTokenJO.getString(KEY_SIGNATURE));
             } catch (final IllegalArgumentException e) {
-                throw new MslEncodingException(MslError.USERIDTOKEN_SIGNATURE_INVALID, "useridtoken " + userIdTokenJO.toString(), e).setMasterToken(masterToken);
+                throw new MslEncodingException(MslError.USERIDTOKEN_SIGNATURE_INVALID, "useridtoken", userIdTokenJO, e).setMasterToken(masterToken);
             }
             verified = cryptoContext.verify(tokendata, signature);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "useridtoken " + userIdTokenJO.toString(), e).setMasterToken(masterToken);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "useridtoken", userIdTokenJO, e).setMasterToken(masterToken);
         }
         
         // Pull the token data.
@@ -237,13 +237,13 @@ public class UserIdToken implements JSONString {
             renewalWindow = tokenDataJO.getLong(KEY_RENEWAL_WINDOW);
             expiration = tokenDataJO.getLong(KEY_EXPIRATION);
             if (expiration < renewalWindow)
-                throw new MslException(MslError.USERIDTOKEN_EXPIRES_BEFORE_RENEWAL, "usertokendata " + tokenDataJson).setMasterToken(masterToken);
+                throw new MslException(MslError.USERIDTOKEN_EXPIRES_BEFORE_RENEWAL, "usertokendata", tokenDataJson).setMasterToken(masterToken);
             mtSerialNumber = tokenDataJO.getLong(KEY_MASTER_TOKEN_SERIAL_NUMBER);
             if (mtSerialNumber < 0 || mtSerialNumber > MslConstants.MAX_LONG_VALUE)
-                throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "usertokendata " + tokenDataJson).setMasterToken(masterToken);
+                throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "usertokendata", tokenDataJson).setMasterToken(masterToken);
             serialNumber = tokenDataJO.getLong(KEY_SERIAL_NUMBER);
             if (serialNumber < 0 || serialNumber > MslConstants.MAX_LONG_VALUE)
-                throw new MslException(MslError.USERIDTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "usertokendata " + tokenDataJson).setMasterToken(masterToken);
+                throw new MslException(MslError.USERIDTOKEN_SERIAL_NUMBER_OUT_OF_RANGE, "usertokendata", tokenDataJson).setMasterToken(masterToken);
             final byte[] ciphertext;
             try {
                 ciphertext = Base64.decode(tokenDataJO.getString(KEY_USERDATA));
@@ -254,7 +254,7 @@ public class UserIdToken implements JSONString {
                 throw new MslException(MslError.USERIDTOKEN_USERDATA_MISSING, tokenDataJO.getString(KEY_USERDATA)).setMasterToken(masterToken);
             userdata = (verified) ? cryptoContext.decrypt(ciphertext) : null;
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.USERIDTOKEN_TOKENDATA_PARSE_ERROR, "usertokendata " + tokenDataJson, e).setMasterToken(masterToken);
+            throw new MslEncodingException(MslError.USERIDTOKEN_TOKENDATA_PARSE_ERROR, "usertokendata", tokenDataJson, e).setMasterToken(masterToken);
         } catch (final MslCryptoException e) {
             e.setMasterToken(masterToken);
             throw e;
@@ -268,13 +268,13 @@ public class UserIdToken implements JSONString {
                 issuerData = (userDataJO.has(KEY_ISSUER_DATA)) ? userDataJO.getJSONObject(KEY_ISSUER_DATA) : null;
                 final String identity = userDataJO.getString(KEY_IDENTITY);
                 if (identity == null || identity.length() == 0)
-                    throw new MslException(MslError.USERIDTOKEN_IDENTITY_INVALID, "userdata " + userDataJson).setMasterToken(masterToken);
+                    throw new MslException(MslError.USERIDTOKEN_IDENTITY_INVALID, "userdata", userDataJson).setMasterToken(masterToken);
                 final TokenFactory factory = ctx.getTokenFactory();
                 user = factory.createUser(ctx, identity);
                 if (user == null)
                     throw new MslInternalException("TokenFactory.createUser() returned null in violation of the interface contract.");
             } catch (final JSONException e) {
-                throw new MslEncodingException(MslError.USERIDTOKEN_USERDATA_PARSE_ERROR, "userdata " + userDataJson, e).setMasterToken(masterToken);
+                throw new MslEncodingException(MslError.USERIDTOKEN_USERDATA_PARSE_ERROR, "userdata", userDataJson, e).setMasterToken(masterToken);
             }
         } else {
             issuerData = null;
@@ -431,17 +431,26 @@ public class UserIdToken implements JSONString {
     
     /** Token is verified. */
     private final boolean verified;
+    /** Cached JSON encoding. */
+    private volatile String encoding = null;
 
     /* (non-Javadoc)
      * @see org.json.JSONString#toJSONString()
      */
     @Override
     public final String toJSONString() {
+        // The token is immutable so its encoding only needs to be computed
+        // once. Concurrent callers may compute the same encoding.
+        final String cached = encoding;
+        if (cached != null)
+            return cached;
         try {
             final JSONObject jsonObj = new JSONObject();
             jsonObj.put(KEY_TOKENDATA, Base64.encode(tokendata));
             jsonObj.put(KEY_SIGNATURE, Base64.encode(signature));
-            return jsonObj.toString();
+            final String json = jsonObj.toString();
+            encoding = json;
+            return json;
         } catch (final JSONException e) {
             throw new MslInternalException("Error encoding " + this.getClass().getName() + " JSON.", e);
         }
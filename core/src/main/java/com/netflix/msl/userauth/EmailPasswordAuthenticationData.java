@@ -69,7 +69,7 @@ public class EmailPasswordAuthenticationData extends UserAuthenticationData {
             email = emailPasswordAuthJO.getString(KEY_EMAIL);
             password = emailPasswordAuthJO.getString(KEY_PASSWORD);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "email/password authdata " + emailPasswordAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "email/password authdata", emailPasswordAuthJO, e);
         }
     }
     
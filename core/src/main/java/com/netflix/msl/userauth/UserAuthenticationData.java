@@ -95,7 +95,7 @@ public abstract class UserAuthenticationData implements JSONString {
                 throw new MslUserAuthException(MslError.USERAUTH_FACTORY_NOT_FOUND, scheme.name());
             return factory.createData(ctx, masterToken, userAuthJO.getJSONObject(KEY_AUTHDATA));
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "userauthdata " + userAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "userauthdata", userAuthJO, e);
         }
     }
     
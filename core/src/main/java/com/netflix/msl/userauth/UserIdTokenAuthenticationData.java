@@ -82,16 +82,16 @@ public class UserIdTokenAuthenticationData extends UserAuthenticationData {
         try {
             masterToken = new MasterToken(ctx, userIdTokenAuthJO.getJSONObject(KEY_MASTER_TOKEN));
         } catch (final MslException e) {
-            throw new MslUserAuthException(MslError.USERAUTH_MASTERTOKEN_INVALID, "user ID token authdata " + userIdTokenAuthJO.toString(), e);
+            throw new MslUserAuthException(MslError.USERAUTH_MASTERTOKEN_INVALID, "user ID token authdata", userIdTokenAuthJO, e);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "user ID token authdata " + userIdTokenAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "user ID token authdata", userIdTokenAuthJO, e);
         }
         try {
             userIdToken = new UserIdToken(ctx, userIdTokenAuthJO.getJSONObject(KEY_USER_ID_TOKEN), masterToken);
         } catch (final MslException e) {
-            throw new MslUserAuthException(MslError.USERAUTH_USERIDTOKEN_INVALID, "user ID token authdata " + userIdTokenAuthJO.toString(), e);
+            throw new MslUserAuthException(MslError.USERAUTH_USERIDTOKEN_INVALID, "user ID token authdata", userIdTokenAuthJO, e);
         } catch (final JSONException e) {
-            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "user ID token authdata " + userIdTokenAuthJO.toString(), e);
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "user ID token authdata", userIdTokenAuthJO, e);
         }
     }
     
@@ -27,7 +27,10 @@ import com.netflix.msl.userauth.UserAuthenticationScheme;
  */
 public interface AuthenticationUtils {
     /**
-     * Returns true if the entity identity has been revoked.
+     * <p>Returns true if the entity identity has been revoked.</p>
+     * 
+     * <p>{@link RevocationIndex} provides a lock-free implementation of this
+     * method.</p>
      * 
      * @param identity the entity identity.
      * @return true if the entity identity has been revoked.
@@ -0,0 +1,358 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.UserIdToken;
+
+/**
+ * <p>A simple MSL store that evicts expired tokens and limits the number of
+ * user ID tokens.</p>
+ *
+ * <p>A master token or user ID token is evicted once it has been expired for
+ * longer than the grace period. The grace period allows an expired token to
+ * still be presented for renewal. Expiration is checked against the remote
+ * entity time once it is known, otherwise against the local time. Evicting
+ * a master token or user ID token also removes the tokens bound to it, as
+ * {@link #removeCryptoContext(MasterToken)} and
+ * {@link #removeUserIdToken(UserIdToken)} do.</p>
+ *
+ * <p>Tokens are checked when they are read. An optional background sweeper
+ * also checks all tokens periodically so tokens that are no longer read are
+ * evicted as well. The sweeper thread is a daemon thread and is stopped by
+ * {@link #shutdown()}.</p>
+ *
+ * <p>If a maximum number of user ID tokens is configured the least recently
+ * used user ID token is evicted when a new one is added beyond that
+ * number.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ExpiringMslStore extends SimpleMslStore {
+    /**
+     * <p>Thread factory for daemon sweeper threads.</p>
+     */
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "ExpiringMslStore");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    /**
+     * <p>Create a new expiring MSL store without a background sweeper or
+     * user ID token limit.</p>
+     *
+     * @param ctx MSL context providing the time.
+     * @param gracePeriod time in milliseconds a token is kept after it
+     *        expires.
+     * @throws IllegalArgumentException if the grace period is negative.
+     */
+    public ExpiringMslStore(final MslContext ctx, final long gracePeriod) {
+        this(ctx, gracePeriod, 0, 0);
+    }
+
+    /**
+     * <p>Create a new expiring MSL store.</p>
+     *
+     * @param ctx MSL context providing the time.
+     * @param gracePeriod time in milliseconds a token is kept after it
+     *        expires.
+     * @param maxUserIdTokens maximum number of user ID tokens. Zero for no
+     *        limit.
+     * @param sweepInterval time in milliseconds between background sweeps.
+     *        Zero for no background sweeper.
+     * @throws IllegalArgumentException if the grace period, maximum number
+     *         of user ID tokens, or sweep interval is negative.
+     */
+    public ExpiringMslStore(final MslContext ctx, final long gracePeriod, final int maxUserIdTokens, final long sweepInterval) {
+        if (gracePeriod < 0)
+            throw new IllegalArgumentException("Grace period must be non-negative.");
+        if (maxUserIdTokens < 0)
+            throw new IllegalArgumentException("Maximum user ID tokens must be non-negative.");
+        if (sweepInterval < 0)
+            throw new IllegalArgumentException("Sweep interval must be non-negative.");
+        this.ctx = ctx;
+        this.gracePeriod = gracePeriod;
+        this.maxUserIdTokens = maxUserIdTokens;
+
+        if (sweepInterval > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+            sweeper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * @return the current time in milliseconds, using the remote entity time
+     *         if known.
+     */
+    private long now() {
+        final Date remoteTime = ctx.getRemoteTime();
+        return (remoteTime != null) ? remoteTime.getTime() : ctx.getTime();
+    }
+
+    /**
+     * @param expiration token expiration.
+     * @param now current time in milliseconds.
+     * @return true if the token has been expired for longer than the grace
+     *         period.
+     */
+    private boolean isEvictable(final Date expiration, final long now) {
+        return expiration.getTime() + gracePeriod <= now;
+    }
+
+    /**
+     * <p>Evict a master token if it has been expired for longer than the
+     * grace period.</p>
+     *
+     * @param masterToken the master token.
+     * @param now current time in milliseconds.
+     * @return true if the master token was evicted.
+     */
+    private boolean evictIfExpired(final MasterToken masterToken, final long now) {
+        if (!isEvictable(masterToken.getExpiration(), now))
+            return false;
+        synchronized (this) {
+            if (super.getCryptoContext(masterToken) != null) {
+                removeCryptoContext(masterToken);
+                ++expiredMasterTokens;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Evict a user ID token if it has been expired for longer than the
+     * grace period.</p>
+     *
+     * @param userIdToken the user ID token.
+     * @param now current time in milliseconds.
+     * @return true if the user ID token was evicted.
+     */
+    private boolean evictIfExpired(final UserIdToken userIdToken, final long now) {
+        if (!isEvictable(userIdToken.getExpiration(), now))
+            return false;
+        synchronized (this) {
+            if (userIds.containsKey(userIdToken)) {
+                removeUserIdToken(userIdToken);
+                ++expiredUserIdTokens;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Evict all master tokens and user ID tokens that have been expired
+     * for longer than the grace period, along with the tokens bound to
+     * them.</p>
+     */
+    public synchronized void sweep() {
+        final long now = now();
+        for (final MasterToken masterToken : getMasterTokens())
+            evictIfExpired(masterToken, now);
+        for (final UserIdToken userIdToken : getUserIdTokens())
+            evictIfExpired(userIdToken, now);
+        ++sweepCount;
+    }
+
+    /**
+     * <p>Stop the background sweeper, if any.</p>
+     */
+    public void shutdown() {
+        if (sweeper != null)
+            sweeper.shutdown();
+    }
+
+    /**
+     * <p>Returns the newest master token that has not been expired for
+     * longer than the grace period. Older master tokens are not
+     * evicted.</p>
+     *
+     * @see com.netflix.msl.util.SimpleMslStore#getMasterToken()
+     */
+    @Override
+    public synchronized MasterToken getMasterToken() {
+        final long now = now();
+        while (true) {
+            final MasterToken masterToken = super.getMasterToken();
+            if (masterToken == null || !evictIfExpired(masterToken, now))
+                return masterToken;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStore#getCryptoContext(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public ICryptoContext getCryptoContext(final MasterToken masterToken) {
+        if (evictIfExpired(masterToken, now()))
+            return null;
+        return super.getCryptoContext(masterToken);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStore#clearCryptoContexts()
+     */
+    @Override
+    public synchronized void clearCryptoContexts() {
+        super.clearCryptoContexts();
+        userIdTokens.clear();
+        userIds.clear();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStore#addUserIdToken(java.lang.String, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized void addUserIdToken(final String userId, final UserIdToken userIdToken) throws MslException {
+        super.addUserIdToken(userId, userIdToken);
+        final UserIdToken previous = userIdTokens.put(userId, userIdToken);
+        if (previous != null)
+            userIds.remove(previous);
+        userIds.put(userIdToken, userId);
+
+        // Evict the least recently used user ID tokens.
+        if (maxUserIdTokens > 0) {
+            while (userIdTokens.size() > maxUserIdTokens) {
+                final Iterator<UserIdToken> eldest = userIdTokens.values().iterator();
+                removeUserIdToken(eldest.next());
+                ++evictedUserIdTokens;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStore#getUserIdToken(java.lang.String)
+     */
+    @Override
+    public synchronized UserIdToken getUserIdToken(final String userId) {
+        // Also records the access for least recently used eviction.
+        final UserIdToken userIdToken = userIdTokens.get(userId);
+        if (userIdToken == null || evictIfExpired(userIdToken, now()))
+            return null;
+        return userIdToken;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStore#removeUserIdToken(com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized void removeUserIdToken(final UserIdToken userIdToken) {
+        super.removeUserIdToken(userIdToken);
+        final String userId = userIds.remove(userIdToken);
+        if (userId != null)
+            userIdTokens.remove(userId);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStore#clearUserIdTokens()
+     */
+    @Override
+    public synchronized void clearUserIdTokens() {
+        super.clearUserIdTokens();
+        userIdTokens.clear();
+        userIds.clear();
+    }
+
+    /**
+     * @return the number of master tokens with crypto contexts.
+     */
+    public int getMasterTokenCount() {
+        return getMasterTokens().size();
+    }
+
+    /**
+     * @return the number of user ID tokens.
+     */
+    public synchronized int getUserIdTokenCount() {
+        return userIdTokens.size();
+    }
+
+    /**
+     * @return the number of master tokens evicted because they expired.
+     */
+    public synchronized long getExpiredMasterTokenCount() {
+        return expiredMasterTokens;
+    }
+
+    /**
+     * @return the number of user ID tokens evicted because they expired.
+     */
+    public synchronized long getExpiredUserIdTokenCount() {
+        return expiredUserIdTokens;
+    }
+
+    /**
+     * @return the number of user ID tokens evicted because the maximum
+     *         number of user ID tokens was reached.
+     */
+    public synchronized long getEvictedUserIdTokenCount() {
+        return evictedUserIdTokens;
+    }
+
+    /**
+     * @return the number of completed sweeps.
+     */
+    public synchronized long getSweepCount() {
+        return sweepCount;
+    }
+
+    /** MSL context. */
+    private final MslContext ctx;
+    /** Grace period in milliseconds. */
+    private final long gracePeriod;
+    /** Maximum number of user ID tokens. Zero for no limit. */
+    private final int maxUserIdTokens;
+    /** Background sweeper. May be {@code null}. */
+    private final ScheduledExecutorService sweeper;
+
+    /** User ID tokens by user ID, in access order. */
+    private final Map<String,UserIdToken> userIdTokens = new LinkedHashMap<String,UserIdToken>(16, 0.75f, true);
+    /** User IDs by user ID token. */
+    private final Map<UserIdToken,String> userIds = new HashMap<UserIdToken,String>();
+
+    /** Master tokens evicted because they expired. */
+    private long expiredMasterTokens = 0;
+    /** User ID tokens evicted because they expired. */
+    private long expiredUserIdTokens = 0;
+    /** User ID tokens evicted by the maximum number of user ID tokens. */
+    private long evictedUserIdTokens = 0;
+    /** Completed sweeps. */
+    private long sweepCount = 0;
+}
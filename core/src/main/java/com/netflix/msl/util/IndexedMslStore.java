@@ -0,0 +1,576 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslInternalException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+
+/**
+ * <p>A MSL store for many users that maintains reverse indexes over its
+ * tokens.</p>
+ *
+ * <p>This store behaves like {@link SimpleMslStore} but does not scan all of
+ * its tokens to find the ones bound to a master token or user ID token.
+ * User IDs are indexed by master token serial number and service tokens are
+ * indexed by name and by the master token and user ID token serial numbers
+ * they are bound to. The number of stored master tokens and user ID tokens
+ * is counted per serial number, so checking if a serial number is still in
+ * use does not require a scan either.</p>
+ *
+ * <p>Adding, looking up, or removing a user ID token and its service tokens
+ * therefore takes time proportional to the number of tokens involved and
+ * not to the number of users in the store.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class IndexedMslStore implements MslStore {
+    /**
+     * Increments the provided non-replayable ID by 1, wrapping around to zero
+     * if the provided value is equal to {@link MslConstants#MAX_LONG_VALUE}.
+     *
+     * @param id the non-replayable ID to increment.
+     * @return the non-replayable ID + 1.
+     * @throws MslInternalException if the provided non-replayable ID is out of
+     *         range.
+     */
+    private static long incrementNonReplayableId(final long id) {
+        if (id < 0 || id > MslConstants.MAX_LONG_VALUE)
+            throw new MslInternalException("Non-replayable ID " + id + " is outside the valid range.");
+        return (id == MslConstants.MAX_LONG_VALUE) ? 0 : id + 1;
+    }
+
+    /**
+     * <p>Increment the count of a serial number.</p>
+     *
+     * @param counts counts by serial number.
+     * @param serialNumber the serial number.
+     */
+    private static void increment(final Map<Long,Integer> counts, final long serialNumber) {
+        final Integer count = counts.get(serialNumber);
+        counts.put(serialNumber, (count != null) ? count + 1 : 1);
+    }
+
+    /**
+     * <p>Decrement the count of a serial number. The serial number is removed
+     * once its count reaches zero.</p>
+     *
+     * @param counts counts by serial number.
+     * @param serialNumber the serial number.
+     * @return the remaining count.
+     */
+    private static int decrement(final Map<Long,Integer> counts, final long serialNumber) {
+        final Integer count = counts.get(serialNumber);
+        if (count == null || count <= 1) {
+            counts.remove(serialNumber);
+            return 0;
+        }
+        counts.put(serialNumber, count - 1);
+        return count - 1;
+    }
+
+    /**
+     * <p>Add a value to the set stored under a key.</p>
+     *
+     * @param index the index.
+     * @param key the key.
+     * @param value the value.
+     */
+    private static <K,V> void put(final Map<K,Set<V>> index, final K key, final V value) {
+        Set<V> values = index.get(key);
+        if (values == null) {
+            values = new HashSet<V>();
+            index.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * <p>Remove a value from the set stored under a key. The key is removed
+     * once its set is empty.</p>
+     *
+     * @param index the index.
+     * @param key the key.
+     * @param value the value.
+     */
+    private static <K,V> void remove(final Map<K,Set<V>> index, final K key, final V value) {
+        final Set<V> values = index.get(key);
+        if (values == null)
+            return;
+        values.remove(value);
+        if (values.isEmpty())
+            index.remove(key);
+    }
+
+    /**
+     * <p>Add a service token to the service tokens stored under a serial
+     * number and the service token name.</p>
+     *
+     * @param index service tokens by serial number and name.
+     * @param serialNumber the serial number.
+     * @param token the service token.
+     */
+    private static void put(final Map<Long,Map<String,Set<ServiceToken>>> index, final long serialNumber, final ServiceToken token) {
+        Map<String,Set<ServiceToken>> names = index.get(serialNumber);
+        if (names == null) {
+            names = new HashMap<String,Set<ServiceToken>>();
+            index.put(serialNumber, names);
+        }
+        put(names, token.getName(), token);
+    }
+
+    /**
+     * <p>Remove a service token from the service tokens stored under a serial
+     * number and the service token name.</p>
+     *
+     * @param index service tokens by serial number and name.
+     * @param serialNumber the serial number.
+     * @param token the service token.
+     */
+    private static void remove(final Map<Long,Map<String,Set<ServiceToken>>> index, final long serialNumber, final ServiceToken token) {
+        final Map<String,Set<ServiceToken>> names = index.get(serialNumber);
+        if (names == null)
+            return;
+        remove(names, token.getName(), token);
+        if (names.isEmpty())
+            index.remove(serialNumber);
+    }
+
+    /**
+     * <p>Return a copy of the service tokens stored under a serial number,
+     * limited to the provided name if any.</p>
+     *
+     * @param index service tokens by serial number and name.
+     * @param serialNumber the serial number.
+     * @param name the service token name. May be null.
+     * @return the service tokens. May be empty.
+     */
+    private static List<ServiceToken> get(final Map<Long,Map<String,Set<ServiceToken>>> index, final long serialNumber, final String name) {
+        final List<ServiceToken> tokens = new ArrayList<ServiceToken>();
+        final Map<String,Set<ServiceToken>> names = index.get(serialNumber);
+        if (names == null)
+            return tokens;
+        if (name != null) {
+            final Set<ServiceToken> named = names.get(name);
+            if (named != null)
+                tokens.addAll(named);
+        } else {
+            for (final Set<ServiceToken> named : names.values())
+                tokens.addAll(named);
+        }
+        return tokens;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#setCryptoContext(com.netflix.msl.tokens.MasterToken, com.netflix.msl.crypto.ICryptoContext)
+     */
+    @Override
+    public synchronized void setCryptoContext(final MasterToken masterToken, final ICryptoContext cryptoContext) {
+        if (cryptoContext == null)
+            removeCryptoContext(masterToken);
+        else if (cryptoContexts.put(masterToken, cryptoContext) == null)
+            increment(masterTokenCounts, masterToken.getSerialNumber());
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getMasterToken()
+     */
+    @Override
+    public MasterToken getMasterToken() {
+        MasterToken masterToken = null;
+        for (final MasterToken storedMasterToken : cryptoContexts.keySet()) {
+            if (masterToken == null || storedMasterToken.isNewerThan(masterToken))
+                masterToken = storedMasterToken;
+        }
+        return masterToken;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getNonReplayableId(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public synchronized long getNonReplayableId(final MasterToken masterToken) {
+        // Return the next largest non-replayable ID, or 1 if there is none.
+        final long serialNumber = masterToken.getSerialNumber();
+        final long currentId = (nonReplayableIds.containsKey(serialNumber))
+            ? nonReplayableIds.get(serialNumber)
+            : 0;
+        final long nextId = incrementNonReplayableId(currentId);
+        nonReplayableIds.put(serialNumber, nextId);
+        return nextId;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getCryptoContext(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public ICryptoContext getCryptoContext(final MasterToken masterToken) {
+        return cryptoContexts.get(masterToken);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#removeCryptoContext(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public synchronized void removeCryptoContext(final MasterToken masterToken) {
+        if (cryptoContexts.remove(masterToken) == null)
+            return;
+
+        // Remove bound user ID tokens, service tokens, and the non-replayable
+        // ID if we no longer have a master token with the same serial number.
+        final long serialNumber = masterToken.getSerialNumber();
+        if (decrement(masterTokenCounts, serialNumber) > 0)
+            return;
+
+        // Remove the non-replayable ID.
+        nonReplayableIds.remove(serialNumber);
+
+        // Remove bound user ID tokens and service tokens.
+        final Set<String> boundUserIds = mtUserIds.get(serialNumber);
+        if (boundUserIds != null) {
+            for (final String userId : new ArrayList<String>(boundUserIds)) {
+                final UserIdToken userIdToken = userIdTokens.get(userId);
+                if (userIdToken != null)
+                    removeUserIdToken(userIdToken);
+            }
+        }
+        for (final ServiceToken token : get(mtServiceTokens, serialNumber, null))
+            unindex(token);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#clearCryptoContexts()
+     */
+    @Override
+    public synchronized void clearCryptoContexts() {
+        cryptoContexts.clear();
+        masterTokenCounts.clear();
+        nonReplayableIds.clear();
+        userIdTokens.clear();
+        userIds.clear();
+        mtUserIds.clear();
+        userIdTokenCounts.clear();
+
+        // Only the unbound service tokens remain.
+        mtServiceTokens.clear();
+        mtOnlyServiceTokens.clear();
+        uitServiceTokens.clear();
+        namedServiceTokens.clear();
+        for (final ServiceToken token : unboundServiceTokens)
+            put(namedServiceTokens, token.getName(), token);
+    }
+
+    /**
+     * <p>Index a user ID stored with a user ID token.</p>
+     *
+     * @param userId the user ID.
+     * @param userIdToken the user ID token.
+     */
+    private void index(final String userId, final UserIdToken userIdToken) {
+        put(userIds, userIdToken, userId);
+        put(mtUserIds, userIdToken.getMasterTokenSerialNumber(), userId);
+        increment(userIdTokenCounts, userIdToken.getSerialNumber());
+    }
+
+    /**
+     * <p>Remove a user ID stored with a user ID token from the indexes.</p>
+     *
+     * @param userId the user ID.
+     * @param userIdToken the user ID token.
+     */
+    private void unindex(final String userId, final UserIdToken userIdToken) {
+        remove(userIds, userIdToken, userId);
+        remove(mtUserIds, userIdToken.getMasterTokenSerialNumber(), userId);
+        decrement(userIdTokenCounts, userIdToken.getSerialNumber());
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#addUserIdToken(java.lang.String, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized void addUserIdToken(final String userId, final UserIdToken userIdToken) throws MslException {
+        if (!masterTokenCounts.containsKey(userIdToken.getMasterTokenSerialNumber()))
+            throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_NOT_FOUND, "uit mtserialnumber", userIdToken.getMasterTokenSerialNumber());
+        final UserIdToken previous = userIdTokens.put(userId, userIdToken);
+        if (previous != null)
+            unindex(userId, previous);
+        index(userId, userIdToken);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getUserIdToken(java.lang.String)
+     */
+    @Override
+    public UserIdToken getUserIdToken(final String userId) {
+        return userIdTokens.get(userId);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#removeUserIdToken(com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized void removeUserIdToken(final UserIdToken userIdToken) {
+        final Set<String> storedUserIds = userIds.get(userIdToken);
+        if (storedUserIds == null)
+            return;
+        for (final String userId : new ArrayList<String>(storedUserIds)) {
+            userIdTokens.remove(userId);
+            unindex(userId, userIdToken);
+        }
+
+        // Remove the service tokens bound to the user ID token and its master
+        // token.
+        final long mtSerialNumber = userIdToken.getMasterTokenSerialNumber();
+        for (final ServiceToken token : get(uitServiceTokens, userIdToken.getSerialNumber(), null)) {
+            if (token.getMasterTokenSerialNumber() == mtSerialNumber)
+                unindex(token);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#clearUserIdTokens()
+     */
+    @Override
+    public synchronized void clearUserIdTokens() {
+        final List<ServiceToken> tokens = new ArrayList<ServiceToken>();
+        for (final long serialNumber : uitServiceTokens.keySet())
+            tokens.addAll(get(uitServiceTokens, serialNumber, null));
+        for (final ServiceToken token : tokens)
+            unindex(token);
+        userIdTokens.clear();
+        userIds.clear();
+        mtUserIds.clear();
+        userIdTokenCounts.clear();
+    }
+
+    /**
+     * <p>Add a service token to the indexes.</p>
+     *
+     * @param token the service token.
+     */
+    private void index(final ServiceToken token) {
+        put(namedServiceTokens, token.getName(), token);
+        if (token.isUnbound())
+            unboundServiceTokens.add(token);
+        if (token.isMasterTokenBound()) {
+            put(mtServiceTokens, token.getMasterTokenSerialNumber(), token);
+            if (!token.isUserIdTokenBound())
+                put(mtOnlyServiceTokens, token.getMasterTokenSerialNumber(), token);
+        }
+        if (token.isUserIdTokenBound())
+            put(uitServiceTokens, token.getUserIdTokenSerialNumber(), token);
+    }
+
+    /**
+     * <p>Remove a service token from the indexes.</p>
+     *
+     * @param token the service token.
+     */
+    private void unindex(final ServiceToken token) {
+        remove(namedServiceTokens, token.getName(), token);
+        if (token.isUnbound())
+            unboundServiceTokens.remove(token);
+        if (token.isMasterTokenBound()) {
+            remove(mtServiceTokens, token.getMasterTokenSerialNumber(), token);
+            if (!token.isUserIdTokenBound())
+                remove(mtOnlyServiceTokens, token.getMasterTokenSerialNumber(), token);
+        }
+        if (token.isUserIdTokenBound())
+            remove(uitServiceTokens, token.getUserIdTokenSerialNumber(), token);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#addServiceTokens(java.util.Set)
+     */
+    @Override
+    public synchronized void addServiceTokens(final Set<ServiceToken> tokens) throws MslException {
+        // Verify we recognize the bound service tokens.
+        for (final ServiceToken token : tokens) {
+            if (token.isMasterTokenBound() && !masterTokenCounts.containsKey(token.getMasterTokenSerialNumber()))
+                throw new MslException(MslError.SERVICETOKEN_MASTERTOKEN_NOT_FOUND, "st mtserialnumber", token.getMasterTokenSerialNumber());
+            if (token.isUserIdTokenBound() && !userIdTokenCounts.containsKey(token.getUserIdTokenSerialNumber()))
+                throw new MslException(MslError.SERVICETOKEN_USERIDTOKEN_NOT_FOUND, "st uitserialnumber", token.getUserIdTokenSerialNumber());
+        }
+
+        // Add service tokens. An equal service token that is already stored
+        // is kept, as it is by the simple MSL store.
+        for (final ServiceToken token : tokens) {
+            final Set<ServiceToken> named = namedServiceTokens.get(token.getName());
+            if (named == null || !named.contains(token))
+                index(token);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getServiceTokens(com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized Set<ServiceToken> getServiceTokens(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        // Validate arguments.
+        if (userIdToken != null) {
+            if (masterToken == null)
+                throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_NULL);
+            if (!userIdToken.isBoundTo(masterToken))
+                throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_MISMATCH, "uit mtserialnumber " + userIdToken.getMasterTokenSerialNumber() + "; mt " + masterToken.getSerialNumber());
+        }
+
+        // Grab service tokens. We start with the set of unbound service
+        // tokens.
+        final Set<ServiceToken> serviceTokens = new HashSet<ServiceToken>(unboundServiceTokens);
+        // If we have a master token add the set of master token bound service
+        // tokens that are not bound to any user ID tokens.
+        if (masterToken != null) {
+            final Set<ServiceToken> mtTokens = mtOnlyServiceTokens.get(masterToken.getSerialNumber());
+            if (mtTokens != null)
+                serviceTokens.addAll(mtTokens);
+        }
+        // If we have a user ID token (and because of the check above a master
+        // token) add the set of user ID token bound service tokens that are
+        // also bound to the same master token.
+        if (userIdToken != null) {
+            for (final ServiceToken uitToken : get(uitServiceTokens, userIdToken.getSerialNumber(), null)) {
+                if (uitToken.isBoundTo(masterToken))
+                    serviceTokens.add(uitToken);
+            }
+        }
+        return serviceTokens;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getServiceTokenView(com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public Set<ServiceToken> getServiceTokenView(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        // The indexed sets are assembled per call anyway, so the assembled
+        // set is returned without a further copy.
+        return Collections.unmodifiableSet(getServiceTokens(masterToken, userIdToken));
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#removeServiceTokens(java.lang.String, com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized void removeServiceTokens(final String name, final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        // Validate arguments.
+        if (userIdToken != null && masterToken != null &&
+            !userIdToken.isBoundTo(masterToken))
+        {
+            throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_MISMATCH, "uit mtserialnumber " + userIdToken.getMasterTokenSerialNumber() + "; mt " + masterToken.getSerialNumber());
+        }
+
+        // Find the service tokens to remove.
+        final List<ServiceToken> tokens;
+        if (userIdToken != null) {
+            // If a user ID token was provided remove all tokens bound to the
+            // user ID token. If a name was also provided then limit removal
+            // to tokens with the specified name. If a master token was also
+            // provided then limit removal to tokens bound to the master
+            // token.
+            tokens = new ArrayList<ServiceToken>();
+            for (final ServiceToken token : get(uitServiceTokens, userIdToken.getSerialNumber(), name)) {
+                if (masterToken == null || token.isBoundTo(masterToken))
+                    tokens.add(token);
+            }
+        } else if (masterToken != null) {
+            // If a master token was provided but no user ID token was
+            // provided, remove all tokens bound to the master token. If a
+            // name was also provided then limit removal to tokens with the
+            // specified name.
+            tokens = get(mtServiceTokens, masterToken.getSerialNumber(), name);
+        } else if (name != null) {
+            // If only a name was provided remove all tokens with that name.
+            final Set<ServiceToken> named = namedServiceTokens.get(name);
+            tokens = (named != null) ? new ArrayList<ServiceToken>(named) : new ArrayList<ServiceToken>();
+        } else {
+            return;
+        }
+
+        for (final ServiceToken token : tokens)
+            unindex(token);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#clearServiceTokens()
+     */
+    @Override
+    public synchronized void clearServiceTokens() {
+        namedServiceTokens.clear();
+        unboundServiceTokens.clear();
+        mtServiceTokens.clear();
+        mtOnlyServiceTokens.clear();
+        uitServiceTokens.clear();
+    }
+
+    /**
+     * @return the number of user ID tokens.
+     */
+    public int getUserIdTokenCount() {
+        return userIdTokens.size();
+    }
+
+    /**
+     * @return the number of service tokens.
+     */
+    public synchronized int getServiceTokenCount() {
+        int count = 0;
+        for (final Set<ServiceToken> named : namedServiceTokens.values())
+            count += named.size();
+        return count;
+    }
+
+    /** Map of master tokens onto crypto contexts. */
+    private final Map<MasterToken,ICryptoContext> cryptoContexts = new ConcurrentHashMap<MasterToken,ICryptoContext>();
+    /** Number of master tokens by master token serial number. */
+    private final Map<Long,Integer> masterTokenCounts = new HashMap<Long,Integer>();
+    /** Map of local user IDs onto User ID tokens. */
+    private final Map<String,UserIdToken> userIdTokens = new ConcurrentHashMap<String,UserIdToken>();
+    /** Local user IDs by user ID token. */
+    private final Map<UserIdToken,Set<String>> userIds = new HashMap<UserIdToken,Set<String>>();
+    /** Local user IDs by bound master token serial number. */
+    private final Map<Long,Set<String>> mtUserIds = new HashMap<Long,Set<String>>();
+    /** Number of user ID tokens by user ID token serial number. */
+    private final Map<Long,Integer> userIdTokenCounts = new HashMap<Long,Integer>();
+
+    /** Map of master token serial numbers onto non-replayable IDs. */
+    private final Map<Long,Long> nonReplayableIds = new HashMap<Long,Long>();
+
+    /** Service tokens by name. */
+    private final Map<String,Set<ServiceToken>> namedServiceTokens = new HashMap<String,Set<ServiceToken>>();
+    /** Set of unbound service tokens. */
+    private final Set<ServiceToken> unboundServiceTokens = new HashSet<ServiceToken>();
+    /** Master token bound service tokens by master token serial number and name. */
+    private final Map<Long,Map<String,Set<ServiceToken>>> mtServiceTokens = new HashMap<Long,Map<String,Set<ServiceToken>>>();
+    /** Service tokens bound only to a master token by master token serial number. */
+    private final Map<Long,Set<ServiceToken>> mtOnlyServiceTokens = new HashMap<Long,Set<ServiceToken>>();
+    /** User ID token bound service tokens by user ID token serial number and name. */
+    private final Map<Long,Map<String,Set<ServiceToken>>> uitServiceTokens = new HashMap<Long,Map<String,Set<ServiceToken>>>();
+}
@@ -104,6 +104,23 @@ public class JsonUtils {
         return new String(b64urlDecode(data), UTF_8);
     }
     
+    /**
+     * Create a JSON array from a collection of <code>JSONString</code>
+     * objects. Unlike {@link #createArray(Collection)} the objects are not
+     * converted into <code>JSONObject</code>s; their JSON encodings are
+     * inserted verbatim when the array is serialized. The returned array is
+     * only intended for serialization.
+     *
+     * @param c a collection of JSON string objects.
+     * @return the JSON array.
+     */
+    public static JSONArray createEncodedArray(final Collection<? extends JSONString> c) {
+        final JSONArray array = new JSONArray();
+        for (final JSONString js : c)
+            array.put(js);
+        return array;
+    }
+
     /**
      * Create a JSON array from a collection of objects that are either one of
      * the accepted types: <code>Boolean</code>, <code>JSONArray</code>,
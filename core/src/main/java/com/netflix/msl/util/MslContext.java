@@ -109,6 +109,11 @@ public abstract class MslContext {
      * independent random sources can be used to provide better random
      * values.</p>
      * 
+     * <p>The random number generator is used for every encryption IV,
+     * session key, and message ID, so it should not serialize callers at
+     * high message rates. {@link com.netflix.msl.crypto.RandomSource}
+     * provides per-thread generators seeded from a {@code SecureRandom}.</p>
+     * 
      * @return a random number generator.
      */
     public abstract Random getRandom();
@@ -159,6 +159,24 @@ public interface MslStore {
      */
     public Set<ServiceToken> getServiceTokens(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException;
 
+    /**
+     * <p>Return the same service tokens as
+     * {@link #getServiceTokens(MasterToken, UserIdToken)} as an unmodifiable
+     * set. The set may be shared with other callers and returned again until
+     * the service tokens change, so callers that only read the service
+     * tokens, such as message builders, do not pay for a copy on every
+     * message.</p>
+     * 
+     * @param masterToken the master token. May be null.
+     * @param userIdToken the user ID token. May be null.
+     * @return the unmodifiable set of service tokens applicable to the
+     *         message.
+     * @throws MslException if the user ID token is not bound to the master
+     *         token or a user ID token is provided without also providing a
+     *         master token.
+     */
+    public Set<ServiceToken> getServiceTokenView(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException;
+
     /**
      * <p>Remove all service tokens matching all the specified parameters.</p>
      * 
@@ -0,0 +1,734 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.SymmetricCryptoContext;
+import com.netflix.msl.crypto.SymmetricCryptoContextCodec;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+
+/**
+ * <p>A compact binary snapshot format for {@link SimpleMslStore}.</p>
+ *
+ * <p>A snapshot consists of a header followed by a sequence of records. Each
+ * record mirrors one {@link MslStore} state change and is restored by
+ * applying the same change to a store, in order. Records may therefore be
+ * appended to an existing snapshot to capture incremental changes.</p>
+ *
+ * <p>The header is the magic number {@link #MAGIC} followed by the format
+ * version {@link #VERSION}, both as 32-bit big-endian integers. Each record
+ * is encoded as follows:
+ * <ol>
+ * <li>the record type as one byte</li>
+ * <li>the payload length as a 32-bit big-endian integer</li>
+ * <li>the payload</li>
+ * <li>the CRC-32 of the payload as a 32-bit big-endian integer</li>
+ * </ol>
+ * Records of an unknown type are skipped. A damaged or incomplete final
+ * record, for example left behind by an interrupted append, is ignored.</p>
+ *
+ * <p>Tokens are stored in their encoded form and parsed using the provided
+ * MSL context when restored. Crypto contexts are stored as their key
+ * material encoded by {@link SymmetricCryptoContextCodec} and must be
+ * {@link SymmetricCryptoContext} instances, such as
+ * {@link com.netflix.msl.crypto.SessionCryptoContext}.</p>
+ *
+ * <p>Snapshots contain secret key material and must be protected
+ * accordingly.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MslStoreSnapshot {
+    /** Snapshot magic number ("MSLS"). */
+    public static final int MAGIC = 0x4d534c53;
+    /** Snapshot format version. */
+    public static final int VERSION = 1;
+    /** Header length in bytes. */
+    public static final int HEADER_LENGTH = 8;
+
+    /** Set crypto context record. */
+    private static final byte SET_CRYPTO_CONTEXT = 1;
+    /** Remove crypto context record. */
+    private static final byte REMOVE_CRYPTO_CONTEXT = 2;
+    /** Clear crypto contexts record. */
+    private static final byte CLEAR_CRYPTO_CONTEXTS = 3;
+    /** Set non-replayable ID record. */
+    private static final byte SET_NON_REPLAYABLE_ID = 4;
+    /** Add user ID token record. */
+    private static final byte ADD_USER_ID_TOKEN = 5;
+    /** Remove user ID token record. */
+    private static final byte REMOVE_USER_ID_TOKEN = 6;
+    /** Clear user ID tokens record. */
+    private static final byte CLEAR_USER_ID_TOKENS = 7;
+    /** Add service tokens record. */
+    private static final byte ADD_SERVICE_TOKENS = 8;
+    /** Remove service tokens record. */
+    private static final byte REMOVE_SERVICE_TOKENS = 9;
+    /** Clear service tokens record. */
+    private static final byte CLEAR_SERVICE_TOKENS = 10;
+
+    /** Serial number used when a token is not bound. */
+    private static final long UNBOUND = -1;
+    /** Maximum record payload length in bytes. */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+    /** Per-record overhead in bytes: type, length, and CRC-32. */
+    private static final int RECORD_OVERHEAD = 9;
+
+    /**
+     * <p>Writes snapshot records to an output stream. Written records are
+     * buffered by the output stream until it is flushed.</p>
+     *
+     * <p>This class is not thread-safe.</p>
+     */
+    public static class Writer implements Flushable, Closeable {
+        /**
+         * <p>Create a new snapshot writer. A header must be written at the
+         * start of a new snapshot but not when appending records to an
+         * existing snapshot.</p>
+         *
+         * @param out the output stream.
+         * @param header true to write the snapshot header.
+         * @throws IOException if there is an error writing the header.
+         */
+        public Writer(final OutputStream out, final boolean header) throws IOException {
+            this.out = new DataOutputStream(out);
+            if (header) {
+                this.out.writeInt(MAGIC);
+                this.out.writeInt(VERSION);
+            }
+        }
+
+        /**
+         * <p>Write a record that sets the crypto context of a master token or
+         * removes it if the crypto context is {@code null}.</p>
+         *
+         * @param masterToken the master token.
+         * @param cryptoContext the crypto context. May be {@code null}.
+         * @throws IllegalArgumentException if the crypto context is not a
+         *         symmetric crypto context.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#setCryptoContext(MasterToken, ICryptoContext)
+         */
+        public void setCryptoContext(final MasterToken masterToken, final ICryptoContext cryptoContext) throws IOException {
+            if (cryptoContext == null) {
+                removeCryptoContext(masterToken);
+                return;
+            }
+            if (!(cryptoContext instanceof SymmetricCryptoContext))
+                throw new IllegalArgumentException("Crypto context " + cryptoContext.getClass().getName() + " is not a " + SymmetricCryptoContext.class.getName() + ".");
+            final SymmetricCryptoContext symmetricContext = (SymmetricCryptoContext)cryptoContext;
+
+            final DataOutputStream payload = begin();
+            writeBytes(payload, masterToken.toJSONString().getBytes(MslConstants.DEFAULT_CHARSET));
+            SymmetricCryptoContextCodec.write(payload, symmetricContext);
+            end(SET_CRYPTO_CONTEXT);
+        }
+
+        /**
+         * <p>Write a record that removes the crypto context of a master
+         * token.</p>
+         *
+         * @param masterToken the master token.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#removeCryptoContext(MasterToken)
+         */
+        public void removeCryptoContext(final MasterToken masterToken) throws IOException {
+            final DataOutputStream payload = begin();
+            payload.writeLong(masterToken.getSerialNumber());
+            payload.writeLong(masterToken.getSequenceNumber());
+            end(REMOVE_CRYPTO_CONTEXT);
+        }
+
+        /**
+         * <p>Write a record that removes all crypto contexts.</p>
+         *
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#clearCryptoContexts()
+         */
+        public void clearCryptoContexts() throws IOException {
+            begin();
+            end(CLEAR_CRYPTO_CONTEXTS);
+        }
+
+        /**
+         * <p>Write a record that sets the largest non-replayable ID issued for
+         * a master token serial number.</p>
+         *
+         * @param serialNumber the master token serial number.
+         * @param id the largest non-replayable ID.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#getNonReplayableId(MasterToken)
+         */
+        public void setNonReplayableId(final long serialNumber, final long id) throws IOException {
+            final DataOutputStream payload = begin();
+            payload.writeLong(serialNumber);
+            payload.writeLong(id);
+            end(SET_NON_REPLAYABLE_ID);
+        }
+
+        /**
+         * <p>Write a record that adds a user ID token.</p>
+         *
+         * @param userId the local user ID.
+         * @param userIdToken the user ID token.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#addUserIdToken(String, UserIdToken)
+         */
+        public void addUserIdToken(final String userId, final UserIdToken userIdToken) throws IOException {
+            final DataOutputStream payload = begin();
+            writeString(payload, userId);
+            writeBytes(payload, userIdToken.toJSONString().getBytes(MslConstants.DEFAULT_CHARSET));
+            payload.writeLong(userIdToken.getMasterTokenSerialNumber());
+            end(ADD_USER_ID_TOKEN);
+        }
+
+        /**
+         * <p>Write a record that removes a user ID token.</p>
+         *
+         * @param userIdToken the user ID token.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#removeUserIdToken(UserIdToken)
+         */
+        public void removeUserIdToken(final UserIdToken userIdToken) throws IOException {
+            final DataOutputStream payload = begin();
+            payload.writeLong(userIdToken.getSerialNumber());
+            payload.writeLong(userIdToken.getMasterTokenSerialNumber());
+            end(REMOVE_USER_ID_TOKEN);
+        }
+
+        /**
+         * <p>Write a record that removes all user ID tokens.</p>
+         *
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#clearUserIdTokens()
+         */
+        public void clearUserIdTokens() throws IOException {
+            begin();
+            end(CLEAR_USER_ID_TOKENS);
+        }
+
+        /**
+         * <p>Write a record that adds service tokens.</p>
+         *
+         * @param tokens the service tokens.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#addServiceTokens(Set)
+         */
+        public void addServiceTokens(final Set<ServiceToken> tokens) throws IOException {
+            final DataOutputStream payload = begin();
+            payload.writeInt(tokens.size());
+            for (final ServiceToken token : tokens) {
+                writeBytes(payload, token.toJSONString().getBytes(MslConstants.DEFAULT_CHARSET));
+                payload.writeLong(token.isMasterTokenBound() ? token.getMasterTokenSerialNumber() : UNBOUND);
+                payload.writeLong(token.isUserIdTokenBound() ? token.getUserIdTokenSerialNumber() : UNBOUND);
+            }
+            end(ADD_SERVICE_TOKENS);
+        }
+
+        /**
+         * <p>Write a record that removes service tokens.</p>
+         *
+         * @param name service token name. May be {@code null}.
+         * @param masterToken master token. May be {@code null}.
+         * @param userIdToken user ID token. May be {@code null}.
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#removeServiceTokens(String, MasterToken, UserIdToken)
+         */
+        public void removeServiceTokens(final String name, final MasterToken masterToken, final UserIdToken userIdToken) throws IOException {
+            final DataOutputStream payload = begin();
+            writeString(payload, name);
+            if (masterToken != null) {
+                payload.writeLong(masterToken.getSerialNumber());
+                payload.writeLong(masterToken.getSequenceNumber());
+            } else {
+                payload.writeLong(UNBOUND);
+                payload.writeLong(UNBOUND);
+            }
+            if (userIdToken != null) {
+                payload.writeLong(userIdToken.getSerialNumber());
+                payload.writeLong(userIdToken.getMasterTokenSerialNumber());
+            } else {
+                payload.writeLong(UNBOUND);
+                payload.writeLong(UNBOUND);
+            }
+            end(REMOVE_SERVICE_TOKENS);
+        }
+
+        /**
+         * <p>Write a record that removes all service tokens.</p>
+         *
+         * @throws IOException if there is an error writing the record.
+         * @see MslStore#clearServiceTokens()
+         */
+        public void clearServiceTokens() throws IOException {
+            begin();
+            end(CLEAR_SERVICE_TOKENS);
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.Flushable#flush()
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.Closeable#close()
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * <p>Begin a new record.</p>
+         *
+         * @return the record payload output stream.
+         */
+        private DataOutputStream begin() {
+            buffer.reset();
+            return payload;
+        }
+
+        /**
+         * <p>Write the record payload collected since {@link #begin()}.</p>
+         *
+         * @param type the record type.
+         * @throws IOException if there is an error writing the record.
+         */
+        private void end(final byte type) throws IOException {
+            final byte[] data = buffer.toByteArray();
+            crc.reset();
+            crc.update(data);
+            out.writeByte(type);
+            out.writeInt(data.length);
+            out.write(data);
+            out.writeInt((int)crc.getValue());
+        }
+
+        /** Snapshot output stream. */
+        private final DataOutputStream out;
+        /** Record payload buffer. */
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        /** Record payload output stream. */
+        private final DataOutputStream payload = new DataOutputStream(buffer);
+        /** Record checksum. */
+        private final CRC32 crc = new CRC32();
+    }
+
+    /**
+     * <p>Write a byte array prefixed by its length.</p>
+     *
+     * @param out the output stream.
+     * @param b the byte array.
+     * @throws IOException if there is an error writing the data.
+     */
+    private static void writeBytes(final DataOutputStream out, final byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * <p>Write a string that may be {@code null} prefixed by its length.</p>
+     *
+     * @param out the output stream.
+     * @param s the string. May be {@code null}.
+     * @throws IOException if there is an error writing the data.
+     */
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        if (s == null)
+            out.writeInt(-1);
+        else
+            writeBytes(out, s.getBytes(MslConstants.DEFAULT_CHARSET));
+    }
+
+    /**
+     * <p>Read a byte array prefixed by its length.</p>
+     *
+     * @param in the input stream.
+     * @return the byte array.
+     * @throws IOException if there is an error reading the data or the length
+     *         is invalid.
+     */
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        return readBytes(in, in.readInt());
+    }
+
+    /**
+     * <p>Read a byte array of the provided length.</p>
+     *
+     * @param in the input stream.
+     * @param length the byte array length.
+     * @return the byte array.
+     * @throws IOException if there is an error reading the data or the length
+     *         is invalid.
+     */
+    private static byte[] readBytes(final DataInputStream in, final int length) throws IOException {
+        if (length < 0 || length > in.available())
+            throw new IOException("Invalid snapshot field length " + length + ".");
+        final byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * <p>Read a string that may be {@code null} prefixed by its length.</p>
+     *
+     * @param in the input stream.
+     * @return the string. May be {@code null}.
+     * @throws IOException if there is an error reading the data or the length
+     *         is invalid.
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1)
+            return null;
+        return new String(readBytes(in, length), MslConstants.DEFAULT_CHARSET);
+    }
+
+    /**
+     * <p>Parse a JSON object from its encoded bytes.</p>
+     *
+     * @param b the encoded bytes.
+     * @return the JSON object.
+     * @throws MslEncodingException if the bytes are not a JSON object.
+     */
+    private static JSONObject parseJson(final byte[] b) throws MslEncodingException {
+        final String json = new String(b, MslConstants.DEFAULT_CHARSET);
+        try {
+            return new JSONObject(json);
+        } catch (final JSONException e) {
+            throw new MslEncodingException(MslError.JSON_PARSE_ERROR, "snapshot token", json, e);
+        }
+    }
+
+    /**
+     * <p>Write a snapshot of the current state of a store.</p>
+     *
+     * @param store the store.
+     * @param out the output stream. Not closed.
+     * @throws IllegalArgumentException if the store contains a crypto
+     *         context that is not a symmetric crypto context.
+     * @throws IOException if there is an error writing the snapshot.
+     */
+    public static void write(final SimpleMslStore store, final OutputStream out) throws IOException {
+        final Writer writer = new Writer(out, true);
+        store.snapshot(writer);
+        writer.flush();
+    }
+
+    /**
+     * <p>Return a snapshot of the current state of a store.</p>
+     *
+     * @param store the store.
+     * @return the snapshot.
+     * @throws IllegalArgumentException if the store contains a crypto
+     *         context that is not a symmetric crypto context.
+     * @throws IOException if there is an error writing the snapshot.
+     */
+    public static byte[] snapshot(final SimpleMslStore store) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(store, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * <p>Return a new store restored from a snapshot.</p>
+     *
+     * @param ctx MSL context.
+     * @param snapshot the snapshot.
+     * @return the restored store.
+     * @throws IOException if the snapshot is invalid.
+     * @throws MslEncodingException if a token cannot be parsed.
+     * @throws MslException if a token cannot be restored.
+     */
+    public static SimpleMslStore restore(final MslContext ctx, final byte[] snapshot) throws IOException, MslEncodingException, MslException {
+        final SimpleMslStore store = new SimpleMslStore();
+        restore(ctx, new ByteArrayInputStream(snapshot), store);
+        return store;
+    }
+
+    /**
+     * <p>Restore a snapshot into a store by applying its records in order.
+     * The store may already hold the state of a previous snapshot whose
+     * changes were appended to this one.</p>
+     *
+     * <p>The returned length can be used to truncate a damaged or
+     * incomplete final record before appending new records.</p>
+     *
+     * @param ctx MSL context.
+     * @param in the snapshot input stream. Not closed.
+     * @param store the store.
+     * @return the number of bytes of the header and the valid records.
+     * @throws IOException if the snapshot is invalid or there is an error
+     *         reading the snapshot.
+     * @throws MslEncodingException if a token cannot be parsed.
+     * @throws MslException if a token cannot be restored.
+     */
+    public static long restore(final MslContext ctx, final InputStream in, final SimpleMslStore store) throws IOException, MslEncodingException, MslException {
+        final DataInputStream data = new DataInputStream(in);
+
+        // Verify the header.
+        try {
+            if (data.readInt() != MAGIC)
+                throw new IOException("Not an MSL store snapshot.");
+            final int version = data.readInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException("Unsupported MSL store snapshot version " + version + ".");
+        } catch (final EOFException e) {
+            throw new IOException("Not an MSL store snapshot.", e);
+        }
+
+        final Restorer restorer = new Restorer(ctx, store);
+        final CRC32 crc = new CRC32();
+        long valid = HEADER_LENGTH;
+        while (true) {
+            // Stop at the end of the snapshot.
+            final int type = data.read();
+            if (type == -1)
+                return valid;
+
+            // Read the record. Stop if it is damaged or incomplete and is the
+            // final record.
+            final byte[] payload;
+            try {
+                final int length = data.readInt();
+                if (length < 0 || length > MAX_RECORD_LENGTH)
+                    return damaged(data, valid);
+                payload = new byte[length];
+                data.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if (data.readInt() != (int)crc.getValue())
+                    return damaged(data, valid);
+            } catch (final EOFException e) {
+                return valid;
+            }
+
+            restorer.apply(type, new DataInputStream(new ByteArrayInputStream(payload)));
+            valid += RECORD_OVERHEAD + payload.length;
+        }
+    }
+
+    /**
+     * <p>Handle a damaged record. The record is ignored if it is the final
+     * record.</p>
+     *
+     * @param in the snapshot input stream.
+     * @param valid the number of bytes of the header and the valid records.
+     * @return the number of bytes of the header and the valid records.
+     * @throws IOException if the damaged record is not the final record.
+     */
+    private static long damaged(final InputStream in, final long valid) throws IOException {
+        if (in.read() == -1)
+            return valid;
+        throw new IOException("MSL store snapshot record at offset " + valid + " is damaged.");
+    }
+
+    /**
+     * <p>Applies snapshot records to a store.</p>
+     */
+    private static class Restorer {
+        /**
+         * <p>Create a new restorer. Records may refer to tokens already in
+         * the store, such as when a log is replayed after its snapshot.</p>
+         *
+         * @param ctx MSL context.
+         * @param store the store.
+         */
+        public Restorer(final MslContext ctx, final SimpleMslStore store) {
+            this.ctx = ctx;
+            this.store = store;
+            for (final MasterToken masterToken : store.getMasterTokens()) {
+                masterTokens.put(key(masterToken.getSerialNumber(), masterToken.getSequenceNumber()), masterToken);
+                masterTokensBySerial.put(masterToken.getSerialNumber(), masterToken);
+            }
+            for (final UserIdToken userIdToken : store.getUserIdTokens())
+                userIdTokens.put(userIdToken.getSerialNumber(), userIdToken);
+        }
+
+        /**
+         * <p>Apply a record to the store.</p>
+         *
+         * @param type the record type.
+         * @param in the record payload.
+         * @throws IOException if the record payload is invalid.
+         * @throws MslEncodingException if a token cannot be parsed.
+         * @throws MslException if a token cannot be restored.
+         */
+        public void apply(final int type, final DataInputStream in) throws IOException, MslEncodingException, MslException {
+            switch (type) {
+                case SET_CRYPTO_CONTEXT:
+                {
+                    final MasterToken masterToken = new MasterToken(ctx, parseJson(readBytes(in)));
+                    final ICryptoContext cryptoContext;
+                    try {
+                        cryptoContext = SymmetricCryptoContextCodec.read(ctx, in);
+                    } catch (final IllegalArgumentException e) {
+                        throw new IOException("Invalid crypto context keys for master token " + masterToken.getSerialNumber() + ".", e);
+                    }
+                    store.setCryptoContext(masterToken, cryptoContext);
+                    masterTokens.put(key(masterToken.getSerialNumber(), masterToken.getSequenceNumber()), masterToken);
+                    masterTokensBySerial.put(masterToken.getSerialNumber(), masterToken);
+                    break;
+                }
+                case REMOVE_CRYPTO_CONTEXT:
+                {
+                    final MasterToken masterToken = masterTokens.remove(key(in.readLong(), in.readLong()));
+                    if (masterToken != null)
+                        store.removeCryptoContext(masterToken);
+                    break;
+                }
+                case CLEAR_CRYPTO_CONTEXTS:
+                {
+                    store.clearCryptoContexts();
+                    masterTokens.clear();
+                    masterTokensBySerial.clear();
+                    userIdTokens.clear();
+                    break;
+                }
+                case SET_NON_REPLAYABLE_ID:
+                {
+                    store.setNonReplayableId(in.readLong(), in.readLong());
+                    break;
+                }
+                case ADD_USER_ID_TOKEN:
+                {
+                    final String userId = readString(in);
+                    final byte[] encoded = readBytes(in);
+                    final MasterToken masterToken = masterTokensBySerial.get(in.readLong());
+                    final UserIdToken userIdToken = new UserIdToken(ctx, parseJson(encoded), masterToken);
+                    store.addUserIdToken(userId, userIdToken);
+                    userIdTokens.put(userIdToken.getSerialNumber(), userIdToken);
+                    break;
+                }
+                case REMOVE_USER_ID_TOKEN:
+                {
+                    final UserIdToken userIdToken = findUserIdToken(in.readLong(), in.readLong());
+                    if (userIdToken != null)
+                        store.removeUserIdToken(userIdToken);
+                    break;
+                }
+                case CLEAR_USER_ID_TOKENS:
+                {
+                    store.clearUserIdTokens();
+                    userIdTokens.clear();
+                    break;
+                }
+                case ADD_SERVICE_TOKENS:
+                {
+                    final int count = in.readInt();
+                    if (count < 0)
+                        throw new IOException("Invalid service token count " + count + ".");
+                    final Set<ServiceToken> tokens = new HashSet<ServiceToken>();
+                    for (int i = 0; i < count; ++i) {
+                        final byte[] encoded = readBytes(in);
+                        final MasterToken masterToken = masterTokensBySerial.get(in.readLong());
+                        final UserIdToken userIdToken = userIdTokens.get(in.readLong());
+                        tokens.add(new ServiceToken(ctx, parseJson(encoded), masterToken, userIdToken, (ICryptoContext)null));
+                    }
+                    store.addServiceTokens(tokens);
+                    break;
+                }
+                case REMOVE_SERVICE_TOKENS:
+                {
+                    final String name = readString(in);
+                    final long mtSerialNumber = in.readLong();
+                    final long mtSequenceNumber = in.readLong();
+                    final long uitSerialNumber = in.readLong();
+                    final long uitMtSerialNumber = in.readLong();
+                    final MasterToken masterToken = (mtSerialNumber != UNBOUND) ? masterTokens.get(key(mtSerialNumber, mtSequenceNumber)) : null;
+                    final UserIdToken userIdToken = (uitSerialNumber != UNBOUND) ? findUserIdToken(uitSerialNumber, uitMtSerialNumber) : null;
+
+                    // Nothing was removed if a bound token no longer exists.
+                    if ((mtSerialNumber != UNBOUND && masterToken == null) ||
+                        (uitSerialNumber != UNBOUND && userIdToken == null))
+                    {
+                        break;
+                    }
+                    store.removeServiceTokens(name, masterToken, userIdToken);
+                    break;
+                }
+                case CLEAR_SERVICE_TOKENS:
+                {
+                    store.clearServiceTokens();
+                    break;
+                }
+                default:
+                    // Skip unknown records.
+                    break;
+            }
+        }
+
+        /**
+         * @param serialNumber master token serial number.
+         * @param sequenceNumber master token sequence number.
+         * @return the master token lookup key.
+         */
+        private static String key(final long serialNumber, final long sequenceNumber) {
+            return serialNumber + ":" + sequenceNumber;
+        }
+
+        /**
+         * @param serialNumber user ID token serial number.
+         * @param mtSerialNumber bound master token serial number.
+         * @return the restored user ID token or {@code null} if not found.
+         */
+        private UserIdToken findUserIdToken(final long serialNumber, final long mtSerialNumber) {
+            final UserIdToken userIdToken = userIdTokens.get(serialNumber);
+            if (userIdToken == null || userIdToken.getMasterTokenSerialNumber() != mtSerialNumber)
+                return null;
+            return userIdToken;
+        }
+
+        /** MSL context. */
+        private final MslContext ctx;
+        /** Store. */
+        private final SimpleMslStore store;
+        /** Restored master tokens by serial and sequence number. */
+        private final Map<String,MasterToken> masterTokens = new HashMap<String,MasterToken>();
+        /** Most recently restored master tokens by serial number. */
+        private final Map<Long,MasterToken> masterTokensBySerial = new HashMap<Long,MasterToken>();
+        /** Restored user ID tokens by serial number. */
+        private final Map<Long,UserIdToken> userIdTokens = new HashMap<Long,UserIdToken>();
+    }
+}
@@ -128,6 +128,14 @@ public class NullMslStore implements MslStore {
         return Collections.emptySet();
     }
 
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getServiceTokenView(com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public Set<ServiceToken> getServiceTokenView(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        return getServiceTokens(masterToken, userIdToken);
+    }
+
     /* (non-Javadoc)
      * @see com.netflix.msl.util.MslStore#removeServiceTokens(java.lang.String, com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
      */
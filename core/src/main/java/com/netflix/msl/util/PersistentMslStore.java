@@ -0,0 +1,665 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslInternalException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.SymmetricCryptoContext;
+import com.netflix.msl.io.ByteBufferInputStream;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+
+/**
+ * <p>A MSL store that persists its state to a directory so it survives a
+ * restart.</p>
+ *
+ * <p>All state is held in memory by a {@link SimpleMslStore} and reads never
+ * touch the disk. Every change is appended to a write-ahead log as a
+ * {@link MslStoreSnapshot} record and is durable before the changing method
+ * returns. Concurrent changes are committed as a group with a single write
+ * and sync.</p>
+ *
+ * <p>Once the log grows larger than the last snapshot, or the compaction
+ * minimum if that is larger, the current state is written to a new snapshot
+ * and the log is restarted. Recovery reads the memory-mapped snapshot and
+ * replays the log, so its time is bounded by the snapshot size and not by
+ * the history of the store. A damaged or incomplete final log record left
+ * behind by a crash is discarded. A damaged snapshot is not recovered and
+ * fails construction.</p>
+ *
+ * <p>The directory holds snapshot and log files numbered by generation. It
+ * must not be shared by more than one store. Crypto contexts must be
+ * {@link SymmetricCryptoContext} instances. The files contain secret key
+ * material and must be protected accordingly.</p>
+ *
+ * <p>If a change cannot be written to the log a {@link MslInternalException}
+ * is thrown and the change is only held in memory.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class PersistentMslStore implements MslStore, Closeable {
+    /** Default compaction minimum log size in bytes. */
+    public static final long DEFAULT_COMPACTION_MINIMUM = 1024 * 1024;
+
+    /** Snapshot file name prefix. */
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    /** Log file name prefix. */
+    private static final String LOG_PREFIX = "log.";
+    /** Temporary file name suffix. */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * <p>Create a new persistent MSL store with the default compaction
+     * minimum, recovering any state previously stored in the directory.</p>
+     *
+     * @param ctx MSL context used to restore tokens.
+     * @param directory the store directory. Created if it does not exist.
+     * @throws IOException if the directory or its files cannot be read or
+     *         written or the snapshot is damaged.
+     * @throws MslException if a stored token cannot be restored.
+     */
+    public PersistentMslStore(final MslContext ctx, final File directory) throws IOException, MslException {
+        this(ctx, directory, DEFAULT_COMPACTION_MINIMUM);
+    }
+
+    /**
+     * <p>Create a new persistent MSL store, recovering any state previously
+     * stored in the directory.</p>
+     *
+     * @param ctx MSL context used to restore tokens.
+     * @param directory the store directory. Created if it does not exist.
+     * @param compactionMinimum minimum log size in bytes before the log is
+     *        compacted into a new snapshot.
+     * @throws IllegalArgumentException if the compaction minimum is not
+     *         positive.
+     * @throws IOException if the directory or its files cannot be read or
+     *         written or the snapshot is damaged.
+     * @throws MslException if a stored token cannot be restored.
+     */
+    public PersistentMslStore(final MslContext ctx, final File directory, final long compactionMinimum) throws IOException, MslException {
+        if (compactionMinimum < 1)
+            throw new IllegalArgumentException("Compaction minimum must be positive.");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create MSL store directory " + directory + ".");
+        this.directory = directory;
+        this.compactionMinimum = compactionMinimum;
+        this.writer = new MslStoreSnapshot.Writer(pending, false);
+
+        // Find the newest snapshot. Newer logs and temporary files were left
+        // behind by an interrupted compaction.
+        long newest = 0;
+        final String[] names = directory.list();
+        if (names == null)
+            throw new IOException("Unable to list MSL store directory " + directory + ".");
+        for (final String name : names) {
+            final long generation = parseGeneration(name, SNAPSHOT_PREFIX);
+            if (generation > newest)
+                newest = generation;
+        }
+        generation = newest;
+
+        // Restore the snapshot and replay the log. Snapshots are renamed into
+        // place once complete so only the log may end with a damaged or
+        // incomplete record.
+        final File snapshotFile = snapshotFile(generation);
+        if (snapshotFile.exists()) {
+            snapshotSize = snapshotFile.length();
+            if (restore(ctx, snapshotFile) != snapshotSize)
+                throw new IOException("MSL store snapshot " + snapshotFile + " is damaged.");
+        }
+        final File logFile = logFile(generation);
+        long valid = 0;
+        if (logFile.length() >= MslStoreSnapshot.HEADER_LENGTH)
+            valid = restore(ctx, logFile);
+        log = openLog(logFile, valid);
+        logSize = log.size();
+
+        // Delete everything else.
+        for (final String name : names) {
+            final File file = new File(directory, name);
+            if (!file.equals(snapshotFile) && !file.equals(logFile) &&
+                (name.startsWith(SNAPSHOT_PREFIX) || name.startsWith(LOG_PREFIX)))
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param name file name.
+     * @param prefix file name prefix.
+     * @return the generation of the file or -1 if the name does not have the
+     *         prefix followed by a generation.
+     */
+    private static long parseGeneration(final String name, final String prefix) {
+        if (!name.startsWith(prefix))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param generation the generation.
+     * @return the snapshot file.
+     */
+    private File snapshotFile(final long generation) {
+        return new File(directory, SNAPSHOT_PREFIX + generation);
+    }
+
+    /**
+     * @param generation the generation.
+     * @return the log file.
+     */
+    private File logFile(final long generation) {
+        return new File(directory, LOG_PREFIX + generation);
+    }
+
+    /**
+     * <p>Restore a memory-mapped snapshot or log file into the store.</p>
+     *
+     * @param ctx MSL context.
+     * @param file the file.
+     * @return the number of bytes of the header and the valid records.
+     * @throws IOException if the file is invalid or cannot be read.
+     * @throws MslException if a stored token cannot be restored.
+     */
+    private long restore(final MslContext ctx, final File file) throws IOException, MslException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return MslStoreSnapshot.restore(ctx, new ByteBufferInputStream(mapped), store);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * <p>Open a log file for appending. The file is truncated to the
+     * provided length, discarding any damaged or incomplete final record. If
+     * the length is zero a new log is started.</p>
+     *
+     * @param file the log file.
+     * @param valid the number of bytes of the header and the valid records.
+     * @return the log file channel, positioned at the end.
+     * @throws IOException if the file cannot be written.
+     */
+    private static FileChannel openLog(final File file, final long valid) throws IOException {
+        final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            channel.truncate(valid);
+            if (valid == 0) {
+                final ByteArrayOutputStream header = new ByteArrayOutputStream();
+                new MslStoreSnapshot.Writer(header, true).flush();
+                write(channel, header.toByteArray());
+            }
+            channel.position(channel.size());
+            channel.force(true);
+            return channel;
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Write all of the provided data to the channel.</p>
+     *
+     * @param channel the file channel.
+     * @param data the data.
+     * @throws IOException if the data cannot be written.
+     */
+    private static void write(final FileChannel channel, final byte[] data) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * <p>Make the changes up to and including the provided change sequence
+     * number durable.</p>
+     *
+     * <p>The first waiting thread writes and syncs all pending changes,
+     * including those of threads that arrive while it does so. Those threads
+     * then find their changes already committed.</p>
+     *
+     * @param sequence the change sequence number.
+     * @throws MslInternalException if the log cannot be written.
+     */
+    private void commit(final long sequence) {
+        final boolean compact;
+        synchronized (commitLock) {
+            if (committed >= sequence)
+                return;
+
+            final byte[] data;
+            final long target;
+            synchronized (pending) {
+                data = pending.toByteArray();
+                pending.reset();
+                target = appended;
+            }
+            try {
+                write(log, data);
+                log.force(false);
+            } catch (final IOException e) {
+                throw new MslInternalException("Unable to write the MSL store log.", e);
+            }
+            committed = target;
+            logSize += data.length;
+            ++commitCount;
+            compact = logSize > Math.max(compactionMinimum, snapshotSize);
+        }
+
+        if (compact) {
+            try {
+                compact();
+            } catch (final IOException e) {
+                throw new MslInternalException("Unable to compact the MSL store.", e);
+            }
+        }
+    }
+
+    /**
+     * <p>Write the current state to a new snapshot and restart the log.</p>
+     *
+     * <p>The new snapshot and empty log are written under the next
+     * generation before the snapshot is atomically renamed into place. If
+     * this is interrupted, recovery uses the previous generation.</p>
+     *
+     * @throws IOException if the snapshot or log cannot be written.
+     */
+    public synchronized void compact() throws IOException {
+        synchronized (commitLock) {
+            final long next = generation + 1;
+            final File tmp = new File(directory, SNAPSHOT_PREFIX + next + TMP_SUFFIX);
+            final FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                final OutputStream out = new BufferedOutputStream(fos);
+                MslStoreSnapshot.write(store, out);
+                out.flush();
+                fos.getChannel().force(true);
+            } finally {
+                fos.close();
+            }
+            final FileChannel nextLog = openLog(logFile(next), 0);
+            try {
+                Files.move(tmp.toPath(), snapshotFile(next).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException e) {
+                nextLog.close();
+                logFile(next).delete();
+                throw e;
+            }
+
+            // Pending changes are included in the snapshot.
+            synchronized (pending) {
+                pending.reset();
+                committed = appended;
+            }
+            log.close();
+            snapshotFile(generation).delete();
+            logFile(generation).delete();
+            generation = next;
+            log = nextLog;
+            logSize = log.size();
+            snapshotSize = snapshotFile(next).length();
+            ++compactionCount;
+        }
+    }
+
+    /**
+     * <p>Close the log. The store must not be changed afterwards.</p>
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (commitLock) {
+            log.close();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#setCryptoContext(com.netflix.msl.tokens.MasterToken, com.netflix.msl.crypto.ICryptoContext)
+     */
+    @Override
+    public void setCryptoContext(final MasterToken masterToken, final ICryptoContext cryptoContext) {
+        final long sequence;
+        synchronized (this) {
+            synchronized (pending) {
+                try {
+                    writer.setCryptoContext(masterToken, cryptoContext);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+            store.setCryptoContext(masterToken, cryptoContext);
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getMasterToken()
+     */
+    @Override
+    public MasterToken getMasterToken() {
+        return store.getMasterToken();
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getNonReplayableId(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public long getNonReplayableId(final MasterToken masterToken) {
+        final long id;
+        final long sequence;
+        synchronized (this) {
+            id = store.getNonReplayableId(masterToken);
+            synchronized (pending) {
+                try {
+                    writer.setNonReplayableId(masterToken.getSerialNumber(), id);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+        return id;
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getCryptoContext(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public ICryptoContext getCryptoContext(final MasterToken masterToken) {
+        return store.getCryptoContext(masterToken);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#removeCryptoContext(com.netflix.msl.tokens.MasterToken)
+     */
+    @Override
+    public void removeCryptoContext(final MasterToken masterToken) {
+        final long sequence;
+        synchronized (this) {
+            store.removeCryptoContext(masterToken);
+            synchronized (pending) {
+                try {
+                    writer.removeCryptoContext(masterToken);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#clearCryptoContexts()
+     */
+    @Override
+    public void clearCryptoContexts() {
+        final long sequence;
+        synchronized (this) {
+            store.clearCryptoContexts();
+            synchronized (pending) {
+                try {
+                    writer.clearCryptoContexts();
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#addUserIdToken(java.lang.String, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public void addUserIdToken(final String userId, final UserIdToken userIdToken) throws MslException {
+        final long sequence;
+        synchronized (this) {
+            store.addUserIdToken(userId, userIdToken);
+            synchronized (pending) {
+                try {
+                    writer.addUserIdToken(userId, userIdToken);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getUserIdToken(java.lang.String)
+     */
+    @Override
+    public UserIdToken getUserIdToken(final String userId) {
+        return store.getUserIdToken(userId);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#removeUserIdToken(com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public void removeUserIdToken(final UserIdToken userIdToken) {
+        final long sequence;
+        synchronized (this) {
+            store.removeUserIdToken(userIdToken);
+            synchronized (pending) {
+                try {
+                    writer.removeUserIdToken(userIdToken);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#clearUserIdTokens()
+     */
+    @Override
+    public void clearUserIdTokens() {
+        final long sequence;
+        synchronized (this) {
+            store.clearUserIdTokens();
+            synchronized (pending) {
+                try {
+                    writer.clearUserIdTokens();
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#addServiceTokens(java.util.Set)
+     */
+    @Override
+    public void addServiceTokens(final Set<ServiceToken> tokens) throws MslException {
+        final long sequence;
+        synchronized (this) {
+            store.addServiceTokens(tokens);
+            synchronized (pending) {
+                try {
+                    writer.addServiceTokens(tokens);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getServiceTokens(com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public Set<ServiceToken> getServiceTokens(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        return store.getServiceTokens(masterToken, userIdToken);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getServiceTokenView(com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public Set<ServiceToken> getServiceTokenView(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        return store.getServiceTokenView(masterToken, userIdToken);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#removeServiceTokens(java.lang.String, com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public void removeServiceTokens(final String name, final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        final long sequence;
+        synchronized (this) {
+            store.removeServiceTokens(name, masterToken, userIdToken);
+            synchronized (pending) {
+                try {
+                    writer.removeServiceTokens(name, masterToken, userIdToken);
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#clearServiceTokens()
+     */
+    @Override
+    public void clearServiceTokens() {
+        final long sequence;
+        synchronized (this) {
+            store.clearServiceTokens();
+            synchronized (pending) {
+                try {
+                    writer.clearServiceTokens();
+                } catch (final IOException e) {
+                    throw new MslInternalException("Unable to write the MSL store log.", e);
+                }
+                sequence = ++appended;
+            }
+        }
+        commit(sequence);
+    }
+
+    /**
+     * @return the current log size in bytes.
+     */
+    public long getLogSize() {
+        synchronized (commitLock) {
+            return logSize;
+        }
+    }
+
+    /**
+     * @return the number of changes written to the log.
+     */
+    public long getChangeCount() {
+        synchronized (pending) {
+            return appended;
+        }
+    }
+
+    /**
+     * @return the number of log writes and syncs. Each may commit several
+     *         changes.
+     */
+    public long getCommitCount() {
+        synchronized (commitLock) {
+            return commitCount;
+        }
+    }
+
+    /**
+     * @return the number of compactions.
+     */
+    public long getCompactionCount() {
+        synchronized (commitLock) {
+            return compactionCount;
+        }
+    }
+
+    /** Store directory. */
+    private final File directory;
+    /** Minimum log size in bytes before compaction. */
+    private final long compactionMinimum;
+    /** In-memory state. */
+    private final SimpleMslStore store = new SimpleMslStore();
+
+    /** Changes not yet written to the log. Guards the writer and counters. */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /** Change record writer. */
+    private final MslStoreSnapshot.Writer writer;
+    /** Sequence number of the last appended change. */
+    private long appended = 0;
+
+    /** Log write lock. Guards the log and commit state. */
+    private final Object commitLock = new Object();
+    /** Current generation. */
+    private long generation;
+    /** Current log. */
+    private FileChannel log;
+    /** Current log size in bytes. */
+    private long logSize;
+    /** Last snapshot size in bytes. */
+    private long snapshotSize = 0;
+    /** Sequence number of the last committed change. */
+    private long committed = 0;
+    /** Number of log writes. */
+    private long commitCount = 0;
+    /** Number of compactions. */
+    private long compactionCount = 0;
+}
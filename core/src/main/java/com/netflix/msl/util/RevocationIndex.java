@@ -0,0 +1,585 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslMasterTokenException;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.UserIdToken;
+
+/**
+ * <p>A revocation index of entity identities, master token serial numbers
+ * and user ID token serial numbers suitable for implementing
+ * {@link AuthenticationUtils#isEntityRevoked(String)},
+ * {@link com.netflix.msl.tokens.TokenFactory#isMasterTokenRevoked(MslContext, MasterToken)}
+ * and
+ * {@link com.netflix.msl.tokens.TokenFactory#isUserIdTokenRevoked(MslContext, MasterToken, UserIdToken)}.</p>
+ *
+ * <p>Revoked values are held in exact-match sets fronted by a Bloom filter.
+ * Queries never lock: a value the filter has never seen is reported as not
+ * revoked without consulting the exact-match sets, and only possible matches
+ * are confirmed against them. Because a Bloom filter never reports false
+ * negatives the answer is always exact.</p>
+ *
+ * <p>Revocations are added to the current filter immediately. Removed
+ * revocations cannot be cleared from a Bloom filter, so once enough have
+ * been removed, or once the number of revocations exceeds the filter
+ * capacity, a new filter is built and atomically swapped in. Rebuilds run on
+ * the executor provided at construction, or on the modifying thread if there
+ * is none. Queries continue to use the previous filter while a rebuild is in
+ * progress.</p>
+ *
+ * <p>The entire contents of the index can be atomically replaced at runtime
+ * from a compact binary snapshot written by {@link #save(OutputStream)}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class RevocationIndex {
+    /** Snapshot magic number ("MSLR"). */
+    private static final int SNAPSHOT_MAGIC = 0x4d534c52;
+    /** Snapshot format version. */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /** Default Bloom filter false positive probability. */
+    private static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+    /** Minimum Bloom filter capacity. */
+    private static final int MIN_CAPACITY = 1024;
+
+    /** Entity identity hash seed. */
+    private static final long ENTITY_SEED = 0x9e3779b97f4a7c15L;
+    /** Master token serial number hash seed. */
+    private static final long MASTERTOKEN_SEED = 0xc2b2ae3d27d4eb4fL;
+    /** User ID token serial number hash seed. */
+    private static final long USERIDTOKEN_SEED = 0x165667b19e3779f9L;
+
+    /**
+     * Return the 64-bit finalization mix of the provided value.
+     *
+     * @param h the value.
+     * @return the mixed value.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @param identity entity identity.
+     * @return the Bloom filter hash of the entity identity.
+     */
+    private static long hash(final String identity) {
+        long h = ENTITY_SEED;
+        final int length = identity.length();
+        for (int i = 0; i < length; ++i)
+            h = (h ^ identity.charAt(i)) * 0x100000001b3L;
+        return mix(h ^ length);
+    }
+
+    /**
+     * @param seed hash seed.
+     * @param serialNumber token serial number.
+     * @return the Bloom filter hash of the serial number.
+     */
+    private static long hash(final long seed, final long serialNumber) {
+        return mix(seed ^ mix(serialNumber));
+    }
+
+    /**
+     * <p>A fixed-size Bloom filter over 64-bit hashes. Bits may be set
+     * concurrently with membership queries but are never cleared.</p>
+     */
+    private static class BloomFilter {
+        /**
+         * Create a new Bloom filter sized for the specified number of entries
+         * at the specified false positive probability.
+         *
+         * @param capacity expected number of entries.
+         * @param p false positive probability.
+         */
+        public BloomFilter(final int capacity, final double p) {
+            final double ln2 = Math.log(2);
+            final long m = (long)Math.ceil(-capacity * Math.log(p) / (ln2 * ln2));
+            final int words = (int)Math.max(1, Math.min(Integer.MAX_VALUE, (m + 63) / 64));
+            this.capacity = capacity;
+            this.bits = new AtomicLongArray(words);
+            this.size = (long)words * 64;
+            this.k = Math.max(1, (int)Math.round((double)size / capacity * ln2));
+        }
+
+        /**
+         * @param h entry hash.
+         */
+        public void add(final long h) {
+            final long h2 = (h >>> 32) | 1;
+            long combined = h;
+            for (int i = 0; i < k; ++i, combined += h2) {
+                final long bit = (combined & Long.MAX_VALUE) % size;
+                final int word = (int)(bit >>> 6);
+                final long mask = 1L << bit;
+                long current;
+                do {
+                    current = bits.get(word);
+                    if ((current & mask) != 0) break;
+                } while (!bits.compareAndSet(word, current, current | mask));
+            }
+        }
+
+        /**
+         * @param h entry hash.
+         * @return false if the entry was definitely never added.
+         */
+        public boolean mightContain(final long h) {
+            final long h2 = (h >>> 32) | 1;
+            long combined = h;
+            for (int i = 0; i < k; ++i, combined += h2) {
+                final long bit = (combined & Long.MAX_VALUE) % size;
+                if ((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /** Expected number of entries. */
+        public final int capacity;
+        /** Filter bits. */
+        private final AtomicLongArray bits;
+        /** Number of filter bits. */
+        private final long size;
+        /** Number of hash functions. */
+        private final int k;
+    }
+
+    /**
+     * <p>Revocation index state. The sets are only modified while holding
+     * the index lock and the state itself is replaced atomically.</p>
+     */
+    private static class State {
+        /**
+         * @param filter Bloom filter over all revoked values.
+         * @param entities revoked entity identities.
+         * @param masterTokens revoked master token serial numbers.
+         * @param userIdTokens revoked user ID token serial numbers.
+         */
+        public State(final BloomFilter filter, final Set<String> entities, final Set<Long> masterTokens, final Set<Long> userIdTokens) {
+            this.filter = filter;
+            this.entities = entities;
+            this.masterTokens = masterTokens;
+            this.userIdTokens = userIdTokens;
+        }
+
+        /** Bloom filter. */
+        public final BloomFilter filter;
+        /** Revoked entity identities. */
+        public final Set<String> entities;
+        /** Revoked master token serial numbers. */
+        public final Set<Long> masterTokens;
+        /** Revoked user ID token serial numbers. */
+        public final Set<Long> userIdTokens;
+    }
+
+    /**
+     * @return a new empty concurrent set.
+     */
+    private static <T> Set<T> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<T,Boolean>());
+    }
+
+    /**
+     * Create a new Bloom filter containing all of the provided values and
+     * sized for the current number of values.
+     *
+     * @param entities entity identities.
+     * @param masterTokens master token serial numbers.
+     * @param userIdTokens user ID token serial numbers.
+     * @param p false positive probability.
+     * @return the new Bloom filter.
+     */
+    private static BloomFilter build(final Set<String> entities, final Set<Long> masterTokens, final Set<Long> userIdTokens, final double p) {
+        final long count = (long)entities.size() + masterTokens.size() + userIdTokens.size();
+        final int capacity = (int)Math.min(Integer.MAX_VALUE / 2, Math.max(MIN_CAPACITY, 2 * count));
+        final BloomFilter filter = new BloomFilter(capacity, p);
+        for (final String identity : entities)
+            filter.add(hash(identity));
+        for (final Long serialNumber : masterTokens)
+            filter.add(hash(MASTERTOKEN_SEED, serialNumber.longValue()));
+        for (final Long serialNumber : userIdTokens)
+            filter.add(hash(USERIDTOKEN_SEED, serialNumber.longValue()));
+        return filter;
+    }
+
+    /**
+     * Create a new empty revocation index with the default false positive
+     * probability that rebuilds its filter on the modifying thread.
+     */
+    public RevocationIndex() {
+        this(DEFAULT_FALSE_POSITIVE_PROBABILITY, null);
+    }
+
+    /**
+     * Create a new empty revocation index.
+     *
+     * @param p Bloom filter false positive probability. Must be greater
+     *        than zero and less than one.
+     * @param executor executor for background filter rebuilds. May be
+     *        {@code null} to rebuild on the modifying thread.
+     */
+    public RevocationIndex(final double p, final Executor executor) {
+        if (!(p > 0 && p < 1))
+            throw new IllegalArgumentException("False positive probability " + p + " is not between zero and one.");
+        this.p = p;
+        this.executor = executor;
+        final Set<String> entities = newSet();
+        final Set<Long> masterTokens = newSet();
+        final Set<Long> userIdTokens = newSet();
+        this.state = new State(build(entities, masterTokens, userIdTokens, p), entities, masterTokens, userIdTokens);
+    }
+
+    /**
+     * @param identity entity identity.
+     * @return true if the entity identity has been revoked.
+     */
+    public boolean isEntityRevoked(final String identity) {
+        final State s = state;
+        if (!s.filter.mightContain(hash(identity)))
+            return false;
+        return s.entities.contains(identity);
+    }
+
+    /**
+     * @param serialNumber master token serial number.
+     * @return true if the master token serial number has been revoked.
+     */
+    public boolean isMasterTokenRevoked(final long serialNumber) {
+        final State s = state;
+        if (!s.filter.mightContain(hash(MASTERTOKEN_SEED, serialNumber)))
+            return false;
+        return s.masterTokens.contains(serialNumber);
+    }
+
+    /**
+     * @param serialNumber user ID token serial number.
+     * @return true if the user ID token serial number has been revoked.
+     */
+    public boolean isUserIdTokenRevoked(final long serialNumber) {
+        final State s = state;
+        if (!s.filter.mightContain(hash(USERIDTOKEN_SEED, serialNumber)))
+            return false;
+        return s.userIdTokens.contains(serialNumber);
+    }
+
+    /**
+     * <p>Check if the master token has been revoked, either because its
+     * entity identity has been revoked or because its serial number has been
+     * revoked.</p>
+     *
+     * @param masterToken the master token.
+     * @return {@link MslError#MASTERTOKEN_IDENTITY_REVOKED} if the master
+     *         token entity identity is revoked,
+     *         {@link MslError#MASTERTOKEN_REJECTED_BY_APP} if the master
+     *         token serial number is revoked, or {@code null} if the master
+     *         token is not revoked.
+     * @throws MslMasterTokenException if the master token is not decrypted.
+     * @see com.netflix.msl.tokens.TokenFactory#isMasterTokenRevoked(MslContext, MasterToken)
+     */
+    public MslError isMasterTokenRevoked(final MasterToken masterToken) throws MslMasterTokenException {
+        if (!masterToken.isDecrypted())
+            throw new MslMasterTokenException(MslError.MASTERTOKEN_UNTRUSTED, masterToken);
+        if (isEntityRevoked(masterToken.getIdentity()))
+            return MslError.MASTERTOKEN_IDENTITY_REVOKED;
+        if (isMasterTokenRevoked(masterToken.getSerialNumber()))
+            return MslError.MASTERTOKEN_REJECTED_BY_APP;
+        return null;
+    }
+
+    /**
+     * @param userIdToken the user ID token.
+     * @return {@link MslError#USERIDTOKEN_REVOKED} if the user ID token
+     *         serial number is revoked or {@code null} if it is not revoked.
+     * @see com.netflix.msl.tokens.TokenFactory#isUserIdTokenRevoked(MslContext, MasterToken, UserIdToken)
+     */
+    public MslError isUserIdTokenRevoked(final UserIdToken userIdToken) {
+        if (isUserIdTokenRevoked(userIdToken.getSerialNumber()))
+            return MslError.USERIDTOKEN_REVOKED;
+        return null;
+    }
+
+    /**
+     * Revoke an entity identity.
+     *
+     * @param identity entity identity.
+     */
+    public void revokeEntity(final String identity) {
+        synchronized (lock) {
+            final State s = state;
+            if (s.entities.add(identity)) {
+                s.filter.add(hash(identity));
+                added(s);
+            }
+        }
+    }
+
+    /**
+     * Revoke a master token serial number.
+     *
+     * @param serialNumber master token serial number.
+     */
+    public void revokeMasterToken(final long serialNumber) {
+        synchronized (lock) {
+            final State s = state;
+            if (s.masterTokens.add(serialNumber)) {
+                s.filter.add(hash(MASTERTOKEN_SEED, serialNumber));
+                added(s);
+            }
+        }
+    }
+
+    /**
+     * Revoke a user ID token serial number.
+     *
+     * @param serialNumber user ID token serial number.
+     */
+    public void revokeUserIdToken(final long serialNumber) {
+        synchronized (lock) {
+            final State s = state;
+            if (s.userIdTokens.add(serialNumber)) {
+                s.filter.add(hash(USERIDTOKEN_SEED, serialNumber));
+                added(s);
+            }
+        }
+    }
+
+    /**
+     * Remove an entity identity revocation.
+     *
+     * @param identity entity identity.
+     */
+    public void unrevokeEntity(final String identity) {
+        synchronized (lock) {
+            final State s = state;
+            if (s.entities.remove(identity))
+                removed(s);
+        }
+    }
+
+    /**
+     * Remove a master token serial number revocation.
+     *
+     * @param serialNumber master token serial number.
+     */
+    public void unrevokeMasterToken(final long serialNumber) {
+        synchronized (lock) {
+            final State s = state;
+            if (s.masterTokens.remove(serialNumber))
+                removed(s);
+        }
+    }
+
+    /**
+     * Remove a user ID token serial number revocation.
+     *
+     * @param serialNumber user ID token serial number.
+     */
+    public void unrevokeUserIdToken(final long serialNumber) {
+        synchronized (lock) {
+            final State s = state;
+            if (s.userIdTokens.remove(serialNumber))
+                removed(s);
+        }
+    }
+
+    /**
+     * @return the total number of revoked entity identities, master token
+     *         serial numbers and user ID token serial numbers.
+     */
+    public int size() {
+        final State s = state;
+        return s.entities.size() + s.masterTokens.size() + s.userIdTokens.size();
+    }
+
+    /**
+     * <p>Called while holding the lock after a value has been added.
+     * Schedules a rebuild if the filter capacity has been exceeded.</p>
+     *
+     * @param s the current state.
+     */
+    private void added(final State s) {
+        if (s.entities.size() + s.masterTokens.size() + s.userIdTokens.size() > s.filter.capacity)
+            scheduleRebuild();
+    }
+
+    /**
+     * <p>Called while holding the lock after a value has been removed.
+     * Schedules a rebuild if the number of stale filter entries has grown
+     * beyond half the filter capacity.</p>
+     *
+     * @param s the current state.
+     */
+    private void removed(final State s) {
+        if (++removals > s.filter.capacity / 2)
+            scheduleRebuild();
+    }
+
+    /**
+     * Rebuild the filter on the executor or, if there is no executor, on the
+     * calling thread. At most one rebuild is pending at any time.
+     */
+    private void scheduleRebuild() {
+        if (!rebuildPending.compareAndSet(false, true))
+            return;
+        final Runnable rebuild = new Runnable() {
+            @Override
+            public void run() {
+                rebuildPending.set(false);
+                rebuild();
+            }
+        };
+        if (executor != null)
+            executor.execute(rebuild);
+        else
+            rebuild.run();
+    }
+
+    /**
+     * <p>Build a new filter sized for the current revocations and atomically
+     * swap it in. Modifications wait until the rebuild completes but queries
+     * are not blocked.</p>
+     */
+    public void rebuild() {
+        synchronized (lock) {
+            final State s = state;
+            final BloomFilter filter = build(s.entities, s.masterTokens, s.userIdTokens, p);
+            state = new State(filter, s.entities, s.masterTokens, s.userIdTokens);
+            removals = 0;
+        }
+    }
+
+    /**
+     * <p>Atomically replace the contents of this index with the revocations
+     * found in a snapshot previously written by {@link #save(OutputStream)}.
+     * If the snapshot cannot be read the index is left unchanged.</p>
+     *
+     * <p>The input stream is not closed.</p>
+     *
+     * @param in snapshot input stream.
+     * @throws IOException if there is an error reading the snapshot or the
+     *         snapshot is malformed.
+     */
+    public void load(final InputStream in) throws IOException {
+        final DataInputStream dis = new DataInputStream(in);
+        final int magic = dis.readInt();
+        if (magic != SNAPSHOT_MAGIC)
+            throw new IOException("Revocation snapshot magic number " + Integer.toHexString(magic) + " is not recognized.");
+        final int version = dis.readUnsignedByte();
+        if (version != SNAPSHOT_VERSION)
+            throw new IOException("Revocation snapshot version " + version + " is not supported.");
+
+        final Set<String> entities = newSet();
+        final Set<Long> masterTokens = newSet();
+        final Set<Long> userIdTokens = newSet();
+        final int entityCount = readCount(dis);
+        for (int i = 0; i < entityCount; ++i)
+            entities.add(dis.readUTF());
+        final int masterTokenCount = readCount(dis);
+        for (int i = 0; i < masterTokenCount; ++i)
+            masterTokens.add(dis.readLong());
+        final int userIdTokenCount = readCount(dis);
+        for (int i = 0; i < userIdTokenCount; ++i)
+            userIdTokens.add(dis.readLong());
+
+        // Build the filter before taking the lock.
+        final BloomFilter filter = build(entities, masterTokens, userIdTokens, p);
+        synchronized (lock) {
+            state = new State(filter, entities, masterTokens, userIdTokens);
+            removals = 0;
+        }
+    }
+
+    /**
+     * @param dis snapshot input stream.
+     * @return the next section count.
+     * @throws IOException if there is an error reading the count or the
+     *         count is negative.
+     */
+    private static int readCount(final DataInputStream dis) throws IOException {
+        final int count = dis.readInt();
+        if (count < 0)
+            throw new IOException("Revocation snapshot count " + count + " is negative.");
+        return count;
+    }
+
+    /**
+     * <p>Write a compact binary snapshot of the current revocations. The
+     * snapshot contains a magic number and version followed by the revoked
+     * entity identities, master token serial numbers and user ID token
+     * serial numbers, each section prefixed by its count.</p>
+     *
+     * <p>The output stream is flushed but not closed.</p>
+     *
+     * @param out snapshot output stream.
+     * @throws IOException if there is an error writing the snapshot.
+     */
+    public void save(final OutputStream out) throws IOException {
+        // Hold the lock so the snapshot is consistent and the counts match
+        // the values written.
+        synchronized (lock) {
+            final State s = state;
+            final DataOutputStream dos = new DataOutputStream(out);
+            dos.writeInt(SNAPSHOT_MAGIC);
+            dos.writeByte(SNAPSHOT_VERSION);
+            dos.writeInt(s.entities.size());
+            for (final String identity : s.entities)
+                dos.writeUTF(identity);
+            dos.writeInt(s.masterTokens.size());
+            for (final Long serialNumber : s.masterTokens)
+                dos.writeLong(serialNumber.longValue());
+            dos.writeInt(s.userIdTokens.size());
+            for (final Long serialNumber : s.userIdTokens)
+                dos.writeLong(serialNumber.longValue());
+            dos.flush();
+        }
+    }
+
+    /** Bloom filter false positive probability. */
+    private final double p;
+    /** Background rebuild executor. May be null. */
+    private final Executor executor;
+    /** Modification lock. */
+    private final Object lock = new Object();
+    /** Current state. */
+    private volatile State state;
+    /** Removals since the last rebuild. Guarded by the lock. */
+    private int removals = 0;
+    /** True if a rebuild has been scheduled but not started. */
+    private final AtomicBoolean rebuildPending = new AtomicBoolean(false);
+}
@@ -15,7 +15,9 @@
  */
 package com.netflix.msl.util;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -36,11 +38,21 @@ import com.netflix.msl.tokens.UserIdToken;
 /**
  * <p>A simple MSL store that maintains state.</p>
  * 
+ * <p>The unmodifiable service token view of a master token and user ID
+ * token is only rebuilt after the service tokens change. The service token
+ * version can be used to detect those changes. All views are discarded when
+ * service tokens are added or removed, which includes removing a master
+ * token or user ID token, and at most {@link #MAX_SERVICE_TOKEN_VIEWS} views
+ * are retained.</p>
+ * 
  * <p>This class is thread-safe.</p>
  * 
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
 public class SimpleMslStore implements MslStore {
+    /** Maximum number of retained service token views. */
+    public static final int MAX_SERVICE_TOKEN_VIEWS = 256;
+    
     /**
      * Increments the provided non-replayable ID by 1, wrapping around to zero
      * if the provided value is equal to {@link MslConstants#MAX_LONG_VALUE}.
@@ -146,6 +158,7 @@ public class SimpleMslStore implements MslStore {
         userIdTokens.clear();
         uitServiceTokens.clear();
         mtServiceTokens.clear();
+        serviceTokensChanged();
     }
     
     /* (non-Javadoc)
@@ -161,7 +174,7 @@ public class SimpleMslStore implements MslStore {
             }
         }
         if (!foundMasterToken)
-            throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_NOT_FOUND, "uit mtserialnumber " + userIdToken.getMasterTokenSerialNumber());
+            throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_NOT_FOUND, "uit mtserialnumber", userIdToken.getMasterTokenSerialNumber());
         userIdTokens.put(userId, userIdToken);
     }
 
@@ -227,6 +240,7 @@ public class SimpleMslStore implements MslStore {
      */
     @Override
     public synchronized void addServiceTokens(final Set<ServiceToken> tokens) throws MslException {
+        serviceTokensChanged();
         // Verify we recognize the bound service tokens.
         for (final ServiceToken token : tokens) {
             // Verify master token bound.
@@ -239,7 +253,7 @@ public class SimpleMslStore implements MslStore {
                     }
                 }
                 if (!foundMasterToken)
-                    throw new MslException(MslError.SERVICETOKEN_MASTERTOKEN_NOT_FOUND, "st mtserialnumber " + token.getMasterTokenSerialNumber());
+                    throw new MslException(MslError.SERVICETOKEN_MASTERTOKEN_NOT_FOUND, "st mtserialnumber", token.getMasterTokenSerialNumber());
             }
             
             // Verify user token bound.
@@ -252,7 +266,7 @@ public class SimpleMslStore implements MslStore {
                     }
                 }
                 if (!foundUserIdToken)
-                    throw new MslException(MslError.SERVICETOKEN_USERIDTOKEN_NOT_FOUND, "st uitserialnumber " + token.getUserIdTokenSerialNumber());
+                    throw new MslException(MslError.SERVICETOKEN_USERIDTOKEN_NOT_FOUND, "st uitserialnumber", token.getUserIdTokenSerialNumber());
             }
         }
         
@@ -291,6 +305,14 @@ public class SimpleMslStore implements MslStore {
      */
     @Override
     public synchronized Set<ServiceToken> getServiceTokens(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        return new HashSet<ServiceToken>(getServiceTokenView(masterToken, userIdToken));
+    }
+    
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.MslStore#getServiceTokenView(com.netflix.msl.tokens.MasterToken, com.netflix.msl.tokens.UserIdToken)
+     */
+    @Override
+    public synchronized Set<ServiceToken> getServiceTokenView(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
         // Validate arguments.
         if (userIdToken != null) {
             if (masterToken == null)
@@ -299,6 +321,12 @@ public class SimpleMslStore implements MslStore {
                 throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_MISMATCH, "uit mtserialnumber " + userIdToken.getMasterTokenSerialNumber() + "; mt " + masterToken.getSerialNumber());
         }
         
+        // Return the current view if we have one.
+        final String key = ((masterToken != null) ? masterToken.getSerialNumber() : "") + ":" + ((userIdToken != null) ? userIdToken.getSerialNumber() : "");
+        final Set<ServiceToken> view = serviceTokenViews.get(key);
+        if (view != null)
+            return view;
+        
         // Grab service tokens. We start with the set of unbound service
         // tokens.
         final Set<ServiceToken> serviceTokens = new HashSet<ServiceToken>();
@@ -327,7 +355,36 @@ public class SimpleMslStore implements MslStore {
             }
         }
 
-        return serviceTokens;
+        // Views of pairs that are never removed from the store, such as peer
+        // tokens, would otherwise accumulate until the service tokens
+        // change.
+        final Set<ServiceToken> newView = Collections.unmodifiableSet(serviceTokens);
+        if (serviceTokenViews.size() >= MAX_SERVICE_TOKEN_VIEWS)
+            serviceTokenViews.clear();
+        serviceTokenViews.put(key, newView);
+        return newView;
+    }
+    
+    /**
+     * <p>Return the service token version. The version changes whenever
+     * service tokens are added to or removed from this store, and therefore
+     * whenever a view returned by
+     * {@link #getServiceTokenView(MasterToken, UserIdToken)} may be
+     * stale.</p>
+     * 
+     * @return the service token version.
+     */
+    public synchronized long getServiceTokenVersion() {
+        return serviceTokenVersion;
+    }
+    
+    /**
+     * Discard the service token views and increment the service token
+     * version. The caller must hold the lock.
+     */
+    private void serviceTokensChanged() {
+        serviceTokenViews.clear();
+        ++serviceTokenVersion;
     }
     
     /* (non-Javadoc)
@@ -341,6 +398,7 @@ public class SimpleMslStore implements MslStore {
         {
             throw new MslException(MslError.USERIDTOKEN_MASTERTOKEN_MISMATCH, "uit mtserialnumber " + userIdToken.getMasterTokenSerialNumber() + "; mt " + masterToken.getSerialNumber());
         }
+        serviceTokensChanged();
         
         // If only a name was provided remove all tokens with that name.
         if (name != null && masterToken == null && userIdToken == null) {
@@ -468,6 +526,58 @@ public class SimpleMslStore implements MslStore {
         unboundServiceTokens.clear();
         mtServiceTokens.clear();
         uitServiceTokens.clear();
+        serviceTokensChanged();
+    }
+    
+    /**
+     * @return the master tokens with crypto contexts. Used to restore a
+     *         snapshot.
+     */
+    Set<MasterToken> getMasterTokens() {
+        return new HashSet<MasterToken>(cryptoContexts.keySet());
+    }
+    
+    /**
+     * @return the user ID tokens. Used to restore a snapshot.
+     */
+    Set<UserIdToken> getUserIdTokens() {
+        return new HashSet<UserIdToken>(userIdTokens.values());
+    }
+    
+    /**
+     * <p>Set the largest non-replayable ID issued for a master token serial
+     * number. Used to restore a snapshot.</p>
+     * 
+     * @param serialNumber master token serial number.
+     * @param id the largest non-replayable ID.
+     */
+    synchronized void setNonReplayableId(final long serialNumber, final long id) {
+        nonReplayableIds.put(serialNumber, id);
+    }
+    
+    /**
+     * <p>Write the current state of this store as snapshot records.</p>
+     * 
+     * @param writer the snapshot writer.
+     * @throws IllegalArgumentException if a crypto context is not a
+     *         symmetric crypto context.
+     * @throws IOException if there is an error writing the records.
+     */
+    synchronized void snapshot(final MslStoreSnapshot.Writer writer) throws IOException {
+        for (final Entry<MasterToken,ICryptoContext> entry : cryptoContexts.entrySet())
+            writer.setCryptoContext(entry.getKey(), entry.getValue());
+        for (final Entry<Long,Long> entry : nonReplayableIds.entrySet())
+            writer.setNonReplayableId(entry.getKey(), entry.getValue());
+        for (final Entry<String,UserIdToken> entry : userIdTokens.entrySet())
+            writer.addUserIdToken(entry.getKey(), entry.getValue());
+        
+        final Set<ServiceToken> serviceTokens = new HashSet<ServiceToken>(unboundServiceTokens);
+        for (final Set<ServiceToken> tokenSet : mtServiceTokens.values())
+            serviceTokens.addAll(tokenSet);
+        for (final Set<ServiceToken> tokenSet : uitServiceTokens.values())
+            serviceTokens.addAll(tokenSet);
+        if (!serviceTokens.isEmpty())
+            writer.addServiceTokens(serviceTokens);
     }
     
     /** Map of master tokens onto crypto contexts. */
@@ -484,4 +594,8 @@ public class SimpleMslStore implements MslStore {
     private final Map<Long,Set<ServiceToken>> mtServiceTokens = new HashMap<Long,Set<ServiceToken>>();
     /** Map of user ID token serial numbers onto service tokens. */
     private final Map<Long,Set<ServiceToken>> uitServiceTokens = new HashMap<Long,Set<ServiceToken>>();
+    /** Map of master token and user ID token serial numbers onto service token views. */
+    private final Map<String,Set<ServiceToken>> serviceTokenViews = new HashMap<String,Set<ServiceToken>>();
+    /** Service token version. */
+    private long serviceTokenVersion = 0;
 }
@@ -15,25 +15,18 @@
  */
 package kancolle.keyx;
 
-import java.math.BigInteger;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-
-import javax.crypto.interfaces.DHPrivateKey;
-import javax.crypto.interfaces.DHPublicKey;
-import javax.crypto.spec.DHParameterSpec;
-
-import com.netflix.msl.MslInternalException;
 import com.netflix.msl.MslKeyExchangeException;
 import com.netflix.msl.keyx.DiffieHellmanExchange.RequestData;
 import com.netflix.msl.keyx.DiffieHellmanParameters;
+import com.netflix.msl.keyx.DiffieHellmanRequestPool;
 
 /**
  * <p>Shared Diffie-Hellman instance to minimize key exchange overhead. New key
  * request data should be generated after every successful key exchange.</p>
  * 
+ * <p>Request data is taken from a {@link DiffieHellmanRequestPool} so new
+ * request data is usually available without waiting for key generation.</p>
+ * 
  * <p>This class is thread-safe.</p>
  * 
  * @author Wesley Miaw <wmiaw@netflix.com>
@@ -44,13 +37,21 @@ public class DiffieHellmanManager {
      * @param paramId the ID of the Diffie-Hellman parameters to use.
      */
     public DiffieHellmanManager(DiffieHellmanParameters params, final String paramId) {
-        this.params = params;
+        this(new DiffieHellmanRequestPool(params), paramId);
+    }
+    
+    /**
+     * @param pool Diffie-Hellman request data pool.
+     * @param paramId the ID of the Diffie-Hellman parameters to use.
+     */
+    public DiffieHellmanManager(final DiffieHellmanRequestPool pool, final String paramId) {
+        this.pool = pool;
         this.paramId = paramId;
     }
     
     /**
      * <p>Return the current Diffie-Hellman key exchange request data. If no
-     * request data exists new data is generated.</p>
+     * request data exists new data is taken from the pool.</p>
      * 
      * @return the Diffie-Hellman request data.
      * @throws MslKeyExchangeException if there is an error accessing the
@@ -58,29 +59,15 @@ public class DiffieHellmanManager {
      * @see #clearRequest()
      */
     public synchronized RequestData getRequestData() throws MslKeyExchangeException {
-        // Generate new request data if necessary.
-        if (request == null) {
-            final DHParameterSpec paramSpec = params.getParameterSpec(paramId);
-            final KeyPairGenerator generator;
-            try {
-                generator = KeyPairGenerator.getInstance("DH");
-                generator.initialize(paramSpec);
-            } catch (final NoSuchAlgorithmException e) {
-                throw new MslInternalException("Diffie-Hellman algorithm not found.", e);
-            } catch (final InvalidAlgorithmParameterException e) {
-                throw new MslInternalException("Diffie-Hellman algorithm parameters rejected by Diffie-Hellman key agreement.", e);
-            }
-            final KeyPair requestKeyPair = generator.generateKeyPair();
-            final BigInteger publicKey = ((DHPublicKey)requestKeyPair.getPublic()).getY();
-            final DHPrivateKey privateKey = (DHPrivateKey)requestKeyPair.getPrivate();
-            request = new RequestData(KanColleDiffieHellmanParameters.PARAM_ID, publicKey, privateKey);
-        }
+        // Take new request data if necessary.
+        if (request == null)
+            request = pool.getRequestData(paramId);
         return request;
     }
     
     /**
      * <p>Clear the current Diffie-Hellman key exchange request data. The next
-     * call to {@link #getRequestData()} will generate new request data.</p>
+     * call to {@link #getRequestData()} will return new request data.</p>
      * 
      * @see #getRequestData()
      */
@@ -88,8 +75,8 @@ public class DiffieHellmanManager {
         request = null;
     }
     
-    /** The Diffie-Hellman parameters. */
-    private final DiffieHellmanParameters params;
+    /** The Diffie-Hellman request data pool. */
+    private final DiffieHellmanRequestPool pool;
     /** The Diffie-Hellman parameters ID to use. */
     private final String paramId;
     
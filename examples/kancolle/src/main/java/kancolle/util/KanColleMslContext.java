@@ -15,7 +15,6 @@
  */
 package kancolle.util;
 
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,6 +40,7 @@ import kancolle.userauth.OfficerAuthenticationFactory;
 import kancolle.userauth.OfficerDatabase;
 
 import com.netflix.msl.MslConstants.CompressionAlgorithm;
+import com.netflix.msl.crypto.RandomSource;
 import com.netflix.msl.entityauth.EntityAuthenticationFactory;
 import com.netflix.msl.entityauth.EntityAuthenticationScheme;
 import com.netflix.msl.keyx.AsymmetricWrappedExchange;
@@ -108,7 +108,7 @@ public abstract class KanColleMslContext extends MslContext {
      */
     @Override
     public Random getRandom() {
-        return new SecureRandom();
+        return random;
     }
 
     /* (non-Javadoc)
@@ -215,4 +215,6 @@ public abstract class KanColleMslContext extends MslContext {
     private final TokenFactory tokenFactory;
     /** MSL store. */
     private final MslStore store = new SimpleMslStore();
+    /** Random number generator. */
+    private final Random random = new RandomSource();
 }
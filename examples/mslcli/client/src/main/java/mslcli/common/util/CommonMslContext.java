@@ -16,7 +16,6 @@
 
 package mslcli.common.util;
 
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -30,6 +29,7 @@ import mslcli.common.MslConfig;
 import com.netflix.msl.MslConstants.CompressionAlgorithm;
 import com.netflix.msl.MslCryptoException;
 import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.RandomSource;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.entityauth.EntityAuthenticationFactory;
 import com.netflix.msl.entityauth.EntityAuthenticationScheme;
@@ -99,7 +99,7 @@ public abstract class CommonMslContext extends MslContext {
      */
     @Override
     public final Random getRandom() {
-        return new SecureRandom();
+        return random;
     }
 
     /* (non-Javadoc)
@@ -231,4 +231,6 @@ public abstract class CommonMslContext extends MslContext {
     private final Set<UserAuthenticationFactory> userAuthFactories;
     /** key exchange factories */
     private final SortedSet<KeyExchangeFactory> keyxFactories;
+    /** random number generator */
+    private final Random random = new RandomSource();
 }
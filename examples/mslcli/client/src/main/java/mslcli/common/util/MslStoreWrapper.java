@@ -157,6 +157,14 @@ public class MslStoreWrapper implements MslStore {
         return mslStore.getServiceTokens(masterToken, userIdToken);
     }
 
+    /**
+     * @see com.netflix.msl.util.MslStore#getServiceTokenView(MasterToken,UserIdToken)
+     */
+    @Override
+    public Set<ServiceToken> getServiceTokenView(final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        return mslStore.getServiceTokenView(masterToken, userIdToken);
+    }
+
     /**
      * @see com.netflix.msl.util.MslStore#removeServiceTokens(String,MasterToken,UserIdToken)
      */
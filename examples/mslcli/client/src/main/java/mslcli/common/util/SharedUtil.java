@@ -64,6 +64,7 @@ import com.netflix.msl.userauth.UserAuthenticationScheme;
 import com.netflix.msl.util.Base64;
 import com.netflix.msl.util.MslContext;
 import com.netflix.msl.util.MslStore;
+import com.netflix.msl.util.MslStoreSnapshot;
 import com.netflix.msl.util.SimpleMslStore;
 
 import mslcli.common.Triplet;
@@ -402,20 +403,20 @@ public final class SharedUtil {
      * @throws MslEncodingException
      */
     public static byte[] marshalMslStore(final SimpleMslStore mslStore) throws IOException, MslEncodingException {
-        return MslStoreData.serialize(mslStore);
+        return MslStoreSnapshot.snapshot(mslStore);
     }
 
     /**
-     * Serialize MslStore
+     * Deserialize MslStore
      *
      * @param mslStoreData MslStore blob
-     * @return serialized MslStore
+     * @return deserialized MslStore
      * @throws IOException
      * @throws MslEncodingException
      * @throws MslException
      */
     public static MslStore unmarshalMslStore(final byte[] mslStoreData) throws IOException, MslEncodingException, MslException {
-        return MslStoreData.deserialize(mslStoreData, new DummyMslContext());
+        return MslStoreSnapshot.restore(new DummyMslContext(), mslStoreData);
     }
 
     /**
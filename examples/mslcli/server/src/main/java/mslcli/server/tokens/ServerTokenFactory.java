@@ -40,6 +40,7 @@ import com.netflix.msl.MslUserIdTokenException;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.tokens.MasterToken;
 import com.netflix.msl.tokens.MslUser;
+import com.netflix.msl.tokens.NonReplayableIdAcceptor;
 import com.netflix.msl.tokens.TokenFactory;
 import com.netflix.msl.tokens.UserIdToken;
 import com.netflix.msl.util.JsonUtils;
@@ -55,8 +56,6 @@ public class ServerTokenFactory implements TokenFactory {
     private final int renewalOffset;
     /** Master Token Expiration offset in milliseconds. */
     private final int expirationOffset;
-    /** Master Token Non-replayable ID acceptance window. */
-    private final long nonReplayIdWindow;
     /** Master Token max number of lost tokens still allowed for renewal */
     private final long maxSkipped;
 
@@ -82,7 +81,8 @@ public class ServerTokenFactory implements TokenFactory {
         this.appCtx = appCtx;
         this.renewalOffset = appCtx.getProperties().getMasterTokenRenewalOffset();
         this.expirationOffset = appCtx.getProperties().getMasterTokenExpirationOffset();
-        this.nonReplayIdWindow = appCtx.getProperties().getMasterTokenNonReplayIdWindow();
+        this.nonReplayableIds = new NonReplayableIdAcceptor(appCtx.getProperties().getMasterTokenNonReplayIdWindow(),
+            NonReplayableIdAcceptor.DEFAULT_WINDOW_SIZE, NonReplayableIdAcceptor.DEFAULT_IDLE_TIMEOUT);
         this.maxSkipped = appCtx.getProperties().getMasterTokenMaxSkipped();
         this.uitRenewalOffset = appCtx.getProperties().getUserIdTokenRenewalOffset();
         this.uitExpirationOffset = appCtx.getProperties().getUserIdTokenExpirationOffset();
@@ -132,50 +132,10 @@ public class ServerTokenFactory implements TokenFactory {
      */
     @Override
     public MslError acceptNonReplayableId(final MslContext ctx, final MasterToken masterToken, final long nonReplayableId) throws MslException {
-        synchronized (nonReplayableIdsLock) {
-        if (!masterToken.isDecrypted())
-            throw new MslMasterTokenException(MslError.MASTERTOKEN_UNTRUSTED, masterToken);
-        if (nonReplayableId < 0 || nonReplayableId > MslConstants.MAX_LONG_VALUE)
-            throw new MslException(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE, "nonReplayableId " + nonReplayableId);
-        
-        // Accept if there is no non-replayable ID.
-        final String key = masterToken.getIdentity() + ":" + masterToken.getSerialNumber();
-        final Long storedNonReplayableId = nonReplayableIds.putIfAbsent(key, nonReplayableId);
-        if (storedNonReplayableId == null) {
-            appCtx.info(String.format("%s: %s: First Non-Replayable ID %d", this, key, nonReplayableId));
-            return null;
-        }
-
-        // Reject if the non-replayable ID is equal or just a few messages
-        // behind. The sender can recover by incrementing.
-        final long catchupWindow = MslConstants.MAX_MESSAGES / 2;
-        if (nonReplayableId <= storedNonReplayableId &&
-            nonReplayableId > storedNonReplayableId - catchupWindow)
-        {
-            return MslError.MESSAGE_REPLAYED;
-        }
-
-        // Reject if the non-replayable ID is larger by more than the
-        // acceptance window. The sender cannot recover quickly.
-        if (nonReplayableId - nonReplayIdWindow > storedNonReplayableId)
-            return MslError.MESSAGE_REPLAYED_UNRECOVERABLE;
-        
-        // If the non-replayable ID is smaller reject it if it is outside the
-        // wrap-around window. The sender cannot recover quickly.
-        if (nonReplayableId < storedNonReplayableId) {
-            final long cutoff = storedNonReplayableId - MslConstants.MAX_LONG_VALUE + nonReplayIdWindow;
-            if (nonReplayableId >= cutoff)
-                return MslError.MESSAGE_REPLAYED_UNRECOVERABLE;
-        }
-        
-        // Accept the non-replayable ID.
-        //
-        // This is not perfect, since it's possible a smaller value will
-        // overwrite a larger value, but it's good enough for the example.
-        nonReplayableIds.put(key, nonReplayableId);
-        appCtx.info(String.format("%s: %s: Update Non-Replayable ID %d", this, key, nonReplayableId));
-        return null;
-        } // synchronized (nonReplayableIdsLock)
+        final MslError error = nonReplayableIds.accept(ctx, masterToken, nonReplayableId);
+        if (error == null)
+            appCtx.info(String.format("%s: %s:%d: Accepted Non-Replayable ID %d", this, masterToken.getIdentity(), masterToken.getSerialNumber(), nonReplayableId));
+        return error;
     }
 
     /* (non-Javadoc)
@@ -309,10 +269,8 @@ public class ServerTokenFactory implements TokenFactory {
 
     /** Map of entity identities onto sequence numbers. */
     private final ConcurrentHashMap<String,SeqNumPair> mtSequenceNumbers = new ConcurrentHashMap<String,SeqNumPair>();
-    /** Map of entity identities and serial numbers onto non-replayable IDs. */
-    private final ConcurrentHashMap<String,Long> nonReplayableIds = new ConcurrentHashMap<String,Long>();
-    /** lock object to sync access to nonReplayableIds */
-    private final Object nonReplayableIdsLock = new Object();
+    /** Non-replayable IDs by master token identity and serial number. */
+    private final NonReplayableIdAcceptor nonReplayableIds;
 
     /**
      * the class to store the latest master token sequence number and the sequence number
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ */
+package com.netflix.msl;
+
+import rx.Scheduler;
+
+/**
+ * <p>A circuit breaker that stops calls to an external service after too many
+ * of its recent calls have failed.</p>
+ *
+ * <p>The outcomes of the most recent calls are kept in a sliding window. Once
+ * the window holds at least the minimum number of calls and the failure rate
+ * reaches the threshold the circuit opens and calls are rejected. After the
+ * open duration a single trial call is allowed through. If it succeeds the
+ * circuit closes, otherwise it opens again.</p>
+ *
+ * <p>Time is taken from the provided {@link Scheduler}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class CircuitBreaker {
+    /** Circuit state. */
+    public static enum State {
+        /** Calls are allowed. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** A single trial call is allowed. */
+        HALF_OPEN,
+    }
+
+    /**
+     * <p>Create a new circuit breaker.</p>
+     *
+     * @param windowSize number of recent calls whose outcomes are kept.
+     * @param minimumCalls minimum number of calls in the window before the
+     *        circuit may open.
+     * @param failureRateThreshold failure rate at or above which the circuit
+     *        opens, between 0 exclusive and 1 inclusive.
+     * @param openDuration time in milliseconds the circuit stays open before
+     *        a trial call is allowed.
+     * @param scheduler time source.
+     * @throws IllegalArgumentException if the window size is not positive,
+     *         the minimum number of calls is not between 1 and the window
+     *         size, the failure rate threshold is out of range, or the open
+     *         duration is negative.
+     */
+    public CircuitBreaker(final int windowSize, final int minimumCalls, final double failureRateThreshold, final long openDuration, final Scheduler scheduler) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("Window size must be positive.");
+        if (minimumCalls < 1 || minimumCalls > windowSize)
+            throw new IllegalArgumentException("Minimum calls must be between 1 and the window size.");
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1))
+            throw new IllegalArgumentException("Failure rate threshold must be greater than 0 and at most 1.");
+        if (openDuration < 0)
+            throw new IllegalArgumentException("Open duration must be non-negative.");
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * <p>Move an open circuit to half-open if the open duration has
+     * elapsed.</p>
+     */
+    private void checkOpenDuration() {
+        if (state == State.OPEN && scheduler.now() - openedAt >= openDuration) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * <p>Returns true if a call may be made. The outcome of an allowed call
+     * must be reported by calling {@link #success()} or {@link #failure()}.
+     * A rejected call must not be reported.</p>
+     *
+     * @return true if the call may be made.
+     */
+    public synchronized boolean allowRequest() {
+        checkOpenDuration();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (!trialInFlight) {
+                    trialInFlight = true;
+                    return true;
+                }
+                ++rejectedCount;
+                return false;
+            default:
+                ++rejectedCount;
+                return false;
+        }
+    }
+
+    /**
+     * <p>Record the outcome of a call in the window and open the circuit if
+     * the failure rate threshold has been reached.</p>
+     *
+     * @param failed true if the call failed.
+     */
+    private void record(final boolean failed) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) --windowFailures;
+        } else {
+            ++windowCount;
+        }
+        window[windowIndex] = failed;
+        if (failed) ++windowFailures;
+        windowIndex = (windowIndex + 1) % window.length;
+
+        if (windowCount >= minimumCalls && (double)windowFailures / windowCount >= failureRateThreshold)
+            open();
+    }
+
+    /**
+     * <p>Open the circuit and clear the window.</p>
+     */
+    private void open() {
+        state = State.OPEN;
+        openedAt = scheduler.now();
+        ++openedCount;
+        windowCount = 0;
+        windowFailures = 0;
+        windowIndex = 0;
+    }
+
+    /**
+     * <p>Report a successful call.</p>
+     */
+    public synchronized void success() {
+        ++successCount;
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            trialInFlight = false;
+            return;
+        }
+        if (state == State.CLOSED)
+            record(false);
+    }
+
+    /**
+     * <p>Report a failed call.</p>
+     */
+    public synchronized void failure() {
+        ++failureCount;
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED)
+            record(true);
+    }
+
+    /**
+     * @return the current circuit state.
+     */
+    public synchronized State getState() {
+        checkOpenDuration();
+        return state;
+    }
+
+    /**
+     * @return the failure rate of the calls in the current window, or zero
+     *         if the window is empty.
+     */
+    public synchronized double getFailureRate() {
+        return (windowCount > 0) ? (double)windowFailures / windowCount : 0;
+    }
+
+    /**
+     * @return the total number of successful calls.
+     */
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return the total number of failed calls.
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the total number of rejected calls.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return the number of times the circuit has opened.
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    /** Call outcomes. True indicates a failure. */
+    private final boolean[] window;
+    /** Minimum number of calls before the circuit may open. */
+    private final int minimumCalls;
+    /** Failure rate threshold. */
+    private final double failureRateThreshold;
+    /** Open duration in milliseconds. */
+    private final long openDuration;
+    /** Time source. */
+    private final Scheduler scheduler;
+
+    /** Number of outcomes in the window. */
+    private int windowCount = 0;
+    /** Number of failures in the window. */
+    private int windowFailures = 0;
+    /** Index of the next window outcome. */
+    private int windowIndex = 0;
+
+    /** Circuit state. */
+    private State state = State.CLOSED;
+    /** Time in milliseconds the circuit last opened. */
+    private long openedAt = 0;
+    /** True if the half-open trial call has been allowed. */
+    private boolean trialInFlight = false;
+
+    /** Successful calls. */
+    private long successCount = 0;
+    /** Failed calls. */
+    private long failureCount = 0;
+    /** Rejected calls. */
+    private long rejectedCount = 0;
+    /** Times opened. */
+    private long openedCount = 0;
+}
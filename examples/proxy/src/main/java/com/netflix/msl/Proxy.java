@@ -3,24 +3,27 @@
  */
 package com.netflix.msl;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.ReadOnlyBufferException;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.netflix.msl.msg.MessageStreamFactory;
 import rx.Observable;
-import rx.Observable.OnSubscribe;
-import rx.Subscriber;
+import rx.Scheduler;
+import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.schedulers.Schedulers;
 
 import com.netflix.msl.crypto.ICryptoContext;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
@@ -62,137 +65,28 @@ import com.netflix.msl.util.ProxyMslContext;
  * {@link #respondExternally(MessageInputStream, Response, ByteBuffer)}
  * be implemented to perform any external message processing. These methods
  * will be called when the proxy is unable to process a message locally.</p>
- * 
+ *
+ * <p>Local and failover processing run on a bounded {@link Scheduler} and
+ * never block the subscribing thread. The request data is already buffered
+ * and the response is written into a byte buffer, so MSL processing does not
+ * wait on I/O and the number of in-flight requests is not limited by the
+ * number of scheduler threads. External processing is composed with the
+ * returned {@link Observable} and should also be asynchronous.</p>
+ *
+ * <p>External processing may be guarded by a {@link CircuitBreaker}. While
+ * the circuit is open messages go straight to failover processing instead of
+ * waiting for the external service to fail. Failover processing may also be
+ * hedged: if the external service has not responded within the hedge delay,
+ * failover processing starts in parallel and whichever succeeds first is
+ * used. Abandoned external calls count as failures.</p>
+ *
+ * <p>A {@link RoutingCache} may remember remote entities whose messages
+ * always require external processing, so that their messages skip the local
+ * processing attempt.</p>
+ *
  * @author Wesley Miaw <wmiaw@netflix.com>
  */
 public abstract class Proxy {
-    /**
-     * An {@link InputStream} wrapper around a {@link ByteBuffer}.
-     */
-    private static class ByteBufferInputStream extends InputStream {
-        /**
-         * <p>Create a new byte buffer input stream with the provided backing
-         * byte buffer.</p>
-         * 
-         * @param buffer backing byte buffer.
-         */
-        public ByteBufferInputStream(final ByteBuffer buffer) {
-            this.buffer = buffer;
-        }
-        
-        /* (non-Javadoc)
-         * @see java.io.InputStream#read()
-         */
-        @Override
-        public int read() throws IOException {
-            if (available() == 0) return -1;
-            return buffer.get();
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.InputStream#read(byte[], int, int)
-         */
-        @Override
-        public int read(byte[] b, int off, int len) throws IOException {
-            final int available = available();
-            if (available == 0)
-                return -1;
-            final int count = Math.min(len - off, available);
-            buffer.get(b, 0, count);
-            return count;
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.InputStream#skip(long)
-         */
-        @Override
-        public long skip(final long n) throws IOException {
-            if (n < 0) return 0;
-            final int count = Math.min((int)n, available());
-            buffer.position(buffer.position() + count);
-            return count;
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.InputStream#available()
-         */
-        @Override
-        public int available() throws IOException {
-            return buffer.remaining();
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.InputStream#mark(int)
-         */
-        @Override
-        public synchronized void mark(final int readlimit) {
-            buffer.mark();
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.InputStream#reset()
-         */
-        @Override
-        public synchronized void reset() throws IOException {
-            buffer.reset();
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.InputStream#markSupported()
-         */
-        @Override
-        public boolean markSupported() {
-            return true;
-        }
-
-        /** Backing byte buffer. */
-        private final ByteBuffer buffer;
-    }
-
-    /**
-     * An {@link OutputStream} wrapper around a {@link ByteBuffer}.
-     */
-    private static class ByteBufferOutputStream extends OutputStream {
-        /**
-         * <p>Create a new byte buffer output stream with the provided backing
-         * byte buffer.</p>
-         * 
-         * @param buffer backing byte buffer.
-         */
-        public ByteBufferOutputStream(final ByteBuffer buffer) {
-            this.buffer = buffer;
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.OutputStream#write(int)
-         */
-        @Override
-        public void write(final int b) throws IOException {
-            try {
-                buffer.put((byte)(b & 0xff));
-            } catch (final BufferOverflowException | ReadOnlyBufferException e) {
-                throw new IOException(e);
-            }
-        }
-
-        /* (non-Javadoc)
-         * @see java.io.OutputStream#write(byte[], int, int)
-         */
-        @Override
-        public void write(final byte[] b, final int off, final int len) throws IOException {
-            if (off < 0 || len < 0 || off + len > b.length)
-                throw new IndexOutOfBoundsException();
-            try {
-                buffer.put(b, off, len);
-            } catch (final BufferOverflowException | ReadOnlyBufferException e) {
-                throw new IOException(e);
-            }
-        }
-
-        /** Backing byte buffer. */
-        private final ByteBuffer buffer;
-    }
-    
     /**
      * <p>A response data container.</p>
      */
@@ -234,16 +128,356 @@ public abstract class Proxy {
      * 
      * <p>The MSL token crypto context will be used to verify and decrypt the
      * MSL tokens of received messages.</p>
-     * 
+     *
+     * <p>Local and failover processing will run on the computation
+     * scheduler.</p>
+     *
+     * @param messageStreamFactory MSL message stream factory.
      * @param registry MSL error message registry.
      * @param entityAuthData local entity authentication data.
      * @param entityAuthFactory local entity authentication factory.
      * @param mslCryptoContext MSL token crypto context.
      */
     public Proxy(final MessageStreamFactory messageStreamFactory, final ErrorMessageRegistry registry, final EntityAuthenticationData entityAuthData, final EntityAuthenticationFactory entityAuthFactory, final ICryptoContext mslCryptoContext) {
+        this(messageStreamFactory, registry, entityAuthData, entityAuthFactory, mslCryptoContext, Schedulers.computation());
+    }
+
+    /**
+     * <p>Create a new proxy.</p>
+     *
+     * <p>The local entity authentication data and factory will be used to
+     * authenticate the local identity when generating responses.</p>
+     *
+     * <p>The MSL token crypto context will be used to verify and decrypt the
+     * MSL tokens of received messages.</p>
+     *
+     * <p>Local and failover processing will run on the provided scheduler,
+     * which should be backed by a bounded number of threads. Processing may
+     * wait up to the renewal lock acquisition timeout on a scheduler
+     * thread.</p>
+     *
+     * @param messageStreamFactory MSL message stream factory.
+     * @param registry MSL error message registry.
+     * @param entityAuthData local entity authentication data.
+     * @param entityAuthFactory local entity authentication factory.
+     * @param mslCryptoContext MSL token crypto context.
+     * @param scheduler MSL processing scheduler.
+     */
+    public Proxy(final MessageStreamFactory messageStreamFactory, final ErrorMessageRegistry registry, final EntityAuthenticationData entityAuthData, final EntityAuthenticationFactory entityAuthFactory, final ICryptoContext mslCryptoContext, final Scheduler scheduler) {
+        this(messageStreamFactory, registry, entityAuthData, entityAuthFactory, mslCryptoContext, scheduler, null, 0);
+    }
+
+    /**
+     * <p>Create a new proxy.</p>
+     *
+     * <p>The local entity authentication data and factory will be used to
+     * authenticate the local identity when generating responses.</p>
+     *
+     * <p>The MSL token crypto context will be used to verify and decrypt the
+     * MSL tokens of received messages.</p>
+     *
+     * <p>Local and failover processing will run on the provided scheduler,
+     * which should be backed by a bounded number of threads. Processing may
+     * wait up to the renewal lock acquisition timeout on a scheduler
+     * thread.</p>
+     *
+     * <p>If a circuit breaker is provided external processing is skipped
+     * while its circuit is open. If the hedge delay is positive failover
+     * processing starts once external processing has taken that long. The
+     * hedge delay is measured on the scheduler.</p>
+     *
+     * @param messageStreamFactory MSL message stream factory.
+     * @param registry MSL error message registry.
+     * @param entityAuthData local entity authentication data.
+     * @param entityAuthFactory local entity authentication factory.
+     * @param mslCryptoContext MSL token crypto context.
+     * @param scheduler MSL processing scheduler.
+     * @param breaker external processing circuit breaker. May be
+     *        {@code null}.
+     * @param hedgeDelay hedged failover delay in milliseconds. Zero or
+     *        negative to disable hedging.
+     */
+    public Proxy(final MessageStreamFactory messageStreamFactory, final ErrorMessageRegistry registry, final EntityAuthenticationData entityAuthData, final EntityAuthenticationFactory entityAuthFactory, final ICryptoContext mslCryptoContext, final Scheduler scheduler, final CircuitBreaker breaker, final long hedgeDelay) {
+        this(messageStreamFactory, registry, entityAuthData, entityAuthFactory, mslCryptoContext, scheduler, breaker, hedgeDelay, null);
+    }
+
+    /**
+     * <p>Create a new proxy.</p>
+     *
+     * <p>The local entity authentication data and factory will be used to
+     * authenticate the local identity when generating responses.</p>
+     *
+     * <p>The MSL token crypto context will be used to verify and decrypt the
+     * MSL tokens of received messages.</p>
+     *
+     * <p>Local and failover processing will run on the provided scheduler,
+     * which should be backed by a bounded number of threads. Processing may
+     * wait up to the renewal lock acquisition timeout on a scheduler
+     * thread.</p>
+     *
+     * <p>If a circuit breaker is provided external processing is skipped
+     * while its circuit is open. If the hedge delay is positive failover
+     * processing starts once external processing has taken that long. The
+     * hedge delay is measured on the scheduler.</p>
+     *
+     * <p>If a routing cache is provided received messages from remote
+     * entities known to require external processing skip local
+     * processing.</p>
+     *
+     * @param messageStreamFactory MSL message stream factory.
+     * @param registry MSL error message registry.
+     * @param entityAuthData local entity authentication data.
+     * @param entityAuthFactory local entity authentication factory.
+     * @param mslCryptoContext MSL token crypto context.
+     * @param scheduler MSL processing scheduler.
+     * @param breaker external processing circuit breaker. May be
+     *        {@code null}.
+     * @param hedgeDelay hedged failover delay in milliseconds. Zero or
+     *        negative to disable hedging.
+     * @param routingCache external processing routing cache. May be
+     *        {@code null}.
+     */
+    public Proxy(final MessageStreamFactory messageStreamFactory, final ErrorMessageRegistry registry, final EntityAuthenticationData entityAuthData, final EntityAuthenticationFactory entityAuthFactory, final ICryptoContext mslCryptoContext, final Scheduler scheduler, final CircuitBreaker breaker, final long hedgeDelay, final RoutingCache routingCache) {
+        // MSL control executes synchronously on the scheduler thread.
         mslCtrl = new MslControl(0, messageStreamFactory, registry);
         proxyMslCtx = new ProxyMslContext(entityAuthData, entityAuthFactory, mslCryptoContext);
         failoverMslCtx = new FailoverMslContext(entityAuthData, entityAuthFactory, mslCryptoContext);
+        this.scheduler = scheduler;
+        this.breaker = breaker;
+        this.hedgeDelay = hedgeDelay;
+        this.routingCache = routingCache;
+    }
+
+    /**
+     * @return the external processing circuit breaker. May be {@code null}.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return the external processing routing cache. May be {@code null}.
+     */
+    public RoutingCache getRoutingCache() {
+        return routingCache;
+    }
+
+    /**
+     * @return the number of times hedged failover processing has started.
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return the number of times hedged failover processing has been used
+     *         instead of external processing.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * <p>The result of an external or failover processing attempt made with
+     * its own byte buffers.</p>
+     */
+    private static class Attempt<T> {
+        /**
+         * @param value the attempt result. May be {@code null}.
+         * @param in the attempt input byte buffer. May be {@code null}.
+         * @param out the attempt output byte buffer.
+         * @param hedged true if this is a hedged failover attempt.
+         */
+        public Attempt(final T value, final ByteBuffer in, final ByteBuffer out, final boolean hedged) {
+            this.value = value;
+            this.in = in;
+            this.out = out;
+            this.hedged = hedged;
+        }
+
+        /** Attempt result. */
+        final T value;
+        /** Attempt input byte buffer. */
+        final ByteBuffer in;
+        /** Attempt output byte buffer. */
+        final ByteBuffer out;
+        /** True if this is a hedged failover attempt. */
+        final boolean hedged;
+    }
+
+    /**
+     * @param t the external processing error.
+     * @return true if the error indicates a problem communicating with or a
+     *         transient failure at the external service.
+     */
+    private static boolean isFailoverRequired(final Throwable t) {
+        return t instanceof ProxyIoException || t instanceof ProxyTransientException;
+    }
+
+    /**
+     * <p>Report the outcome of external processing to the circuit breaker.
+     * Errors other than communication and transient failures mean the
+     * external service responded and count as successes. External processing
+     * that is unsubscribed before it finishes counts as a failure.</p>
+     *
+     * @param external external processing.
+     * @return the monitored external processing.
+     */
+    private <T> Observable<T> monitor(final Observable<T> external) {
+        if (breaker == null)
+            return external;
+        final AtomicBoolean reported = new AtomicBoolean(false);
+        return external
+            .doOnNext(new Action1<T>() {
+                @Override
+                public void call(final T t) {
+                    if (reported.compareAndSet(false, true))
+                        breaker.success();
+                }
+            })
+            .doOnCompleted(new Action0() {
+                @Override
+                public void call() {
+                    if (reported.compareAndSet(false, true))
+                        breaker.success();
+                }
+            })
+            .doOnError(new Action1<Throwable>() {
+                @Override
+                public void call(final Throwable t) {
+                    if (reported.compareAndSet(false, true)) {
+                        if (isFailoverRequired(t))
+                            breaker.failure();
+                        else
+                            breaker.success();
+                    }
+                }
+            })
+            .doOnUnsubscribe(new Action0() {
+                @Override
+                public void call() {
+                    if (reported.compareAndSet(false, true))
+                        breaker.failure();
+                }
+            });
+    }
+
+    /**
+     * <p>Process a message externally, falling back to failover processing
+     * if there is a problem communicating with or a transient failure at the
+     * external service.</p>
+     *
+     * <p>External processing is skipped if the circuit breaker is open. If
+     * hedging is enabled external and failover processing each use their own
+     * copies of the byte buffers, and the output and input position of the
+     * attempt that is used are copied back into the provided byte
+     * buffers.</p>
+     *
+     * @param in remote entity input byte buffer. May be {@code null}.
+     * @param out remote entity output byte buffer.
+     * @param external external processing of the provided byte buffers.
+     * @param failover failover processing of the provided byte buffers.
+     * @return an {@link Observable} for the processing result.
+     */
+    private <T> Observable<T> external(final ByteBuffer in, final ByteBuffer out, final Func2<ByteBuffer,ByteBuffer,Observable<T>> external, final Func2<ByteBuffer,ByteBuffer,Observable<T>> failover) {
+        // Go straight to failover processing while the circuit is open.
+        if (breaker != null && !breaker.allowRequest())
+            return failover.call(in, out);
+
+        // Without hedging failover processing waits for external processing
+        // to fail.
+        if (hedgeDelay <= 0) {
+            return monitor(external.call(in, out))
+                .onErrorResumeNext(new Func1<Throwable,Observable<T>>() {
+                    @Override
+                    public Observable<T> call(final Throwable t) {
+                        if (!isFailoverRequired(t))
+                            return Observable.error(t);
+
+                        // Reset the byte buffers.
+                        if (in != null) in.reset();
+                        out.reset();
+                        return failover.call(in, out);
+                    }
+                });
+        }
+
+        // Each attempt gets its own byte buffers so the losing attempt cannot
+        // interfere with the winning one.
+        final ByteBuffer externalIn = (in != null) ? in.duplicate() : null;
+        final ByteBuffer externalOut = ByteBuffer.allocate(out.remaining());
+        final ByteBuffer failoverIn = (in != null) ? in.duplicate() : null;
+        final ByteBuffer failoverOut = ByteBuffer.allocate(out.remaining());
+
+        // Failover processing runs at most once, whether started by the hedge
+        // or by an external processing failure.
+        final Observable<Attempt<T>> failoverAttempt = Observable.defer(new Func0<Observable<T>>() {
+                @Override
+                public Observable<T> call() {
+                    return failover.call(failoverIn, failoverOut);
+                }
+            })
+            .map(new Func1<T,Attempt<T>>() {
+                @Override
+                public Attempt<T> call(final T value) {
+                    return new Attempt<T>(value, failoverIn, failoverOut, false);
+                }
+            })
+            .cache();
+
+        // A failed hedge is ignored. The failure is delivered if external
+        // processing also fails.
+        final Observable<Attempt<T>> hedge = Observable.timer(hedgeDelay, TimeUnit.MILLISECONDS, scheduler)
+            .flatMap(new Func1<Long,Observable<Attempt<T>>>() {
+                @Override
+                public Observable<Attempt<T>> call(final Long tick) {
+                    hedgeCount.incrementAndGet();
+                    return failoverAttempt
+                        .map(new Func1<Attempt<T>,Attempt<T>>() {
+                            @Override
+                            public Attempt<T> call(final Attempt<T> attempt) {
+                                return new Attempt<T>(attempt.value, attempt.in, attempt.out, true);
+                            }
+                        })
+                        .onErrorResumeNext(Observable.<Attempt<T>>empty());
+                }
+            });
+        final Observable<Attempt<T>> primary = monitor(Observable.defer(new Func0<Observable<T>>() {
+                @Override
+                public Observable<T> call() {
+                    return external.call(externalIn, externalOut);
+                }
+            }))
+            .map(new Func1<T,Attempt<T>>() {
+                @Override
+                public Attempt<T> call(final T value) {
+                    return new Attempt<T>(value, externalIn, externalOut, false);
+                }
+            })
+            .onErrorResumeNext(new Func1<Throwable,Observable<Attempt<T>>>() {
+                @Override
+                public Observable<Attempt<T>> call(final Throwable t) {
+                    if (!isFailoverRequired(t))
+                        return Observable.error(t);
+                    return failoverAttempt;
+                }
+            });
+
+        // Use the first result.
+        return Observable.merge(primary, hedge)
+            .take(1)
+            .map(new Func1<Attempt<T>,T>() {
+                @Override
+                public T call(final Attempt<T> attempt) {
+                    if (attempt.hedged)
+                        hedgeWinCount.incrementAndGet();
+                    attempt.out.flip();
+                    out.put(attempt.out);
+                    if (in != null)
+                        in.position(attempt.in.position());
+                    return attempt.value;
+                }
+            });
     }
     
     /**
@@ -257,7 +491,7 @@ public abstract class Proxy {
      *     and the message does not require authentication to occur.</li>
      * </ol>
      */
-    private class ReceiveObservable implements OnSubscribe<MessageInputStream> {
+    private class ReceiveObservable implements Func0<Observable<MessageInputStream>> {
         /**
          * <p>Create a new receive observable.</p>
          * 
@@ -306,97 +540,61 @@ public abstract class Proxy {
          *     a non-MSL reason.</li>
          * </ul></p>
          * 
-         * @param observer the event observer.
+         * @return an {@link Observable} for the message.
          */
         @Override
-        public void call(final Subscriber<? super MessageInputStream> observer) {
-            try {
-                // Mark the byte buffers so their positions can be reset.
-                in.mark();
-                out.mark();
-                
-                // First attempt to proxy the request.
-                final Observable<MessageInputStream> local = receiveLocally(tokenCryptoContext, in, out, timeout, dbgCtx);
-                local.subscribe(new Action1<MessageInputStream>() {
-                    @Override
-                    public void call(final MessageInputStream mis) {
-                        observer.onNext(mis);
-                        observer.onCompleted();
-                        return;
-                    }
-                }, new Action1<Throwable>() {
+        public Observable<MessageInputStream> call() {
+            // Mark the byte buffers so their positions can be reset.
+            in.mark();
+            out.mark();
+            
+            // Skip local processing if the remote entity is known to require
+            // external processing.
+            final String routingKey = (routingCache != null) ? RoutingCache.getKey(in) : null;
+            if (routingKey != null && routingCache.isExternal(routingKey))
+                return callExternal();
+            
+            // First attempt to proxy the request.
+            return receiveLocally(tokenCryptoContext, in, out, timeout, dbgCtx)
+                .onErrorResumeNext(new Func1<Throwable,Observable<MessageInputStream>>() {
                     @Override
-                    public void call(final Throwable t) {
+                    public Observable<MessageInputStream> call(final Throwable t) {
                         // A MslException indicates external processing is
                         // required.
                         if (t instanceof MslException) {
-                            callExternal(observer);
-                            return;
+                            // Remember the remote entity if the same error
+                            // will recur.
+                            if (routingKey != null && RoutingCache.isCacheable(((MslException)t).getError()))
+                                routingCache.setExternal(routingKey);
+                            return callExternal();
                         }
-                        observer.onError(t);
-                        return;
+                        return Observable.error(t);
                     }
                 });
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
-            }
         }
         
         /**
-         * This method has the same behavior as {@link #call(Subscriber)}.
+         * This method has the same behavior as {@link #call()}.
          */
-        private void callExternal(final Subscriber<? super MessageInputStream> observer) {
-            try {
-                // Reset the byte buffers.
-                in.reset();
-                out.reset();
-                
-                // Second attempt to process externally.
-                final Observable<MessageInputStream> ext = receiveExternally(in, out);
-                ext.subscribe(new Action1<MessageInputStream>() {
-                    @Override
-                    public void call(final MessageInputStream mis) {
-                        observer.onNext(mis);
-                        observer.onCompleted();
-                        return;
-                    }
-                }, new Action1<Throwable>() {
-                    @Override
-                    public void call(final Throwable t) {
-                        // If there was a problem communicating with or a
-                        // transient failure at the external service, failover
-                        // processing is required.
-                        if (t instanceof ProxyIoException || t instanceof ProxyTransientException) {
-                            callFailover(observer);
-                            return;
-                        }
-                        observer.onError(t);
-                        return;
-                    }
-                });
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
-            }
-        }
-
-        /**
-         * This method has the same behavior as {@link #call(Subscriber)}.
-         */
-        private void callFailover(final Subscriber<? super MessageInputStream> observer) {
-            try {
-                // Reset the byte buffers.
-                in.reset();
-                out.reset();
-                
-                // Third attempt to process in failover mode.
-                final Observable<MessageInputStream> failover = receiveFailover(tokenCryptoContext, in, out, timeout, dbgCtx);
-                failover.subscribe(observer);
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
-            }
+        private Observable<MessageInputStream> callExternal() {
+            // Reset the byte buffers.
+            in.reset();
+            out.reset();
+            
+            // Second attempt to process externally, failing over if the
+            // external service cannot be used.
+            return external(in, out, new Func2<ByteBuffer,ByteBuffer,Observable<MessageInputStream>>() {
+                @Override
+                public Observable<MessageInputStream> call(final ByteBuffer in, final ByteBuffer out) {
+                    return receiveExternally(in, out);
+                }
+            }, new Func2<ByteBuffer,ByteBuffer,Observable<MessageInputStream>>() {
+                @Override
+                public Observable<MessageInputStream> call(final ByteBuffer in, final ByteBuffer out) {
+                    // Third attempt to process in failover mode.
+                    return receiveFailover(tokenCryptoContext, in, out, timeout, dbgCtx);
+                }
+            });
         }
         
         /** Service token crypto context. */
@@ -412,12 +610,12 @@ public abstract class Proxy {
     }
 
     /**
-     * <p>This observable receives a request from the remote entity and attempts
+     * <p>This callable receives a request from the remote entity and attempts
      * to process it locally.</p>
      */
-    private class ReceiveLocallyObservable implements OnSubscribe<MessageInputStream> {
+    private class ReceiveLocallyCallable implements Callable<MessageInputStream> {
         /**
-         * <p>Create a new receive locally observable.</p>
+         * <p>Create a new receive locally callable.</p>
          * 
          * <p> The input stream must contain the entire request data, which
          * will be read before any attempt is made to process it.</p>
@@ -428,7 +626,7 @@ public abstract class Proxy {
          * @param timeout renewal lock acquisition timeout.
          * @param dbgCtx message debug context.
          */
-        public ReceiveLocallyObservable(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
+        public ReceiveLocallyCallable(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
             this.tokenCryptoContext = tokenCryptoContext;
             this.in = in;
             this.out = out;
@@ -469,43 +667,28 @@ public abstract class Proxy {
          *     externally.<li>
          * </ul></p>
          * 
-         * @param observer the event observer.
+         * @return the received message input stream. May be {@code null}.
+         * @throws Exception if the message could not be processed.
          */
         @Override
-        public void call(Subscriber<? super MessageInputStream> observer) {
+        public MessageInputStream call() throws Exception {
             // Attempt to proxy the request.
+            final MessageContext msgCtx = new ReceiveMessageContext(tokenCryptoContext, dbgCtx);
+            final Future<MessageInputStream> proxyFuture = mslCtrl.receive(proxyMslCtx, msgCtx, in, out, timeout);
             try {
-                final MessageContext msgCtx = new ReceiveMessageContext(tokenCryptoContext, dbgCtx);
-                final ByteBufferInputStream bbis = new ByteBufferInputStream(in);
-                final ByteBufferOutputStream bbos = new ByteBufferOutputStream(out);
-                final Future<MessageInputStream> proxyFuture = mslCtrl.receive(proxyMslCtx, msgCtx, bbis, bbos, timeout);
-                final MessageInputStream mis = proxyFuture.get();
-                observer.onNext(mis);
-                observer.onCompleted();
-                return;
-            } catch (final InterruptedException e) {
-                observer.onError(e);
-                return;
+                return proxyFuture.get();
             } catch (final ExecutionException e) {
                 // Throw the exception if it is not a MSL exception indicating
                 // external processing.
                 final Throwable cause = e.getCause();
-                if (!(cause instanceof MslException)) {
-                    observer.onError(new ProxyException("Unexpected exception thrown by proxied MslControl.receive().", cause));
-                    return;
-                }
+                if (!(cause instanceof MslException))
+                    throw new ProxyException("Unexpected exception thrown by proxied MslControl.receive().", cause);
                 final MslException mslCause = (MslException)cause;
-                if (!ProxyMslError.isExternalProcessingRequired(mslCause.getError())) {
-                    observer.onError(new ProxyMslException("MSL exception thrown by proxied MslControl.receive().", mslCause));
-                    return;
-                }
+                if (!ProxyMslError.isExternalProcessingRequired(mslCause.getError()))
+                    throw new ProxyMslException("MSL exception thrown by proxied MslControl.receive().", mslCause);
                 
                 // External processing is required. Throw the original cause.
-                observer.onError(mslCause);
-                return;
-            } catch (Throwable t) {
-                observer.onError(t);
-                return;
+                throw mslCause;
             }
         }
         
@@ -522,12 +705,12 @@ public abstract class Proxy {
     }
 
     /**
-     * <p>This observable receives a request from the remote entity and attempts
+     * <p>This callable receives a request from the remote entity and attempts
      * to process it in failover mode.</p>
      */
-    private class ReceiveFailoverObservable implements OnSubscribe<MessageInputStream> {
+    private class ReceiveFailoverCallable implements Callable<MessageInputStream> {
         /**
-         * <p>Create a new receive failover observable.</p>
+         * <p>Create a new receive failover callable.</p>
          * 
          * <p> The input stream must contain the entire request data, which
          * will be read before any attempt is made to process it.</p>
@@ -538,7 +721,7 @@ public abstract class Proxy {
          * @param timeout renewal lock acquisition timeout.
          * @param dbgCtx message debug context.
          */
-        public ReceiveFailoverObservable(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
+        public ReceiveFailoverCallable(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
             this.tokenCryptoContext = tokenCryptoContext;
             this.in = in;
             this.out = out;
@@ -575,36 +758,23 @@ public abstract class Proxy {
          *     a non-MSL reason.</li>
          * </ul></p>
          * 
-         * @param observer the event observer.
+         * @return the received message input stream. May be {@code null}.
+         * @throws Exception if the message could not be processed.
          */
         @Override
-        public void call(Subscriber<? super MessageInputStream> observer) {
+        public MessageInputStream call() throws Exception {
             // Attempt to process the request in failover mode.
+            final MessageContext msgCtx = new ReceiveMessageContext(tokenCryptoContext, dbgCtx);
+            final Future<MessageInputStream> failoverFuture = mslCtrl.receive(failoverMslCtx, msgCtx, in, out, timeout);
             try {
-                final MessageContext msgCtx = new ReceiveMessageContext(tokenCryptoContext, dbgCtx);
-                final ByteBufferInputStream bbis = new ByteBufferInputStream(in);
-                final ByteBufferOutputStream bbos = new ByteBufferOutputStream(out);
-                final Future<MessageInputStream> failoverFuture = mslCtrl.receive(failoverMslCtx, msgCtx, bbis, bbos, timeout);
-                final MessageInputStream mis = failoverFuture.get();
-                observer.onNext(mis);
-                observer.onCompleted();
-                return;
-            } catch (final InterruptedException e) {
-                observer.onError(e);
-                return;
+                return failoverFuture.get();
             } catch (final ExecutionException e) {
                 // Throw the exception.
                 final Throwable cause = e.getCause();
-                if (!(cause instanceof MslException)) {
-                    observer.onError(new ProxyException("Unexpected exception thrown by failover MslControl.receive().", cause));
-                    return;
-                }
+                if (!(cause instanceof MslException))
+                    throw new ProxyException("Unexpected exception thrown by failover MslControl.receive().", cause);
                 final MslException mslCause = (MslException)cause;
-                observer.onError(new ProxyMslException("MSL exception thrown by failover MslControl.recieve().", mslCause));
-                return;
-            } catch (Throwable t) {
-                observer.onError(t);
-                return;
+                throw new ProxyMslException("MSL exception thrown by failover MslControl.recieve().", mslCause);
             }
         }
         
@@ -660,7 +830,7 @@ public abstract class Proxy {
      * @return an {@link Observable} for the message.
      */
     public Observable<MessageInputStream> receive(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
-        return Observable.create(new ReceiveObservable(tokenCryptoContext, in, out, timeout,dbgCtx));
+        return Observable.defer(new ReceiveObservable(tokenCryptoContext, in, out, timeout, dbgCtx));
     }
     
     /**
@@ -704,7 +874,7 @@ public abstract class Proxy {
      * @return an {@link Observable} for the message.
      */
     protected Observable<MessageInputStream> receiveLocally(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
-        return Observable.create(new ReceiveLocallyObservable(tokenCryptoContext, in, out, timeout, dbgCtx));
+        return Observable.fromCallable(new ReceiveLocallyCallable(tokenCryptoContext, in, out, timeout, dbgCtx)).subscribeOn(scheduler);
     }
     
     /**
@@ -793,7 +963,7 @@ public abstract class Proxy {
      * @return an {@link Observable} for the message.
      */
     protected Observable<MessageInputStream> receiveFailover(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
-        return Observable.create(new ReceiveFailoverObservable(tokenCryptoContext, in, out, timeout, dbgCtx));
+        return Observable.fromCallable(new ReceiveFailoverCallable(tokenCryptoContext, in, out, timeout, dbgCtx)).subscribeOn(scheduler);
     }
     
     /**
@@ -807,7 +977,7 @@ public abstract class Proxy {
      *     accessed.</li>
      * </ol>
      */
-    private class RespondObservable implements OnSubscribe<Boolean> {
+    private class RespondObservable implements Func0<Observable<Boolean>> {
         /**
          * <p>Create a new respond observable.</p>
          * 
@@ -860,94 +1030,48 @@ public abstract class Proxy {
          * <li>{@link ProxyException} if the message cannot be processed due to a non-MSL reason.</li>
          * </ul></p>
          * 
-         * @param observer the event observer.
+         * @return an {@link Observable} for the response operation.
          */
         @Override
-        public void call(final Subscriber<? super Boolean> observer) {
-            try {
-                // Mark the byte buffer so its position can be reset.
-                out.mark();
-                
-                // First attempt to proxy the operation.
-                final Observable<Boolean> local = respondLocally(tokenCryptoContext, responseData, out, request, timeout, dbgCtx);
-                local.subscribe(new Action1<Boolean>() {
-                    @Override
-                    public void call(final Boolean b) {
-                        observer.onNext(b);
-                        observer.onCompleted();
-                        return;
-                    }
-                }, new Action1<Throwable>() {
+        public Observable<Boolean> call() {
+            // Mark the byte buffer so its position can be reset.
+            out.mark();
+            
+            // First attempt to proxy the operation.
+            return respondLocally(tokenCryptoContext, responseData, out, request, timeout, dbgCtx)
+                .onErrorResumeNext(new Func1<Throwable,Observable<Boolean>>() {
                     @Override
-                    public void call(final Throwable t) {
+                    public Observable<Boolean> call(final Throwable t) {
                         // A MslException indicates external processing is
                         // required.
-                        if (t instanceof MslException) {
-                            callExternal(observer);
-                            return;
-                        }
-                        observer.onError(t);
-                        return;
+                        if (t instanceof MslException)
+                            return callExternal();
+                        return Observable.error(t);
                     }
                 });
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
-            }
         }
 
         /**
-         * This method has the same behavior as {@link #call(Subscriber)}.
-         */
-        private void callExternal(final Subscriber<? super Boolean> observer) {
-            try {
-                // Reset the byte buffer.
-                out.reset();
-                
-                // Second attempt to process externally.
-                final Observable<Boolean> ext = respondExternally(request, responseData, out);
-                ext.subscribe(new Action1<Boolean>() {
-                    @Override
-                    public void call(final Boolean b) {
-                        observer.onNext(b);
-                        observer.onCompleted();
-                        return;
-                    }
-                }, new Action1<Throwable>() {
-                    @Override
-                    public void call(final Throwable t) {
-                        // If there was a problem communicating with or a
-                        // transient failure at the external service, failover
-                        // processing is required.
-                        if (t instanceof ProxyIoException || t instanceof ProxyTransientException) {
-                            callFailover(observer);
-                            return;
-                        }
-                        observer.onError(t);
-                        return;
-                    }
-                });
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
-            }
-        }
-        
-        /**
-         * This method has the same behavior as {@link #call(Subscriber)}.
+         * This method has the same behavior as {@link #call()}.
          */
-        private void callFailover(final Subscriber<? super Boolean> observer) {
-            try {
-                // Reset the byte buffer.
-                out.reset();
-                
-                // Third attempt to process in failover mode.
-                final Observable<Boolean> failover = respondFailover(tokenCryptoContext, responseData, out, request, timeout, dbgCtx);
-                failover.subscribe(observer);
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
-            }
+        private Observable<Boolean> callExternal() {
+            // Reset the byte buffer.
+            out.reset();
+            
+            // Second attempt to process externally, failing over if the
+            // external service cannot be used.
+            return external(null, out, new Func2<ByteBuffer,ByteBuffer,Observable<Boolean>>() {
+                @Override
+                public Observable<Boolean> call(final ByteBuffer in, final ByteBuffer out) {
+                    return respondExternally(request, responseData, out);
+                }
+            }, new Func2<ByteBuffer,ByteBuffer,Observable<Boolean>>() {
+                @Override
+                public Observable<Boolean> call(final ByteBuffer in, final ByteBuffer out) {
+                    // Third attempt to process in failover mode.
+                    return respondFailover(tokenCryptoContext, responseData, out, request, timeout, dbgCtx);
+                }
+            });
         }
 
         /** Original request. */
@@ -965,12 +1089,12 @@ public abstract class Proxy {
     }
 
     /**
-     * <p>This observable sends a response to the remote entity and attempts to
+     * <p>This callable sends a response to the remote entity and attempts to
      * generate the response locally.</p>
      */
-    private class RespondLocallyObservable implements OnSubscribe<Boolean> {
+    private class RespondLocallyCallable implements Callable<Boolean> {
         /**
-         * <p>Create a new respond locally observable.</p>
+         * <p>Create a new respond locally callable.</p>
          * 
          * <p>The provided response data will be used to generate the
          * response.</p>
@@ -982,7 +1106,7 @@ public abstract class Proxy {
          * @param timeout renewal lock acquisition timeout.
          * @param dbgCtx message debug context.
          */
-        public RespondLocallyObservable(final MessageInputStream request, final Response responseData, final ICryptoContext tokenCryptoContext, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
+        public RespondLocallyCallable(final MessageInputStream request, final Response responseData, final ICryptoContext tokenCryptoContext, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
             this.request = request;
             this.responseData = responseData;
             this.tokenCryptoContext = tokenCryptoContext;
@@ -1029,46 +1153,34 @@ public abstract class Proxy {
          * <li>{@link MslException} if the message must be processed externally.<li>
          * </ul></p>
          * 
-         * @param observer the event observer.
+         * @return {@link Boolean#TRUE} if the response application data was
+         *         sent, {@link Boolean#FALSE} otherwise.
+         * @throws Exception if the response could not be processed.
          */
         @Override
-        public void call(Subscriber<? super Boolean> observer) {
+        public Boolean call() throws Exception {
             // Attempt to proxy the operation.
+            final MessageContext msgCtx = new RespondMessageContext(responseData.appdata, responseData.entityServiceTokens, responseData.userServiceTokens, tokenCryptoContext, responseData.user, dbgCtx);
+            final ByteBuffer nullInput = ByteBuffer.allocate(0);
+            final Future<MslChannel> proxyFuture = mslCtrl.respond(proxyMslCtx, msgCtx, nullInput, out, request, timeout);
             try {
-                final MessageContext msgCtx = new RespondMessageContext(responseData.appdata, responseData.entityServiceTokens, responseData.userServiceTokens, tokenCryptoContext, responseData.user, dbgCtx);
-                final ByteArrayInputStream nullInput = new ByteArrayInputStream(new byte[0]);
-                final ByteBufferOutputStream bbos = new ByteBufferOutputStream(out);
-                final Future<MslChannel> proxyFuture = mslCtrl.respond(proxyMslCtx, msgCtx, nullInput, bbos, request, timeout);
                 final MslChannel channel = proxyFuture.get();
-                observer.onNext(channel != null && channel.output != null);
-                observer.onCompleted();
-                return;
-            } catch (final InterruptedException e) {
-                observer.onError(e);
-                return;
+                return channel != null && channel.output != null;
             } catch (final ExecutionException e) {
                 // Throw the exception if it is not a MSL exception indicating
                 // external processing.
                 final Throwable cause = e.getCause();
-                if (!(cause instanceof MslException)) {
-                    observer.onError(new ProxyException("Unexpected exception thrown by proxied MslControl.respond().", cause));
-                    return;
-                }
+                if (!(cause instanceof MslException))
+                    throw new ProxyException("Unexpected exception thrown by proxied MslControl.respond().", cause);
                 final MslException mslCause = (MslException)cause;
-                if (!ProxyMslError.isExternalProcessingRequired(mslCause.getError())) {
-                    observer.onError(new ProxyMslException("MSL exception thrown by proxied MslControl.respond().", mslCause));
-                    return;
-                }
+                if (!ProxyMslError.isExternalProcessingRequired(mslCause.getError()))
+                    throw new ProxyMslException("MSL exception thrown by proxied MslControl.respond().", mslCause);
                 
                 // External processing is required. Throw the original cause.
-                observer.onError(mslCause);
-                return;
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
+                throw mslCause;
             }
         }
-
+        
         /** Original request. */
         private final MessageInputStream request;
         /** Response data. */
@@ -1084,12 +1196,12 @@ public abstract class Proxy {
     }
 
     /**
-     * <p>This observable sends a response to the remote entity and attempts to
+     * <p>This callable sends a response to the remote entity and attempts to
      * generate the response in failover mode.</p>
      */
-    private class RespondFailoverObservable implements OnSubscribe<Boolean> {
+    private class RespondFailoverCallable implements Callable<Boolean> {
         /**
-         * <p>Create a new respond failover observable.</p>
+         * <p>Create a new respond failover callable.</p>
          * 
          * <p>The provided response data will be used to generate the
          * response.</p>
@@ -1101,7 +1213,7 @@ public abstract class Proxy {
          * @param timeout renewal lock acquisition timeout.
          * @param dbgCtx message debug context.
          */
-        public RespondFailoverObservable(final MessageInputStream request, final Response responseData, final ICryptoContext tokenCryptoContext, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
+        public RespondFailoverCallable(final MessageInputStream request, final Response responseData, final ICryptoContext tokenCryptoContext, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
             this.request = request;
             this.responseData = responseData;
             this.tokenCryptoContext = tokenCryptoContext;
@@ -1147,38 +1259,29 @@ public abstract class Proxy {
          *      non-MSL reason.</li>
          * </ul></p>
          * 
-         * @param observer the event observer.
+         * @return {@link Boolean#TRUE} if the response application data was
+         *         sent, {@link Boolean#FALSE} otherwise.
+         * @throws Exception if the response could not be processed.
          */
         @Override
-        public void call(Subscriber<? super Boolean> observer) {
+        public Boolean call() throws Exception {
             // Attempt to process the operation in failover mode.
+            final MessageContext msgCtx = new RespondMessageContext(responseData.appdata, responseData.entityServiceTokens, responseData.userServiceTokens, tokenCryptoContext, responseData.user, dbgCtx);
+            final ByteBuffer nullInput = ByteBuffer.allocate(0);
+            final Future<MslChannel> failoverFuture = mslCtrl.respond(failoverMslCtx, msgCtx, nullInput, out, request, timeout);
             try {
-                final MessageContext msgCtx = new RespondMessageContext(responseData.appdata, responseData.entityServiceTokens, responseData.userServiceTokens, tokenCryptoContext, responseData.user, dbgCtx);
-                final ByteArrayInputStream nullInput = new ByteArrayInputStream(new byte[0]);
-                final ByteBufferOutputStream bbos = new ByteBufferOutputStream(out);
-                final Future<MslChannel> failoverFuture = mslCtrl.respond(failoverMslCtx, msgCtx, nullInput, bbos, request, timeout);
                 final MslChannel channel = failoverFuture.get();
-                observer.onNext(channel != null && channel.output != null);
-                return;
-            } catch (final InterruptedException e) {
-                observer.onError(e);
-                return;
+                return channel != null && channel.output != null;
             } catch (final ExecutionException e) {
                 // Throw the exception.
                 final Throwable cause = e.getCause();
-                if (!(cause instanceof MslException)) {
-                    observer.onError(new ProxyException("Unexpected exception thrown by failover MslControl.respond().", cause));
-                    return;
-                }
+                if (!(cause instanceof MslException))
+                    throw new ProxyException("Unexpected exception thrown by failover MslControl.respond().", cause);
                 final MslException mslCause = (MslException)cause;
-                observer.onError(new ProxyMslException("MSL exception thrown by failover MslControl.respond().", mslCause));
-                return;
-            } catch (final Throwable t) {
-                observer.onError(t);
-                return;
+                throw new ProxyMslException("MSL exception thrown by failover MslControl.respond().", mslCause);
             }
         }
-
+        
         /** Original request. */
         private final MessageInputStream request;
         /** Response data. */
@@ -1239,7 +1342,7 @@ public abstract class Proxy {
      * @return an {@link Observable} for the response operation.
      */
     public Observable<Boolean> respond(final ICryptoContext tokenCryptoContext, final Response responseData, final ByteBuffer out, final MessageInputStream request, final int timeout, final MessageDebugContext dbgCtx) {
-        return Observable.create(new RespondObservable(request, responseData, tokenCryptoContext, out, timeout, dbgCtx));
+        return Observable.defer(new RespondObservable(request, responseData, tokenCryptoContext, out, timeout, dbgCtx));
     }
 
     /**
@@ -1290,7 +1393,7 @@ public abstract class Proxy {
      * @return an {@link Observable} for the response operation.
      */
     protected Observable<Boolean> respondLocally(final ICryptoContext tokenCryptoContext, final Response responseData, final ByteBuffer out, final MessageInputStream request, final int timeout, final MessageDebugContext dbgCtx) {
-        return Observable.create(new RespondLocallyObservable(request, responseData, tokenCryptoContext, out, timeout, dbgCtx));
+        return Observable.fromCallable(new RespondLocallyCallable(request, responseData, tokenCryptoContext, out, timeout, dbgCtx)).subscribeOn(scheduler);
     }
     
     /**
@@ -1389,7 +1492,7 @@ public abstract class Proxy {
      * @return an {@link Observable} for the response operation.
      */
     protected Observable<Boolean> respondFailover(final ICryptoContext tokenCryptoContext, final Response responseData, final ByteBuffer out, final MessageInputStream request, final int timeout, final MessageDebugContext dbgCtx) {
-        return Observable.create(new RespondFailoverObservable(request, responseData, tokenCryptoContext, out, timeout, dbgCtx));
+        return Observable.fromCallable(new RespondFailoverCallable(request, responseData, tokenCryptoContext, out, timeout, dbgCtx)).subscribeOn(scheduler);
     }
     
     /** MSL control. */
@@ -1398,4 +1501,16 @@ public abstract class Proxy {
     private final MslContext proxyMslCtx;
     /** Failover MSL context. */
     private final MslContext failoverMslCtx;
+    /** MSL processing scheduler. */
+    private final Scheduler scheduler;
+    /** External processing circuit breaker. May be {@code null}. */
+    private final CircuitBreaker breaker;
+    /** Hedged failover delay in milliseconds. */
+    private final long hedgeDelay;
+    /** External processing routing cache. May be {@code null}. */
+    private final RoutingCache routingCache;
+    /** Hedged failover attempts. */
+    private final AtomicLong hedgeCount = new AtomicLong(0);
+    /** Hedged failover attempts used. */
+    private final AtomicLong hedgeWinCount = new AtomicLong(0);
 }
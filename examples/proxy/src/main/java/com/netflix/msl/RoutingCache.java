@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ */
+package com.netflix.msl;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import rx.Scheduler;
+
+import com.netflix.msl.io.ByteBufferInputStream;
+import com.netflix.msl.util.Base64;
+
+/**
+ * <p>Remembers which remote entities require external processing so their
+ * messages can be sent straight to the external service instead of first
+ * failing local processing.</p>
+ *
+ * <p>Entries are keyed by the entity authentication scheme and data of
+ * messages without a master token, or by the master token serial and
+ * sequence numbers. A new or renewed master token therefore has a different
+ * key. Only errors that will recur for the same key are remembered, such as
+ * entity authentication or master token renewal being required. Errors that
+ * depend on the individual message, such as key exchange or user
+ * authentication, are not.</p>
+ *
+ * <p>The routing key is read from the message header without verifying it.
+ * A forged key can at most cause the messages of that key to be processed
+ * externally, which is always correct. Entries expire after a time to live
+ * and the least recently used entries are evicted once the cache is
+ * full.</p>
+ *
+ * <p>Time is taken from the provided {@link Scheduler}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class RoutingCache {
+    /** Message header entity authentication data JSON key. */
+    private static final String KEY_ENTITY_AUTHENTICATION_DATA = "entityauthdata";
+    /** Message header master token JSON key. */
+    private static final String KEY_MASTER_TOKEN = "mastertoken";
+    /** Entity authentication scheme JSON key. */
+    private static final String KEY_SCHEME = "scheme";
+    /** Entity authentication data JSON key. */
+    private static final String KEY_AUTHDATA = "authdata";
+    /** Master token data JSON key. */
+    private static final String KEY_TOKENDATA = "tokendata";
+    /** Master token serial number JSON key. */
+    private static final String KEY_SERIAL_NUMBER = "serialnumber";
+    /** Master token sequence number JSON key. */
+    private static final String KEY_SEQUENCE_NUMBER = "sequencenumber";
+
+    /**
+     * <p>Create a new routing cache.</p>
+     *
+     * @param maxEntries maximum number of entries.
+     * @param ttl entry time to live in milliseconds.
+     * @param scheduler time source.
+     * @throws IllegalArgumentException if the maximum number of entries or
+     *         the time to live is not positive.
+     */
+    public RoutingCache(final int maxEntries, final long ttl, final Scheduler scheduler) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Maximum entries must be positive.");
+        if (ttl < 1)
+            throw new IllegalArgumentException("Time to live must be positive.");
+        this.ttl = ttl;
+        this.scheduler = scheduler;
+        this.entries = new LinkedHashMap<String,Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String,Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * <p>Return the routing key of the message in the provided byte buffer.
+     * Only the message header is parsed and no cryptographic operations are
+     * performed. The byte buffer position is not changed.</p>
+     *
+     * @param in the message byte buffer.
+     * @return the routing key or {@code null} if it cannot be determined.
+     */
+    public static String getKey(final ByteBuffer in) {
+        try {
+            final ByteBufferInputStream bbis = new ByteBufferInputStream(in.duplicate());
+            final Object first = new JSONTokener(bbis.newReader(MslConstants.DEFAULT_CHARSET)).nextValue();
+            if (!(first instanceof JSONObject))
+                return null;
+            final JSONObject headerJo = (JSONObject)first;
+
+            // Master token serial and sequence numbers.
+            final JSONObject masterTokenJo = headerJo.optJSONObject(KEY_MASTER_TOKEN);
+            if (masterTokenJo != null) {
+                final byte[] tokendata = Base64.decode(masterTokenJo.getString(KEY_TOKENDATA));
+                final JSONObject tokenDataJo = new JSONObject(new String(tokendata, MslConstants.DEFAULT_CHARSET));
+                return KEY_MASTER_TOKEN + ":" + tokenDataJo.getLong(KEY_SERIAL_NUMBER) + ":" + tokenDataJo.getLong(KEY_SEQUENCE_NUMBER);
+            }
+
+            // Entity authentication scheme and data.
+            final JSONObject entityAuthJo = headerJo.optJSONObject(KEY_ENTITY_AUTHENTICATION_DATA);
+            if (entityAuthJo != null)
+                return KEY_ENTITY_AUTHENTICATION_DATA + ":" + entityAuthJo.getString(KEY_SCHEME) + ":" + entityAuthJo.getJSONObject(KEY_AUTHDATA).toString();
+            return null;
+        } catch (final JSONException e) {
+            return null;
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param error the MSL error that triggered external processing.
+     * @return true if the error will recur for every message with the same
+     *         routing key.
+     */
+    public static boolean isCacheable(final MslError error) {
+        return error == ProxyMslError.ENTITYAUTH_REQUIRED ||
+            error == ProxyMslError.MASTERTOKEN_CREATION_REQUIRED ||
+            error == ProxyMslError.MASTERTOKEN_RENEWAL_REQUIRED;
+    }
+
+    /**
+     * <p>Returns true if messages with the provided routing key are known to
+     * require external processing.</p>
+     *
+     * @param key the routing key.
+     * @return true if external processing is required.
+     */
+    public synchronized boolean isExternal(final String key) {
+        final Long expiration = entries.get(key);
+        if (expiration != null && expiration > scheduler.now()) {
+            ++hitCount;
+            return true;
+        }
+        if (expiration != null)
+            entries.remove(key);
+        ++missCount;
+        return false;
+    }
+
+    /**
+     * <p>Remember that messages with the provided routing key require
+     * external processing.</p>
+     *
+     * @param key the routing key.
+     */
+    public synchronized void setExternal(final String key) {
+        entries.put(key, scheduler.now() + ttl);
+    }
+
+    /**
+     * <p>Forget the provided routing key.</p>
+     *
+     * @param key the routing key.
+     */
+    public synchronized void remove(final String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * @return the number of entries, including expired entries not yet
+     *         removed.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups that found external processing is
+     *         required.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups that did not.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /** Entry time to live in milliseconds. */
+    private final long ttl;
+    /** Time source. */
+    private final Scheduler scheduler;
+    /** Routing key expiration times in milliseconds, in access order. */
+    private final Map<String,Long> entries;
+
+    /** Lookup hits. */
+    private long hitCount = 0;
+    /** Lookup misses. */
+    private long missCount = 0;
+}
@@ -3,7 +3,6 @@
  */
 package com.netflix.msl.util;
 
-import java.util.Arrays;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -78,6 +77,9 @@ public class FailoverMslContext extends ProxyMslContext {
             throw new MslInternalException("Unable to extract identity from proxy entity authentication data.", e);
         }
         this.entityAuthFactory = new ProxyEntityAuthenticationFactory(identity, entityAuthFactory, ProxyMslError.ENTITYAUTH_CANNOT_FAILOVER);
+
+        // Key exchange.
+        keyxFactories.add(failoverKeyxFactory);
     }
 
     /* (non-Javadoc)
@@ -137,5 +139,5 @@ public class FailoverMslContext extends ProxyMslContext {
     /** Token factory. */
     private final TokenFactory tokenFactory = new FailoverTokenFactory();
     /** Key exchange factories. */
-    private final SortedSet<KeyExchangeFactory> keyxFactories = new TreeSet<KeyExchangeFactory>(Arrays.asList(failoverKeyxFactory));
+    private final SortedSet<KeyExchangeFactory> keyxFactories = new TreeSet<KeyExchangeFactory>(new KeyExchangeFactoryComparator());
 }
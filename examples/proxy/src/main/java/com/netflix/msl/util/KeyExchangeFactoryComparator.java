@@ -0,0 +1,24 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ */
+package com.netflix.msl.util;
+
+import java.util.Comparator;
+
+import com.netflix.msl.keyx.KeyExchangeFactory;
+
+/**
+ * <p>Orders key exchange factories by scheme name. Key exchange factories are
+ * not comparable so a sorted set of them requires a comparator.</p>
+ * 
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+class KeyExchangeFactoryComparator implements Comparator<KeyExchangeFactory> {
+    /* (non-Javadoc)
+     * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public int compare(final KeyExchangeFactory a, final KeyExchangeFactory b) {
+        return a.getScheme().name().compareTo(b.getScheme().name());
+    }
+}
@@ -3,7 +3,6 @@
  */
 package com.netflix.msl.util;
 
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Random;
@@ -16,6 +15,7 @@ import com.netflix.msl.MslCryptoException;
 import com.netflix.msl.MslInternalException;
 import com.netflix.msl.ProxyMslError;
 import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.RandomSource;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.entityauth.EntityAuthenticationFactory;
 import com.netflix.msl.entityauth.EntityAuthenticationScheme;
@@ -91,6 +91,9 @@ public class ProxyMslContext extends MslContext {
         
         // MSL token crypto context.
         this.cryptoContext = cryptoContext;
+
+        // Key exchange.
+        keyxFactories.add(proxyKeyxFactory);
     }
 
     /* (non-Javadoc)
@@ -106,7 +109,7 @@ public class ProxyMslContext extends MslContext {
      */
     @Override
     public Random getRandom() {
-        return new SecureRandom();
+        return random;
     }
 
     /* (non-Javadoc)
@@ -241,7 +244,9 @@ public class ProxyMslContext extends MslContext {
     /** Token factory. */
     private final TokenFactory tokenFactory = new ProxyTokenFactory();
     /** Key exchange factories. */
-    private final SortedSet<KeyExchangeFactory> keyxFactories = new TreeSet<KeyExchangeFactory>(Arrays.asList(proxyKeyxFactory));
+    private final SortedSet<KeyExchangeFactory> keyxFactories = new TreeSet<KeyExchangeFactory>(new KeyExchangeFactoryComparator());
     /** MSL store. */
     private final MslStore store = new NullMslStore();
+    /** Random number generator. */
+    private final Random random = new RandomSource();
 }
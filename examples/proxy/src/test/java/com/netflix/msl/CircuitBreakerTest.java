@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ */
+package com.netflix.msl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.schedulers.TestScheduler;
+
+import com.netflix.msl.CircuitBreaker.State;
+
+/**
+ * Circuit breaker unit tests.
+ * 
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class CircuitBreakerTest {
+    /** Window size. */
+    private static final int WINDOW_SIZE = 4;
+    /** Minimum calls. */
+    private static final int MINIMUM_CALLS = 2;
+    /** Failure rate threshold. */
+    private static final double FAILURE_RATE_THRESHOLD = 0.5;
+    /** Open duration in milliseconds. */
+    private static final long OPEN_DURATION = 1000;
+    
+    @Before
+    public void setup() {
+        scheduler = new TestScheduler();
+        breaker = new CircuitBreaker(WINDOW_SIZE, MINIMUM_CALLS, FAILURE_RATE_THRESHOLD, OPEN_DURATION, scheduler);
+    }
+    
+    @Test
+    public void minimumCalls() {
+        assertTrue(breaker.allowRequest());
+        breaker.failure();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(1.0, breaker.getFailureRate(), 0);
+        
+        assertTrue(breaker.allowRequest());
+        breaker.failure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenedCount());
+        assertEquals(2, breaker.getFailureCount());
+    }
+    
+    @Test
+    public void slidingWindow() {
+        // Failures below the threshold leave the circuit closed.
+        breaker.success();
+        breaker.success();
+        breaker.failure();
+        breaker.success();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0.25, breaker.getFailureRate(), 0);
+        
+        // The oldest successes slide out of the window.
+        breaker.success();
+        assertEquals(0.25, breaker.getFailureRate(), 0);
+        breaker.failure();
+        assertEquals(State.OPEN, breaker.getState());
+    }
+    
+    @Test
+    public void rejectWhileOpen() {
+        breaker.failure();
+        breaker.failure();
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertEquals(2, breaker.getRejectedCount());
+        
+        scheduler.advanceTimeBy(OPEN_DURATION - 1, TimeUnit.MILLISECONDS);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(3, breaker.getRejectedCount());
+    }
+    
+    @Test
+    public void halfOpenSuccess() {
+        breaker.failure();
+        breaker.failure();
+        scheduler.advanceTimeBy(OPEN_DURATION, TimeUnit.MILLISECONDS);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        
+        // Only one trial call is allowed.
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.success();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate(), 0);
+        assertTrue(breaker.allowRequest());
+    }
+    
+    @Test
+    public void halfOpenFailure() {
+        breaker.failure();
+        breaker.failure();
+        scheduler.advanceTimeBy(OPEN_DURATION, TimeUnit.MILLISECONDS);
+        assertTrue(breaker.allowRequest());
+        breaker.failure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenedCount());
+        
+        // The open duration starts again.
+        scheduler.advanceTimeBy(OPEN_DURATION - 1, TimeUnit.MILLISECONDS);
+        assertFalse(breaker.allowRequest());
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertTrue(breaker.allowRequest());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMinimumCalls() {
+        new CircuitBreaker(WINDOW_SIZE, WINDOW_SIZE + 1, FAILURE_RATE_THRESHOLD, OPEN_DURATION, scheduler);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFailureRateThreshold() {
+        new CircuitBreaker(WINDOW_SIZE, MINIMUM_CALLS, 0, OPEN_DURATION, scheduler);
+    }
+    
+    /** Test scheduler. */
+    private TestScheduler scheduler;
+    /** Circuit breaker. */
+    private CircuitBreaker breaker;
+}
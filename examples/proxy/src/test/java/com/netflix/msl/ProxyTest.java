@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ */
+package com.netflix.msl;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import com.netflix.msl.CircuitBreaker.State;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.entityauth.UnauthenticatedAuthenticationData;
+import com.netflix.msl.entityauth.UnauthenticatedAuthenticationFactory;
+import com.netflix.msl.msg.MessageDebugContext;
+import com.netflix.msl.msg.MessageInputStream;
+
+/**
+ * Proxy circuit breaker and hedged failover tests against a fake external
+ * service.
+ * 
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ProxyTest {
+    /** Character set. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** External service response. */
+    private static final String EXTERNAL = "external";
+    /** Failover response. */
+    private static final String FAILOVER = "failover";
+    /** Hedge delay in milliseconds. */
+    private static final long HEDGE_DELAY = 100;
+    /** Circuit breaker open duration in milliseconds. */
+    private static final long OPEN_DURATION = 1000;
+    
+    /**
+     * <p>A proxy that always requires external processing, with a fake
+     * external service whose latency and outcome can be set.</p>
+     */
+    private static class FakeProxy extends Proxy {
+        /**
+         * @param scheduler test scheduler.
+         * @param breaker circuit breaker. May be {@code null}.
+         * @param hedgeDelay hedge delay in milliseconds.
+         */
+        public FakeProxy(final TestScheduler scheduler, final CircuitBreaker breaker, final long hedgeDelay) {
+            this(scheduler, breaker, hedgeDelay, null);
+        }
+        
+        /**
+         * @param scheduler test scheduler.
+         * @param breaker circuit breaker. May be {@code null}.
+         * @param hedgeDelay hedge delay in milliseconds.
+         * @param routingCache routing cache. May be {@code null}.
+         */
+        public FakeProxy(final TestScheduler scheduler, final CircuitBreaker breaker, final long hedgeDelay, final RoutingCache routingCache) {
+            super(null, null, new UnauthenticatedAuthenticationData("proxy"), new UnauthenticatedAuthenticationFactory(null), null, scheduler, breaker, hedgeDelay, routingCache);
+            this.scheduler = scheduler;
+        }
+        
+        /**
+         * @param out output byte buffer.
+         * @param response the response to write.
+         */
+        private static void write(final ByteBuffer out, final String response) {
+            out.put(response.getBytes(UTF_8));
+        }
+        
+        /* (non-Javadoc)
+         * @see com.netflix.msl.Proxy#receiveLocally(com.netflix.msl.crypto.ICryptoContext, java.nio.ByteBuffer, java.nio.ByteBuffer, int, com.netflix.msl.msg.MessageDebugContext)
+         */
+        @Override
+        protected Observable<MessageInputStream> receiveLocally(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
+            ++localCalls;
+            return Observable.error(new MslException(localError));
+        }
+        
+        /* (non-Javadoc)
+         * @see com.netflix.msl.Proxy#receiveExternally(java.nio.ByteBuffer, java.nio.ByteBuffer)
+         */
+        @Override
+        protected Observable<MessageInputStream> receiveExternally(final ByteBuffer in, final ByteBuffer out) {
+            ++externalCalls;
+            final Throwable error = externalError;
+            return Observable.timer(externalLatency, TimeUnit.MILLISECONDS, scheduler)
+                .flatMap(new Func1<Long,Observable<MessageInputStream>>() {
+                    @Override
+                    public Observable<MessageInputStream> call(final Long tick) {
+                        if (error != null)
+                            return Observable.error(error);
+                        in.get(new byte[in.remaining()]);
+                        write(out, EXTERNAL);
+                        return Observable.just(null);
+                    }
+                });
+        }
+        
+        /* (non-Javadoc)
+         * @see com.netflix.msl.Proxy#receiveFailover(com.netflix.msl.crypto.ICryptoContext, java.nio.ByteBuffer, java.nio.ByteBuffer, int, com.netflix.msl.msg.MessageDebugContext)
+         */
+        @Override
+        protected Observable<MessageInputStream> receiveFailover(final ICryptoContext tokenCryptoContext, final ByteBuffer in, final ByteBuffer out, final int timeout, final MessageDebugContext dbgCtx) {
+            return Observable.fromCallable(new Callable<MessageInputStream>() {
+                @Override
+                public MessageInputStream call() throws Exception {
+                    ++failoverCalls;
+                    if (failoverError != null)
+                        throw failoverError;
+                    in.get(new byte[in.remaining()]);
+                    write(out, FAILOVER);
+                    return null;
+                }
+            });
+        }
+        
+        /* (non-Javadoc)
+         * @see com.netflix.msl.Proxy#respondExternally(com.netflix.msl.msg.MessageInputStream, com.netflix.msl.Proxy.Response, java.nio.ByteBuffer)
+         */
+        @Override
+        protected Observable<Boolean> respondExternally(final MessageInputStream request, final Response responseData, final ByteBuffer out) {
+            return Observable.error(new UnsupportedOperationException());
+        }
+        
+        /** Test scheduler. */
+        private final TestScheduler scheduler;
+        /** Local processing error. */
+        private MslError localError = ProxyMslError.ENTITYAUTH_REQUIRED;
+        /** Local processing calls. */
+        private int localCalls = 0;
+        /** External service latency in milliseconds. */
+        private long externalLatency = 0;
+        /** External service error. May be {@code null}. */
+        private Throwable externalError = null;
+        /** Failover error. May be {@code null}. */
+        private Exception failoverError = null;
+        /** External service calls. */
+        private int externalCalls = 0;
+        /** Failover calls. */
+        private int failoverCalls = 0;
+    }
+    
+    /**
+     * Receive a request and advance the test scheduler by the provided time.
+     * 
+     * @param proxy the proxy.
+     * @param time time to advance in milliseconds.
+     * @return the subscriber.
+     */
+    private TestSubscriber<MessageInputStream> receive(final Proxy proxy, final long time) {
+        in = ByteBuffer.wrap(request.getBytes(UTF_8));
+        out = ByteBuffer.allocate(64);
+        final TestSubscriber<MessageInputStream> subscriber = new TestSubscriber<MessageInputStream>();
+        proxy.receive(null, in, out, 0, null).subscribe(subscriber);
+        scheduler.advanceTimeBy(time, TimeUnit.MILLISECONDS);
+        return subscriber;
+    }
+    
+    /**
+     * @return the response written into the output byte buffer.
+     */
+    private String response() {
+        final ByteBuffer written = out.duplicate();
+        written.flip();
+        final byte[] b = new byte[written.remaining()];
+        written.get(b);
+        return new String(b, UTF_8);
+    }
+    
+    @Before
+    public void setup() {
+        request = "{}";
+        scheduler = new TestScheduler();
+        breaker = new CircuitBreaker(4, 2, 0.5, OPEN_DURATION, scheduler);
+    }
+    
+    @Test
+    public void external() {
+        final FakeProxy proxy = new FakeProxy(scheduler, null, 0);
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, 0);
+        subscriber.assertCompleted();
+        subscriber.assertNoErrors();
+        assertEquals(EXTERNAL, response());
+        assertEquals(0, proxy.failoverCalls);
+    }
+    
+    @Test
+    public void externalFailure() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, 0);
+        proxy.externalError = new ProxyIoException("down", null);
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, 0);
+        subscriber.assertCompleted();
+        assertEquals(FAILOVER, response());
+        assertEquals(1, breaker.getFailureCount());
+    }
+    
+    @Test
+    public void externalNonTransientFailure() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, 0);
+        proxy.externalError = new ProxyException("rejected", null);
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, 0);
+        subscriber.assertError(ProxyException.class);
+        assertEquals(0, proxy.failoverCalls);
+        
+        // The external service responded.
+        assertEquals(1, breaker.getSuccessCount());
+        assertEquals(0, breaker.getFailureCount());
+    }
+    
+    @Test
+    public void circuitOpens() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, 0);
+        proxy.externalError = new ProxyTransientException("down", null);
+        proxy.externalLatency = 5000;
+        receive(proxy, 5000).assertCompleted();
+        receive(proxy, 5000).assertCompleted();
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, proxy.externalCalls);
+        
+        // Requests go straight to failover without waiting.
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, 0);
+        subscriber.assertCompleted();
+        assertEquals(FAILOVER, response());
+        assertEquals(2, proxy.externalCalls);
+        assertEquals(1, breaker.getRejectedCount());
+        
+        // After the open duration a trial call closes the circuit.
+        scheduler.advanceTimeBy(OPEN_DURATION, TimeUnit.MILLISECONDS);
+        proxy.externalError = null;
+        proxy.externalLatency = 0;
+        receive(proxy, 0).assertCompleted();
+        assertEquals(EXTERNAL, response());
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+    
+    @Test
+    public void hedgeWins() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, HEDGE_DELAY);
+        proxy.externalLatency = 5000;
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, HEDGE_DELAY);
+        subscriber.assertCompleted();
+        subscriber.assertValueCount(1);
+        assertEquals(FAILOVER, response());
+        assertFalse(in.hasRemaining());
+        assertEquals(1, proxy.getHedgeCount());
+        assertEquals(1, proxy.getHedgeWinCount());
+        
+        // The abandoned external call counts as a failure.
+        assertEquals(1, breaker.getFailureCount());
+        
+        // The late external response is discarded.
+        scheduler.advanceTimeBy(5000, TimeUnit.MILLISECONDS);
+        assertEquals(FAILOVER, response());
+    }
+    
+    @Test
+    public void externalBeforeHedge() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, HEDGE_DELAY);
+        proxy.externalLatency = HEDGE_DELAY / 2;
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, HEDGE_DELAY);
+        subscriber.assertCompleted();
+        assertEquals(EXTERNAL, response());
+        assertFalse(in.hasRemaining());
+        assertEquals(0, proxy.getHedgeCount());
+        assertEquals(0, proxy.failoverCalls);
+        assertEquals(1, breaker.getSuccessCount());
+    }
+    
+    @Test
+    public void failedHedge() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, HEDGE_DELAY);
+        proxy.externalLatency = 500;
+        proxy.failoverError = new ProxyMslException("cannot failover", new MslException(ProxyMslError.ENTITYAUTH_REQUIRED));
+        
+        // The failed hedge does not end processing.
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, HEDGE_DELAY);
+        subscriber.assertNoTerminalEvent();
+        assertEquals(1, proxy.failoverCalls);
+        
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        subscriber.assertCompleted();
+        assertEquals(EXTERNAL, response());
+        assertEquals(0, proxy.getHedgeWinCount());
+    }
+    
+    @Test
+    public void failedHedgeAndExternal() {
+        final FakeProxy proxy = new FakeProxy(scheduler, breaker, HEDGE_DELAY);
+        proxy.externalLatency = 500;
+        proxy.externalError = new ProxyIoException("down", null);
+        proxy.failoverError = new ProxyMslException("cannot failover", new MslException(ProxyMslError.ENTITYAUTH_REQUIRED));
+        
+        // Failover runs only once and its error is delivered.
+        final TestSubscriber<MessageInputStream> subscriber = receive(proxy, 500);
+        subscriber.assertError(ProxyMslException.class);
+        assertEquals(1, proxy.failoverCalls);
+        assertEquals(0, out.position());
+    }
+    
+    /** Test scheduler. */
+    private TestScheduler scheduler;
+    /** Circuit breaker. */
+    private CircuitBreaker breaker;
+    /** Request. */
+    private String request;
+    /** Request byte buffer. */
+    private ByteBuffer in;
+    /** Response byte buffer. */
+    private ByteBuffer out;
+    
+    @Test
+    public void routingCache() {
+        final RoutingCache routingCache = new RoutingCache(16, 60000, scheduler);
+        final FakeProxy proxy = new FakeProxy(scheduler, null, 0, routingCache);
+        request = "{\"entityauthdata\":{\"scheme\":\"PSK\",\"authdata\":{\"identity\":\"client\"}},\"headerdata\":\"\",\"signature\":\"\"}";
+        
+        // The first request fails local processing.
+        receive(proxy, 0).assertCompleted();
+        assertEquals(EXTERNAL, response());
+        assertEquals(1, proxy.localCalls);
+        assertEquals(1, routingCache.size());
+        
+        // Later requests go straight to external processing.
+        receive(proxy, 0).assertCompleted();
+        assertEquals(EXTERNAL, response());
+        assertEquals(1, proxy.localCalls);
+        assertEquals(2, proxy.externalCalls);
+        assertEquals(1, routingCache.getHitCount());
+    }
+    
+    @Test
+    public void routingCacheMessageError() {
+        final RoutingCache routingCache = new RoutingCache(16, 60000, scheduler);
+        final FakeProxy proxy = new FakeProxy(scheduler, null, 0, routingCache);
+        proxy.localError = ProxyMslError.KEYX_REQUIRED;
+        request = "{\"entityauthdata\":{\"scheme\":\"PSK\",\"authdata\":{\"identity\":\"client\"}},\"headerdata\":\"\",\"signature\":\"\"}";
+        
+        // Key exchange depends on the message so it is not remembered.
+        receive(proxy, 0).assertCompleted();
+        receive(proxy, 0).assertCompleted();
+        assertEquals(2, proxy.localCalls);
+        assertEquals(0, routingCache.size());
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ */
+package com.netflix.msl;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.schedulers.TestScheduler;
+
+import com.netflix.msl.util.Base64;
+
+/**
+ * Routing cache unit tests.
+ * 
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class RoutingCacheTest {
+    /** Character set. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Time to live in milliseconds. */
+    private static final long TTL = 1000;
+    
+    /**
+     * @param entityAuthJo entity authentication data JSON. May be
+     *        {@code null}.
+     * @param serialNumber master token serial number. Ignored if entity
+     *        authentication data is provided.
+     * @param sequenceNumber master token sequence number. Ignored if entity
+     *        authentication data is provided.
+     * @return a byte buffer containing a message header and trailing data.
+     */
+    private static ByteBuffer message(final JSONObject entityAuthJo, final long serialNumber, final long sequenceNumber) {
+        final JSONObject headerJo = new JSONObject();
+        if (entityAuthJo != null) {
+            headerJo.put("entityauthdata", entityAuthJo);
+        } else {
+            final JSONObject tokenDataJo = new JSONObject();
+            tokenDataJo.put("serialnumber", serialNumber);
+            tokenDataJo.put("sequencenumber", sequenceNumber);
+            tokenDataJo.put("sessiondata", "AAAA");
+            final JSONObject masterTokenJo = new JSONObject();
+            masterTokenJo.put("tokendata", Base64.encode(tokenDataJo.toString().getBytes(UTF_8)));
+            masterTokenJo.put("signature", "AAAA");
+            headerJo.put("mastertoken", masterTokenJo);
+        }
+        headerJo.put("headerdata", "AAAA");
+        headerJo.put("signature", "AAAA");
+        return ByteBuffer.wrap((headerJo.toString() + "{\"payload\":\"AAAA\"}").getBytes(UTF_8));
+    }
+    
+    /**
+     * @param identity entity identity.
+     * @return entity authentication data JSON.
+     */
+    private static JSONObject entityAuth(final String identity) {
+        final JSONObject authdataJo = new JSONObject();
+        authdataJo.put("identity", identity);
+        final JSONObject entityAuthJo = new JSONObject();
+        entityAuthJo.put("scheme", "PSK");
+        entityAuthJo.put("authdata", authdataJo);
+        return entityAuthJo;
+    }
+    
+    @Before
+    public void setup() {
+        scheduler = new TestScheduler();
+        cache = new RoutingCache(2, TTL, scheduler);
+    }
+    
+    @Test
+    public void entityAuthKey() {
+        final ByteBuffer in = message(entityAuth("a"), 0, 0);
+        final int position = in.position();
+        final String key = RoutingCache.getKey(in);
+        assertNotNull(key);
+        assertEquals(position, in.position());
+        assertEquals(key, RoutingCache.getKey(message(entityAuth("a"), 0, 0)));
+        assertFalse(key.equals(RoutingCache.getKey(message(entityAuth("b"), 0, 0))));
+    }
+    
+    @Test
+    public void masterTokenKey() {
+        final String key = RoutingCache.getKey(message(null, 1, 1));
+        assertNotNull(key);
+        assertEquals(key, RoutingCache.getKey(message(null, 1, 1)));
+        
+        // A renewed master token has a different key.
+        assertFalse(key.equals(RoutingCache.getKey(message(null, 1, 2))));
+        assertFalse(key.equals(RoutingCache.getKey(message(null, 2, 1))));
+    }
+    
+    @Test
+    public void invalidKey() {
+        assertNull(RoutingCache.getKey(ByteBuffer.wrap("garbage".getBytes(UTF_8))));
+        assertNull(RoutingCache.getKey(ByteBuffer.wrap("{}".getBytes(UTF_8))));
+        assertNull(RoutingCache.getKey(ByteBuffer.wrap("{\"mastertoken\":{\"tokendata\":\"!!\"}}".getBytes(UTF_8))));
+        assertNull(RoutingCache.getKey(ByteBuffer.allocate(0)));
+    }
+    
+    @Test
+    public void cacheable() {
+        assertTrue(RoutingCache.isCacheable(ProxyMslError.ENTITYAUTH_REQUIRED));
+        assertTrue(RoutingCache.isCacheable(ProxyMslError.MASTERTOKEN_RENEWAL_REQUIRED));
+        assertFalse(RoutingCache.isCacheable(ProxyMslError.KEYX_REQUIRED));
+        assertFalse(RoutingCache.isCacheable(ProxyMslError.USERAUTH_REQUIRED));
+        assertFalse(RoutingCache.isCacheable(ProxyMslError.NONREPLAYABLE_ID_CHECK_REQUIRED));
+    }
+    
+    @Test
+    public void expiration() {
+        cache.setExternal("a");
+        assertTrue(cache.isExternal("a"));
+        scheduler.advanceTimeBy(TTL, TimeUnit.MILLISECONDS);
+        assertFalse(cache.isExternal("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    @Test
+    public void eviction() {
+        cache.setExternal("a");
+        cache.setExternal("b");
+        assertTrue(cache.isExternal("a"));
+        
+        // The least recently used entry is evicted.
+        cache.setExternal("c");
+        assertEquals(2, cache.size());
+        assertTrue(cache.isExternal("a"));
+        assertFalse(cache.isExternal("b"));
+        assertTrue(cache.isExternal("c"));
+    }
+    
+    /** Test scheduler. */
+    private TestScheduler scheduler;
+    /** Routing cache. */
+    private RoutingCache cache;
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>Compares how the example servlets hold up under slow clients.</p>
+ *
+ * <p>A number of slow clients open connections and send their request body
+ * one byte at a time. While they are connected, ordinary requests are sent
+ * and their latency is measured. A servlet that blocks a container thread
+ * per request stops serving ordinary requests once the slow clients hold
+ * all container threads.</p>
+ *
+ * <p>Usage: {@code SlowClientLoad url [slow clients] [requests]}</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class SlowClientLoad {
+    /** Default number of slow clients. */
+    private static final int DEFAULT_SLOW_CLIENTS = 250;
+    /** Default number of measured requests. */
+    private static final int DEFAULT_REQUESTS = 20;
+    /** Slow client request body length in bytes. */
+    private static final int SLOW_BODY_LENGTH = 1024;
+    /** Delay in milliseconds between slow client bytes. */
+    private static final long SLOW_DELAY_MS = 500;
+    /** Measured request timeout in milliseconds. */
+    private static final int REQUEST_TIMEOUT_MS = 10000;
+    /** Measured request body. */
+    private static final byte[] REQUEST_BODY = "{}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * <p>A client that sends its request body one byte at a time.</p>
+     */
+    private static class SlowClient extends Thread {
+        /**
+         * @param url the request URL.
+         */
+        public SlowClient(final URL url) {
+            super("SlowClient");
+            setDaemon(true);
+            this.url = url;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+            final int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+            try (final Socket socket = new Socket(url.getHost(), port)) {
+                final OutputStream out = socket.getOutputStream();
+                final String headers = "POST " + url.getFile() + " HTTP/1.1\r\n" +
+                    "Host: " + url.getHost() + ":" + port + "\r\n" +
+                    "Content-Type: application/json\r\n" +
+                    "Content-Length: " + SLOW_BODY_LENGTH + "\r\n\r\n";
+                out.write(headers.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                for (int i = 0; i < SLOW_BODY_LENGTH && !isInterrupted(); ++i) {
+                    Thread.sleep(SLOW_DELAY_MS);
+                    out.write(' ');
+                    out.flush();
+                }
+            } catch (final IOException e) {
+                // The server may close the connection.
+            } catch (final InterruptedException e) {
+                // Stopped.
+            }
+        }
+
+        /** Request URL. */
+        private final URL url;
+    }
+
+    /**
+     * @param url the request URL.
+     * @return the request latency in milliseconds or -1 if the request
+     *         failed or timed out.
+     */
+    private static long request(final URL url) {
+        final long start = System.nanoTime();
+        try {
+            final HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+            conn.setConnectTimeout(REQUEST_TIMEOUT_MS);
+            conn.setReadTimeout(REQUEST_TIMEOUT_MS);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/json");
+            try (final OutputStream out = conn.getOutputStream()) {
+                out.write(REQUEST_BODY);
+            }
+            conn.getResponseCode();
+            final InputStream in = (conn.getErrorStream() != null) ? conn.getErrorStream() : conn.getInputStream();
+            try {
+                final byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1)
+                    continue;
+            } finally {
+                in.close();
+            }
+            return (System.nanoTime() - start) / 1000000;
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param args command line arguments.
+     * @throws Exception if the load test cannot be run.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: SlowClientLoad url [slow clients] [requests]");
+            System.exit(1);
+        }
+        final URL url = new URL(args[0]);
+        final int slowClients = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SLOW_CLIENTS;
+        final int requests = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_REQUESTS;
+
+        // Baseline latency without slow clients.
+        final long baseline = request(url);
+
+        // Connect the slow clients and give the server time to accept them.
+        final List<SlowClient> clients = new ArrayList<SlowClient>();
+        for (int i = 0; i < slowClients; ++i) {
+            final SlowClient client = new SlowClient(url);
+            client.start();
+            clients.add(client);
+        }
+        Thread.sleep(2 * SLOW_DELAY_MS);
+
+        // Measure requests while the slow clients are connected.
+        final long[] latencies = new long[requests];
+        int failed = 0;
+        for (int i = 0; i < requests; ++i) {
+            latencies[i] = request(url);
+            if (latencies[i] < 0) {
+                latencies[i] = Long.MAX_VALUE;
+                ++failed;
+            }
+        }
+        for (final SlowClient client : clients)
+            client.interrupt();
+
+        Arrays.sort(latencies);
+        final int served = requests - failed;
+        System.out.println(String.format(Locale.US, "%s: %d slow clients, %d requests", url, slowClients, requests));
+        System.out.println(String.format(Locale.US, "baseline %d ms", baseline));
+        System.out.println(String.format(Locale.US, "served %d, failed or timed out %d", served, failed));
+        if (served > 0) {
+            System.out.println(String.format(Locale.US, "median %d ms, max %d ms",
+                latencies[(served - 1) / 2], latencies[served - 1]));
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>An asynchronous variant of the {@link SimpleServlet}.</p>
+ *
+ * <p>The request is read with non-blocking I/O and MSL processing runs on a
+ * dedicated bounded thread pool. The response is also written with non-
+ * blocking I/O, after which the request is completed. No container thread
+ * is held while a slow client sends its request or receives its response.
+ * Requests are rejected with HTTP status code {@code 503} when the pool and
+ * its queue are full or if the request times out before a response is
+ * ready.</p>
+ *
+ * <p>The number of processing threads and queued requests may be configured
+ * with the {@code threads} and {@code queue} servlet init parameters.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class AsyncSimpleServlet extends SimpleServlet {
+    private static final long serialVersionUID = 2946427325404312566L;
+
+    /** Init parameter: number of processing threads. */
+    private static final String PARAM_THREADS = "threads";
+    /** Init parameter: number of queued requests. */
+    private static final String PARAM_QUEUE = "queue";
+    /** Default number of processing threads. */
+    private static final int DEFAULT_THREADS = 8;
+    /** Default number of queued requests. */
+    private static final int DEFAULT_QUEUE = 64;
+
+    /** Maximum request size in bytes. */
+    private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+    /** Read and write chunk size in bytes. */
+    private static final int CHUNK_SIZE = 8192;
+    /**
+     * Asynchronous request timeout in milliseconds. Longer than the MSL
+     * control timeout so processing can finish.
+     */
+    private static final long ASYNC_TIMEOUT_MS = 2L * SimpleConstants.TIMEOUT_MS;
+
+    /**
+     * <p>Thread factory for daemon processing threads.</p>
+     */
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "AsyncSimpleServlet");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    /**
+     * <p>Tracks an asynchronous request so that only one response is
+     * started and the request is completed only once, even if it times out
+     * or fails while it is being processed.</p>
+     */
+    private static class AsyncRequest implements AsyncListener {
+        /**
+         * @param async the asynchronous context.
+         */
+        public AsyncRequest(final AsyncContext async) {
+            this.async = async;
+        }
+
+        /**
+         * <p>Claim the response. Only the first caller may write the
+         * response, and no caller may once the request has timed out or
+         * completed.</p>
+         *
+         * @return true if the caller may write the response.
+         */
+        public boolean respond() {
+            return responding.compareAndSet(false, true);
+        }
+
+        /**
+         * <p>Complete the request unless it has already been completed.</p>
+         */
+        public void complete() {
+            if (completed.compareAndSet(false, true))
+                async.complete();
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            // If a response is already being written it cannot be replaced.
+            if (respond()) {
+                System.err.println("MSL request timed out.");
+                fail(this, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "MSL request timed out.");
+            } else {
+                complete();
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onError(final AsyncEvent event) {
+            responding.set(true);
+            complete();
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            responding.set(true);
+            completed.set(true);
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+
+        /** Asynchronous context. */
+        private final AsyncContext async;
+        /** True once the response has been claimed. */
+        private final AtomicBoolean responding = new AtomicBoolean(false);
+        /** True once the request has been completed. */
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+    }
+
+    /**
+     * <p>Complete a request with an HTTP error status code, unless its
+     * response has already been claimed.</p>
+     *
+     * @param request the asynchronous request.
+     * @param status the HTTP status code.
+     * @param message the error message.
+     */
+    private static void fail(final AsyncRequest request, final int status, final String message) {
+        if (!request.respond())
+            return;
+        try {
+            ((HttpServletResponse)request.async.getResponse()).sendError(status, message);
+        } catch (final IOException e) {
+            e.printStackTrace(System.err);
+        } finally {
+            request.complete();
+        }
+    }
+
+    /**
+     * <p>Reads the request without blocking and submits it for processing
+     * once it has been received.</p>
+     */
+    private class RequestReader implements ReadListener {
+        /**
+         * @param request the asynchronous request.
+         * @param in the request input stream.
+         */
+        public RequestReader(final AsyncRequest request, final ServletInputStream in) {
+            this.request = request;
+            this.in = in;
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.ReadListener#onDataAvailable()
+         */
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (!failed && in.isReady()) {
+                final int count = in.read(buffer);
+                if (count < 0)
+                    return;
+                body.write(buffer, 0, count);
+                if (body.size() > MAX_REQUEST_SIZE) {
+                    failed = true;
+                    fail(request, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "MSL request too large.");
+                }
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.ReadListener#onAllDataRead()
+         */
+        @Override
+        public void onAllDataRead() {
+            if (failed)
+                return;
+            try {
+                executor.execute(new Processor(request, body.toByteArray()));
+            } catch (final RejectedExecutionException e) {
+                System.err.println("Rejected MSL request: processing pool is full.");
+                fail(request, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "MSL servlet busy.");
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.ReadListener#onError(java.lang.Throwable)
+         */
+        @Override
+        public void onError(final Throwable t) {
+            t.printStackTrace(System.err);
+            request.respond();
+            request.complete();
+        }
+
+        /** Asynchronous request. */
+        private final AsyncRequest request;
+        /** Request input stream. */
+        private final ServletInputStream in;
+        /** Read buffer. */
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        /** Request body. */
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        /** True if the request has been rejected. */
+        private boolean failed = false;
+    }
+
+    /**
+     * <p>Processes a received request and starts writing the response.</p>
+     */
+    private class Processor implements Runnable {
+        /**
+         * @param request the asynchronous request.
+         * @param body the request body.
+         */
+        public Processor(final AsyncRequest request, final byte[] body) {
+            this.request = request;
+            this.body = body;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            // The request and response are buffered so MSL processing never
+            // waits on the client.
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try {
+                process(new ByteArrayInputStream(body), response);
+            } catch (final Throwable t) {
+                t.printStackTrace(System.err);
+                fail(request, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "MSL processing failed.");
+                return;
+            }
+
+            // Skip the response if the request timed out while it was being
+            // processed.
+            if (!request.respond())
+                return;
+            try {
+                final ServletOutputStream out = request.async.getResponse().getOutputStream();
+                out.setWriteListener(new ResponseWriter(request, out, response.toByteArray()));
+            } catch (final Throwable t) {
+                // The request may have timed out and been completed
+                // concurrently.
+                t.printStackTrace(System.err);
+                request.complete();
+            }
+        }
+
+        /** Asynchronous request. */
+        private final AsyncRequest request;
+        /** Request body. */
+        private final byte[] body;
+    }
+
+    /**
+     * <p>Writes the response without blocking and completes the request once
+     * it has been written.</p>
+     */
+    private static class ResponseWriter implements WriteListener {
+        /**
+         * @param request the asynchronous request.
+         * @param out the response output stream.
+         * @param response the response body.
+         */
+        public ResponseWriter(final AsyncRequest request, final ServletOutputStream out, final byte[] response) {
+            this.request = request;
+            this.out = out;
+            this.response = response;
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.WriteListener#onWritePossible()
+         */
+        @Override
+        public void onWritePossible() throws IOException {
+            while (out.isReady()) {
+                if (offset == response.length) {
+                    request.complete();
+                    return;
+                }
+                final int count = Math.min(CHUNK_SIZE, response.length - offset);
+                out.write(response, offset, count);
+                offset += count;
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see javax.servlet.WriteListener#onError(java.lang.Throwable)
+         */
+        @Override
+        public void onError(final Throwable t) {
+            t.printStackTrace(System.err);
+            request.complete();
+        }
+
+        /** Asynchronous request. */
+        private final AsyncRequest request;
+        /** Response output stream. */
+        private final ServletOutputStream out;
+        /** Response body. */
+        private final byte[] response;
+        /** Number of bytes written. */
+        private int offset = 0;
+    }
+
+    /**
+     * @param name init parameter name.
+     * @param defaultValue value to use if the init parameter is not set.
+     * @return the init parameter value.
+     * @throws ServletException if the init parameter is not a positive
+     *         integer.
+     */
+    private int getPositiveInitParameter(final String name, final int defaultValue) throws ServletException {
+        final String value = getInitParameter(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            final int i = Integer.parseInt(value);
+            if (i > 0)
+                return i;
+        } catch (final NumberFormatException e) {
+            // Fall through.
+        }
+        throw new ServletException("Init parameter " + name + " must be a positive integer: " + value + ".");
+    }
+
+    /* (non-Javadoc)
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+        final int threads = getPositiveInitParameter(PARAM_THREADS, DEFAULT_THREADS);
+        final int queue = getPositiveInitParameter(PARAM_QUEUE, DEFAULT_QUEUE);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queue), THREAD_FACTORY);
+    }
+
+    /* (non-Javadoc)
+     * @see javax.servlet.GenericServlet#destroy()
+     */
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /* (non-Javadoc)
+     * @see server.SimpleServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        // Allow requests from anywhere.
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+
+        // If "quit" then return HTTP status code 401.
+        if (isQuit()) {
+            System.out.println("Returning 401.");
+            resp.sendError(HttpServletResponse.SC_GONE, "MSL servlet terminated.");
+            return;
+        }
+
+        // Read the request without blocking.
+        final AsyncContext async = req.startAsync();
+        final AsyncRequest request = new AsyncRequest(async);
+        async.addListener(request);
+        async.setTimeout(ASYNC_TIMEOUT_MS);
+        final ServletInputStream in = req.getInputStream();
+        in.setReadListener(new RequestReader(request, in));
+    }
+
+    /** MSL processing thread pool. */
+    private transient ExecutorService executor;
+}
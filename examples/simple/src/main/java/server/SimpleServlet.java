@@ -93,7 +93,7 @@ public class SimpleServlet extends HttpServlet {
     };
     
     /** "Quit" state. */
-    private static boolean QUIT = false;
+    private static volatile boolean QUIT = false;
     
     // Add BouncyCastle provider.
     static {
@@ -141,6 +141,13 @@ public class SimpleServlet extends HttpServlet {
         cryptoContexts.put("", stCryptoContext);
     }
     
+    /**
+     * @return true if an authorized client has issued a quit operation.
+     */
+    protected static boolean isQuit() {
+        return QUIT;
+    }
+    
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -156,12 +163,23 @@ public class SimpleServlet extends HttpServlet {
             return;
         }
         
+        // Process the request.
+        process(req.getInputStream(), resp.getOutputStream());
+    }
+    
+    /**
+     * <p>Receive a MSL request from the input stream, execute it, and write
+     * the MSL response to the output stream. This blocks until the response
+     * has been sent.</p>
+     * 
+     * @param in request input stream.
+     * @param out response output stream.
+     */
+    protected void process(final InputStream in, final OutputStream out) {
         //  Set up the receive MSL message context.
         final MessageContext rcvMsgCtx = new SimpleReceiveMessageContext(cryptoContexts);
 
         // Receive a request.
-        final InputStream in = req.getInputStream();
-        final OutputStream out = resp.getOutputStream();
         final MessageInputStream request;
         final Future<MessageInputStream> requestFuture = ctrl.receive(ctx, rcvMsgCtx, in, out, SimpleConstants.TIMEOUT_MS);
         try {
@@ -32,10 +32,12 @@ import com.netflix.msl.MslUserIdTokenException;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.tokens.MasterToken;
 import com.netflix.msl.tokens.MslUser;
+import com.netflix.msl.tokens.NonReplayableIdAcceptor;
 import com.netflix.msl.tokens.TokenFactory;
 import com.netflix.msl.tokens.UserIdToken;
 import com.netflix.msl.util.JsonUtils;
 import com.netflix.msl.util.MslContext;
+import com.netflix.msl.util.RevocationIndex;
 
 /**
  * <p>A memory-backed token factory.</p>
@@ -47,8 +49,16 @@ public class SimpleTokenFactory implements TokenFactory {
     private static final int RENEWAL_OFFSET = 60000;
     /** Expiration offset in milliseconds. */
     private static final int EXPIRATION_OFFSET = 120000;
-    /** Non-replayable ID acceptance window. */
-    private static final long NON_REPLAYABLE_ID_WINDOW = 65536;
+    
+    /**
+     * <p>Create a new token factory that consults the provided revocation
+     * index for revoked master tokens and user ID tokens.</p>
+     * 
+     * @param revocations token revocation index.
+     */
+    public SimpleTokenFactory(final RevocationIndex revocations) {
+        this.revocations = revocations;
+    }
     
     /**
      * Return true if the provided master token is the newest master token
@@ -72,9 +82,8 @@ public class SimpleTokenFactory implements TokenFactory {
      * @see com.netflix.msl.tokens.TokenFactory#isMasterTokenRevoked(com.netflix.msl.util.MslContext, com.netflix.msl.tokens.MasterToken)
      */
     @Override
-    public MslError isMasterTokenRevoked(final MslContext ctx, final MasterToken masterToken) {
-        // No support for revoked master tokens.
-        return null;
+    public MslError isMasterTokenRevoked(final MslContext ctx, final MasterToken masterToken) throws MslMasterTokenException {
+        return revocations.isMasterTokenRevoked(masterToken);
     }
 
     /* (non-Javadoc)
@@ -82,47 +91,7 @@ public class SimpleTokenFactory implements TokenFactory {
      */
     @Override
     public MslError acceptNonReplayableId(final MslContext ctx, final MasterToken masterToken, final long nonReplayableId) throws MslException {
-        if (!masterToken.isDecrypted())
-            throw new MslMasterTokenException(MslError.MASTERTOKEN_UNTRUSTED, masterToken);
-        if (nonReplayableId < 0 || nonReplayableId > MslConstants.MAX_LONG_VALUE)
-            throw new MslException(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE, "nonReplayableId " + nonReplayableId);
-        
-        // Accept if there is no non-replayable ID.
-        final String key = masterToken.getIdentity() + ":" + masterToken.getSerialNumber();
-        final Long largestNonReplayableId = nonReplayableIds.get(key);
-        if (largestNonReplayableId == null) {
-            nonReplayableIds.put(key, nonReplayableId);
-            return null;
-        }
-        
-        // Reject if the non-replayable ID is equal or just a few messages
-        // behind. The sender can recover by incrementing.
-        final long catchupWindow = MslConstants.MAX_MESSAGES / 2;
-        if (nonReplayableId <= largestNonReplayableId &&
-            nonReplayableId > largestNonReplayableId - catchupWindow)
-        {
-            return MslError.MESSAGE_REPLAYED;
-        }
-
-        // Reject if the non-replayable ID is larger by more than the
-        // acceptance window. The sender cannot recover quickly.
-        if (nonReplayableId - NON_REPLAYABLE_ID_WINDOW > largestNonReplayableId)
-            return MslError.MESSAGE_REPLAYED_UNRECOVERABLE;
-        
-        // If the non-replayable ID is smaller reject it if it is outside the
-        // wrap-around window. The sender cannot recover quickly.
-        if (nonReplayableId < largestNonReplayableId) {
-            final long cutoff = largestNonReplayableId - MslConstants.MAX_LONG_VALUE + NON_REPLAYABLE_ID_WINDOW;
-            if (nonReplayableId >= cutoff)
-                return MslError.MESSAGE_REPLAYED_UNRECOVERABLE;
-        }
-        
-        // Accept the non-replayable ID.
-        //
-        // This is not perfect, since it's possible a smaller value will
-        // overwrite a larger value, but it's good enough for the example.
-        nonReplayableIds.put(key, nonReplayableId);
-        return null;
+        return nonReplayableIds.accept(ctx, masterToken, nonReplayableId);
     }
 
     /* (non-Javadoc)
@@ -193,8 +162,7 @@ public class SimpleTokenFactory implements TokenFactory {
      */
     @Override
     public MslError isUserIdTokenRevoked(final MslContext ctx, final MasterToken masterToken, final UserIdToken userIdToken) {
-        // No support for revoked user ID tokens.
-        return null;
+        return revocations.isUserIdTokenRevoked(userIdToken);
     }
 
     /* (non-Javadoc)
@@ -238,6 +206,8 @@ public class SimpleTokenFactory implements TokenFactory {
     
     /** Map of entity identities onto sequence numbers. */
     private final ConcurrentHashMap<String,Long> mtSequenceNumbers = new ConcurrentHashMap<String,Long>();
-    /** Map of entity identities and serial numbers onto non-replayable IDs. */
-    private final ConcurrentHashMap<String,Long> nonReplayableIds = new ConcurrentHashMap<String,Long>();
+    /** Non-replayable IDs by master token identity and serial number. */
+    private final NonReplayableIdAcceptor nonReplayableIds = new NonReplayableIdAcceptor();
+    /** Token revocation index. */
+    private final RevocationIndex revocations;
 }
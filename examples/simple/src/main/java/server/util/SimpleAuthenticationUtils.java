@@ -20,6 +20,7 @@ import com.netflix.msl.keyx.KeyExchangeScheme;
 import com.netflix.msl.tokens.MslUser;
 import com.netflix.msl.userauth.UserAuthenticationScheme;
 import com.netflix.msl.util.AuthenticationUtils;
+import com.netflix.msl.util.RevocationIndex;
 
 /**
  * <p>Restrict clients to unauthenticated entity authentication and the local
@@ -34,9 +35,11 @@ public class SimpleAuthenticationUtils implements AuthenticationUtils {
      * identity.</p>
      * 
      * @param serverId local server entity identity.
+     * @param revocations entity revocation index.
      */
-    public SimpleAuthenticationUtils(final String serverId) {
+    public SimpleAuthenticationUtils(final String serverId, final RevocationIndex revocations) {
         this.serverId = serverId;
+        this.revocations = revocations;
     }
     
     /* (non-Javadoc)
@@ -44,7 +47,7 @@ public class SimpleAuthenticationUtils implements AuthenticationUtils {
      */
     @Override
     public boolean isEntityRevoked(final String identity) {
-        return false;
+        return revocations.isEntityRevoked(identity);
     }
 
     /* (non-Javadoc)
@@ -82,4 +85,6 @@ public class SimpleAuthenticationUtils implements AuthenticationUtils {
     
     /** Local server entity identity. */
     private final String serverId;
+    /** Entity revocation index. */
+    private final RevocationIndex revocations;
 }
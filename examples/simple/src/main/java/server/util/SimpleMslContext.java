@@ -15,7 +15,6 @@
  */
 package server.util;
 
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -35,6 +34,7 @@ import server.userauth.SimpleTokenFactory;
 import com.netflix.msl.MslConstants.CompressionAlgorithm;
 import com.netflix.msl.MslCryptoException;
 import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.RandomSource;
 import com.netflix.msl.crypto.SymmetricCryptoContext;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.entityauth.EntityAuthenticationFactory;
@@ -56,6 +56,7 @@ import com.netflix.msl.util.AuthenticationUtils;
 import com.netflix.msl.util.MslContext;
 import com.netflix.msl.util.MslStore;
 import com.netflix.msl.util.NullMslStore;
+import com.netflix.msl.util.RevocationIndex;
 
 /**
  * <p>The example server MSL context.</p>
@@ -131,8 +132,11 @@ public class SimpleMslContext extends MslContext {
         final SecretKey wrappingKey = new SecretKeySpec(MSL_WRAPPING_KEY, "AES");
         this.mslCryptoContext = new SymmetricCryptoContext(this, serverId, encryptionKey, hmacKey, wrappingKey);
         
-        // Create authentication utils.
-        final AuthenticationUtils authutils = new SimpleAuthenticationUtils(serverId);
+        // Create authentication utils and the token factory. Both share the
+        // same revocation index.
+        final RevocationIndex revocations = new RevocationIndex();
+        final AuthenticationUtils authutils = new SimpleAuthenticationUtils(serverId, revocations);
+        this.tokenFactory = new SimpleTokenFactory(revocations);
         
         // Entity authentication.
         //
@@ -165,7 +169,7 @@ public class SimpleMslContext extends MslContext {
      */
     @Override
     public Random getRandom() {
-        return new SecureRandom();
+        return random;
     }
 
     /* (non-Javadoc)
@@ -287,7 +291,8 @@ public class SimpleMslContext extends MslContext {
     private final ICryptoContext mslCryptoContext;
     private final Set<EntityAuthenticationFactory> entityAuthFactories;
     private final UserAuthenticationFactory userAuthFactory;
-    private final TokenFactory tokenFactory = new SimpleTokenFactory();
+    private final TokenFactory tokenFactory;
     private final SortedSet<KeyExchangeFactory> keyxFactories;
     private final MslStore store = new NullMslStore();
+    private final Random random = new RandomSource();
 }
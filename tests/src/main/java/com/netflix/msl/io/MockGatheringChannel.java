@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * <p>An in-memory gathering byte channel that records its writes. Each write
+ * call accepts at most a configurable number of bytes to exercise partial
+ * writes.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MockGatheringChannel implements GatheringByteChannel {
+    /**
+     * <p>Create a new gathering channel that accepts all bytes on every
+     * write.</p>
+     */
+    public MockGatheringChannel() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * <p>Create a new gathering channel.</p>
+     *
+     * @param maxWrite maximum number of bytes accepted by each write.
+     */
+    public MockGatheringChannel(final int maxWrite) {
+        this.maxWrite = maxWrite;
+    }
+
+    /* (non-Javadoc)
+     * @see java.nio.channels.GatheringByteChannel#write(java.nio.ByteBuffer[], int, int)
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        ++gatheringWrites;
+        long count = 0;
+        for (int i = offset; i < offset + length && count < maxWrite; ++i) {
+            final ByteBuffer src = srcs[i];
+            while (src.hasRemaining() && count < maxWrite) {
+                data.write(src.get());
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.nio.channels.GatheringByteChannel#write(java.nio.ByteBuffer[])
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /* (non-Javadoc)
+     * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        return (int)write(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    /* (non-Javadoc)
+     * @see java.nio.channels.Channel#isOpen()
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /* (non-Javadoc)
+     * @see java.nio.channels.Channel#close()
+     */
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    /**
+     * @return the number of write calls.
+     */
+    public int getWrites() {
+        return gatheringWrites;
+    }
+
+    /**
+     * @return all bytes written so far.
+     */
+    public byte[] toByteArray() {
+        return data.toByteArray();
+    }
+
+    /** Maximum number of bytes accepted by each write. */
+    private final int maxWrite;
+    /** Written bytes. */
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    /** Number of write calls. */
+    private int gatheringWrites = 0;
+    /** True if open. */
+    private boolean open = true;
+}
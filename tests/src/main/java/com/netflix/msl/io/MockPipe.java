@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * <p>An in-memory duplex pipe. Data written to the output stream of one end
+ * is read from the input stream of the other end.</p>
+ *
+ * <p>Unlike {@link java.io.PipedInputStream} the pipe does not track the
+ * threads using it, so either end may be used from any number of threads.
+ * Writes never block. Closing either stream of a direction ends that
+ * direction: reads return end of stream once buffered data is consumed and
+ * writes fail.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MockPipe {
+    /**
+     * <p>One direction of the pipe.</p>
+     */
+    private static class Buffer {
+        /**
+         * @param b the data.
+         * @param off data offset.
+         * @param len data length.
+         * @throws IOException if this direction is closed.
+         */
+        public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed)
+                throw new IOException("Pipe closed.");
+            if (len == 0)
+                return;
+            chunks.add(Arrays.copyOfRange(b, off, off + len));
+            available += len;
+            notifyAll();
+        }
+
+        /**
+         * @param b destination buffer.
+         * @param off destination offset.
+         * @param len maximum number of bytes to read.
+         * @return the number of bytes read or -1 at end of stream.
+         * @throws InterruptedIOException if interrupted while waiting.
+         */
+        public synchronized int read(final byte[] b, final int off, final int len) throws InterruptedIOException {
+            if (len == 0)
+                return 0;
+            while (available == 0 && !closed) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for pipe data.");
+                }
+            }
+            if (available == 0)
+                return -1;
+            int copied = 0;
+            while (copied < len && available > 0) {
+                final byte[] chunk = chunks.peek();
+                final int count = Math.min(len - copied, chunk.length - offset);
+                System.arraycopy(chunk, offset, b, off + copied, count);
+                copied += count;
+                offset += count;
+                available -= count;
+                if (offset == chunk.length) {
+                    chunks.poll();
+                    offset = 0;
+                }
+            }
+            return copied;
+        }
+
+        /**
+         * @return the number of buffered bytes.
+         */
+        public synchronized int available() {
+            return available;
+        }
+
+        /**
+         * Close this direction.
+         */
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        /** Buffered data chunks. */
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+        /** Read offset into the first chunk. */
+        private int offset = 0;
+        /** Number of buffered bytes. */
+        private int available = 0;
+        /** True if closed. */
+        private boolean closed = false;
+    }
+
+    /**
+     * <p>One end of the pipe.</p>
+     */
+    public static class End implements Url.Connection {
+        /**
+         * @param source buffer to read from.
+         * @param destination buffer to write to.
+         */
+        private End(final Buffer source, final Buffer destination) {
+            this.input = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    final byte[] b = new byte[1];
+                    return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    return source.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return source.available();
+                }
+
+                @Override
+                public void close() {
+                    source.close();
+                }
+            };
+            this.output = new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    write(new byte[] { (byte)b }, 0, 1);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    destination.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    destination.close();
+                }
+            };
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.io.Url.Connection#getInputStream()
+         */
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.io.Url.Connection#getOutputStream()
+         */
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        /** Input stream. */
+        private final InputStream input;
+        /** Output stream. */
+        private final OutputStream output;
+    }
+
+    /**
+     * Create a new duplex pipe.
+     */
+    public MockPipe() {
+        final Buffer forward = new Buffer();
+        final Buffer reverse = new Buffer();
+        this.local = new End(reverse, forward);
+        this.remote = new End(forward, reverse);
+    }
+
+    /**
+     * @return the local end of the pipe.
+     */
+    public End getLocal() {
+        return local;
+    }
+
+    /**
+     * @return the remote end of the pipe.
+     */
+    public End getRemote() {
+        return remote;
+    }
+
+    /** Local end. */
+    private final End local;
+    /** Remote end. */
+    private final End remote;
+}
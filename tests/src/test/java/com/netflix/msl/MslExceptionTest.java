@@ -16,9 +16,11 @@
 package com.netflix.msl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -29,6 +31,7 @@ import com.netflix.msl.tokens.UserIdToken;
 import com.netflix.msl.userauth.EmailPasswordAuthenticationData;
 import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
 import com.netflix.msl.userauth.UserAuthenticationData;
+import com.netflix.msl.util.Base64;
 import com.netflix.msl.util.MockMslContext;
 import com.netflix.msl.util.MslContext;
 import com.netflix.msl.util.MslTestUtils;
@@ -88,6 +91,68 @@ public class MslExceptionTest {
         assertEquals("cause", cause.getMessage());
     }
     
+    @Test
+    public void errorLabelDetails() {
+        final JSONObject jo = new JSONObject();
+        jo.put("key", "value");
+        final MslException e = new MslException(MslError.JSON_PARSE_ERROR, "label", jo);
+        assertEquals(MslError.JSON_PARSE_ERROR, e.getError());
+        assertEquals(MslError.JSON_PARSE_ERROR.getMessage() + " [label " + jo.toString() + "]", e.getMessage());
+    }
+    
+    @Test
+    public void errorLabelJsonStringDetails() throws MslEncodingException, MslCryptoException {
+        final MasterToken masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        final MslException e = new MslException(MslError.JSON_PARSE_ERROR, "mastertoken", masterToken);
+        assertEquals(MslError.JSON_PARSE_ERROR.getMessage() + " [mastertoken " + masterToken.toJSONString() + "]", e.getMessage());
+    }
+    
+    @Test
+    public void errorLabelBytesDetails() {
+        final byte[] data = new byte[] { 0, 1, 2, 3 };
+        final MslException e = new MslException(MslError.JSON_PARSE_ERROR, "data", data);
+        assertEquals(MslError.JSON_PARSE_ERROR.getMessage() + " [data " + Base64.encode(data) + "]", e.getMessage());
+    }
+    
+    @Test
+    public void errorLabelBytesDetailsCopied() {
+        final byte[] data = new byte[] { 0, 1, 2, 3 };
+        final String expected = Base64.encode(data);
+        final MslException e = new MslException(MslError.JSON_PARSE_ERROR, "data", data);
+        data[0] = 4;
+        assertEquals(MslError.JSON_PARSE_ERROR.getMessage() + " [data " + expected + "]", e.getMessage());
+    }
+    
+    @Test
+    public void errorLabelDetailsCause() {
+        final MslException e = new MslException(MslError.ENCRYPT_ERROR, "label", Long.valueOf(1), new RuntimeException("cause"));
+        assertEquals(MslError.ENCRYPT_ERROR, e.getError());
+        assertEquals(MslError.ENCRYPT_ERROR.getMessage() + " [label 1]", e.getMessage());
+        final Throwable cause = e.getCause();
+        assertTrue(cause instanceof RuntimeException);
+        assertEquals("cause", cause.getMessage());
+    }
+    
+    @Test
+    public void fastFailure() {
+        // Stack traces are always captured when assertions are enabled.
+        boolean debug = false;
+        assert debug = true;
+        
+        try {
+            MslException.setFastFailure(true);
+            assertEquals(!debug, MslException.isFastFailure());
+            final MslException e = new MslMessageException(MslError.MESSAGE_REPLAYED, "label", Long.valueOf(1));
+            assertEquals(debug, e.getStackTrace().length > 0);
+            assertEquals(MslError.MESSAGE_REPLAYED.getMessage() + " [label 1]", e.getMessage());
+        } finally {
+            MslException.setFastFailure(false);
+        }
+        assertFalse(MslException.isFastFailure());
+        final MslException e = new MslMessageException(MslError.MESSAGE_REPLAYED);
+        assertTrue(e.getStackTrace().length > 0);
+    }
+    
     @Test
     public void setEntityMasterToken() throws MslEncodingException, MslCryptoException {
         final MslException e = new MslException(MslError.JSON_PARSE_ERROR);
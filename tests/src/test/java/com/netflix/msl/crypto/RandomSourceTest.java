@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Random source unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class RandomSourceTest {
+    /**
+     * @param hex hexadecimal string.
+     * @return the decoded bytes.
+     */
+    private static byte[] hex(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    /**
+     * @param a first array.
+     * @param b second array.
+     * @return the concatenation of the two arrays.
+     */
+    private static byte[] concat(final byte[] a, final byte[] b) {
+        final byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    /**
+     * NIST CAVP HMAC_DRBG SHA-256 known answer test, without prediction
+     * resistance, personalization string, or additional input.
+     */
+    @Test
+    public void hmacDrbgKnownAnswer() {
+        final byte[] entropy = hex("ca851911349384bffe89de1cbdc46e6831e44d34a4fb935ee285dd14b71a7488");
+        final byte[] nonce = hex("659ba96c601dc69fc902940805ec0ca8");
+        final byte[] expected = hex("e528e9abf2dece54d47c7e75e5fe302149f817ea9fb4bee6f4199697d04d5b89" +
+                                    "d54fbb978a15b5c443c9ec21036d2460b6f73ebad0dc2aba6e624abf07745bc1" +
+                                    "07694bb7547bb0995f70de25d6b29e2d3011bb19d27676c07162c8b5ccde0668" +
+                                    "961df86803482cb37ed6d5c0bb8d50cf1f50d476aa0458bdaba806f48be9dcb8");
+
+        final RandomSource.HmacDrbg drbg = new RandomSource.HmacDrbg(concat(entropy, nonce));
+        final byte[] output = new byte[expected.length];
+        drbg.generate(output, 0, output.length);
+        drbg.generate(output, 0, output.length);
+        assertArrayEquals(expected, output);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBufferSize() {
+        new RandomSource(new SecureRandom(), -1);
+    }
+
+    @Test
+    public void nextBytes() {
+        final RandomSource random = new RandomSource();
+        final Set<String> values = new HashSet<String>();
+        for (final int size : new int[] { 1, 16, 100, RandomSource.DEFAULT_BUFFER_SIZE, 1000, 100000 }) {
+            final byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            assertTrue(values.add(Arrays.toString(bytes)));
+        }
+    }
+
+    @Test
+    public void unbuffered() {
+        final RandomSource random = new RandomSource(new SecureRandom(), 0);
+        final byte[] a = new byte[16];
+        final byte[] b = new byte[16];
+        random.nextBytes(a);
+        random.nextBytes(b);
+        assertFalse(Arrays.equals(a, b));
+    }
+
+    @Test
+    public void nextLong() {
+        final RandomSource random = new RandomSource();
+        final Set<Long> values = new HashSet<Long>();
+        for (int i = 0; i < 1000; ++i)
+            values.add(random.nextLong());
+        assertEquals(1000, values.size());
+    }
+
+    @Test
+    public void nextIntBound() {
+        final RandomSource random = new RandomSource();
+        final int[] counts = new int[4];
+        for (int i = 0; i < 4000; ++i)
+            ++counts[random.nextInt(counts.length)];
+        for (final int count : counts)
+            assertTrue(count > 0);
+    }
+
+    @Test
+    public void setSeedSupplements() {
+        // Setting the same seed on two sources does not make them produce
+        // the same output.
+        final RandomSource a = new RandomSource();
+        final RandomSource b = new RandomSource();
+        a.setSeed(1);
+        b.setSeed(1);
+        assertFalse(a.nextLong() == b.nextLong());
+    }
+
+    @Test
+    public void serialization() throws Exception {
+        final RandomSource random = new RandomSource();
+        random.nextLong();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(random);
+        oos.close();
+        final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final RandomSource copy = (RandomSource)ois.readObject();
+        ois.close();
+
+        // The copy generates its own output.
+        final byte[] a = new byte[32];
+        final byte[] b = new byte[32];
+        random.nextBytes(a);
+        copy.nextBytes(b);
+        assertFalse(Arrays.equals(a, b));
+        copy.setSeed(1);
+        copy.nextLong();
+    }
+
+    @Test
+    public void threads() throws Exception {
+        final RandomSource random = new RandomSource();
+        final int numThreads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final Set<String> values = Collections.synchronizedSet(new HashSet<String>());
+            final Callable<Void> task = new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < 1000; ++i) {
+                        final byte[] iv = new byte[16];
+                        random.nextBytes(iv);
+                        values.add(Arrays.toString(iv));
+                    }
+                    return null;
+                }
+            };
+            final Future<?>[] futures = new Future<?>[numThreads];
+            for (int i = 0; i < numThreads; ++i)
+                futures[i] = executor.submit(task);
+            for (final Future<?> future : futures)
+                future.get();
+            assertEquals(numThreads * 1000, values.size());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -18,12 +18,18 @@ package com.netflix.msl.crypto;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.List;
@@ -545,6 +551,33 @@ public class SymmetricCryptoContextTest {
         cryptoContext.verify(message, signature);
     }
     
+    @Test
+    public void codec() throws IOException, MslCryptoException {
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(encoded);
+        SymmetricCryptoContextCodec.write(out, (SymmetricCryptoContext)cryptoContext);
+        out.close();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        final ICryptoContext decoded = SymmetricCryptoContextCodec.read(ctx, in);
+        assertEquals(0, in.available());
+        
+        final byte[] message = new byte[32];
+        random.nextBytes(message);
+        assertArrayEquals(message, decoded.decrypt(cryptoContext.encrypt(message)));
+        assertTrue(decoded.verify(message, cryptoContext.sign(message)));
+        assertArrayEquals(message, decoded.unwrap(cryptoContext.wrap(message)));
+    }
+    
+    @Test(expected = IOException.class)
+    public void codecTruncated() throws IOException {
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(encoded);
+        SymmetricCryptoContextCodec.write(out, (SymmetricCryptoContext)cryptoContext);
+        out.close();
+        final byte[] truncated = Arrays.copyOf(encoded.toByteArray(), encoded.size() - 1);
+        SymmetricCryptoContextCodec.read(ctx, new DataInputStream(new ByteArrayInputStream(truncated)));
+    }
+    
     /** MSL context. */
     private static MslContext ctx;
     /** Random. */
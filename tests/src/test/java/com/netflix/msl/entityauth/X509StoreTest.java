@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.entityauth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * X.509 certificate store unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class X509StoreTest {
+    /** CA certificate. */
+    private static final String CA_CERT = "entityauth/ca.pem";
+    /** Second CA certificate with the same subject name. */
+    private static final String CA2_CERT = "entityauth/ca2.pem";
+    /** Leaf certificate issued by the CA. */
+    private static final String LEAF_CERT = "entityauth/leaf.pem";
+    /** Leaf certificate issued by the second CA. */
+    private static final String LEAF2_CERT = "entityauth/leaf2.pem";
+    /** Expired certificate. */
+    private static final String EXPIRED_CERT = "entityauth/expired.pem";
+    /** Untrusted certificate. */
+    private static final String UNTRUSTED_CERT = "entityauth/untrusted.pem";
+
+    /**
+     * @param resource certificate resource name.
+     * @return the certificate.
+     * @throws IOException if there is an error reading the resource.
+     * @throws CertificateException if the certificate is malformed.
+     */
+    private static X509Certificate getCertificate(final String resource) throws IOException, CertificateException {
+        final CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        final InputStream in = X509StoreTest.class.getClassLoader().getResourceAsStream(resource);
+        try {
+            return (X509Certificate)factory.generateCertificate(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @BeforeClass
+    public static void setup() throws IOException, CertificateException {
+        caCert = getCertificate(CA_CERT);
+        ca2Cert = getCertificate(CA2_CERT);
+        leafCert = getCertificate(LEAF_CERT);
+        leaf2Cert = getCertificate(LEAF2_CERT);
+        expiredCert = getCertificate(EXPIRED_CERT);
+        untrustedCert = getCertificate(UNTRUSTED_CERT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCacheSize() {
+        new X509Store(-1);
+    }
+
+    @Test
+    public void empty() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        assertFalse(store.isAccepted(leafCert));
+        assertFalse(store.isAccepted(caCert));
+    }
+
+    @Test
+    public void accepted() throws GeneralSecurityException, IOException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        assertTrue(store.isAccepted(caCert));
+        assertTrue(store.isAccepted(leafCert));
+
+        // Cached results are returned on subsequent calls.
+        assertTrue(store.isAccepted(leafCert));
+        assertTrue(store.isAccepted(getCertificate(LEAF_CERT)));
+    }
+
+    @Test
+    public void sameIssuerName() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        assertTrue(store.isAccepted(leafCert));
+        assertFalse(store.isAccepted(leaf2Cert));
+
+        store.addTrusted(ca2Cert);
+        assertTrue(store.isAccepted(leafCert));
+        assertTrue(store.isAccepted(leaf2Cert));
+    }
+
+    @Test
+    public void noCache() throws GeneralSecurityException {
+        final X509Store store = new X509Store(0);
+        store.addTrusted(caCert);
+        assertTrue(store.isAccepted(leafCert));
+        assertTrue(store.isAccepted(leafCert));
+        assertFalse(store.isAccepted(leaf2Cert));
+    }
+
+    @Test
+    public void fullCache() throws GeneralSecurityException {
+        final X509Store store = new X509Store(1);
+        store.addTrusted(caCert);
+        store.addTrusted(ca2Cert);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(store.isAccepted(leafCert));
+            assertTrue(store.isAccepted(leaf2Cert));
+        }
+    }
+
+    @Test
+    public void untrusted() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        assertFalse(store.isAccepted(untrustedCert));
+    }
+
+    @Test(expected = CertificateExpiredException.class)
+    public void expired() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        store.isAccepted(expiredCert);
+    }
+
+    @Test(expected = CertificateException.class)
+    public void addNonCa() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        store.addTrusted(leafCert);
+    }
+
+    @Test(expected = CertificateException.class)
+    public void addUntrustedSubordinate() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        store.addTrusted(Arrays.asList(leafCert));
+    }
+
+    @Test
+    public void addDuplicate() throws GeneralSecurityException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        store.addTrusted(caCert);
+        assertTrue(store.isAccepted(leafCert));
+    }
+
+    @Test
+    public void concurrent() throws GeneralSecurityException, InterruptedException {
+        final X509Store store = new X509Store();
+        store.addTrusted(caCert);
+        store.addTrusted(ca2Cert);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; ++j) {
+                            if (!store.isAccepted(leafCert) || !store.isAccepted(leaf2Cert) || store.isAccepted(untrustedCert))
+                                failed.set(true);
+                        }
+                    } catch (final GeneralSecurityException e) {
+                        failed.set(true);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+        assertFalse(failed.get());
+    }
+
+    /** CA certificate. */
+    private static X509Certificate caCert;
+    /** Second CA certificate. */
+    private static X509Certificate ca2Cert;
+    /** Leaf certificate. */
+    private static X509Certificate leafCert;
+    /** Second leaf certificate. */
+    private static X509Certificate leaf2Cert;
+    /** Expired certificate. */
+    private static X509Certificate expiredCert;
+    /** Untrusted certificate. */
+    private static X509Certificate untrustedCert;
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Byte buffer and channel input stream tests.
+ * 
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ByteBufferInputStreamTest {
+    /** UTF-8 charset. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Text with multi-byte characters and a surrogate pair. */
+    private static final String TEXT = "caf\u00e9 \u65e5\u672c \ud83d\ude00 end";
+    
+    /** Random. */
+    private static final Random random = new Random();
+    
+    /**
+     * Read all characters from the reader one at a time.
+     * 
+     * @param reader the reader.
+     * @return the characters read.
+     * @throws IOException if there is an error reading.
+     */
+    private static String readSingle(final Reader reader) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final char[] c = new char[1];
+        while (reader.read(c, 0, 1) != -1)
+            sb.append(c[0]);
+        return sb.toString();
+    }
+    
+    @Test
+    public void readOffsets() throws IOException {
+        final byte[] data = new byte[32];
+        random.nextBytes(data);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        final ByteBufferInputStream bbis = new ByteBufferInputStream(buffer);
+        
+        final byte[] read = new byte[48];
+        assertEquals(16, bbis.read(read, 8, 16));
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 16), Arrays.copyOfRange(read, 8, 24));
+        assertEquals(16, bbis.available());
+        assertEquals(data[16] & 0xff, bbis.read());
+        assertEquals(15, bbis.read(read, 0, read.length));
+        assertArrayEquals(Arrays.copyOfRange(data, 17, 32), Arrays.copyOfRange(read, 0, 15));
+        assertEquals(-1, bbis.read());
+        assertEquals(-1, bbis.read(read, 0, read.length));
+        bbis.close();
+    }
+    
+    @Test
+    public void markReset() throws IOException {
+        final byte[] data = new byte[16];
+        random.nextBytes(data);
+        final ByteBufferInputStream bbis = new ByteBufferInputStream(ByteBuffer.wrap(data));
+        assertTrue(bbis.markSupported());
+        
+        assertEquals(4, bbis.skip(4));
+        bbis.mark(Integer.MAX_VALUE);
+        final byte[] first = new byte[8];
+        assertEquals(8, bbis.read(first));
+        bbis.reset();
+        final byte[] second = new byte[8];
+        assertEquals(8, bbis.read(second));
+        assertArrayEquals(first, second);
+        assertArrayEquals(Arrays.copyOfRange(data, 4, 12), first);
+        bbis.close();
+    }
+    
+    @Test(expected = IOException.class)
+    public void resetWithoutMark() throws IOException {
+        final ByteBufferInputStream bbis = new ByteBufferInputStream(ByteBuffer.allocate(8));
+        try {
+            bbis.reset();
+        } finally {
+            bbis.close();
+        }
+    }
+    
+    @Test
+    public void reader() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        buffer.put(TEXT.getBytes(UTF_8));
+        buffer.flip();
+        final Reader reader = new ByteBufferInputStream(buffer).newReader(UTF_8);
+        assertEquals(TEXT, readSingle(reader));
+        reader.close();
+    }
+    
+    @Test
+    public void channel() throws IOException {
+        final byte[] data = new byte[1000];
+        random.nextBytes(data);
+        final ByteArrayInputStream source = new ByteArrayInputStream(data);
+        final ChannelInputStream cis = new ChannelInputStream(Channels.newChannel(source), ByteBuffer.allocateDirect(7));
+        assertFalse(cis.markSupported());
+        
+        final byte[] read = new byte[data.length];
+        int count = 0;
+        while (count < read.length) {
+            final int n = cis.read(read, count, read.length - count);
+            assertTrue(n > 0);
+            count += n;
+        }
+        assertArrayEquals(data, read);
+        assertEquals(-1, cis.read());
+        cis.close();
+    }
+    
+    @Test
+    public void channelReader() throws IOException {
+        // Use the smallest buffer that holds a UTF-8 character so characters
+        // span channel reads.
+        final ByteArrayInputStream source = new ByteArrayInputStream(TEXT.getBytes(UTF_8));
+        final ChannelInputStream cis = new ChannelInputStream(Channels.newChannel(source), ByteBuffer.allocateDirect(4));
+        final Reader reader = cis.newReader(UTF_8);
+        assertEquals(TEXT, readSingle(reader));
+        reader.close();
+    }
+    
+    @Test(expected = IOException.class)
+    public void channelReaderBufferTooSmall() throws IOException {
+        final ByteArrayInputStream source = new ByteArrayInputStream(TEXT.getBytes(UTF_8));
+        final ChannelInputStream cis = new ChannelInputStream(Channels.newChannel(source), ByteBuffer.allocateDirect(3));
+        final Reader reader = cis.newReader(UTF_8);
+        try {
+            readSingle(reader);
+        } finally {
+            reader.close();
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void readOnlyChannelBuffer() {
+        final ByteArrayInputStream source = new ByteArrayInputStream(new byte[0]);
+        new ChannelInputStream(Channels.newChannel(source), ByteBuffer.allocate(8).asReadOnlyBuffer());
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Byte buffer and channel output stream tests.
+ * 
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ByteBufferOutputStreamTest {
+    /** UTF-8 charset. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Text with multi-byte characters and a surrogate pair. */
+    private static final String TEXT = "caf\u00e9 \u65e5\u672c \ud83d\ude00 end";
+    
+    /** Random. */
+    private static final Random random = new Random();
+    
+    @Test
+    public void writeOffsets() throws IOException {
+        final byte[] data = new byte[32];
+        random.nextBytes(data);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        final ByteBufferOutputStream bbos = new ByteBufferOutputStream(buffer);
+        bbos.write(data, 8, 8);
+        bbos.write(data[0]);
+        bbos.close();
+        
+        buffer.flip();
+        final byte[] written = new byte[buffer.remaining()];
+        buffer.get(written);
+        final byte[] expected = Arrays.copyOf(Arrays.copyOfRange(data, 8, 16), 9);
+        expected[8] = data[0];
+        assertArrayEquals(expected, written);
+    }
+    
+    @Test
+    public void overflow() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        final ByteBufferOutputStream bbos = new ByteBufferOutputStream(buffer);
+        bbos.write(new byte[4]);
+        try {
+            bbos.write(new byte[5]);
+            fail("Overflow should have been rejected.");
+        } catch (final IOException e) {
+            assertEquals(4, buffer.position());
+        }
+        try {
+            bbos.write(TEXT, UTF_8);
+            fail("Overflow should have been rejected.");
+        } catch (final IOException e) {
+            assertEquals(4, buffer.position());
+        }
+        bbos.close();
+    }
+    
+    @Test(expected = IOException.class)
+    public void readOnly() throws IOException {
+        final ByteBufferOutputStream bbos = new ByteBufferOutputStream(ByteBuffer.allocate(8).asReadOnlyBuffer());
+        try {
+            bbos.write(0);
+        } finally {
+            bbos.close();
+        }
+    }
+    
+    @Test
+    public void writeChars() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        final ByteBufferOutputStream bbos = new ByteBufferOutputStream(buffer);
+        bbos.write(TEXT, UTF_8);
+        bbos.close();
+        
+        buffer.flip();
+        final byte[] written = new byte[buffer.remaining()];
+        buffer.get(written);
+        assertArrayEquals(TEXT.getBytes(UTF_8), written);
+    }
+    
+    @Test
+    public void channelGatheringWrite() throws IOException {
+        final MockGatheringChannel channel = new MockGatheringChannel(5);
+        final ChannelOutputStream cos = new ChannelOutputStream(channel);
+        
+        // Written byte arrays are copied.
+        final byte[] data = new byte[16];
+        random.nextBytes(data);
+        final byte[] original = Arrays.copyOf(data, data.length);
+        cos.write(data);
+        Arrays.fill(data, (byte)0);
+        cos.write(TEXT, UTF_8);
+        assertEquals(0, channel.getWrites());
+        
+        // Partial writes must be continued until all data is written.
+        cos.flush();
+        final byte[] text = TEXT.getBytes(UTF_8);
+        final byte[] expected = Arrays.copyOf(original, original.length + text.length);
+        System.arraycopy(text, 0, expected, original.length, text.length);
+        assertArrayEquals(expected, channel.toByteArray());
+        assertEquals((expected.length + 4) / 5, channel.getWrites());
+        
+        cos.close();
+        assertFalse(channel.isOpen());
+    }
+    
+    @Test
+    public void channelWrite() throws IOException {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final ChannelOutputStream cos = new ChannelOutputStream(Channels.newChannel(sink));
+        final byte[] data = new byte[16];
+        random.nextBytes(data);
+        cos.write(data);
+        cos.write(ByteBuffer.wrap(data));
+        assertEquals(0, sink.size());
+        cos.close();
+        
+        final byte[] expected = Arrays.copyOf(data, 32);
+        System.arraycopy(data, 0, expected, 16, 16);
+        assertArrayEquals(expected, sink.toByteArray());
+    }
+    
+    @Test(expected = IOException.class)
+    public void channelClosed() throws IOException {
+        final ChannelOutputStream cos = new ChannelOutputStream(new MockGatheringChannel());
+        cos.close();
+        cos.write(0);
+    }
+}
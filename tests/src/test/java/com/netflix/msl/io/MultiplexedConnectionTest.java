@@ -0,0 +1,426 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslException;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.io.MultiplexedConnection.Exchange;
+import com.netflix.msl.keyx.KeyRequestData;
+import com.netflix.msl.msg.MessageContext;
+import com.netflix.msl.msg.MessageInputStream;
+import com.netflix.msl.msg.MessageOutputStream;
+import com.netflix.msl.msg.MockMessageContext;
+import com.netflix.msl.msg.MslControl;
+import com.netflix.msl.msg.MslControl.MslChannel;
+import com.netflix.msl.userauth.UserAuthenticationScheme;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * Multiplexed connection unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MultiplexedConnectionTest {
+    /** Number of concurrent exchanges. */
+    private static final int EXCHANGES = 16;
+    /** MSL control timeout in milliseconds. */
+    private static final int TIMEOUT = 30000;
+
+    /**
+     * Read all remaining data from the input stream.
+     *
+     * @param in the input stream.
+     * @return the data.
+     * @throws IOException if there is an error reading the data.
+     */
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        do {
+            final int read = in.read(buffer);
+            if (read == -1) break;
+            baos.write(buffer, 0, read);
+        } while (true);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Accept exchanges and echo their data back until the connection is
+     * closed.
+     *
+     * @param connection the server connection.
+     * @return the server task.
+     */
+    private Future<Integer> echo(final MultiplexedConnection connection) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int count = 0;
+                Exchange exchange;
+                while ((exchange = connection.accept()) != null) {
+                    final Exchange current = exchange;
+                    executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            final byte[] data = readAll(current.getInputStream());
+                            final OutputStream out = current.getOutputStream();
+                            out.write(data);
+                            out.close();
+                            return null;
+                        }
+                    });
+                    ++count;
+                }
+                return count;
+            }
+        });
+    }
+
+    @Before
+    public void setup() {
+        final MockPipe pipe = new MockPipe();
+        client = new MultiplexedConnection(pipe.getLocal().getInputStream(), pipe.getLocal().getOutputStream());
+        server = new MultiplexedConnection(pipe.getRemote().getInputStream(), pipe.getRemote().getOutputStream());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void teardown() throws InterruptedException {
+        client.close();
+        server.close();
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void exchange() throws Exception {
+        final Future<Integer> serverTask = echo(server);
+
+        final byte[] data = new byte[3 * MultiplexedConnection.MAX_FRAME_SIZE + 17];
+        random.nextBytes(data);
+        final Exchange exchange = client.open();
+        assertTrue(exchange.isLocal());
+        final OutputStream out = exchange.getOutputStream();
+        out.write(data);
+        out.close();
+        assertArrayEquals(data, readAll(exchange.getInputStream()));
+        exchange.close();
+
+        client.close();
+        assertEquals(1, serverTask.get().intValue());
+    }
+
+    @Test
+    public void emptyExchange() throws Exception {
+        echo(server);
+
+        final Exchange exchange = client.open();
+        exchange.getOutputStream().close();
+        final InputStream in = exchange.getInputStream();
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void concurrentExchanges() throws Exception {
+        echo(server);
+
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < EXCHANGES; ++i) {
+            final byte[] data = new byte[random.nextInt(4 * MultiplexedConnection.MAX_FRAME_SIZE)];
+            random.nextBytes(data);
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    final Exchange exchange = client.open();
+                    final OutputStream out = exchange.getOutputStream();
+
+                    // Interleave small writes with other exchanges.
+                    int offset = 0;
+                    while (offset < data.length) {
+                        final int length = Math.min(data.length - offset, 1000);
+                        out.write(data, offset, length);
+                        out.flush();
+                        offset += length;
+                    }
+                    out.close();
+                    final byte[] response = readAll(exchange.getInputStream());
+                    exchange.close();
+                    return Arrays.equals(data, response);
+                }
+            }));
+        }
+        for (final Future<Boolean> result : results)
+            assertTrue(result.get());
+    }
+
+    @Test
+    public void uniqueIds() throws IOException {
+        final HashSet<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < EXCHANGES; ++i)
+            assertTrue(ids.add(client.open().getId()));
+    }
+
+    @Test
+    public void bidirectional() throws Exception {
+        // Both entities may open exchanges on the same connection.
+        echo(server);
+        echo(client);
+
+        final Exchange fromClient = client.open();
+        final Exchange fromServer = server.open();
+        assertEquals(fromClient.getId(), fromServer.getId());
+
+        final byte[] clientData = new byte[] { 1, 2, 3 };
+        final byte[] serverData = new byte[] { 4, 5, 6 };
+        fromClient.getOutputStream().write(clientData);
+        fromClient.getOutputStream().close();
+        fromServer.getOutputStream().write(serverData);
+        fromServer.getOutputStream().close();
+        assertArrayEquals(clientData, readAll(fromClient.getInputStream()));
+        assertArrayEquals(serverData, readAll(fromServer.getInputStream()));
+    }
+
+    @Test
+    public void responseBeforeRequestEnds() throws Exception {
+        final Exchange exchange = client.open();
+        final OutputStream out = exchange.getOutputStream();
+        out.write(new byte[] { 1 });
+        out.flush();
+
+        final Exchange accepted = server.accept();
+        assertNotNull(accepted);
+        assertFalse(accepted.isLocal());
+        assertEquals(exchange.getId(), accepted.getId());
+        assertEquals(1, accepted.getInputStream().read());
+        accepted.getOutputStream().write(new byte[] { 2 });
+        accepted.getOutputStream().flush();
+
+        assertEquals(2, exchange.getInputStream().read());
+        out.close();
+        assertEquals(-1, accepted.getInputStream().read());
+        accepted.getOutputStream().close();
+        assertEquals(-1, exchange.getInputStream().read());
+    }
+
+    @Test
+    public void readTimeout() throws IOException {
+        final Exchange exchange = client.open();
+        exchange.setTimeout(100);
+        exchange.getOutputStream().write(new byte[] { 1 });
+        exchange.getOutputStream().flush();
+        try {
+            exchange.getInputStream().read();
+            fail("Read should have timed out.");
+        } catch (final SocketTimeoutException e) {
+        }
+    }
+
+    @Test
+    public void writeAfterClose() throws IOException {
+        final Exchange exchange = client.open();
+        final OutputStream out = exchange.getOutputStream();
+        out.close();
+        try {
+            out.write(1);
+            fail("Write should have failed.");
+        } catch (final IOException e) {
+        }
+    }
+
+    @Test
+    public void closedConnection() throws Exception {
+        final Exchange exchange = client.open();
+        exchange.getOutputStream().write(new byte[] { 1 });
+        exchange.getOutputStream().flush();
+        assertNotNull(server.accept());
+
+        server.close();
+        assertTrue(server.isClosed());
+        assertNull(server.accept());
+        assertNull(server.accept());
+        try {
+            server.open();
+            fail("Open should have failed.");
+        } catch (final IOException e) {
+        }
+
+        // The client observes the remote close.
+        try {
+            readAll(exchange.getInputStream());
+            fail("Read should have failed.");
+        } catch (final IOException e) {
+        }
+        assertTrue(client.isClosed());
+    }
+
+    @Test
+    public void acceptAfterRemoteClose() throws InterruptedException {
+        client.close();
+        assertNull(server.accept());
+        assertTrue(server.isClosed());
+    }
+
+    @Test
+    public void invalidFrame() throws Exception {
+        final MockPipe pipe = new MockPipe();
+        final MultiplexedConnection connection = new MultiplexedConnection(pipe.getRemote().getInputStream(), pipe.getRemote().getOutputStream());
+        try {
+            // Frame length exceeds the maximum.
+            final DataOutputStream out = new DataOutputStream(pipe.getLocal().getOutputStream());
+            out.writeByte(0x02);
+            out.writeInt(1);
+            out.writeInt(MultiplexedConnection.MAX_FRAME_SIZE + 1);
+            out.flush();
+            assertNull(connection.accept());
+            assertTrue(connection.isClosed());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void mslControl() throws Exception {
+        final MockMslContext clientCtx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        final MockMslContext serverCtx = new MockMslContext(EntityAuthenticationScheme.RSA, false);
+        final MslControl clientCtrl = new MslControl(EXCHANGES);
+        final MslControl serverCtrl = new MslControl(0);
+        try {
+            // Serve each accepted exchange the same way as any other stream
+            // based server.
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final MessageContext rcvCtx = new MockMessageContext(serverCtx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+                    Exchange exchange;
+                    while ((exchange = server.accept()) != null) {
+                        final Exchange current = exchange;
+                        executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                final InputStream in = current.getInputStream();
+                                final OutputStream out = current.getOutputStream();
+                                try {
+                                    final MessageInputStream request = serverCtrl.receive(serverCtx, rcvCtx, in, out, TIMEOUT).get();
+                                    final byte[] data = readAll(request);
+                                    request.close();
+                                    serverCtrl.respond(serverCtx, new EchoMessageContext(serverCtx, data), in, out, request, TIMEOUT).get();
+                                } finally {
+                                    current.close();
+                                }
+                                return null;
+                            }
+                        });
+                    }
+                    return null;
+                }
+            });
+
+            final Url url = new MultiplexedUrl(client);
+            final List<byte[]> requests = new ArrayList<byte[]>();
+            final List<Future<MslChannel>> channels = new ArrayList<Future<MslChannel>>();
+            for (int i = 0; i < EXCHANGES; ++i) {
+                final byte[] data = ("request " + i).getBytes(MslConstants.DEFAULT_CHARSET);
+                requests.add(data);
+                channels.add(clientCtrl.request(clientCtx, new EchoMessageContext(clientCtx, data), url, TIMEOUT));
+            }
+            for (int i = 0; i < EXCHANGES; ++i) {
+                final MslChannel channel = channels.get(i).get();
+                assertNotNull(channel);
+                assertNull(channel.input.getErrorHeader());
+                final byte[] response = readAll(channel.input);
+                channel.input.close();
+                assertArrayEquals(requests.get(i), response);
+            }
+        } finally {
+            clientCtrl.shutdown();
+            serverCtrl.shutdown();
+        }
+    }
+
+    /**
+     * A message context that writes fixed application data and does not
+     * request keys.
+     */
+    private static class EchoMessageContext extends MockMessageContext {
+        /**
+         * @param ctx MSL context.
+         * @param data application data.
+         * @throws MslException if there is an error creating the message
+         *         context.
+         * @throws GeneralSecurityException if there is an
+         *         error creating the message context.
+         */
+        public EchoMessageContext(final MockMslContext ctx, final byte[] data) throws MslException, GeneralSecurityException {
+            super(ctx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+            setKeyRequestData(Collections.<KeyRequestData>emptySet());
+            this.data = data;
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.msg.MockMessageContext#write(com.netflix.msl.msg.MessageOutputStream)
+         */
+        @Override
+        public void write(final MessageOutputStream output) throws IOException {
+            output.write(data);
+            output.close();
+        }
+
+        /** Application data. */
+        private final byte[] data;
+    }
+
+    /** Random. */
+    private final Random random = new Random();
+    /** Client connection. */
+    private MultiplexedConnection client;
+    /** Server connection. */
+    private MultiplexedConnection server;
+    /** Executor. */
+    private ExecutorService executor;
+}
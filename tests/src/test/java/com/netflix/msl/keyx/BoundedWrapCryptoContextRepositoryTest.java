@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.keyx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.JcaAlgorithm;
+import com.netflix.msl.crypto.NullCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.keyx.JsonWebEncryptionLadderExchange.AesKwJweCryptoContext;
+import com.netflix.msl.keyx.JsonWebKeyLadderExchange.AesKwJwkCryptoContext;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * Bounded wrapping key crypto context repository unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class BoundedWrapCryptoContextRepositoryTest {
+    /** Crypto context lifetime in milliseconds. */
+    private static final long TTL = 60000;
+    /** JSON web key plaintext. */
+    private static final byte[] JWK = "{\"kty\":\"oct\",\"k\":\"AAAAAAAAAAAAAAAAAAAAAA\"}".getBytes(MslConstants.DEFAULT_CHARSET);
+
+    /**
+     * MSL context with a settable clock.
+     */
+    private static class ClockMslContext extends MockMslContext {
+        /**
+         * @throws MslEncodingException if there is an error encoding JSON.
+         * @throws MslCryptoException if there is an error creating crypto
+         *         contexts.
+         */
+        public ClockMslContext() throws MslEncodingException, MslCryptoException {
+            super(EntityAuthenticationScheme.PSK, false);
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.util.MockMslContext#getTime()
+         */
+        @Override
+        public long getTime() {
+            return time;
+        }
+
+        /** Current time in milliseconds. */
+        public long time = 1000000;
+    }
+
+    /**
+     * @param i wrap data index.
+     * @return wrap data unique to the index.
+     */
+    private static byte[] wrapdata(final int i) {
+        return ("wrapdata" + i).getBytes(MslConstants.DEFAULT_CHARSET);
+    }
+
+    /**
+     * @return a new random AES key wrap secret key.
+     */
+    private SecretKey newKey() {
+        final byte[] keydata = new byte[16];
+        random.nextBytes(keydata);
+        return new SecretKeySpec(keydata, JcaAlgorithm.AESKW);
+    }
+
+    @Before
+    public void setup() throws MslEncodingException, MslCryptoException {
+        ctx = new ClockMslContext();
+        random = new Random();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroMaxSize() {
+        new BoundedWrapCryptoContextRepository(ctx, 0, TTL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroTtl() {
+        new BoundedWrapCryptoContextRepository(ctx, 16, 0);
+    }
+
+    @Test
+    public void addGetRemove() {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx);
+        final ICryptoContext cryptoContext = new NullCryptoContext();
+        assertNull(repository.getCryptoContext(wrapdata(1)));
+        repository.addCryptoContext(wrapdata(1), cryptoContext);
+        assertEquals(1, repository.size());
+
+        // Lookups are by content.
+        assertSame(cryptoContext, repository.getCryptoContext(wrapdata(1)));
+        assertNull(repository.getCryptoContext(wrapdata(2)));
+
+        repository.removeCryptoContext(wrapdata(1));
+        assertNull(repository.getCryptoContext(wrapdata(1)));
+        assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void wrapdataCopied() {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx);
+        final ICryptoContext cryptoContext = new NullCryptoContext();
+        final byte[] wrapdata = wrapdata(1);
+        repository.addCryptoContext(wrapdata, cryptoContext);
+        wrapdata[0] ^= 0xff;
+        assertSame(cryptoContext, repository.getCryptoContext(wrapdata(1)));
+    }
+
+    @Test
+    public void replace() {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx);
+        final ICryptoContext cryptoContextA = new NullCryptoContext();
+        final ICryptoContext cryptoContextB = new NullCryptoContext();
+        repository.addCryptoContext(wrapdata(1), cryptoContextA);
+        repository.addCryptoContext(wrapdata(1), cryptoContextB);
+        assertEquals(1, repository.size());
+        assertSame(cryptoContextB, repository.getCryptoContext(wrapdata(1)));
+    }
+
+    @Test
+    public void expiration() {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        repository.addCryptoContext(wrapdata(1), new NullCryptoContext());
+        ctx.time += TTL;
+        assertNotNull(repository.getCryptoContext(wrapdata(1)));
+        ctx.time += 1;
+        assertNull(repository.getCryptoContext(wrapdata(1)));
+        assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void bounded() {
+        final int maxSize = 64;
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, maxSize, TTL);
+        for (int i = 0; i < 10000; ++i)
+            repository.addCryptoContext(wrapdata(i), new NullCryptoContext());
+        assertTrue(repository.size() <= maxSize);
+        assertNull(repository.getCryptoContext(wrapdata(0)));
+        assertNotNull(repository.getCryptoContext(wrapdata(9999)));
+    }
+
+    @Test
+    public void leastRecentlyUsed() {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, 64, TTL);
+        final ICryptoContext cryptoContext = new NullCryptoContext();
+        repository.addCryptoContext(wrapdata(-1), cryptoContext);
+        for (int i = 0; i < 10000; ++i) {
+            repository.addCryptoContext(wrapdata(i), new NullCryptoContext());
+            assertSame(cryptoContext, repository.getCryptoContext(wrapdata(-1)));
+        }
+    }
+
+    @Test
+    public void clear() {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx);
+        for (int i = 0; i < 100; ++i)
+            repository.addCryptoContext(wrapdata(i), new NullCryptoContext());
+        repository.clear();
+        assertEquals(0, repository.size());
+        assertNull(repository.getCryptoContext(wrapdata(0)));
+    }
+
+    @Test
+    public void snapshot() throws IOException, MslCryptoException {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        final ICryptoContext jweCryptoContext = new AesKwJweCryptoContext(ctx, newKey());
+        final ICryptoContext jwkCryptoContext = new AesKwJwkCryptoContext(newKey());
+        repository.addCryptoContext(wrapdata(1), jweCryptoContext);
+        repository.addCryptoContext(wrapdata(2), jwkCryptoContext);
+        repository.addCryptoContext(wrapdata(3), new NullCryptoContext());
+        repository.addCryptoContext(wrapdata(4), new AesKwJwkCryptoContext(new NullCryptoContext()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.save(out);
+
+        // Only the crypto contexts with known keys are restored.
+        final BoundedWrapCryptoContextRepository restored = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        restored.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, restored.size());
+        assertNull(restored.getCryptoContext(wrapdata(3)));
+        assertNull(restored.getCryptoContext(wrapdata(4)));
+
+        final ICryptoContext restoredJwe = restored.getCryptoContext(wrapdata(1));
+        assertTrue(restoredJwe instanceof AesKwJweCryptoContext);
+        assertArrayEquals(JWK, restoredJwe.unwrap(jweCryptoContext.wrap(JWK)));
+        final ICryptoContext restoredJwk = restored.getCryptoContext(wrapdata(2));
+        assertTrue(restoredJwk instanceof AesKwJwkCryptoContext);
+        assertArrayEquals(jwkCryptoContext.unwrap(jwkCryptoContext.wrap(JWK)), restoredJwk.unwrap(jwkCryptoContext.wrap(JWK)));
+
+        // Restored crypto contexts keep their original expiration.
+        ctx.time += TTL + 1;
+        assertNull(restored.getCryptoContext(wrapdata(1)));
+    }
+
+    @Test
+    public void snapshotSkipsExpired() throws IOException {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        repository.addCryptoContext(wrapdata(1), new AesKwJwkCryptoContext(newKey()));
+        ctx.time += TTL / 2;
+        repository.addCryptoContext(wrapdata(2), new AesKwJwkCryptoContext(newKey()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.save(out);
+
+        ctx.time += TTL / 2 + 1;
+        final BoundedWrapCryptoContextRepository restored = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        restored.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(1, restored.size());
+        assertNotNull(restored.getCryptoContext(wrapdata(2)));
+    }
+
+    @Test
+    public void badSnapshot() throws IOException {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        repository.addCryptoContext(wrapdata(1), new AesKwJwkCryptoContext(newKey()));
+        repository.addCryptoContext(wrapdata(2), new AesKwJwkCryptoContext(newKey()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.save(out);
+        final byte[] snapshot = out.toByteArray();
+        final byte[] truncated = new byte[snapshot.length - 1];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+
+        final BoundedWrapCryptoContextRepository restored = new BoundedWrapCryptoContextRepository(ctx, 16, TTL);
+        try {
+            restored.load(new ByteArrayInputStream(truncated));
+            fail("Truncated snapshot was accepted.");
+        } catch (final IOException e) {
+            assertEquals(0, restored.size());
+        }
+        try {
+            restored.load(new ByteArrayInputStream(new byte[] { 0, 0, 0, 0, 1, 0, 0, 0, 0 }));
+            fail("Snapshot with bad magic number was accepted.");
+        } catch (final IOException e) {
+            assertEquals(0, restored.size());
+        }
+    }
+
+    @Test
+    public void concurrent() throws InterruptedException {
+        final BoundedWrapCryptoContextRepository repository = new BoundedWrapCryptoContextRepository(ctx, 1024, TTL);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            final int base = t * 100000;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; ++i) {
+                        final ICryptoContext cryptoContext = new NullCryptoContext();
+                        repository.addCryptoContext(wrapdata(base + i), cryptoContext);
+                        final ICryptoContext found = repository.getCryptoContext(wrapdata(base + i));
+                        if (found != null && found != cryptoContext)
+                            failed.set(true);
+                        repository.removeCryptoContext(wrapdata(base + i - 1));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+        assertFalse(failed.get());
+        assertTrue(repository.size() <= 1024);
+    }
+
+    /** MSL context. */
+    private ClockMslContext ctx;
+    /** Random. */
+    private Random random;
+}
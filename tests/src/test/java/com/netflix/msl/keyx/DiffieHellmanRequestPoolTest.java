@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.keyx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslKeyExchangeException;
+import com.netflix.msl.keyx.DiffieHellmanExchange.RequestData;
+import com.netflix.msl.test.ExpectedMslException;
+
+/**
+ * Diffie-Hellman request data pool unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class DiffieHellmanRequestPoolTest {
+    /** Parameters ID. */
+    private static final String PARAMETERS_ID = MockDiffieHellmanParameters.DEFAULT_ID;
+    /** Pool size. */
+    private static final int POOL_SIZE = 3;
+
+    /** Executor that runs tasks on the calling thread. */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public ExpectedMslException thrown = ExpectedMslException.none();
+
+    @BeforeClass
+    public static void setup() {
+        params = MockDiffieHellmanParameters.getDefaultParameters();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPoolSize() {
+        new DiffieHellmanRequestPool(params, 0, null);
+    }
+
+    @Test
+    public void unknownParametersId() throws MslKeyExchangeException {
+        thrown.expect(MslKeyExchangeException.class);
+        thrown.expectMslError(MslError.UNKNOWN_KEYX_PARAMETERS_ID);
+
+        final DiffieHellmanRequestPool pool = new DiffieHellmanRequestPool(params, POOL_SIZE, null);
+        pool.getRequestData("unknown");
+    }
+
+    @Test
+    public void emptyPool() throws MslKeyExchangeException {
+        final DiffieHellmanRequestPool pool = new DiffieHellmanRequestPool(params, POOL_SIZE, null);
+        final RequestData request = pool.getRequestData(PARAMETERS_ID);
+        assertEquals(PARAMETERS_ID, request.getParametersId());
+        assertNotNull(request.getPublicKey());
+        assertNotNull(request.getPrivateKey());
+        assertEquals(0, pool.size(PARAMETERS_ID));
+    }
+
+    @Test
+    public void fill() throws MslKeyExchangeException {
+        final DiffieHellmanRequestPool pool = new DiffieHellmanRequestPool(params, POOL_SIZE, null);
+        assertEquals(0, pool.size(PARAMETERS_ID));
+        pool.fill(PARAMETERS_ID);
+        assertEquals(POOL_SIZE, pool.size(PARAMETERS_ID));
+
+        // Without an executor taken request data is not replaced.
+        final Set<BigInteger> publicKeys = new HashSet<BigInteger>();
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            publicKeys.add(pool.getRequestData(PARAMETERS_ID).getPublicKey());
+            assertEquals(POOL_SIZE - i - 1, pool.size(PARAMETERS_ID));
+        }
+        publicKeys.add(pool.getRequestData(PARAMETERS_ID).getPublicKey());
+        assertEquals(POOL_SIZE + 1, publicKeys.size());
+
+        pool.fill(PARAMETERS_ID);
+        assertEquals(POOL_SIZE, pool.size(PARAMETERS_ID));
+    }
+
+    @Test
+    public void replenish() throws MslKeyExchangeException {
+        final DiffieHellmanRequestPool pool = new DiffieHellmanRequestPool(params, POOL_SIZE, DIRECT_EXECUTOR);
+        final Set<BigInteger> publicKeys = new HashSet<BigInteger>();
+        for (int i = 0; i < 2 * POOL_SIZE; ++i) {
+            publicKeys.add(pool.getRequestData(PARAMETERS_ID).getPublicKey());
+            assertEquals(POOL_SIZE, pool.size(PARAMETERS_ID));
+        }
+        assertEquals(2 * POOL_SIZE, publicKeys.size());
+    }
+
+    @Test
+    public void concurrent() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final DiffieHellmanRequestPool pool = new DiffieHellmanRequestPool(params, POOL_SIZE, executor);
+            final Set<BigInteger> publicKeys = Collections.synchronizedSet(new HashSet<BigInteger>());
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            final Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; ++i) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 4; ++j) {
+                                if (!publicKeys.add(pool.getRequestData(PARAMETERS_ID).getPublicKey()))
+                                    failed.set(true);
+                            }
+                        } catch (final MslKeyExchangeException e) {
+                            failed.set(true);
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (final Thread thread : threads)
+                thread.join();
+            assertFalse(failed.get());
+            assertEquals(threads.length * 4, publicKeys.size());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+    }
+
+    /** Diffie-Hellman parameters. */
+    private static DiffieHellmanParameters params;
+}
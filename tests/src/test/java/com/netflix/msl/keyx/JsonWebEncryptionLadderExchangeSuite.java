@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.charset.Charset;
@@ -907,6 +908,70 @@ public class JsonWebEncryptionLadderExchangeSuite {
             assertTrue(respCryptoContext.verify(data, requestSignature));
         }
         
+        @Test(expected = IllegalArgumentException.class)
+        public void invalidWrapKeyCacheTtl() {
+            new JsonWebEncryptionLadderExchange(repository, authutils, 16, 0);
+        }
+        
+        @Test
+        public void cachedWrapKeyResponse() throws MslException {
+            final KeyExchangeFactory cachingFactory = new JsonWebEncryptionLadderExchange(repository, authutils, 16, 60000);
+            final KeyRequestData req = new RequestData(Mechanism.WRAP, WRAPDATA);
+            final KeyExchangeData first = cachingFactory.generateResponse(pskCtx, req, entityAuthData);
+            final KeyExchangeData second = cachingFactory.generateResponse(pskCtx, req, PSK_MASTER_TOKEN);
+            final ResponseData firstResp = (ResponseData)first.keyResponseData;
+            final ResponseData secondResp = (ResponseData)second.keyResponseData;
+            
+            // The wrapping key is reissued.
+            assertArrayEquals(firstResp.getWrapdata(), secondResp.getWrapdata());
+            assertArrayEquals(firstResp.getWrapKey(), secondResp.getWrapKey());
+            
+            // The session keys are not.
+            final byte[] data = new byte[32];
+            random.nextBytes(data);
+            assertFalse(Arrays.equals(first.cryptoContext.sign(data), second.cryptoContext.sign(data)));
+            
+            // A different previous wrapping key receives a different wrapping
+            // key.
+            final KeyRequestData pskReq = new RequestData(Mechanism.PSK, null);
+            final ResponseData pskResp = (ResponseData)cachingFactory.generateResponse(pskCtx, pskReq, entityAuthData).keyResponseData;
+            assertFalse(Arrays.equals(firstResp.getWrapdata(), pskResp.getWrapdata()));
+        }
+        
+        @Test
+        public void uncachedWrapKeyResponse() throws MslException {
+            final KeyRequestData req = new RequestData(Mechanism.WRAP, WRAPDATA);
+            final ResponseData first = (ResponseData)factory.generateResponse(pskCtx, req, entityAuthData).keyResponseData;
+            final ResponseData second = (ResponseData)factory.generateResponse(pskCtx, req, entityAuthData).keyResponseData;
+            assertFalse(Arrays.equals(first.getWrapdata(), second.getWrapdata()));
+        }
+        
+        @Test
+        public void reissuedWrapdataCryptoContext() throws MslException {
+            final KeyExchangeFactory cachingFactory = new JsonWebEncryptionLadderExchange(repository, authutils, 16, 60000);
+            final KeyRequestData req = new RequestData(Mechanism.WRAP, WRAPDATA);
+            final KeyExchangeData first = cachingFactory.generateResponse(pskCtx, req, entityAuthData);
+            final KeyExchangeData second = cachingFactory.generateResponse(pskCtx, req, entityAuthData);
+            
+            // The first response replaces the previous wrapping key.
+            repository.addCryptoContext(WRAPDATA, WRAP_CRYPTO_CONTEXT);
+            cachingFactory.getCryptoContext(pskCtx, req, first.keyResponseData, null);
+            assertNull(repository.getCryptoContext(WRAPDATA));
+            final byte[] wrapdata = repository.getWrapdata();
+            final ICryptoContext wrapCryptoContext = repository.getCryptoContext(wrapdata);
+            assertNotNull(wrapCryptoContext);
+            
+            // The second response reuses the delivered wrapping key.
+            final ICryptoContext respCryptoContext = cachingFactory.getCryptoContext(pskCtx, req, second.keyResponseData, null);
+            assertSame(wrapdata, repository.getWrapdata());
+            assertSame(wrapCryptoContext, repository.getCryptoContext(wrapdata));
+            
+            final byte[] data = new byte[32];
+            random.nextBytes(data);
+            assertArrayEquals(second.cryptoContext.sign(data), respCryptoContext.sign(data));
+            assertTrue(second.cryptoContext.verify(data, respCryptoContext.sign(data)));
+        }
+        
         @Test(expected = MslInternalException.class)
         public void wrongRequestCryptoContext() throws MslKeyExchangeException, MslCryptoException, MslEncodingException, MslEntityAuthException, MslException {
             final KeyRequestData req = new RequestData(Mechanism.PSK, null);
@@ -0,0 +1,366 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.io.MockPipe;
+import com.netflix.msl.io.MultiplexedConnection;
+import com.netflix.msl.io.MultiplexedConnection.Exchange;
+import com.netflix.msl.io.MultiplexedUrl;
+import com.netflix.msl.keyx.KeyRequestData;
+import com.netflix.msl.userauth.UserAuthenticationScheme;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * Batch request queue unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class BatchRequestQueueTest {
+    /** MSL control timeout in milliseconds. */
+    private static final int TIMEOUT = 30000;
+    /** Response record prefix. */
+    private static final byte[] PREFIX = "response:".getBytes(MslConstants.DEFAULT_CHARSET);
+
+    /**
+     * @param i request index.
+     * @return the request data.
+     */
+    private static byte[] request(final int i) {
+        return ("request " + i).getBytes(MslConstants.DEFAULT_CHARSET);
+    }
+
+    /**
+     * @param request the request data.
+     * @return the expected response data.
+     */
+    private static byte[] response(final byte[] request) {
+        final byte[] response = Arrays.copyOf(PREFIX, PREFIX.length + request.length);
+        System.arraycopy(request, 0, response, PREFIX.length, request.length);
+        return response;
+    }
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        clientCtx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        serverCtx = new MockMslContext(EntityAuthenticationScheme.RSA, false);
+        clientMsgCtx = new MockMessageContext(clientCtx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+        clientMsgCtx.setKeyRequestData(Collections.<KeyRequestData>emptySet());
+        serverMsgCtx = new MockMessageContext(serverCtx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+        serverMsgCtx.setKeyRequestData(Collections.<KeyRequestData>emptySet());
+        clientCtrl = new MslControl(4);
+        serverCtrl = new MslControl(0);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        clientCtrl.shutdown();
+        serverCtrl.shutdown();
+    }
+
+    @Before
+    public void start() {
+        final MockPipe pipe = new MockPipe();
+        client = new MultiplexedConnection(pipe.getLocal().getInputStream(), pipe.getLocal().getOutputStream());
+        server = new MultiplexedConnection(pipe.getRemote().getInputStream(), pipe.getRemote().getOutputStream());
+        url = new MultiplexedUrl(client);
+        batches.clear();
+        dropLastResponse = false;
+        stall = null;
+        executor = Executors.newCachedThreadPool();
+
+        // Respond to each batch request with one response record per
+        // request record.
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Exchange exchange;
+                while ((exchange = server.accept()) != null) {
+                    final Exchange current = exchange;
+                    executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            final InputStream in = current.getInputStream();
+                            final OutputStream out = current.getOutputStream();
+                            try {
+                                final MessageInputStream request = serverCtrl.receive(serverCtx, serverMsgCtx, in, out, TIMEOUT).get();
+                                final List<byte[]> records = BatchMessageContext.read(request);
+                                request.close();
+                                batches.add(records);
+                                final CountDownLatch latch = stall;
+                                if (latch != null)
+                                    latch.await();
+                                final List<byte[]> responses = new ArrayList<byte[]>();
+                                for (final byte[] record : records)
+                                    responses.add(response(record));
+                                if (dropLastResponse)
+                                    responses.remove(responses.size() - 1);
+                                serverCtrl.respond(serverCtx, new BatchMessageContext(serverMsgCtx, responses), in, out, request, TIMEOUT).get();
+                            } finally {
+                                current.close();
+                            }
+                            return null;
+                        }
+                    });
+                }
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        client.close();
+        server.close();
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBatchSize() {
+        new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeDelay() {
+        new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 1, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSenders() {
+        new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 1, 0, 0);
+    }
+
+    @Test
+    public void readRecords() throws IOException {
+        final byte[] data = new byte[] { 0, 0, 0, 2, 'a', 'b', 0, 0, 0, 0, 0, 0, 0, 1, 'c' };
+        final List<byte[]> records = BatchMessageContext.read(new ByteArrayInputStream(data));
+        assertEquals(3, records.size());
+        assertArrayEquals(new byte[] { 'a', 'b' }, records.get(0));
+        assertArrayEquals(new byte[0], records.get(1));
+        assertArrayEquals(new byte[] { 'c' }, records.get(2));
+
+        assertTrue(BatchMessageContext.read(new ByteArrayInputStream(new byte[0])).isEmpty());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedRecord() throws IOException {
+        BatchMessageContext.read(new ByteArrayInputStream(new byte[] { 0, 0, 0, 2, 'a' }));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedLength() throws IOException {
+        BatchMessageContext.read(new ByteArrayInputStream(new byte[] { 0, 0 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeLength() throws IOException {
+        BatchMessageContext.read(new ByteArrayInputStream(new byte[] { (byte)0xff, 0, 0, 0 }));
+    }
+
+    @Test
+    public void fullBatches() throws Exception {
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 4, 0);
+        try {
+            final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 8; ++i)
+                futures.add(queue.submit(request(i)));
+            assertEquals(0, queue.size());
+            for (int i = 0; i < futures.size(); ++i)
+                assertArrayEquals(response(request(i)), futures.get(i).get());
+            assertEquals(2, batches.size());
+            for (final List<byte[]> batch : batches)
+                assertEquals(4, batch.size());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void delayedBatch() throws Exception {
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 100, 50);
+        try {
+            final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 3; ++i)
+                futures.add(queue.submit(request(i)));
+            for (int i = 0; i < futures.size(); ++i)
+                assertArrayEquals(response(request(i)), futures.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(1, batches.size());
+            assertEquals(3, batches.get(0).size());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void flush() throws Exception {
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 100, 0);
+        try {
+            final Future<byte[]> first = queue.submit(request(0));
+            final Future<byte[]> second = queue.submit(request(1));
+            assertEquals(2, queue.size());
+            queue.flush();
+            assertEquals(0, queue.size());
+            assertArrayEquals(response(request(0)), first.get());
+            assertArrayEquals(response(request(1)), second.get());
+            assertEquals(1, batches.size());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelled() throws Exception {
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 100, 0);
+        try {
+            final Future<byte[]> first = queue.submit(request(0));
+            final Future<byte[]> second = queue.submit(request(1));
+            final Future<byte[]> third = queue.submit(request(2));
+            assertTrue(second.cancel(false));
+            queue.flush();
+            assertArrayEquals(response(request(0)), first.get());
+            assertArrayEquals(response(request(2)), third.get());
+            assertEquals(1, batches.size());
+            assertEquals(2, batches.get(0).size());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void missingResponse() throws Exception {
+        dropLastResponse = true;
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 2, 0);
+        try {
+            final Future<byte[]> first = queue.submit(request(0));
+            final Future<byte[]> second = queue.submit(request(1));
+            for (final Future<byte[]> future : Arrays.asList(first, second)) {
+                try {
+                    future.get();
+                    fail("Batch should have failed.");
+                } catch (final ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void boundedSenders() throws Exception {
+        stall = new CountDownLatch(1);
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 1, 0, 1);
+        try {
+            // Wait for the only sender to block on the first batch.
+            final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+            futures.add(queue.submit(request(0)));
+            while (batches.isEmpty())
+                Thread.sleep(10);
+
+            // Fill the sender queue. The next batch must be rejected.
+            for (int i = 1; i <= BatchRequestQueue.MAX_QUEUED_BATCHES; ++i)
+                futures.add(queue.submit(request(i)));
+            final Future<byte[]> rejected = queue.submit(request(futures.size()));
+            try {
+                rejected.get(TIMEOUT, TimeUnit.MILLISECONDS);
+                fail("Batch should have been rejected.");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            stall.countDown();
+            for (int i = 0; i < futures.size(); ++i)
+                assertArrayEquals(response(request(i)), futures.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(futures.size(), batches.size());
+        } finally {
+            stall.countDown();
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown() throws Exception {
+        final BatchRequestQueue queue = new BatchRequestQueue(clientCtrl, clientCtx, clientMsgCtx, url, TIMEOUT, 100, 0);
+        final Future<byte[]> future = queue.submit(request(0));
+        queue.shutdown();
+        assertArrayEquals(response(request(0)), future.get());
+        try {
+            queue.submit(request(1));
+            fail("Submit should have failed.");
+        } catch (final IllegalStateException e) {
+        }
+    }
+
+    /** Client MSL context. */
+    private static MockMslContext clientCtx;
+    /** Server MSL context. */
+    private static MockMslContext serverCtx;
+    /** Client message context. */
+    private static MockMessageContext clientMsgCtx;
+    /** Server message context. */
+    private static MockMessageContext serverMsgCtx;
+    /** Client MSL control. */
+    private static MslControl clientCtrl;
+    /** Server MSL control. */
+    private static MslControl serverCtrl;
+
+    /** Client connection. */
+    private MultiplexedConnection client;
+    /** Server connection. */
+    private MultiplexedConnection server;
+    /** Client URL. */
+    private MultiplexedUrl url;
+    /** Server executor. */
+    private ExecutorService executor;
+    /** Request records of each batch received by the server. */
+    private final List<List<byte[]>> batches = new CopyOnWriteArrayList<List<byte[]>>();
+    /** True if the server should omit the last response record. */
+    private volatile boolean dropLastResponse;
+    /** If not null the server waits for this latch before responding. */
+    private volatile CountDownLatch stall;
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.keyx.KeyRequestData;
+import com.netflix.msl.msg.MslControl.ApplicationError;
+import com.netflix.msl.userauth.UserAuthenticationScheme;
+import com.netflix.msl.util.MockMslContext;
+
+/**
+ * Error response cache unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ErrorResponseCacheTest {
+    /** Recipient. */
+    private static final String RECIPIENT = "recipient";
+    /** Request message ID. */
+    private static final Long REQUEST_MESSAGE_ID = Long.valueOf(17);
+    /** User message. */
+    private static final String USER_MESSAGE = "user message";
+    /** No service token crypto contexts. */
+    private static final Map<String,ICryptoContext> CRYPTO_CONTEXTS = Collections.emptyMap();
+
+    /**
+     * Message debug context that records the sent headers.
+     */
+    private static class RecordingDebugContext implements MessageDebugContext {
+        /* (non-Javadoc)
+         * @see com.netflix.msl.msg.MessageDebugContext#sentHeader(com.netflix.msl.msg.Header)
+         */
+        @Override
+        public void sentHeader(final Header header) {
+            sent.add(header);
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.msg.MessageDebugContext#receivedHeader(com.netflix.msl.msg.Header)
+         */
+        @Override
+        public void receivedHeader(final Header header) {
+        }
+
+        /** Sent headers. */
+        public final List<Header> sent = new ArrayList<Header>();
+    }
+
+    @BeforeClass
+    public static void setup() throws MslException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false) {
+            @Override
+            public long getTime() {
+                return time;
+            }
+        };
+    }
+
+    @Before
+    public void reset() {
+        time = System.currentTimeMillis();
+        cache = new ErrorResponseCache();
+    }
+
+    /**
+     * Send two application error responses to the same request.
+     *
+     * @param ctrl MSL control.
+     * @return the two sent error headers.
+     * @throws Exception if there is an error sending the error responses.
+     */
+    private static List<Header> sendErrors(final MslControl ctrl) throws Exception {
+        final MockMessageContext msgCtx = new MockMessageContext(ctx, null, UserAuthenticationScheme.EMAIL_PASSWORD);
+        final RecordingDebugContext debugCtx = new RecordingDebugContext();
+        msgCtx.setMessageDebugContext(debugCtx);
+
+        // Encode the request once so both error responses are for the same
+        // request message ID.
+        final MessageHeader requestHeader = MessageBuilder.createRequest(ctx, null, null, null).getHeader();
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        final MessageOutputStream mos = new MessageOutputStream(ctx, request, MslConstants.DEFAULT_CHARSET, requestHeader, requestHeader.getCryptoContext());
+        mos.close();
+
+        for (int i = 0; i < 2; ++i) {
+            final MessageInputStream mis = new MessageInputStream(ctx, new ByteArrayInputStream(request.toByteArray()), MslConstants.DEFAULT_CHARSET, Collections.<KeyRequestData>emptySet(), CRYPTO_CONTEXTS);
+            assertTrue(ctrl.error(ctx, msgCtx, ApplicationError.ENTITY_REJECTED, new ByteArrayOutputStream(), mis).get());
+        }
+        assertEquals(2, debugCtx.sent.size());
+        return debugCtx.sent;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxSize() {
+        new ErrorResponseCache(0, ErrorResponseCache.DEFAULT_MAX_AGE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxAge() {
+        new ErrorResponseCache(ErrorResponseCache.DEFAULT_MAX_SIZE, 0);
+    }
+
+    @Test
+    public void reused() throws MslException, JSONException {
+        final ErrorHeader errorHeader = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertEquals(REQUEST_MESSAGE_ID.longValue() + 1, errorHeader.getMessageId());
+        assertSame(errorHeader, cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE));
+
+        // The reused header is identical to a newly built header.
+        final ErrorHeader built = MessageBuilder.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertEquals(built, errorHeader);
+        final Header header = Header.parseHeader(ctx, new JSONObject(errorHeader.toJSONString()), CRYPTO_CONTEXTS);
+        assertTrue(header instanceof ErrorHeader);
+        assertEquals(errorHeader, header);
+    }
+
+    @Test
+    public void messageIdBound() throws MslException {
+        final ErrorHeader errorHeader = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        final ErrorHeader other = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID + 1, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertNotSame(errorHeader, other);
+        assertEquals(REQUEST_MESSAGE_ID.longValue() + 2, other.getMessageId());
+    }
+
+    @Test
+    public void recipientBound() throws MslException {
+        final ErrorHeader errorHeader = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        final ErrorHeader other = cache.createErrorResponse(ctx, "other", REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertNotSame(errorHeader, other);
+        assertEquals("other", other.getRecipient());
+    }
+
+    @Test
+    public void errorBound() throws MslException {
+        final ErrorHeader errorHeader = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertNotSame(errorHeader, cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_EXPIRED, USER_MESSAGE));
+        assertNotSame(errorHeader, cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, null));
+    }
+
+    @Test
+    public void maxAge() throws MslException {
+        final ErrorHeader errorHeader = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        final long age = time - errorHeader.getTimestamp().getTime();
+        time += ErrorResponseCache.DEFAULT_MAX_AGE - age - 1;
+        assertSame(errorHeader, cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE));
+
+        time += 1;
+        final ErrorHeader later = cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertNotSame(errorHeader, later);
+        assertEquals(errorHeader.getTimestamp().getTime() + 1000, later.getTimestamp().getTime());
+        assertSame(later, cache.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE));
+    }
+
+    @Test
+    public void randomMessageId() throws MslException {
+        final ErrorHeader errorHeader = cache.createErrorResponse(ctx, RECIPIENT, null, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertNotSame(errorHeader, cache.createErrorResponse(ctx, RECIPIENT, null, MslError.MESSAGE_REPLAYED, USER_MESSAGE));
+    }
+
+    @Test
+    public void evicted() throws MslException {
+        final ErrorResponseCache small = new ErrorResponseCache(1, ErrorResponseCache.DEFAULT_MAX_AGE);
+        final ErrorHeader errorHeader = small.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        small.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID + 1, MslError.MESSAGE_REPLAYED, USER_MESSAGE);
+        assertNotSame(errorHeader, small.createErrorResponse(ctx, RECIPIENT, REQUEST_MESSAGE_ID, MslError.MESSAGE_REPLAYED, USER_MESSAGE));
+    }
+
+    @Test
+    public void mslControlCached() throws Exception {
+        final MslControl ctrl = new MslControl(0);
+        ctrl.setErrorResponseCache(cache);
+        try {
+            final List<Header> sent = sendErrors(ctrl);
+            assertTrue(sent.get(0) instanceof ErrorHeader);
+            assertSame(sent.get(0), sent.get(1));
+        } finally {
+            ctrl.shutdown();
+        }
+    }
+
+    @Test
+    public void mslControlNotCached() throws Exception {
+        final MslControl ctrl = new MslControl(0);
+        try {
+            final List<Header> sent = sendErrors(ctrl);
+            assertNotSame(sent.get(0), sent.get(1));
+            assertEquals(sent.get(0), sent.get(1));
+        } finally {
+            ctrl.shutdown();
+        }
+    }
+
+    /** MSL context. */
+    private static MockMslContext ctx;
+    /** MSL context time in milliseconds. */
+    private static volatile long time;
+
+    /** Error response cache. */
+    private ErrorResponseCache cache;
+}
@@ -45,6 +45,8 @@ import com.netflix.msl.MslEncodingException;
 public class MessageCapabilitiesTest {
     /** JSON key compression algorithms. */
     private static final String KEY_COMPRESSION_ALGOS = "compressionalgos";
+    /** JSON key token references. */
+    private static final String KEY_TOKEN_REFERENCES = "tokenrefs";
     
     private static final Set<CompressionAlgorithm> ALGOS = new HashSet<CompressionAlgorithm>();
     private static final List<String> LANGUAGES = Arrays.asList(new String[] { "en-US", "es" });
@@ -180,6 +182,44 @@ public class MessageCapabilitiesTest {
         assertEquals(capsA.hashCode(), capsA2.hashCode());
     }
     
+    @Test
+    public void tokenReferences() throws MslEncodingException, JSONException {
+        final MessageCapabilities caps = new MessageCapabilities(ALGOS, LANGUAGES, true);
+        assertTrue(caps.isTokenReferences());
+        final JSONObject jo = new JSONObject(caps.toJSONString());
+        assertTrue(jo.getBoolean(KEY_TOKEN_REFERENCES));
+        
+        final MessageCapabilities joCaps = new MessageCapabilities(jo);
+        assertTrue(joCaps.isTokenReferences());
+        assertEquals(caps, joCaps);
+    }
+    
+    @Test
+    public void missingTokenReferences() throws MslEncodingException, JSONException {
+        final MessageCapabilities caps = new MessageCapabilities(ALGOS, LANGUAGES);
+        assertFalse(caps.isTokenReferences());
+        final JSONObject jo = new JSONObject(caps.toJSONString());
+        assertFalse(jo.has(KEY_TOKEN_REFERENCES));
+        
+        final MessageCapabilities joCaps = new MessageCapabilities(jo);
+        assertFalse(joCaps.isTokenReferences());
+    }
+    
+    @Test
+    public void equalsTokenReferences() throws MslEncodingException, JSONException {
+        final MessageCapabilities capsA = new MessageCapabilities(ALGOS, LANGUAGES, true);
+        final MessageCapabilities capsB = new MessageCapabilities(ALGOS, LANGUAGES, false);
+        final MessageCapabilities capsA2 = new MessageCapabilities(new JSONObject(capsA.toJSONString()));
+        
+        assertFalse(capsA.equals(capsB));
+        assertFalse(capsB.equals(capsA));
+        assertTrue(capsA.hashCode() != capsB.hashCode());
+        
+        assertTrue(capsA.equals(capsA2));
+        assertTrue(capsA2.equals(capsA));
+        assertEquals(capsA.hashCode(), capsA2.hashCode());
+    }
+    
     @Test
     public void selfIntersection() {
         final MessageCapabilities capsA = new MessageCapabilities(ALGOS, LANGUAGES);
@@ -207,6 +247,16 @@ public class MessageCapabilitiesTest {
         assertTrue(oneLanguage.containsAll(intersectionAB.getLanguages()));
     }
     
+    @Test
+    public void tokenReferencesIntersection() {
+        final MessageCapabilities capsA = new MessageCapabilities(ALGOS, LANGUAGES, true);
+        final MessageCapabilities capsB = new MessageCapabilities(ALGOS, LANGUAGES, false);
+        
+        assertTrue(MessageCapabilities.intersection(capsA, capsA).isTokenReferences());
+        assertFalse(MessageCapabilities.intersection(capsA, capsB).isTokenReferences());
+        assertFalse(MessageCapabilities.intersection(capsB, capsA).isTokenReferences());
+    }
+    
     @Test
     public void nullIntersection() {
         final MessageCapabilities caps = new MessageCapabilities(ALGOS, LANGUAGES);
@@ -26,6 +26,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -71,6 +73,8 @@ import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.entityauth.EntityAuthenticationScheme;
 import com.netflix.msl.entityauth.MockPresharedAuthenticationFactory;
 import com.netflix.msl.entityauth.UnauthenticatedAuthenticationFactory;
+import com.netflix.msl.io.ByteBufferInputStream;
+import com.netflix.msl.io.ChannelInputStream;
 import com.netflix.msl.keyx.KeyExchangeFactory;
 import com.netflix.msl.keyx.KeyExchangeFactory.KeyExchangeData;
 import com.netflix.msl.keyx.KeyExchangeScheme;
@@ -263,6 +267,43 @@ public class MessageInputStreamTest {
         mis.close();
     }
     
+    @Test
+    public void byteBufferSource() throws MslEncodingException, MslException, IOException {
+        final ICryptoContext cryptoContext = MESSAGE_HEADER.getCryptoContext();
+        payloads.add(new PayloadChunk(SEQ_NO, MSG_ID, END_OF_MSG, null, DATA, cryptoContext));
+        final InputStream is = generateInputStream(MESSAGE_HEADER, payloads);
+        final byte[] message = new byte[is.available()];
+        is.read(message);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+        direct.put(message).flip();
+        final MessageInputStream mis = new MessageInputStream(trustedNetCtx, new ByteBufferInputStream(direct), MslConstants.DEFAULT_CHARSET, KEY_REQUEST_DATA, cryptoContexts);
+        
+        assertEquals(MESSAGE_HEADER, mis.getMessageHeader());
+        assertEquals(DATA.length, mis.read(buffer));
+        assertArrayEquals(DATA, Arrays.copyOf(buffer, DATA.length));
+        assertEquals(-1, mis.read());
+        
+        mis.close();
+    }
+    
+    @Test
+    public void channelSource() throws MslEncodingException, MslException, IOException {
+        final ICryptoContext cryptoContext = MESSAGE_HEADER.getCryptoContext();
+        payloads.add(new PayloadChunk(SEQ_NO, MSG_ID, END_OF_MSG, null, DATA, cryptoContext));
+        final InputStream is = generateInputStream(MESSAGE_HEADER, payloads);
+        
+        // Use a small buffer so the message is decoded across many reads.
+        final ChannelInputStream cis = new ChannelInputStream(Channels.newChannel(is), ByteBuffer.allocateDirect(64));
+        final MessageInputStream mis = new MessageInputStream(trustedNetCtx, cis, MslConstants.DEFAULT_CHARSET, KEY_REQUEST_DATA, cryptoContexts);
+        
+        assertEquals(MESSAGE_HEADER, mis.getMessageHeader());
+        assertEquals(DATA.length, mis.read(buffer));
+        assertArrayEquals(DATA, Arrays.copyOf(buffer, DATA.length));
+        assertEquals(-1, mis.read());
+        
+        mis.close();
+    }
+    
     @Test
     public void entityAuthDataIdentity() throws MslException, IOException {
         final HeaderData headerData = new HeaderData(null, MSG_ID, null, false, false, null, null, null, null, null, null);
@@ -19,6 +19,7 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -51,6 +52,9 @@ import com.netflix.msl.MslConstants.ResponseCode;
 import com.netflix.msl.crypto.ICryptoContext;
 import com.netflix.msl.entityauth.EntityAuthenticationData;
 import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.io.ByteBufferOutputStream;
+import com.netflix.msl.io.ChannelOutputStream;
+import com.netflix.msl.io.MockGatheringChannel;
 import com.netflix.msl.msg.MessageHeader.HeaderData;
 import com.netflix.msl.msg.MessageHeader.HeaderPeerData;
 import com.netflix.msl.util.MockMslContext;
@@ -694,4 +698,97 @@ public class MessageOutputStreamTest {
         assertEquals(1, payloads.size());
         assertEquals(CompressionAlgorithm.GZIP, payloads.get(0).getCompressionAlgo());
     }
+    
+    @Test
+    public void byteBufferDestination() throws IOException, JSONException, MslEncodingException, MslEntityAuthException, MslKeyExchangeException, MslUserAuthException, MslException {
+        final byte[] data = new byte[32];
+        random.nextBytes(data);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        final MessageOutputStream mos = new MessageOutputStream(ctx, new ByteBufferOutputStream(buffer), MslConstants.DEFAULT_CHARSET, MESSAGE_HEADER, PAYLOAD_CRYPTO_CONTEXT);
+        mos.write(data);
+        mos.close();
+        
+        buffer.flip();
+        final byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        final String mslMessage = new String(encoded, MslConstants.DEFAULT_CHARSET);
+        final JSONTokener tokener = new JSONTokener(mslMessage);
+        
+        // There should be one header.
+        assertTrue(tokener.more());
+        final Header header = Header.parseHeader(ctx, (JSONObject)tokener.nextValue(), cryptoContexts);
+        assertEquals(MESSAGE_HEADER, header);
+        
+        // There should be one payload with the data.
+        assertTrue(tokener.more());
+        final PayloadChunk payload = new PayloadChunk((JSONObject)tokener.nextValue(), PAYLOAD_CRYPTO_CONTEXT);
+        assertTrue(payload.isEndOfMessage());
+        assertArrayEquals(data, payload.getData());
+        
+        // There should be nothing else.
+        assertFalse(tokener.more());
+    }
+    
+    @Test
+    public void channelDestination() throws IOException, JSONException, MslEncodingException, MslEntityAuthException, MslKeyExchangeException, MslUserAuthException, MslException {
+        final byte[] data = new byte[32];
+        random.nextBytes(data);
+        final MockGatheringChannel channel = new MockGatheringChannel();
+        final MessageOutputStream mos = new MessageOutputStream(ctx, new ChannelOutputStream(channel), MslConstants.DEFAULT_CHARSET, MESSAGE_HEADER, PAYLOAD_CRYPTO_CONTEXT);
+        mos.closeDestination(true);
+        
+        // The header should be held for the first payload chunk.
+        mos.write(data);
+        assertEquals(0, channel.getWrites());
+        
+        // The header and payload chunk should be sent in one gathering write.
+        mos.flush();
+        assertEquals(1, channel.getWrites());
+        mos.close();
+        assertFalse(channel.isOpen());
+        
+        final String mslMessage = new String(channel.toByteArray(), MslConstants.DEFAULT_CHARSET);
+        final JSONTokener tokener = new JSONTokener(mslMessage);
+        
+        // There should be one header.
+        assertTrue(tokener.more());
+        final Header header = Header.parseHeader(ctx, (JSONObject)tokener.nextValue(), cryptoContexts);
+        assertEquals(MESSAGE_HEADER, header);
+        
+        // There should be one payload with the data followed by the end of
+        // message payload.
+        assertTrue(tokener.more());
+        final PayloadChunk first = new PayloadChunk((JSONObject)tokener.nextValue(), PAYLOAD_CRYPTO_CONTEXT);
+        assertFalse(first.isEndOfMessage());
+        assertArrayEquals(data, first.getData());
+        assertTrue(tokener.more());
+        final PayloadChunk second = new PayloadChunk((JSONObject)tokener.nextValue(), PAYLOAD_CRYPTO_CONTEXT);
+        assertTrue(second.isEndOfMessage());
+        assertEquals(0, second.getData().length);
+        
+        // There should be nothing else.
+        assertFalse(tokener.more());
+    }
+    
+    @Test
+    public void channelDestinationNoData() throws IOException, MslEncodingException, MslEntityAuthException, MslKeyExchangeException, MslUserAuthException, MslException {
+        final MockGatheringChannel channel = new MockGatheringChannel();
+        final MessageOutputStream mos = new MessageOutputStream(ctx, new ChannelOutputStream(channel), MslConstants.DEFAULT_CHARSET, MESSAGE_HEADER, PAYLOAD_CRYPTO_CONTEXT);
+        
+        // Flushing without data must still send the held header.
+        mos.flush();
+        assertEquals(1, channel.getWrites());
+        assertTrue(channel.toByteArray().length > 0);
+        mos.close();
+    }
+    
+    @Test
+    public void channelDestinationErrorHeader() throws IOException {
+        final MockGatheringChannel channel = new MockGatheringChannel();
+        final MessageOutputStream mos = new MessageOutputStream(ctx, new ChannelOutputStream(channel), MslConstants.DEFAULT_CHARSET, ERROR_HEADER);
+        
+        // Error headers are sent immediately.
+        assertEquals(1, channel.getWrites());
+        mos.close();
+    }
 }
@@ -0,0 +1,426 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslMessageException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.NullCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationData;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.msg.MessageHeader.HeaderData;
+import com.netflix.msl.msg.MessageHeader.HeaderPeerData;
+import com.netflix.msl.test.ExpectedMslException;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
+import com.netflix.msl.util.Base64;
+import com.netflix.msl.util.MockMslContext;
+import com.netflix.msl.util.MslContext;
+import com.netflix.msl.util.MslTestUtils;
+
+/**
+ * Token reference cache unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class TokenReferenceCacheTest {
+    /** JSON key header data. */
+    private static final String KEY_HEADERDATA = "headerdata";
+    /** JSON key service tokens. */
+    private static final String KEY_SERVICE_TOKENS = "servicetokens";
+    /** JSON key service token references. */
+    private static final String KEY_SERVICE_TOKEN_REFERENCES = "servicetokenrefs";
+    /** JSON key service token set reference. */
+    private static final String KEY_SERVICE_TOKEN_SET = "servicetokenset";
+    /** JSON key peer service tokens. */
+    private static final String KEY_PEER_SERVICE_TOKENS = "peerservicetokens";
+    /** JSON key peer service token references. */
+    private static final String KEY_PEER_SERVICE_TOKEN_REFERENCES = "peerservicetokenrefs";
+    /** JSON key peer service token set reference. */
+    private static final String KEY_PEER_SERVICE_TOKEN_SET = "peerservicetokenset";
+
+    private static final MessageCapabilities CAPABILITIES = new MessageCapabilities(null, null, true);
+    private static final MessageCapabilities NO_REFERENCES = new MessageCapabilities(null, null, false);
+    private static final Map<String,ICryptoContext> CRYPTO_CONTEXTS = Collections.emptyMap();
+
+    @Rule
+    public ExpectedMslException thrown = ExpectedMslException.none();
+
+    @BeforeClass
+    public static void setup() throws MslException {
+        p2pCtx = new MockMslContext(EntityAuthenticationScheme.PSK, true);
+        MASTER_TOKEN = MslTestUtils.getMasterToken(p2pCtx, 1, 1);
+        USER_ID_TOKEN = MslTestUtils.getUserIdToken(p2pCtx, MASTER_TOKEN, 1, MockEmailPasswordAuthenticationFactory.USER);
+        PEER_MASTER_TOKEN = MslTestUtils.getMasterToken(p2pCtx, 1, 2);
+        PEER_USER_ID_TOKEN = MslTestUtils.getUserIdToken(p2pCtx, PEER_MASTER_TOKEN, 2, MockEmailPasswordAuthenticationFactory.USER);
+        SERVICE_TOKENS = MslTestUtils.getServiceTokens(p2pCtx, MASTER_TOKEN, USER_ID_TOKEN);
+        PEER_SERVICE_TOKENS = MslTestUtils.getServiceTokens(p2pCtx, PEER_MASTER_TOKEN, PEER_USER_ID_TOKEN);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        p2pCtx = null;
+    }
+
+    /**
+     * @param capabilities message capabilities.
+     * @param references token reference cache. May be null.
+     * @return a new message header with the test tokens.
+     * @throws MslException if there is an error creating the header.
+     */
+    private static MessageHeader getHeader(final MessageCapabilities capabilities, final TokenReferenceCache references) throws MslException {
+        return getHeader(capabilities, SERVICE_TOKENS, references);
+    }
+
+    /**
+     * @param capabilities message capabilities.
+     * @param serviceTokens service tokens.
+     * @param references token reference cache. May be null.
+     * @return a new message header with the test tokens and provided
+     *         service tokens.
+     * @throws MslException if there is an error creating the header.
+     */
+    private static MessageHeader getHeader(final MessageCapabilities capabilities, final Set<ServiceToken> serviceTokens, final TokenReferenceCache references) throws MslException {
+        final HeaderData headerData = new HeaderData(null, 1, null, true, false, capabilities, null, null, null, USER_ID_TOKEN, serviceTokens);
+        final HeaderPeerData peerData = new HeaderPeerData(PEER_MASTER_TOKEN, PEER_USER_ID_TOKEN, PEER_SERVICE_TOKENS);
+        final EntityAuthenticationData entityAuthData = p2pCtx.getEntityAuthenticationData(null);
+        return new MessageHeader(p2pCtx, entityAuthData, MASTER_TOKEN, headerData, peerData, references);
+    }
+
+    /**
+     * @param header message header.
+     * @return the decrypted header data JSON object.
+     * @throws MslException if there is an error decrypting the header data.
+     * @throws JSONException if there is an error parsing the JSON.
+     */
+    private static JSONObject getHeaderdata(final MessageHeader header) throws MslException, JSONException {
+        final JSONObject headerJo = new JSONObject(header.toJSONString());
+        final byte[] ciphertext = Base64.decode(headerJo.getString(KEY_HEADERDATA));
+        final byte[] plaintext = header.getCryptoContext().decrypt(ciphertext);
+        return new JSONObject(new String(plaintext, MslConstants.DEFAULT_CHARSET));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTtl() {
+        new TokenReferenceCache(p2pCtx, 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxSize() {
+        new TokenReferenceCache(p2pCtx, 1, 0);
+    }
+
+    @Test
+    public void reference() {
+        final ServiceToken token = SERVICE_TOKENS.iterator().next();
+        final String reference = TokenReferenceCache.getReference(token);
+        assertEquals(reference, TokenReferenceCache.getReference(token));
+        for (final ServiceToken other : PEER_SERVICE_TOKENS)
+            assertFalse(reference.equals(TokenReferenceCache.getReference(other)));
+    }
+
+    @Test
+    public void sentNotReferenced() throws MslException {
+        // Enable token references without holding any tokens.
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx);
+        cache.received(getHeader(CAPABILITIES, null));
+        cache.clear();
+        cache.sent(getHeader(CAPABILITIES, null));
+        assertTrue(cache.isEnabled());
+        for (final ServiceToken token : SERVICE_TOKENS) {
+            assertNull(cache.getReferenceIfHeld(token));
+            assertSame(token, cache.get(TokenReferenceCache.getReference(token)));
+        }
+    }
+
+    @Test
+    public void receivedReferenced() throws MslException {
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx);
+        assertFalse(cache.isEnabled());
+        cache.received(getHeader(CAPABILITIES, null));
+        assertTrue(cache.isEnabled());
+        for (final ServiceToken token : SERVICE_TOKENS)
+            assertEquals(TokenReferenceCache.getReference(token), cache.getReferenceIfHeld(token));
+        for (final ServiceToken token : PEER_SERVICE_TOKENS)
+            assertEquals(TokenReferenceCache.getReference(token), cache.getReferenceIfHeld(token));
+    }
+
+    @Test
+    public void notAccepted() throws MslException {
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx);
+        cache.received(getHeader(NO_REFERENCES, null));
+        assertFalse(cache.isEnabled());
+        for (final ServiceToken token : SERVICE_TOKENS) {
+            assertNull(cache.getReferenceIfHeld(token));
+            assertSame(token, cache.get(TokenReferenceCache.getReference(token)));
+        }
+    }
+
+    @Test
+    public void clear() throws MslException {
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx);
+        cache.received(getHeader(CAPABILITIES, null));
+        cache.clear();
+        for (final ServiceToken token : SERVICE_TOKENS) {
+            assertNull(cache.getReferenceIfHeld(token));
+            assertSame(token, cache.get(TokenReferenceCache.getReference(token)));
+        }
+    }
+
+    @Test
+    public void expired() throws MslException, InterruptedException {
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx, 100, TokenReferenceCache.DEFAULT_MAX_SIZE);
+        cache.received(getHeader(CAPABILITIES, null));
+        final ServiceToken token = SERVICE_TOKENS.iterator().next();
+        final String reference = TokenReferenceCache.getReference(token);
+        Thread.sleep(60);
+        assertNull(cache.getReferenceIfHeld(token));
+        Thread.sleep(60);
+        assertNull(cache.get(reference));
+    }
+
+    @Test
+    public void evicted() throws MslException {
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx, TokenReferenceCache.DEFAULT_TTL, 1);
+        cache.received(getHeader(CAPABILITIES, null));
+        int resolved = 0;
+        for (final ServiceToken token : SERVICE_TOKENS) {
+            if (cache.get(TokenReferenceCache.getReference(token)) != null)
+                ++resolved;
+        }
+        for (final ServiceToken token : PEER_SERVICE_TOKENS) {
+            if (cache.get(TokenReferenceCache.getReference(token)) != null)
+                ++resolved;
+        }
+        assertEquals(1, resolved);
+    }
+
+    @Test
+    public void elidedHeader() throws MslException, JSONException {
+        // The sender has received the tokens from the remote entity.
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        senderCache.received(getHeader(CAPABILITIES, null));
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, senderCache);
+        assertEquals(SERVICE_TOKENS, messageHeader.getServiceTokens());
+        assertEquals(PEER_SERVICE_TOKENS, messageHeader.getPeerServiceTokens());
+        assertTrue(messageHeader.hasTokenReferences());
+
+        final JSONObject headerdata = getHeaderdata(messageHeader);
+        assertFalse(headerdata.has(KEY_SERVICE_TOKENS));
+        assertFalse(headerdata.has(KEY_PEER_SERVICE_TOKENS));
+        assertFalse(headerdata.has(KEY_SERVICE_TOKEN_REFERENCES));
+        assertFalse(headerdata.has(KEY_PEER_SERVICE_TOKEN_REFERENCES));
+        assertEquals(TokenReferenceCache.getSetReference(SERVICE_TOKENS), headerdata.getString(KEY_SERVICE_TOKEN_SET));
+        assertEquals(TokenReferenceCache.getSetReference(PEER_SERVICE_TOKENS), headerdata.getString(KEY_PEER_SERVICE_TOKEN_SET));
+
+        // The receiver previously sent the tokens.
+        final TokenReferenceCache receiverCache = new TokenReferenceCache(p2pCtx);
+        receiverCache.sent(getHeader(CAPABILITIES, null));
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        final Header header = Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS, receiverCache);
+        assertNotNull(header);
+        assertTrue(header instanceof MessageHeader);
+        final MessageHeader joMessageHeader = (MessageHeader)header;
+        assertEquals(SERVICE_TOKENS, joMessageHeader.getServiceTokens());
+        assertEquals(PEER_SERVICE_TOKENS, joMessageHeader.getPeerServiceTokens());
+        assertTrue(joMessageHeader.hasTokenReferences());
+    }
+
+    @Test
+    public void fullHeader() throws MslException, JSONException {
+        // Nothing has been received so all tokens are sent in full.
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, new TokenReferenceCache(p2pCtx));
+        assertFalse(messageHeader.hasTokenReferences());
+
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        final MessageHeader joMessageHeader = (MessageHeader)Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS, new TokenReferenceCache(p2pCtx));
+        assertEquals(SERVICE_TOKENS, joMessageHeader.getServiceTokens());
+        assertFalse(joMessageHeader.hasTokenReferences());
+    }
+
+    @Test
+    public void partiallyElidedHeader() throws MslException, JSONException {
+        // The sender has only received the peer service tokens.
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        final HeaderData headerData = new HeaderData(null, 1, null, true, false, CAPABILITIES, null, null, null, USER_ID_TOKEN, null);
+        final HeaderPeerData peerData = new HeaderPeerData(PEER_MASTER_TOKEN, PEER_USER_ID_TOKEN, PEER_SERVICE_TOKENS);
+        senderCache.received(new MessageHeader(p2pCtx, p2pCtx.getEntityAuthenticationData(null), MASTER_TOKEN, headerData, peerData));
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, senderCache);
+
+        final JSONObject headerdata = getHeaderdata(messageHeader);
+        assertEquals(SERVICE_TOKENS.size(), headerdata.getJSONArray(KEY_SERVICE_TOKENS).length());
+        assertFalse(headerdata.has(KEY_SERVICE_TOKEN_REFERENCES));
+        assertFalse(headerdata.has(KEY_SERVICE_TOKEN_SET));
+        assertFalse(headerdata.has(KEY_PEER_SERVICE_TOKENS));
+        assertEquals(TokenReferenceCache.getSetReference(PEER_SERVICE_TOKENS), headerdata.getString(KEY_PEER_SERVICE_TOKEN_SET));
+
+        final TokenReferenceCache receiverCache = new TokenReferenceCache(p2pCtx);
+        receiverCache.sent(getHeader(CAPABILITIES, null));
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        final MessageHeader joMessageHeader = (MessageHeader)Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS, receiverCache);
+        assertEquals(SERVICE_TOKENS, joMessageHeader.getServiceTokens());
+        assertEquals(PEER_SERVICE_TOKENS, joMessageHeader.getPeerServiceTokens());
+    }
+
+    @Test
+    public void setReference() {
+        final String reference = TokenReferenceCache.getSetReference(SERVICE_TOKENS);
+        assertEquals(reference, TokenReferenceCache.getSetReference(new HashSet<ServiceToken>(SERVICE_TOKENS)));
+        assertFalse(reference.equals(TokenReferenceCache.getSetReference(PEER_SERVICE_TOKENS)));
+    }
+
+    @Test
+    public void receivedSet() throws MslException {
+        final TokenReferenceCache cache = new TokenReferenceCache(p2pCtx);
+        assertNull(cache.getHeldSet(SERVICE_TOKENS));
+        cache.sent(getHeader(CAPABILITIES, null));
+        assertNull(cache.getHeldSet(SERVICE_TOKENS));
+        assertEquals(SERVICE_TOKENS, cache.getSet(TokenReferenceCache.getSetReference(SERVICE_TOKENS)));
+
+        cache.received(getHeader(CAPABILITIES, null));
+        assertEquals(SERVICE_TOKENS, cache.getHeldSet(SERVICE_TOKENS));
+        assertEquals(PEER_SERVICE_TOKENS, cache.getHeldSet(PEER_SERVICE_TOKENS));
+
+        cache.clear();
+        assertNull(cache.getHeldSet(SERVICE_TOKENS));
+        assertEquals(SERVICE_TOKENS, cache.getSet(TokenReferenceCache.getSetReference(SERVICE_TOKENS)));
+    }
+
+    @Test
+    public void deltaHeader() throws MslException, JSONException {
+        // The sender has received the tokens from the remote entity and then
+        // adds a new service token.
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        senderCache.received(getHeader(CAPABILITIES, null));
+        final Set<ServiceToken> serviceTokens = new HashSet<ServiceToken>(SERVICE_TOKENS);
+        final ServiceToken added = new ServiceToken(p2pCtx, "delta", new byte[] { 1, 2, 3 }, MASTER_TOKEN, null, false, null, new NullCryptoContext());
+        serviceTokens.add(added);
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, serviceTokens, senderCache);
+
+        final JSONObject headerdata = getHeaderdata(messageHeader);
+        assertEquals(TokenReferenceCache.getSetReference(SERVICE_TOKENS), headerdata.getString(KEY_SERVICE_TOKEN_SET));
+        assertEquals(1, headerdata.getJSONArray(KEY_SERVICE_TOKENS).length());
+        assertFalse(headerdata.has(KEY_SERVICE_TOKEN_REFERENCES));
+
+        final TokenReferenceCache receiverCache = new TokenReferenceCache(p2pCtx);
+        receiverCache.sent(getHeader(CAPABILITIES, null));
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        final MessageHeader joMessageHeader = (MessageHeader)Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS, receiverCache);
+        assertEquals(serviceTokens, joMessageHeader.getServiceTokens());
+        assertEquals(PEER_SERVICE_TOKENS, joMessageHeader.getPeerServiceTokens());
+    }
+
+    @Test
+    public void updatedToken() throws MslException, JSONException {
+        // Replacing a service token with new data must not match the held
+        // set, since service token equality ignores the data.
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        senderCache.received(getHeader(CAPABILITIES, null));
+        final ServiceToken original = SERVICE_TOKENS.iterator().next();
+        final MasterToken masterToken = original.isMasterTokenBound() ? MASTER_TOKEN : null;
+        final UserIdToken userIdToken = original.isUserIdTokenBound() ? USER_ID_TOKEN : null;
+        final ServiceToken updated = new ServiceToken(p2pCtx, original.getName(), new byte[] { 4, 5, 6 }, masterToken, userIdToken, false, null, new NullCryptoContext());
+        final Set<ServiceToken> serviceTokens = new HashSet<ServiceToken>(SERVICE_TOKENS);
+        serviceTokens.remove(original);
+        serviceTokens.add(updated);
+        assertNull(senderCache.getHeldSet(serviceTokens));
+
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, serviceTokens, senderCache);
+        final JSONObject headerdata = getHeaderdata(messageHeader);
+        assertFalse(headerdata.has(KEY_SERVICE_TOKEN_SET));
+        assertEquals(1, headerdata.getJSONArray(KEY_SERVICE_TOKENS).length());
+        assertEquals(SERVICE_TOKENS.size() - 1, headerdata.getJSONArray(KEY_SERVICE_TOKEN_REFERENCES).length());
+    }
+
+    @Test
+    public void unknownSetReference() throws MslException, JSONException {
+        thrown.expect(MslMessageException.class);
+        thrown.expectMslError(MslError.SERVICETOKEN_REFERENCE_NOT_FOUND);
+        thrown.expectMessageId(1);
+
+        // The receiver only holds the individual service tokens.
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        senderCache.received(getHeader(CAPABILITIES, null));
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, senderCache);
+
+        final TokenReferenceCache receiverCache = new TokenReferenceCache(p2pCtx);
+        for (final ServiceToken token : SERVICE_TOKENS)
+            receiverCache.sent(getHeader(CAPABILITIES, Collections.singleton(token), null));
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS, receiverCache);
+    }
+
+    @Test
+    public void unknownReference() throws MslException, JSONException {
+        thrown.expect(MslMessageException.class);
+        thrown.expectMslError(MslError.SERVICETOKEN_REFERENCE_NOT_FOUND);
+        thrown.expectMessageId(1);
+
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        senderCache.received(getHeader(CAPABILITIES, null));
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, senderCache);
+
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS, new TokenReferenceCache(p2pCtx));
+    }
+
+    @Test
+    public void missingCache() throws MslException, JSONException {
+        thrown.expect(MslMessageException.class);
+        thrown.expectMslError(MslError.SERVICETOKEN_REFERENCE_NOT_FOUND);
+
+        final TokenReferenceCache senderCache = new TokenReferenceCache(p2pCtx);
+        senderCache.received(getHeader(CAPABILITIES, null));
+        final MessageHeader messageHeader = getHeader(CAPABILITIES, senderCache);
+
+        final JSONObject messageHeaderJo = new JSONObject(messageHeader.toJSONString());
+        Header.parseHeader(p2pCtx, messageHeaderJo, CRYPTO_CONTEXTS);
+    }
+
+    /** MSL peer-to-peer context. */
+    private static MslContext p2pCtx;
+
+    private static MasterToken MASTER_TOKEN;
+    private static UserIdToken USER_ID_TOKEN;
+    private static MasterToken PEER_MASTER_TOKEN;
+    private static UserIdToken PEER_USER_ID_TOKEN;
+    private static Set<ServiceToken> SERVICE_TOKENS;
+    private static Set<ServiceToken> PEER_SERVICE_TOKENS;
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
@@ -167,6 +168,17 @@ public class MasterTokenTest {
         assertEquals(jsonString, joJsonString);
     }
     
+    @Test
+    public void cachedEncoding() throws JSONException, MslException {
+        final MasterToken masterToken = new MasterToken(ctx, RENEWAL_WINDOW, EXPIRATION, SEQUENCE_NUMBER, SERIAL_NUMBER, ISSUER_DATA, IDENTITY, ENCRYPTION_KEY, SIGNATURE_KEY);
+        final String jsonString = masterToken.toJSONString();
+        assertSame(jsonString, masterToken.toJSONString());
+
+        final MasterToken joMasterToken = new MasterToken(ctx, new JSONObject(jsonString));
+        assertSame(joMasterToken.toJSONString(), joMasterToken.toJSONString());
+        assertTrue(JsonUtils.equals(new JSONObject(jsonString), new JSONObject(joMasterToken.toJSONString())));
+    }
+    
     @Test(expected = MslInternalException.class)
     public void negativeSequenceNumberCtor() throws MslEncodingException, MslCryptoException {
         final long sequenceNumber = -1;
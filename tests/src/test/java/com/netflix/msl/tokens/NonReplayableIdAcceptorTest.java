@@ -0,0 +1,358 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.tokens;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.json.JSONException;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslMasterTokenException;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.entityauth.MockPresharedAuthenticationFactory;
+import com.netflix.msl.test.ExpectedMslException;
+import com.netflix.msl.util.MockMslContext;
+import com.netflix.msl.util.MslTestUtils;
+
+/**
+ * Non-replayable ID acceptor unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class NonReplayableIdAcceptorTest {
+    /** Window size. */
+    private static final int WINDOW_SIZE = 128;
+    /** Idle timeout in milliseconds. */
+    private static final long IDLE_TIMEOUT = 1000;
+
+    /**
+     * MSL context with a settable clock.
+     */
+    private static class ClockMslContext extends MockMslContext {
+        /**
+         * @throws MslEncodingException if there is an error encoding JSON.
+         * @throws MslCryptoException if there is an error creating crypto
+         *         contexts.
+         */
+        public ClockMslContext() throws MslEncodingException, MslCryptoException {
+            super(EntityAuthenticationScheme.PSK, false);
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.util.MockMslContext#getTime()
+         */
+        @Override
+        public long getTime() {
+            return (time != 0) ? time : System.currentTimeMillis();
+        }
+
+        /** Current time in milliseconds or zero for the system time. */
+        public long time = 0;
+    }
+
+    @Rule
+    public ExpectedMslException thrown = ExpectedMslException.none();
+
+    @BeforeClass
+    public static void setup() throws MslEncodingException, MslCryptoException {
+        ctx = new ClockMslContext();
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+    }
+
+    @Test
+    public void ctor() {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        assertEquals(0, acceptor.getSerialNumberCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroWindowSize() {
+        new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, 0, IDLE_TIMEOUT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroIdleTimeout() {
+        new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLargeAcceptanceWindow() {
+        new NonReplayableIdAcceptor(MslConstants.MAX_LONG_VALUE, WINDOW_SIZE, IDLE_TIMEOUT);
+    }
+
+    @Test
+    public void untrustedMasterToken() throws JSONException, MslException {
+        thrown.expect(MslMasterTokenException.class);
+        thrown.expectMslError(MslError.MASTERTOKEN_UNTRUSTED);
+
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        final MasterToken untrusted = MslTestUtils.getUntrustedMasterToken(ctx);
+        acceptor.accept(ctx, untrusted, 1);
+    }
+
+    @Test
+    public void negativeNonReplayableId() throws MslException {
+        thrown.expect(MslException.class);
+        thrown.expectMslError(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE);
+
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        acceptor.accept(ctx, masterToken, -1);
+    }
+
+    @Test
+    public void tooLargeNonReplayableId() throws MslException {
+        thrown.expect(MslException.class);
+        thrown.expectMslError(MslError.NONREPLAYABLE_ID_OUT_OF_RANGE);
+
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        acceptor.accept(ctx, masterToken, MslConstants.MAX_LONG_VALUE + 1);
+    }
+
+    @Test
+    public void initial() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        assertNull(acceptor.accept(ctx, masterToken, 0));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, 0));
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        assertEquals(1, acceptor.getSerialNumberCount());
+    }
+
+    @Test
+    public void largeInitial() throws MslException {
+        // The window starts at the first non-replayable ID received.
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, IDLE_TIMEOUT);
+        final long first = 1000 * NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW;
+        assertNull(acceptor.accept(ctx, masterToken, first));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, first));
+        assertNull(acceptor.accept(ctx, masterToken, first + 1));
+        assertNull(acceptor.accept(ctx, masterToken, first - 1));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, first - WINDOW_SIZE));
+        assertEquals(MslError.MESSAGE_REPLAYED_UNRECOVERABLE, acceptor.accept(ctx, masterToken, 1));
+    }
+
+    @Test
+    public void replayed() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, 1));
+    }
+
+    @Test
+    public void outOfOrder() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, IDLE_TIMEOUT);
+        assertNull(acceptor.accept(ctx, masterToken, 10));
+        for (long id = 9; id > 0; --id)
+            assertNull(acceptor.accept(ctx, masterToken, id));
+        for (long id = 1; id <= 10; ++id)
+            assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, id));
+
+        // Advance past the window of IDs not yet seen.
+        assertNull(acceptor.accept(ctx, masterToken, 100));
+        assertNull(acceptor.accept(ctx, masterToken, 50));
+        assertNull(acceptor.accept(ctx, masterToken, 11));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, 50));
+    }
+
+    @Test
+    public void windowEdge() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, IDLE_TIMEOUT);
+        final long largest = 1000;
+        assertNull(acceptor.accept(ctx, masterToken, largest));
+        assertNull(acceptor.accept(ctx, masterToken, largest - WINDOW_SIZE + 1));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, largest - WINDOW_SIZE));
+    }
+
+    @Test
+    public void behindWindow() throws MslException {
+        final long acceptanceWindow = NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW;
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(acceptanceWindow, WINDOW_SIZE, IDLE_TIMEOUT);
+        final long largest = 3 * acceptanceWindow;
+        for (long id = acceptanceWindow; id <= largest; id += acceptanceWindow)
+            assertNull(acceptor.accept(ctx, masterToken, id));
+
+        // Behind the window but within the acceptance window is recoverable.
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, largest - WINDOW_SIZE - acceptanceWindow));
+
+        // Further behind is not.
+        assertEquals(MslError.MESSAGE_REPLAYED_UNRECOVERABLE, acceptor.accept(ctx, masterToken, largest - WINDOW_SIZE - acceptanceWindow - 1));
+    }
+
+    @Test
+    public void tooFarAhead() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        assertEquals(MslError.MESSAGE_REPLAYED_UNRECOVERABLE, acceptor.accept(ctx, masterToken, NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW + 2));
+        assertNull(acceptor.accept(ctx, masterToken, NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW + 1));
+    }
+
+    @Test
+    public void wrapAround() throws MslException {
+        final long acceptanceWindow = MslConstants.MAX_LONG_VALUE / 2;
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(acceptanceWindow, WINDOW_SIZE, IDLE_TIMEOUT);
+        assertNull(acceptor.accept(ctx, masterToken, acceptanceWindow));
+        assertNull(acceptor.accept(ctx, masterToken, MslConstants.MAX_LONG_VALUE - 2));
+        assertNull(acceptor.accept(ctx, masterToken, MslConstants.MAX_LONG_VALUE));
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        assertNull(acceptor.accept(ctx, masterToken, 0));
+        assertNull(acceptor.accept(ctx, masterToken, MslConstants.MAX_LONG_VALUE - 1));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, MslConstants.MAX_LONG_VALUE - 2));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, MslConstants.MAX_LONG_VALUE));
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, 0));
+    }
+
+    @Test
+    public void serialNumbers() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        final MasterToken masterTokenB = MslTestUtils.getMasterToken(ctx, 1, 2);
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        assertNull(acceptor.accept(ctx, masterTokenB, 1));
+        assertEquals(2, acceptor.getSerialNumberCount());
+        assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterTokenB, 1));
+    }
+
+    @Test
+    public void identities() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        final Date renewalWindow = new Date(System.currentTimeMillis() + 10000);
+        final Date expiration = new Date(System.currentTimeMillis() + 20000);
+        final MasterToken otherMasterToken = new MasterToken(ctx, renewalWindow, expiration, 1, masterToken.getSerialNumber(), null, "other", MockPresharedAuthenticationFactory.KPE, MockPresharedAuthenticationFactory.KPH);
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        assertNull(acceptor.accept(ctx, otherMasterToken, 1));
+        assertEquals(2, acceptor.getSerialNumberCount());
+        assertNull(acceptor.accept(ctx, otherMasterToken, 1 + NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW));
+        assertEquals(MslError.MESSAGE_REPLAYED_UNRECOVERABLE, acceptor.accept(ctx, masterToken, 1 + NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW + 1));
+        assertNull(acceptor.accept(ctx, masterToken, 2));
+    }
+
+    @Test
+    public void remove() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor();
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+        acceptor.remove(masterToken.getIdentity(), masterToken.getSerialNumber());
+        assertEquals(0, acceptor.getSerialNumberCount());
+        assertNull(acceptor.accept(ctx, masterToken, 1));
+    }
+
+    @Test
+    public void evictIdle() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, IDLE_TIMEOUT);
+        final MasterToken masterTokenB = MslTestUtils.getMasterToken(ctx, 1, 2);
+        try {
+            ctx.time = System.currentTimeMillis();
+            assertNull(acceptor.accept(ctx, masterToken, 1));
+
+            // Idle but not expired is not evicted.
+            ctx.time += 2 * IDLE_TIMEOUT;
+            assertNull(acceptor.accept(ctx, masterTokenB, 1));
+            assertEquals(2, acceptor.getSerialNumberCount());
+            assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, 1));
+
+            // Idle and expired is evicted.
+            ctx.time = masterToken.getExpiration().getTime() + 2 * IDLE_TIMEOUT;
+            final MasterToken masterTokenC = MslTestUtils.getMasterToken(ctx, 1, 3);
+            assertNull(acceptor.accept(ctx, masterTokenC, 1));
+            assertEquals(1, acceptor.getSerialNumberCount());
+            assertEquals(2, acceptor.getEvictedCount());
+        } finally {
+            ctx.time = 0;
+        }
+    }
+
+    @Test
+    public void replayAfterEviction() throws MslException {
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, IDLE_TIMEOUT);
+        final MasterToken masterTokenB = MslTestUtils.getMasterToken(ctx, 1, 2);
+        try {
+            ctx.time = System.currentTimeMillis();
+            final long largest = 1000;
+            assertNull(acceptor.accept(ctx, masterToken, largest - 2));
+            assertNull(acceptor.accept(ctx, masterToken, largest));
+
+            // Evict the window.
+            ctx.time = masterToken.getExpiration().getTime() + 2 * IDLE_TIMEOUT;
+            assertNull(acceptor.accept(ctx, masterTokenB, 1));
+            assertEquals(1, acceptor.getSerialNumberCount());
+            assertEquals(1, acceptor.getEvictedCount());
+
+            // Accepted and older non-replayable IDs are still rejected.
+            assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, largest));
+            assertEquals(MslError.MESSAGE_REPLAYED, acceptor.accept(ctx, masterToken, largest - 1));
+            assertEquals(0, acceptor.getEvictedCount());
+            assertNull(acceptor.accept(ctx, masterToken, largest + 1));
+
+            // Removal discards the retained non-replayable ID.
+            ctx.time += 2 * IDLE_TIMEOUT;
+            assertNull(acceptor.accept(ctx, masterTokenB, 2));
+            assertEquals(1, acceptor.getEvictedCount());
+            acceptor.remove(masterToken.getIdentity(), masterToken.getSerialNumber());
+            assertEquals(0, acceptor.getEvictedCount());
+            assertNull(acceptor.accept(ctx, masterToken, 1));
+        } finally {
+            ctx.time = 0;
+        }
+    }
+
+    @Test
+    public void concurrent() throws MslException, InterruptedException {
+        final int count = 4 * WINDOW_SIZE;
+        final NonReplayableIdAcceptor acceptor = new NonReplayableIdAcceptor(NonReplayableIdAcceptor.DEFAULT_ACCEPTANCE_WINDOW, WINDOW_SIZE, IDLE_TIMEOUT);
+        final AtomicIntegerArray accepted = new AtomicIntegerArray(count + 1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; ++t) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int id = 1; id <= count; ++id) {
+                            if (acceptor.accept(ctx, masterToken, id) == null)
+                                accepted.incrementAndGet(id);
+                        }
+                    } catch (final MslException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+
+        // Every ID was accepted exactly once.
+        for (int id = 1; id <= count; ++id)
+            assertEquals("id " + id, 1, accepted.get(id));
+        assertTrue(acceptor.accept(ctx, masterToken, count) != null);
+    }
+
+    /** MSL context. */
+    private static ClockMslContext ctx;
+    /** Master token. */
+    private static MasterToken masterToken;
+}
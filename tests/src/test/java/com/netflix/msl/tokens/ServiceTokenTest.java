@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
@@ -58,6 +59,7 @@ import com.netflix.msl.entityauth.EntityAuthenticationScheme;
 import com.netflix.msl.test.ExpectedMslException;
 import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
 import com.netflix.msl.util.Base64;
+import com.netflix.msl.util.JsonUtils;
 import com.netflix.msl.util.MockMslContext;
 import com.netflix.msl.util.MslContext;
 import com.netflix.msl.util.MslTestUtils;
@@ -194,6 +196,17 @@ public class ServiceTokenTest {
         assertEquals(jsonString, joJsonString);
     }
     
+    @Test
+    public void cachedEncoding() throws JSONException, MslException {
+        final ServiceToken serviceToken = new ServiceToken(ctx, NAME, DATA, MASTER_TOKEN, USER_ID_TOKEN, ENCRYPTED, compressionAlgo, CRYPTO_CONTEXT);
+        final String jsonString = serviceToken.toJSONString();
+        assertSame(jsonString, serviceToken.toJSONString());
+
+        final ServiceToken joServiceToken = new ServiceToken(ctx, new JSONObject(jsonString), MASTER_TOKEN, USER_ID_TOKEN, CRYPTO_CONTEXT);
+        assertSame(joServiceToken.toJSONString(), joServiceToken.toJSONString());
+        assertTrue(JsonUtils.equals(new JSONObject(jsonString), new JSONObject(joServiceToken.toJSONString())));
+    }
+    
     @Test
     public void cryptoContextMismatch() throws JSONException, MslException {
         final ServiceToken serviceToken = new ServiceToken(ctx, NAME, DATA, MASTER_TOKEN, USER_ID_TOKEN, ENCRYPTED, compressionAlgo, CRYPTO_CONTEXT);
@@ -18,6 +18,7 @@ package com.netflix.msl.tokens;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
@@ -138,6 +139,17 @@ public class UserIdTokenTest {
         assertEquals(jsonString, joJsonString);
     }
     
+    @Test
+    public void cachedEncoding() throws JSONException, MslException {
+        final UserIdToken userIdToken = new UserIdToken(ctx, RENEWAL_WINDOW, EXPIRATION, MASTER_TOKEN, SERIAL_NUMBER, ISSUER_DATA, USER);
+        final String jsonString = userIdToken.toJSONString();
+        assertSame(jsonString, userIdToken.toJSONString());
+
+        final UserIdToken joUserIdToken = new UserIdToken(ctx, new JSONObject(jsonString), MASTER_TOKEN);
+        assertSame(joUserIdToken.toJSONString(), joUserIdToken.toJSONString());
+        assertTrue(JsonUtils.equals(new JSONObject(jsonString), new JSONObject(joUserIdToken.toJSONString())));
+    }
+    
     @Test(expected = MslInternalException.class)
     public void negativeSerialNumberCtor() throws MslEncodingException, MslCryptoException {
         final long serialNumber = -1;
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.NullCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.entityauth.MockPresharedAuthenticationFactory;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.MockMslUser;
+import com.netflix.msl.tokens.MslUser;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
+
+/**
+ * Expiring MSL store unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class ExpiringMslStoreTest {
+    private static final String USER_ID = "userid";
+
+    /** Grace period in milliseconds. */
+    private static final long GRACE_PERIOD = 5000;
+    /** Time in milliseconds after which the test tokens may be evicted. */
+    private static final long EVICTABLE = 20000 + GRACE_PERIOD + 1000;
+
+    /**
+     * <p>MSL context with an adjustable local time.</p>
+     */
+    private static class ClockMslContext extends MockMslContext {
+        /**
+         * @throws MslEncodingException if there is an error encoding JSON
+         *         data.
+         * @throws MslCryptoException if there is an error signing or creating
+         *         the entity authentication data.
+         */
+        public ClockMslContext() throws MslEncodingException, MslCryptoException {
+            super(EntityAuthenticationScheme.PSK, false);
+        }
+
+        /* (non-Javadoc)
+         * @see com.netflix.msl.util.MockMslContext#getTime()
+         */
+        @Override
+        public long getTime() {
+            return System.currentTimeMillis() + offset;
+        }
+
+        /** Time offset in milliseconds. */
+        public volatile long offset = 0;
+    }
+
+    /**
+     * @param sequenceNumber master token sequence number.
+     * @param serialNumber master token serial number.
+     * @return a master token that is not renewable or expired at the
+     *         current MSL context time.
+     * @throws MslEncodingException if there is an error encoding the JSON
+     *         data.
+     * @throws MslCryptoException if there is an error encrypting or signing
+     *         the token data.
+     */
+    private static MasterToken getMasterToken(final long sequenceNumber, final long serialNumber) throws MslEncodingException, MslCryptoException {
+        final Date renewalWindow = new Date(ctx.getTime() + 10000);
+        final Date expiration = new Date(ctx.getTime() + 20000);
+        final String identity = ctx.getEntityAuthenticationData(null).getIdentity();
+        return new MasterToken(ctx, renewalWindow, expiration, sequenceNumber, serialNumber, null, identity, MockPresharedAuthenticationFactory.KPE, MockPresharedAuthenticationFactory.KPH);
+    }
+
+    @BeforeClass
+    public static void setup() throws MslEncodingException, MslCryptoException {
+        ctx = new ClockMslContext();
+    }
+
+    @Before
+    public void createStore() throws MslException {
+        ctx.offset = 0;
+        store = new ExpiringMslStore(ctx, GRACE_PERIOD);
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        cryptoContext = new NullCryptoContext();
+        store.setCryptoContext(masterToken, cryptoContext);
+        userIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 1, MockEmailPasswordAuthenticationFactory.USER);
+        store.addUserIdToken(USER_ID, userIdToken);
+        serviceTokens = MslTestUtils.getServiceTokens(ctx, masterToken, userIdToken);
+        store.addServiceTokens(serviceTokens);
+    }
+
+    @After
+    public void destroyStore() {
+        store.shutdown();
+    }
+
+    @Test
+    public void notExpired() throws MslException {
+        assertEquals(masterToken, store.getMasterToken());
+        assertSame(cryptoContext, store.getCryptoContext(masterToken));
+        assertEquals(userIdToken, store.getUserIdToken(USER_ID));
+        store.sweep();
+        assertEquals(1, store.getMasterTokenCount());
+        assertEquals(1, store.getUserIdTokenCount());
+        assertEquals(0, store.getExpiredMasterTokenCount());
+    }
+
+    @Test
+    public void gracePeriod() throws MslException {
+        ctx.offset = 20000 + GRACE_PERIOD / 2;
+        assertTrue(masterToken.isExpired(new Date(ctx.getTime())));
+        assertEquals(masterToken, store.getMasterToken());
+        assertEquals(userIdToken, store.getUserIdToken(USER_ID));
+        store.sweep();
+        assertEquals(1, store.getMasterTokenCount());
+    }
+
+    @Test
+    public void lazyMasterTokenEviction() throws MslException {
+        ctx.offset = EVICTABLE;
+        assertNull(store.getMasterToken());
+        assertEquals(1, store.getExpiredMasterTokenCount());
+        assertEquals(0, store.getMasterTokenCount());
+
+        // Bound tokens are evicted with the master token.
+        assertEquals(0, store.getUserIdTokenCount());
+        final Set<ServiceToken> remaining = store.getServiceTokens(null, null);
+        for (final ServiceToken token : remaining)
+            assertTrue(token.isUnbound());
+    }
+
+    @Test
+    public void lazyCryptoContextEviction() throws MslException {
+        ctx.offset = EVICTABLE;
+        assertNull(store.getCryptoContext(masterToken));
+        assertEquals(1, store.getExpiredMasterTokenCount());
+        assertNull(store.getCryptoContext(masterToken));
+        assertEquals(1, store.getExpiredMasterTokenCount());
+    }
+
+    @Test
+    public void lazyUserIdTokenEviction() throws MslException {
+        ctx.offset = EVICTABLE;
+        assertNull(store.getUserIdToken(USER_ID));
+        assertEquals(1, store.getExpiredUserIdTokenCount());
+        assertEquals(0, store.getUserIdTokenCount());
+        assertTrue(store.getServiceTokens(masterToken, userIdToken).size() < serviceTokens.size());
+    }
+
+    @Test
+    public void sweep() throws MslException {
+        final MasterToken otherMasterToken = MslTestUtils.getMasterToken(ctx, 1, 2);
+        store.setCryptoContext(otherMasterToken, cryptoContext);
+        ctx.offset = EVICTABLE;
+        final MasterToken freshMasterToken = getMasterToken(1, 3);
+        store.setCryptoContext(freshMasterToken, cryptoContext);
+
+        store.sweep();
+        assertEquals(1, store.getSweepCount());
+        assertEquals(2, store.getExpiredMasterTokenCount());
+        assertEquals(1, store.getMasterTokenCount());
+        assertEquals(freshMasterToken, store.getMasterToken());
+        assertEquals(0, store.getUserIdTokenCount());
+        assertTrue(store.getServiceTokens(masterToken, null).size() < serviceTokens.size());
+    }
+
+    @Test
+    public void backgroundSweeper() throws MslException, InterruptedException {
+        store.shutdown();
+        store = new ExpiringMslStore(ctx, GRACE_PERIOD, 0, 10);
+        store.setCryptoContext(masterToken, cryptoContext);
+        ctx.offset = EVICTABLE;
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (store.getMasterTokenCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, store.getMasterTokenCount());
+        assertTrue(store.getSweepCount() > 0);
+    }
+
+    @Test
+    public void leastRecentlyUsed() throws MslException {
+        store.shutdown();
+        store = new ExpiringMslStore(ctx, GRACE_PERIOD, 2, 0);
+        store.setCryptoContext(masterToken, cryptoContext);
+        final UserIdToken[] tokens = new UserIdToken[3];
+        for (int i = 0; i < tokens.length; ++i) {
+            final MslUser user = new MockMslUser(i);
+            tokens[i] = MslTestUtils.getUserIdToken(ctx, masterToken, i + 1, user);
+        }
+
+        store.addUserIdToken("user0", tokens[0]);
+        store.addUserIdToken("user1", tokens[1]);
+        assertNotNull(store.getUserIdToken("user0"));
+        store.addUserIdToken("user2", tokens[2]);
+
+        assertEquals(2, store.getUserIdTokenCount());
+        assertEquals(1, store.getEvictedUserIdTokenCount());
+        assertEquals(tokens[0], store.getUserIdToken("user0"));
+        assertNull(store.getUserIdToken("user1"));
+        assertEquals(tokens[2], store.getUserIdToken("user2"));
+    }
+
+    @Test
+    public void replaceUserIdToken() throws MslException {
+        final UserIdToken newUserIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 2, MockEmailPasswordAuthenticationFactory.USER);
+        store.addUserIdToken(USER_ID, newUserIdToken);
+        assertEquals(1, store.getUserIdTokenCount());
+        assertEquals(newUserIdToken, store.getUserIdToken(USER_ID));
+
+        store.removeUserIdToken(newUserIdToken);
+        assertEquals(0, store.getUserIdTokenCount());
+        assertNull(store.getUserIdToken(USER_ID));
+    }
+
+    @Test
+    public void clearCryptoContexts() throws MslException {
+        store.clearCryptoContexts();
+        assertEquals(0, store.getMasterTokenCount());
+        assertEquals(0, store.getUserIdTokenCount());
+        assertNull(store.getUserIdToken(USER_ID));
+    }
+
+    @Test
+    public void removeCryptoContext() throws MslException {
+        store.removeCryptoContext(masterToken);
+        assertEquals(0, store.getUserIdTokenCount());
+        assertNull(store.getUserIdToken(USER_ID));
+    }
+
+    /** MSL context. */
+    private static ClockMslContext ctx;
+
+    /** Store. */
+    private ExpiringMslStore store;
+    /** Master token. */
+    private MasterToken masterToken;
+    /** Master token crypto context. */
+    private ICryptoContext cryptoContext;
+    /** User ID token. */
+    private UserIdToken userIdToken;
+    /** Service tokens. */
+    private Set<ServiceToken> serviceTokens;
+}
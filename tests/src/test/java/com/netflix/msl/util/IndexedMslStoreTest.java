@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.NullCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.MockMslUser;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+
+/**
+ * Indexed MSL store unit tests.
+ *
+ * <p>The simple MSL store tests are also run against the indexed MSL
+ * store.</p>
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class IndexedMslStoreTest extends SimpleMslStoreTest {
+    /** Number of users. */
+    private static final int USERS = 100;
+    /** Per-user service token name. */
+    private static final String SESSION = "session";
+    /** Unbound service token name. */
+    private static final String DEVICE = "device";
+
+    /**
+     * @param name service token name.
+     * @param masterToken master token to bind against. May be null.
+     * @param userIdToken user ID token to bind against. May be null.
+     * @return a new service token.
+     * @throws MslException if there is an error creating the service token.
+     */
+    private static ServiceToken getServiceToken(final String name, final MasterToken masterToken, final UserIdToken userIdToken) throws MslException {
+        return new ServiceToken(indexedCtx, name, new byte[8], masterToken, userIdToken, false, null, new NullCryptoContext());
+    }
+
+    /* (non-Javadoc)
+     * @see com.netflix.msl.util.SimpleMslStoreTest#newStore()
+     */
+    @Override
+    protected MslStore newStore() {
+        return new IndexedMslStore();
+    }
+
+    @BeforeClass
+    public static void setupIndexed() throws MslEncodingException, MslCryptoException {
+        indexedCtx = new MockMslContext(EntityAuthenticationScheme.NONE, false);
+    }
+
+    @Before
+    public void populate() throws MslException {
+        indexed = new IndexedMslStore();
+        masterToken = MslTestUtils.getMasterToken(indexedCtx, 1, 1);
+        indexed.setCryptoContext(masterToken, new NullCryptoContext());
+        final Set<ServiceToken> unbound = new HashSet<ServiceToken>();
+        unbound.add(getServiceToken(DEVICE, null, null));
+        indexed.addServiceTokens(unbound);
+
+        userIdTokens = new UserIdToken[USERS];
+        for (int i = 0; i < USERS; ++i) {
+            userIdTokens[i] = MslTestUtils.getUserIdToken(indexedCtx, masterToken, i + 1, new MockMslUser(i));
+            indexed.addUserIdToken("user" + i, userIdTokens[i]);
+            final Set<ServiceToken> tokens = new HashSet<ServiceToken>();
+            tokens.add(getServiceToken(SESSION, masterToken, userIdTokens[i]));
+            indexed.addServiceTokens(tokens);
+        }
+    }
+
+    @Test
+    public void manyUsers() throws MslException {
+        assertEquals(USERS, indexed.getUserIdTokenCount());
+        assertEquals(USERS + 1, indexed.getServiceTokenCount());
+        for (int i = 0; i < USERS; ++i) {
+            assertEquals(userIdTokens[i], indexed.getUserIdToken("user" + i));
+            final Set<ServiceToken> tokens = indexed.getServiceTokens(masterToken, userIdTokens[i]);
+            assertEquals(2, tokens.size());
+            assertTrue(tokens.contains(getServiceToken(SESSION, masterToken, userIdTokens[i])));
+        }
+    }
+
+    @Test
+    public void removeOneUser() throws MslException {
+        indexed.removeUserIdToken(userIdTokens[7]);
+        assertNull(indexed.getUserIdToken("user7"));
+        assertEquals(USERS - 1, indexed.getUserIdTokenCount());
+        assertEquals(USERS, indexed.getServiceTokenCount());
+        assertEquals(1, indexed.getServiceTokens(masterToken, userIdTokens[7]).size());
+        assertEquals(2, indexed.getServiceTokens(masterToken, userIdTokens[8]).size());
+    }
+
+    @Test
+    public void removeUserServiceTokens() throws MslException {
+        indexed.removeServiceTokens(SESSION, masterToken, userIdTokens[3]);
+        assertEquals(USERS, indexed.getServiceTokenCount());
+        assertEquals(1, indexed.getServiceTokens(masterToken, userIdTokens[3]).size());
+        assertEquals(userIdTokens[3], indexed.getUserIdToken("user3"));
+    }
+
+    @Test
+    public void removeByName() throws MslException {
+        indexed.removeServiceTokens(SESSION, null, null);
+        assertEquals(1, indexed.getServiceTokenCount());
+        assertEquals(USERS, indexed.getUserIdTokenCount());
+        indexed.removeServiceTokens(DEVICE, null, null);
+        assertEquals(0, indexed.getServiceTokenCount());
+    }
+
+    @Test
+    public void replaceUserIdToken() throws MslException {
+        final UserIdToken newUserIdToken = MslTestUtils.getUserIdToken(indexedCtx, masterToken, USERS + 1, new MockMslUser(0));
+        indexed.addUserIdToken("user0", newUserIdToken);
+        assertEquals(USERS, indexed.getUserIdTokenCount());
+
+        // The replaced user ID token no longer identifies the user.
+        indexed.removeUserIdToken(userIdTokens[0]);
+        assertEquals(newUserIdToken, indexed.getUserIdToken("user0"));
+        indexed.removeUserIdToken(newUserIdToken);
+        assertNull(indexed.getUserIdToken("user0"));
+    }
+
+    @Test
+    public void sharedMasterTokenSerialNumber() throws MslException {
+        final MasterToken renewedMasterToken = MslTestUtils.getMasterToken(indexedCtx, 2, 1);
+        final ICryptoContext cryptoContext = new NullCryptoContext();
+        indexed.setCryptoContext(renewedMasterToken, cryptoContext);
+        indexed.setCryptoContext(renewedMasterToken, cryptoContext);
+        final long id = indexed.getNonReplayableId(masterToken);
+
+        // Bound tokens remain while a master token with the serial number
+        // remains.
+        indexed.removeCryptoContext(masterToken);
+        assertEquals(USERS, indexed.getUserIdTokenCount());
+        assertEquals(USERS + 1, indexed.getServiceTokenCount());
+        assertEquals(id + 1, indexed.getNonReplayableId(renewedMasterToken));
+
+        indexed.removeCryptoContext(renewedMasterToken);
+        assertEquals(0, indexed.getUserIdTokenCount());
+        assertEquals(1, indexed.getServiceTokenCount());
+        assertEquals(1, indexed.getNonReplayableId(renewedMasterToken));
+    }
+
+    @Test
+    public void clearUserIdTokens() throws MslException {
+        indexed.clearUserIdTokens();
+        assertEquals(0, indexed.getUserIdTokenCount());
+        assertEquals(1, indexed.getServiceTokenCount());
+        assertEquals(masterToken, indexed.getMasterToken());
+    }
+
+    @Test
+    public void clearCryptoContexts() throws MslException {
+        indexed.clearCryptoContexts();
+        assertNull(indexed.getMasterToken());
+        assertEquals(0, indexed.getUserIdTokenCount());
+        assertEquals(1, indexed.getServiceTokenCount());
+    }
+
+    /** MSL context. */
+    private static MslContext indexedCtx;
+
+    /** Indexed store. */
+    private IndexedMslStore indexed;
+    /** Master token. */
+    private MasterToken masterToken;
+    /** User ID tokens. */
+    private UserIdToken[] userIdTokens;
+}
@@ -22,11 +22,14 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -291,6 +294,27 @@ public class JsonUtilsTest {
         }
     }
     
+    @Test
+    public void encodedArray() throws JSONException {
+        final List<JSONString> values = new ArrayList<JSONString>();
+        for (int i = 0; i < 3; ++i) {
+            final String json = flatJo.toString();
+            values.add(new JSONString() {
+                @Override
+                public String toJSONString() {
+                    return json;
+                }
+            });
+        }
+        final JSONArray ja = JsonUtils.createEncodedArray(values);
+        assertEquals(values.size(), ja.length());
+        
+        // The encodings are inserted as-is when serialized.
+        final JSONArray parsedJa = new JSONArray(ja.toString());
+        for (int i = 0; i < parsedJa.length(); ++i)
+            assertTrue(JsonUtils.equals(flatJo, parsedJa.getJSONObject(i)));
+    }
+    
     @Test
     public void jsonObjectEqual() throws JSONException {
         assertTrue(JsonUtils.equals(flatJo, flatJo));
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.NullCryptoContext;
+import com.netflix.msl.crypto.SessionCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
+
+/**
+ * MSL store snapshot unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class MslStoreSnapshotTest {
+    private static final String USER_ID = "userid";
+
+    /**
+     * @param c1 first collection.
+     * @param c2 second collection.
+     * @return true if each collection contain all elements found in the other.
+     */
+    private static boolean equal(final Collection<? extends Object> c1, final Collection<? extends Object> c2) {
+        return c1.containsAll(c2) && c2.containsAll(c1);
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @BeforeClass
+    public static void setup() throws MslEncodingException, MslCryptoException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        ctx = null;
+    }
+
+    @Before
+    public void populateStore() throws MslException {
+        store = new SimpleMslStore();
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        cryptoContext = new SessionCryptoContext(ctx, masterToken);
+        store.setCryptoContext(masterToken, cryptoContext);
+        store.getNonReplayableId(masterToken);
+        store.getNonReplayableId(masterToken);
+        userIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 1, MockEmailPasswordAuthenticationFactory.USER);
+        store.addUserIdToken(USER_ID, userIdToken);
+        serviceTokens = MslTestUtils.getServiceTokens(ctx, masterToken, userIdToken);
+        store.addServiceTokens(serviceTokens);
+    }
+
+    @Test
+    public void snapshotRestore() throws IOException, MslException {
+        final byte[] snapshot = MslStoreSnapshot.snapshot(store);
+        final SimpleMslStore restored = MslStoreSnapshot.restore(ctx, snapshot);
+
+        assertEquals(masterToken, restored.getMasterToken());
+        assertEquals(masterToken.toJSONString(), restored.getMasterToken().toJSONString());
+        final ICryptoContext restoredCryptoContext = restored.getCryptoContext(masterToken);
+        assertNotNull(restoredCryptoContext);
+        final byte[] plaintext = "plaintext".getBytes(MslConstants.DEFAULT_CHARSET);
+        assertArrayEquals(plaintext, restoredCryptoContext.decrypt(cryptoContext.encrypt(plaintext)));
+        assertTrue(cryptoContext.verify(plaintext, restoredCryptoContext.sign(plaintext)));
+
+        assertEquals(3, restored.getNonReplayableId(masterToken));
+        assertEquals(userIdToken, restored.getUserIdToken(USER_ID));
+        assertTrue(equal(store.getServiceTokens(masterToken, userIdToken), restored.getServiceTokens(masterToken, userIdToken)));
+    }
+
+    @Test
+    public void emptyStore() throws IOException, MslException {
+        final byte[] snapshot = MslStoreSnapshot.snapshot(new SimpleMslStore());
+        assertEquals(MslStoreSnapshot.HEADER_LENGTH, snapshot.length);
+        final SimpleMslStore restored = MslStoreSnapshot.restore(ctx, snapshot);
+        assertNull(restored.getMasterToken());
+    }
+
+    @Test
+    public void appendRecords() throws IOException, MslException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MslStoreSnapshot.write(store, out);
+
+        // Append a newer master token and remove the user.
+        final MasterToken newMasterToken = MslTestUtils.getMasterToken(ctx, 2, 2);
+        final MslStoreSnapshot.Writer writer = new MslStoreSnapshot.Writer(out, false);
+        writer.setCryptoContext(newMasterToken, new SessionCryptoContext(ctx, newMasterToken));
+        writer.setNonReplayableId(newMasterToken.getSerialNumber(), 10);
+        writer.removeUserIdToken(userIdToken);
+        writer.removeServiceTokens(null, masterToken, null);
+        writer.flush();
+
+        final SimpleMslStore restored = MslStoreSnapshot.restore(ctx, out.toByteArray());
+        assertEquals(newMasterToken, restored.getMasterToken());
+        assertNotNull(restored.getCryptoContext(masterToken));
+        assertEquals(11, restored.getNonReplayableId(newMasterToken));
+        assertNull(restored.getUserIdToken(USER_ID));
+        for (final ServiceToken token : restored.getServiceTokens(masterToken, null))
+            assertTrue(token.isUnbound());
+    }
+
+    @Test
+    public void appendClearRecords() throws IOException, MslException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MslStoreSnapshot.write(store, out);
+        final MslStoreSnapshot.Writer writer = new MslStoreSnapshot.Writer(out, false);
+        writer.clearServiceTokens();
+        writer.clearUserIdTokens();
+        writer.clearCryptoContexts();
+        writer.flush();
+
+        final SimpleMslStore restored = MslStoreSnapshot.restore(ctx, out.toByteArray());
+        assertNull(restored.getMasterToken());
+        assertNull(restored.getUserIdToken(USER_ID));
+        assertTrue(restored.getServiceTokens(null, null).isEmpty());
+    }
+
+    @Test
+    public void removeCryptoContext() throws IOException, MslException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MslStoreSnapshot.write(store, out);
+        final MslStoreSnapshot.Writer writer = new MslStoreSnapshot.Writer(out, false);
+        writer.setCryptoContext(masterToken, null);
+        writer.flush();
+
+        final SimpleMslStore restored = MslStoreSnapshot.restore(ctx, out.toByteArray());
+        assertNull(restored.getMasterToken());
+        assertNull(restored.getUserIdToken(USER_ID));
+        assertEquals(1, restored.getNonReplayableId(masterToken));
+    }
+
+    @Test
+    public void incompleteFinalRecord() throws IOException, MslException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MslStoreSnapshot.write(store, out);
+        final int length = out.size();
+        final MslStoreSnapshot.Writer writer = new MslStoreSnapshot.Writer(out, false);
+        writer.removeUserIdToken(userIdToken);
+        writer.flush();
+
+        for (int i = length + 1; i < out.size(); ++i) {
+            final byte[] truncated = Arrays.copyOf(out.toByteArray(), i);
+            final SimpleMslStore restored = new SimpleMslStore();
+            final long valid = MslStoreSnapshot.restore(ctx, new ByteArrayInputStream(truncated), restored);
+            assertEquals(length, valid);
+            assertEquals(userIdToken, restored.getUserIdToken(USER_ID));
+        }
+    }
+
+    @Test
+    public void damagedFinalRecord() throws IOException, MslException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MslStoreSnapshot.write(store, out);
+        final int length = out.size();
+        final MslStoreSnapshot.Writer writer = new MslStoreSnapshot.Writer(out, false);
+        writer.removeUserIdToken(userIdToken);
+        writer.flush();
+
+        final byte[] damaged = out.toByteArray();
+        damaged[damaged.length - 5] ^= 0xff;
+        final SimpleMslStore restored = new SimpleMslStore();
+        assertEquals(length, MslStoreSnapshot.restore(ctx, new ByteArrayInputStream(damaged), restored));
+        assertEquals(userIdToken, restored.getUserIdToken(USER_ID));
+    }
+
+    @Test
+    public void damagedRecord() throws IOException, MslException {
+        thrown.expect(IOException.class);
+
+        final byte[] snapshot = MslStoreSnapshot.snapshot(store);
+        final byte[] appended = Arrays.copyOf(snapshot, snapshot.length + snapshot.length - MslStoreSnapshot.HEADER_LENGTH);
+        System.arraycopy(snapshot, MslStoreSnapshot.HEADER_LENGTH, appended, snapshot.length, snapshot.length - MslStoreSnapshot.HEADER_LENGTH);
+        appended[MslStoreSnapshot.HEADER_LENGTH + 10] ^= 0xff;
+        MslStoreSnapshot.restore(ctx, appended);
+    }
+
+    @Test
+    public void unknownRecord() throws IOException, MslException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MslStoreSnapshot.write(store, out);
+        // Type 127, empty payload, CRC-32 of nothing.
+        out.write(new byte[] { 127, 0, 0, 0, 0, 0, 0, 0, 0 });
+        final byte[] snapshot = out.toByteArray();
+
+        final SimpleMslStore restored = new SimpleMslStore();
+        assertEquals(snapshot.length, MslStoreSnapshot.restore(ctx, new ByteArrayInputStream(snapshot), restored));
+        assertEquals(userIdToken, restored.getUserIdToken(USER_ID));
+    }
+
+    @Test
+    public void notSnapshot() throws IOException, MslException {
+        thrown.expect(IOException.class);
+        MslStoreSnapshot.restore(ctx, "{}".getBytes(MslConstants.DEFAULT_CHARSET));
+    }
+
+    @Test
+    public void unsupportedVersion() throws IOException, MslException {
+        thrown.expect(IOException.class);
+        final byte[] snapshot = MslStoreSnapshot.snapshot(store);
+        snapshot[7] = (byte)(MslStoreSnapshot.VERSION + 1);
+        MslStoreSnapshot.restore(ctx, snapshot);
+    }
+
+    @Test
+    public void unsupportedCryptoContext() throws IOException, MslException {
+        thrown.expect(IllegalArgumentException.class);
+        store.setCryptoContext(masterToken, new NullCryptoContext());
+        MslStoreSnapshot.snapshot(store);
+    }
+
+    /** MSL context. */
+    private static MslContext ctx;
+
+    /** Store. */
+    private SimpleMslStore store;
+    /** Master token. */
+    private MasterToken masterToken;
+    /** Master token crypto context. */
+    private ICryptoContext cryptoContext;
+    /** User ID token. */
+    private UserIdToken userIdToken;
+    /** Service tokens. */
+    private Set<ServiceToken> serviceTokens;
+}
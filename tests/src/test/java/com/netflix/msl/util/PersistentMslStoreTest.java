@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.netflix.msl.MslConstants;
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslException;
+import com.netflix.msl.crypto.ICryptoContext;
+import com.netflix.msl.crypto.NullCryptoContext;
+import com.netflix.msl.crypto.SessionCryptoContext;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.ServiceToken;
+import com.netflix.msl.tokens.UserIdToken;
+import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
+
+/**
+ * Persistent MSL store unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class PersistentMslStoreTest {
+    private static final String USER_ID = "userid";
+
+    /** Number of concurrent writers. */
+    private static final int WRITERS = 8;
+    /** Number of changes per writer. */
+    private static final int CHANGES = 50;
+
+    /**
+     * @param c1 first collection.
+     * @param c2 second collection.
+     * @return true if each collection contain all elements found in the other.
+     */
+    private static boolean equal(final Collection<? extends Object> c1, final Collection<? extends Object> c2) {
+        return c1.containsAll(c2) && c2.containsAll(c1);
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() throws MslEncodingException, MslCryptoException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        ctx = null;
+    }
+
+    @Before
+    public void createStore() throws IOException, MslException {
+        directory = folder.newFolder();
+        store = new PersistentMslStore(ctx, directory);
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        cryptoContext = new SessionCryptoContext(ctx, masterToken);
+        userIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 1, MockEmailPasswordAuthenticationFactory.USER);
+        serviceTokens = MslTestUtils.getServiceTokens(ctx, masterToken, userIdToken);
+    }
+
+    @After
+    public void destroyStore() throws IOException {
+        store.close();
+    }
+
+    /**
+     * <p>Close the store and recover it from its directory.</p>
+     *
+     * @return the recovered store.
+     * @throws IOException if the store cannot be recovered.
+     * @throws MslException if a token cannot be restored.
+     */
+    private PersistentMslStore reopen() throws IOException, MslException {
+        store.close();
+        store = new PersistentMslStore(ctx, directory);
+        return store;
+    }
+
+    /**
+     * <p>Populate the store.</p>
+     *
+     * @throws MslException if a token cannot be added.
+     */
+    private void populate() throws MslException {
+        store.setCryptoContext(masterToken, cryptoContext);
+        store.getNonReplayableId(masterToken);
+        store.addUserIdToken(USER_ID, userIdToken);
+        store.addServiceTokens(serviceTokens);
+    }
+
+    /**
+     * <p>Assert the store holds the populated state.</p>
+     *
+     * @throws MslException if the service tokens cannot be retrieved.
+     */
+    private void assertPopulated() throws MslException {
+        assertEquals(masterToken, store.getMasterToken());
+        final ICryptoContext restoredCryptoContext = store.getCryptoContext(masterToken);
+        assertNotNull(restoredCryptoContext);
+        final byte[] plaintext = "plaintext".getBytes(MslConstants.DEFAULT_CHARSET);
+        assertArrayEquals(plaintext, restoredCryptoContext.decrypt(cryptoContext.encrypt(plaintext)));
+        assertEquals(userIdToken, store.getUserIdToken(USER_ID));
+        assertTrue(equal(serviceTokens, store.getServiceTokens(masterToken, userIdToken)));
+    }
+
+    @Test
+    public void emptyDirectory() throws IOException, MslException {
+        assertNull(store.getMasterToken());
+        reopen();
+        assertNull(store.getMasterToken());
+    }
+
+    @Test
+    public void recover() throws IOException, MslException {
+        populate();
+        reopen();
+        assertPopulated();
+        assertEquals(2, store.getNonReplayableId(masterToken));
+    }
+
+    @Test
+    public void recoverRemovals() throws IOException, MslException {
+        populate();
+        final MasterToken newMasterToken = MslTestUtils.getMasterToken(ctx, 2, 2);
+        store.setCryptoContext(newMasterToken, new SessionCryptoContext(ctx, newMasterToken));
+        store.removeUserIdToken(userIdToken);
+        store.removeCryptoContext(masterToken);
+        reopen();
+
+        assertEquals(newMasterToken, store.getMasterToken());
+        assertNull(store.getCryptoContext(masterToken));
+        assertNull(store.getUserIdToken(USER_ID));
+        assertEquals(1, store.getNonReplayableId(masterToken));
+        for (final ServiceToken token : store.getServiceTokens(newMasterToken, null))
+            assertTrue(token.isUnbound());
+    }
+
+    @Test
+    public void recoverClears() throws IOException, MslException {
+        populate();
+        store.clearServiceTokens();
+        store.clearUserIdTokens();
+        store.clearCryptoContexts();
+        reopen();
+
+        assertNull(store.getMasterToken());
+        assertNull(store.getUserIdToken(USER_ID));
+        assertTrue(store.getServiceTokens(null, null).isEmpty());
+    }
+
+    @Test
+    public void compaction() throws IOException, MslException {
+        store.close();
+        store = new PersistentMslStore(ctx, directory, 1);
+        populate();
+        assertTrue(store.getCompactionCount() > 0);
+
+        // Only the current generation remains.
+        final String[] names = directory.list();
+        assertEquals(Arrays.toString(names), 2, names.length);
+
+        reopen();
+        assertPopulated();
+        assertEquals(2, store.getNonReplayableId(masterToken));
+    }
+
+    @Test
+    public void explicitCompaction() throws IOException, MslException {
+        populate();
+        final long logSize = store.getLogSize();
+        store.compact();
+        assertEquals(1, store.getCompactionCount());
+        assertTrue(store.getLogSize() < logSize);
+        store.removeUserIdToken(userIdToken);
+
+        reopen();
+        assertEquals(masterToken, store.getMasterToken());
+        assertNull(store.getUserIdToken(USER_ID));
+    }
+
+    @Test
+    public void incompleteLogRecord() throws IOException, MslException {
+        populate();
+        store.close();
+
+        // Append a partial record.
+        final File log = new File(directory, "log.0");
+        final long length = log.length();
+        final FileOutputStream out = new FileOutputStream(log, true);
+        try {
+            out.write(new byte[] { 6, 0, 0, 0, 16, 0, 0 });
+        } finally {
+            out.close();
+        }
+
+        store = new PersistentMslStore(ctx, directory);
+        assertEquals(length, log.length());
+        assertPopulated();
+
+        // New changes are appended after the valid records.
+        store.removeUserIdToken(userIdToken);
+        reopen();
+        assertNull(store.getUserIdToken(USER_ID));
+        assertEquals(masterToken, store.getMasterToken());
+    }
+
+    @Test
+    public void damagedSnapshot() throws IOException, MslException {
+        populate();
+        store.compact();
+        store.close();
+
+        // Append a partial record to the snapshot.
+        final File snapshot = new File(directory, "snapshot.1");
+        assertTrue(snapshot.exists());
+        final FileOutputStream out = new FileOutputStream(snapshot, true);
+        try {
+            out.write(new byte[] { 6, 0, 0, 0, 16, 0, 0 });
+        } finally {
+            out.close();
+        }
+
+        try {
+            new PersistentMslStore(ctx, directory);
+            fail("IOException expected.");
+        } catch (final IOException e) {
+            assertTrue(snapshot.exists());
+        }
+    }
+
+    @Test
+    public void interruptedCompaction() throws IOException, MslException {
+        populate();
+        store.close();
+
+        // Leave behind the files of an interrupted compaction.
+        final File tmp = new File(directory, "snapshot.1.tmp");
+        final File log = new File(directory, "log.1");
+        assertTrue(tmp.createNewFile());
+        assertTrue(log.createNewFile());
+
+        store = new PersistentMslStore(ctx, directory);
+        assertPopulated();
+        assertFalse(tmp.exists());
+        assertFalse(log.exists());
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        store.setCryptoContext(masterToken, cryptoContext);
+        final ExecutorService service = Executors.newFixedThreadPool(WRITERS);
+        try {
+            final Set<Future<Set<Long>>> futures = new HashSet<Future<Set<Long>>>();
+            for (int i = 0; i < WRITERS; ++i) {
+                futures.add(service.submit(new Callable<Set<Long>>() {
+                    @Override
+                    public Set<Long> call() {
+                        final Set<Long> ids = new HashSet<Long>();
+                        for (int j = 0; j < CHANGES; ++j)
+                            ids.add(store.getNonReplayableId(masterToken));
+                        return ids;
+                    }
+                }));
+            }
+            final Set<Long> ids = new HashSet<Long>();
+            for (final Future<Set<Long>> future : futures)
+                ids.addAll(future.get());
+            assertEquals(WRITERS * CHANGES, ids.size());
+        } finally {
+            service.shutdownNow();
+        }
+        assertEquals(WRITERS * CHANGES + 1, store.getChangeCount());
+        assertTrue(store.getCommitCount() <= store.getChangeCount());
+
+        reopen();
+        assertEquals(WRITERS * CHANGES + 1, store.getNonReplayableId(masterToken));
+    }
+
+    @Test
+    public void unsupportedCryptoContext() throws IOException, MslException {
+        try {
+            store.setCryptoContext(masterToken, new NullCryptoContext());
+            fail("IllegalArgumentException expected.");
+        } catch (final IllegalArgumentException e) {
+            assertNull(store.getMasterToken());
+            assertEquals(0, store.getChangeCount());
+        }
+    }
+
+    /** MSL context. */
+    private static MslContext ctx;
+
+    /** Store directory. */
+    private File directory;
+    /** Store. */
+    private PersistentMslStore store;
+    /** Master token. */
+    private MasterToken masterToken;
+    /** Master token crypto context. */
+    private ICryptoContext cryptoContext;
+    /** User ID token. */
+    private UserIdToken userIdToken;
+    /** Service tokens. */
+    private Set<ServiceToken> serviceTokens;
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2016 Netflix, Inc.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.msl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.netflix.msl.MslCryptoException;
+import com.netflix.msl.MslEncodingException;
+import com.netflix.msl.MslError;
+import com.netflix.msl.MslException;
+import com.netflix.msl.MslMasterTokenException;
+import com.netflix.msl.entityauth.EntityAuthenticationScheme;
+import com.netflix.msl.test.ExpectedMslException;
+import com.netflix.msl.tokens.MasterToken;
+import com.netflix.msl.tokens.UserIdToken;
+import com.netflix.msl.userauth.MockEmailPasswordAuthenticationFactory;
+
+/**
+ * Revocation index unit tests.
+ *
+ * @author Wesley Miaw <wmiaw@netflix.com>
+ */
+public class RevocationIndexTest {
+    /** Entity identity. */
+    private static final String IDENTITY = "entity";
+    /** Number of revocations for large index tests. */
+    private static final int COUNT = 10000;
+
+    @Rule
+    public ExpectedMslException thrown = ExpectedMslException.none();
+
+    @BeforeClass
+    public static void setup() throws MslEncodingException, MslCryptoException {
+        ctx = new MockMslContext(EntityAuthenticationScheme.PSK, false);
+        masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        userIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 1, MockEmailPasswordAuthenticationFactory.USER);
+    }
+
+    @Test
+    public void empty() throws MslMasterTokenException {
+        final RevocationIndex index = new RevocationIndex();
+        assertEquals(0, index.size());
+        assertFalse(index.isEntityRevoked(IDENTITY));
+        assertFalse(index.isMasterTokenRevoked(1));
+        assertFalse(index.isUserIdTokenRevoked(1));
+        assertNull(index.isMasterTokenRevoked(masterToken));
+        assertNull(index.isUserIdTokenRevoked(userIdToken));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroProbability() {
+        new RevocationIndex(0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oneProbability() {
+        new RevocationIndex(1, null);
+    }
+
+    @Test
+    public void revokeEntity() throws MslMasterTokenException {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeEntity(IDENTITY);
+        assertEquals(1, index.size());
+        assertTrue(index.isEntityRevoked(IDENTITY));
+        assertFalse(index.isEntityRevoked(IDENTITY + "x"));
+
+        // Master tokens issued to the entity are also revoked.
+        index.revokeEntity(masterToken.getIdentity());
+        assertEquals(MslError.MASTERTOKEN_IDENTITY_REVOKED, index.isMasterTokenRevoked(masterToken));
+    }
+
+    @Test
+    public void revokeMasterToken() throws MslMasterTokenException {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeMasterToken(masterToken.getSerialNumber());
+        assertTrue(index.isMasterTokenRevoked(masterToken.getSerialNumber()));
+        assertEquals(MslError.MASTERTOKEN_REJECTED_BY_APP, index.isMasterTokenRevoked(masterToken));
+
+        // Serial numbers are not shared between token types.
+        assertFalse(index.isUserIdTokenRevoked(masterToken.getSerialNumber()));
+        assertNull(index.isUserIdTokenRevoked(userIdToken));
+    }
+
+    @Test
+    public void revokeUserIdToken() throws MslMasterTokenException {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeUserIdToken(userIdToken.getSerialNumber());
+        assertTrue(index.isUserIdTokenRevoked(userIdToken.getSerialNumber()));
+        assertEquals(MslError.USERIDTOKEN_REVOKED, index.isUserIdTokenRevoked(userIdToken));
+        assertNull(index.isMasterTokenRevoked(masterToken));
+    }
+
+    @Test
+    public void untrustedMasterToken() throws JSONException, MslException {
+        thrown.expect(MslMasterTokenException.class);
+        thrown.expectMslError(MslError.MASTERTOKEN_UNTRUSTED);
+
+        final RevocationIndex index = new RevocationIndex();
+        final MasterToken untrusted = MslTestUtils.getUntrustedMasterToken(ctx);
+        index.isMasterTokenRevoked(untrusted);
+    }
+
+    @Test
+    public void duplicateRevoke() {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeEntity(IDENTITY);
+        index.revokeEntity(IDENTITY);
+        index.revokeMasterToken(1);
+        index.revokeMasterToken(1);
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void unrevoke() {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeEntity(IDENTITY);
+        index.revokeMasterToken(1);
+        index.revokeUserIdToken(1);
+        index.unrevokeEntity(IDENTITY);
+        index.unrevokeMasterToken(1);
+        index.unrevokeUserIdToken(1);
+        assertEquals(0, index.size());
+        assertFalse(index.isEntityRevoked(IDENTITY));
+        assertFalse(index.isMasterTokenRevoked(1));
+        assertFalse(index.isUserIdTokenRevoked(1));
+
+        // Removing an unknown revocation is harmless.
+        index.unrevokeEntity(IDENTITY);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void growth() {
+        final RevocationIndex index = new RevocationIndex();
+        for (int i = 0; i < COUNT; ++i) {
+            index.revokeEntity(IDENTITY + i);
+            index.revokeMasterToken(i);
+        }
+        assertEquals(2 * COUNT, index.size());
+        for (int i = 0; i < COUNT; ++i) {
+            assertTrue(index.isEntityRevoked(IDENTITY + i));
+            assertTrue(index.isMasterTokenRevoked(i));
+            assertFalse(index.isUserIdTokenRevoked(i));
+        }
+    }
+
+    @Test
+    public void rebuildAfterRemoval() {
+        final RevocationIndex index = new RevocationIndex();
+        for (int i = 0; i < COUNT; ++i)
+            index.revokeUserIdToken(i);
+        for (int i = 0; i < COUNT; i += 2)
+            index.unrevokeUserIdToken(i);
+        index.rebuild();
+        assertEquals(COUNT / 2, index.size());
+        for (int i = 0; i < COUNT; ++i)
+            assertEquals(i % 2 == 1, index.isUserIdTokenRevoked(i));
+    }
+
+    @Test
+    public void backgroundRebuild() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final RevocationIndex index = new RevocationIndex(0.001, executor);
+            for (int i = 0; i < COUNT; ++i) {
+                index.revokeMasterToken(i);
+                // Revocations are visible immediately even while a rebuild
+                // is pending.
+                assertTrue(index.isMasterTokenRevoked(i));
+            }
+            for (int i = 0; i < COUNT; i += 2)
+                index.unrevokeMasterToken(i);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void concurrentQueries() throws InterruptedException {
+        final RevocationIndex index = new RevocationIndex();
+        final boolean[] failed = new boolean[1];
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Revocations are added in order so once a serial number is
+                // revoked every smaller serial number must also be revoked.
+                for (int i = 0; i < 100; ++i) {
+                    for (int j = COUNT - 1; j >= 0; --j) {
+                        if (index.isMasterTokenRevoked(j)) {
+                            for (int k = j; k >= 0; --k) {
+                                if (!index.isMasterTokenRevoked(k))
+                                    failed[0] = true;
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < COUNT; ++i)
+            index.revokeMasterToken(i);
+        reader.join();
+        assertFalse(failed[0]);
+    }
+
+    @Test
+    public void snapshot() throws IOException {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeEntity(IDENTITY);
+        index.revokeEntity("\u00e9ntit\u00e9");
+        index.revokeMasterToken(1);
+        index.revokeMasterToken(Long.MAX_VALUE);
+        index.revokeUserIdToken(2);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.save(out);
+
+        final RevocationIndex loaded = new RevocationIndex();
+        loaded.revokeEntity("other");
+        loaded.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(5, loaded.size());
+        assertTrue(loaded.isEntityRevoked(IDENTITY));
+        assertTrue(loaded.isEntityRevoked("\u00e9ntit\u00e9"));
+        assertFalse(loaded.isEntityRevoked("other"));
+        assertTrue(loaded.isMasterTokenRevoked(1));
+        assertTrue(loaded.isMasterTokenRevoked(Long.MAX_VALUE));
+        assertTrue(loaded.isUserIdTokenRevoked(2));
+        assertFalse(loaded.isUserIdTokenRevoked(1));
+    }
+
+    @Test
+    public void badMagic() throws IOException {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeEntity(IDENTITY);
+        final byte[] snapshot = new byte[] { 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+        try {
+            index.load(new ByteArrayInputStream(snapshot));
+            fail("Malformed snapshot was accepted.");
+        } catch (final IOException e) {
+            // The index is unchanged.
+            assertTrue(index.isEntityRevoked(IDENTITY));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSnapshot() throws IOException {
+        final RevocationIndex index = new RevocationIndex();
+        index.revokeMasterToken(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.save(out);
+        final byte[] snapshot = out.toByteArray();
+        final byte[] truncated = new byte[snapshot.length - 4];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+        new RevocationIndex().load(new ByteArrayInputStream(truncated));
+    }
+
+    /** MSL context. */
+    private static MslContext ctx;
+    /** Master token. */
+    private static MasterToken masterToken;
+    /** User ID token. */
+    private static UserIdToken userIdToken;
+}
@@ -94,9 +94,16 @@ public class SimpleMslStoreTest {
         ctx = null;
     }
     
+    /**
+     * @return a new empty store to test.
+     */
+    protected MslStore newStore() {
+        return new SimpleMslStore();
+    }
+    
     @Before
     public void createStore() {
-        store = new SimpleMslStore();
+        store = newStore();
     }
     
     @After
@@ -895,6 +902,57 @@ public class SimpleMslStoreTest {
         assertEquals(0, storedUserBoundTokens.size());
     }
     
+    @Test
+    public void serviceTokenView() throws MslException {
+        final SimpleMslStore simpleStore = new SimpleMslStore();
+        final MasterToken masterToken = MslTestUtils.getMasterToken(ctx, 1, 1);
+        final UserIdToken userIdToken = MslTestUtils.getUserIdToken(ctx, masterToken, 1, MockEmailPasswordAuthenticationFactory.USER);
+        final Set<ServiceToken> userBoundTokens = MslTestUtils.getUserBoundServiceTokens(ctx, masterToken, userIdToken);
+        final Set<ServiceToken> unboundTokens = MslTestUtils.getServiceTokens(ctx, null, null);
+        simpleStore.setCryptoContext(masterToken, new NullCryptoContext());
+        simpleStore.addUserIdToken(USER_ID, userIdToken);
+        simpleStore.addServiceTokens(userBoundTokens);
+        simpleStore.addServiceTokens(unboundTokens);
+        
+        // The view is reused until the service tokens change.
+        final long version = simpleStore.getServiceTokenVersion();
+        final Set<ServiceToken> view = simpleStore.getServiceTokenView(masterToken, userIdToken);
+        assertEquals(simpleStore.getServiceTokens(masterToken, userIdToken), view);
+        assertSame(view, simpleStore.getServiceTokenView(masterToken, userIdToken));
+        assertNotSame(view, simpleStore.getServiceTokenView(null, null));
+        assertEquals(unboundTokens, simpleStore.getServiceTokenView(null, null));
+        
+        simpleStore.removeServiceTokens(null, masterToken, userIdToken);
+        assertTrue(simpleStore.getServiceTokenVersion() != version);
+        final Set<ServiceToken> updatedView = simpleStore.getServiceTokenView(masterToken, userIdToken);
+        assertNotSame(view, updatedView);
+        assertEquals(unboundTokens, updatedView);
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void unmodifiableServiceTokenView() throws MslException {
+        final SimpleMslStore simpleStore = new SimpleMslStore();
+        simpleStore.addServiceTokens(MslTestUtils.getServiceTokens(ctx, null, null));
+        simpleStore.getServiceTokenView(null, null).clear();
+    }
+    
+    @Test
+    public void boundedServiceTokenViews() throws MslException {
+        final SimpleMslStore simpleStore = new SimpleMslStore();
+        simpleStore.addServiceTokens(MslTestUtils.getServiceTokens(ctx, null, null));
+        final MasterToken first = MslTestUtils.getMasterToken(ctx, 1, 1);
+        final Set<ServiceToken> view = simpleStore.getServiceTokenView(first, null);
+        for (int i = 2; i <= SimpleMslStore.MAX_SERVICE_TOKEN_VIEWS; ++i)
+            simpleStore.getServiceTokenView(MslTestUtils.getMasterToken(ctx, 1, i), null);
+        assertSame(view, simpleStore.getServiceTokenView(first, null));
+        
+        // One more view discards the retained views.
+        simpleStore.getServiceTokenView(MslTestUtils.getMasterToken(ctx, 1, SimpleMslStore.MAX_SERVICE_TOKEN_VIEWS + 1), null);
+        final Set<ServiceToken> rebuilt = simpleStore.getServiceTokenView(first, null);
+        assertNotSame(view, rebuilt);
+        assertEquals(view, rebuilt);
+    }
+    
     @Test
     public void mismatchedGetServiceTokens() throws MslException {
         thrown.expect(MslException.class);